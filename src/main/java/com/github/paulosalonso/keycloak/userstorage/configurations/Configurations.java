@@ -5,6 +5,20 @@ public final class Configurations {
     public static final String JDBC_URL = "jdbcUrl";
     public static final String DB_USER = "dataSource.user";
     public static final String DB_PASSWORD = "dataSource.password";
+    public static final String POOL_MIN_IDLE = "minimumIdle";
+    public static final String POOL_MAX_SIZE = "maximumPoolSize";
+    public static final String POOL_IDLE_TIMEOUT = "idleTimeout";
+    public static final String POOL_CONNECTION_TIMEOUT = "connectionTimeout";
+    public static final String POOL_MAX_LIFETIME = "maxLifetime";
+    public static final String STATEMENT_CACHE_SIZE = "statement.cache.size";
+    public static final String QUERY_TIMEOUT = "query.timeout";
+    public static final String QUERY_FETCH_SIZE = "query.fetch.size";
+    public static final String ADMIN_QUERY_TIMEOUT = "admin.query.timeout";
+    public static final String CIRCUIT_BREAKER_FAILURE_THRESHOLD = "circuit.breaker.failure.threshold";
+    public static final String CIRCUIT_BREAKER_OPEN_DURATION = "circuit.breaker.open.duration";
+    public static final String BULKHEAD_MAX_CONCURRENT = "bulkhead.max.concurrent";
+    public static final String BULKHEAD_MAX_WAIT = "bulkhead.max.wait";
+    public static final String BULKHEAD_ADAPTIVE = "bulkhead.adaptive";
     public static final String USER_QUERY = "user.query.value";
     public static final String USER_ID_FIELD = "user.id.field";
     public static final String USER_USERNAME_FIELD = "user.username.field";
@@ -14,8 +28,54 @@ public final class Configurations {
     public static final String ROLE_QUERY = "role.query.value";
     public static final String ROLE_ID_FIELD = "role.id.field";
     public static final String ROLE_USER_ID_FIELD = "role.userid.field";
+    public static final String ROLE_USER_ID_LABEL = "role.userid.label";
     public static final String ROLE_NAME_FIELD = "role.name.field";
     public static final String ROLE_DESCRIPTION_FIELD = "role.description.field";
+    public static final String ROLE_BATCH_SIZE = "role.batch.size";
+    public static final String USER_ROLES_QUERY = "user.roles.query.value";
+    public static final String CREDENTIAL_QUERY = "credential.query.value";
+    public static final String PASSWORD_PREFETCH = "password.prefetch.value";
+    public static final String COMBINED_LOOKUP = "user.combined.lookup.value";
+    public static final String USER_COUNT_STRATEGY = "user.count.strategy";
+    public static final String USER_COUNT_TABLE = "user.count.table";
+    public static final String USER_COUNT_CACHE_TTL = "user.count.cache.ttl";
+    public static final String CACHE_MAX_SIZE = "cache.max.size.value";
+    public static final String CACHE_TTL = "cache.ttl.value";
+    public static final String NEGATIVE_CACHE_MAX_SIZE = "negative.cache.max.size.value";
+    public static final String NEGATIVE_CACHE_TTL = "negative.cache.ttl.value";
+    public static final String VERIFICATION_THREADS = "password.verification.threads";
+    public static final String VERIFICATION_QUEUE_SIZE = "password.verification.queue.size";
+    public static final String VERIFICATION_TIMEOUT = "password.verification.timeout";
+    public static final String CREDENTIAL_CACHE_MAX_SIZE = "credential.cache.max.size.value";
+    public static final String CREDENTIAL_CACHE_TTL = "credential.cache.ttl.value";
+    public static final String CREDENTIAL_CACHE_TRUST_CACHED_USER = "credential.cache.trust.cached.user";
+
+    public static final String DEFAULT_POOL_MIN_IDLE = "2";
+    public static final String DEFAULT_POOL_MAX_SIZE = "10";
+    public static final String DEFAULT_POOL_IDLE_TIMEOUT = "600000";
+    public static final String DEFAULT_POOL_CONNECTION_TIMEOUT = "30000";
+    public static final String DEFAULT_POOL_MAX_LIFETIME = "1800000";
+    public static final String DEFAULT_STATEMENT_CACHE_SIZE = "250";
+    public static final String DEFAULT_QUERY_TIMEOUT = "5000";
+    public static final String DEFAULT_QUERY_FETCH_SIZE = "100";
+    public static final String DEFAULT_ADMIN_QUERY_TIMEOUT = "60000";
+    public static final String DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD = "5";
+    public static final String DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION = "30000";
+    public static final String DEFAULT_BULKHEAD_MAX_CONCURRENT = "0";
+    public static final String DEFAULT_BULKHEAD_MAX_WAIT = "1000";
+    public static final String DEFAULT_BULKHEAD_ADAPTIVE = "false";
+    public static final String DEFAULT_ROLE_BATCH_SIZE = "0";
+    public static final String DEFAULT_USER_COUNT_CACHE_TTL = "0";
+    public static final String DEFAULT_CACHE_MAX_SIZE = "0";
+    public static final String DEFAULT_CACHE_TTL = "60000";
+    public static final String DEFAULT_NEGATIVE_CACHE_MAX_SIZE = "0";
+    public static final String DEFAULT_NEGATIVE_CACHE_TTL = "10000";
+    public static final String DEFAULT_VERIFICATION_THREADS = "0";
+    public static final String DEFAULT_VERIFICATION_QUEUE_SIZE = "100";
+    public static final String DEFAULT_VERIFICATION_TIMEOUT = "5000";
+    public static final String DEFAULT_CREDENTIAL_CACHE_MAX_SIZE = "0";
+    public static final String DEFAULT_CREDENTIAL_CACHE_TTL = "30000";
+    public static final String DEFAULT_CREDENTIAL_CACHE_TRUST_CACHED_USER = "false";
 
     private Configurations() {}
 
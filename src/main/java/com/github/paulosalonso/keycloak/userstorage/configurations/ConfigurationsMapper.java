@@ -4,8 +4,6 @@ import lombok.extern.slf4j.Slf4j;
 import org.keycloak.common.util.MultivaluedHashMap;
 import org.keycloak.component.ComponentModel;
 
-import java.util.Properties;
-
 import static com.github.paulosalonso.keycloak.userstorage.configurations.Configurations.*;
 
 @Slf4j
@@ -13,55 +11,79 @@ public final class ConfigurationsMapper {
 
     private ConfigurationsMapper(){}
 
-    public static Properties toProperties(ComponentModel componentModel) {
+    public static UserStorageConfiguration toConfiguration(ComponentModel componentModel) {
         MultivaluedHashMap<String, String> configurations = componentModel.getConfig();
 
-        var properties = new Properties();
-
         log.debug("################### Getting JDBC User Storage configurations ###################");
 
-        properties.put(JDBC_URL, configurations.getFirst(JDBC_URL));
-        log.debug("JDBC_URL: {}", properties.get(JDBC_URL));
-
-        properties.put(DB_USER, configurations.getFirst(DB_USER));
-        log.debug("DB_USER: {}", properties.get(DB_USER));
-
-        properties.put(DB_PASSWORD, configurations.getFirst(DB_PASSWORD));
-        log.debug("DB_PASSWORD: {}", properties.get(DB_PASSWORD));
-
-        properties.put(USER_QUERY, configurations.getFirst(USER_QUERY));
-        log.debug("USER_QUERY: {}", properties.get(USER_QUERY));
-
-        properties.put(USER_ID_FIELD, configurations.getFirst(USER_ID_FIELD));
-        log.debug("USER_ID_FIELD: {}", properties.get(USER_ID_FIELD));
-
-        properties.put(USER_USERNAME_FIELD, configurations.getFirst(USER_USERNAME_FIELD));
-        log.debug("USER_USERNAME_FIELD: {}", properties.get(USER_USERNAME_FIELD));
-
-        properties.put(USER_EMAIL_FIELD, configurations.getFirst(USER_EMAIL_FIELD));
-        log.debug("USER_EMAIL_FIELD: {}", properties.get(USER_EMAIL_FIELD));
-
-        properties.put(USER_PASSWORD_FIELD, configurations.getFirst(USER_PASSWORD_FIELD));
-        log.debug("USER_PASSWORD_FIELD: {}", properties.get(USER_PASSWORD_FIELD));
-
-        properties.put(PASSWORD_ENCODE_TYPE, configurations.getFirst(PASSWORD_ENCODE_TYPE));
-        log.debug("PASSWORD_ENCODE_TYPE: {}", properties.get(PASSWORD_ENCODE_TYPE));
-
-        properties.put(ROLE_QUERY, configurations.getFirst(ROLE_QUERY));
-        log.debug("ROLE_QUERY: {}", properties.get(ROLE_QUERY));
-
-        properties.put(ROLE_ID_FIELD, configurations.getFirst(ROLE_ID_FIELD));
-        log.debug("ROLE_ID_FIELD: {}", properties.get(ROLE_ID_FIELD));
-
-        properties.put(ROLE_NAME_FIELD, configurations.getFirst(ROLE_NAME_FIELD));
-        log.debug("ROLE_NAME_FIELD: {}", properties.get(ROLE_NAME_FIELD));
+        var configuration = UserStorageConfiguration.builder()
+                .jdbcUrl(configurations.getFirst(JDBC_URL))
+                .dbUser(configurations.getFirst(DB_USER))
+                .dbPassword(configurations.getFirst(DB_PASSWORD))
+                .poolMinIdle(getInt(configurations, POOL_MIN_IDLE, DEFAULT_POOL_MIN_IDLE))
+                .poolMaxSize(getInt(configurations, POOL_MAX_SIZE, DEFAULT_POOL_MAX_SIZE))
+                .poolIdleTimeout(getLong(configurations, POOL_IDLE_TIMEOUT, DEFAULT_POOL_IDLE_TIMEOUT))
+                .poolConnectionTimeout(getLong(configurations, POOL_CONNECTION_TIMEOUT, DEFAULT_POOL_CONNECTION_TIMEOUT))
+                .poolMaxLifetime(getLong(configurations, POOL_MAX_LIFETIME, DEFAULT_POOL_MAX_LIFETIME))
+                .statementCacheSize(getInt(configurations, STATEMENT_CACHE_SIZE, DEFAULT_STATEMENT_CACHE_SIZE))
+                .queryTimeout(getLong(configurations, QUERY_TIMEOUT, DEFAULT_QUERY_TIMEOUT))
+                .queryFetchSize(getInt(configurations, QUERY_FETCH_SIZE, DEFAULT_QUERY_FETCH_SIZE))
+                .adminQueryTimeout(getLong(configurations, ADMIN_QUERY_TIMEOUT, DEFAULT_ADMIN_QUERY_TIMEOUT))
+                .circuitBreakerFailureThreshold(getInt(configurations, CIRCUIT_BREAKER_FAILURE_THRESHOLD, DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD))
+                .circuitBreakerOpenDuration(getLong(configurations, CIRCUIT_BREAKER_OPEN_DURATION, DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION))
+                .bulkheadMaxConcurrent(getInt(configurations, BULKHEAD_MAX_CONCURRENT, DEFAULT_BULKHEAD_MAX_CONCURRENT))
+                .bulkheadMaxWait(getLong(configurations, BULKHEAD_MAX_WAIT, DEFAULT_BULKHEAD_MAX_WAIT))
+                .bulkheadAdaptive(Boolean.parseBoolean(getFirstOrDefault(configurations, BULKHEAD_ADAPTIVE, DEFAULT_BULKHEAD_ADAPTIVE)))
+                .userQuery(configurations.getFirst(USER_QUERY))
+                .userIdField(configurations.getFirst(USER_ID_FIELD))
+                .userUsernameField(configurations.getFirst(USER_USERNAME_FIELD))
+                .userEmailField(configurations.getFirst(USER_EMAIL_FIELD))
+                .userPasswordField(configurations.getFirst(USER_PASSWORD_FIELD))
+                .passwordEncodeType(PasswordEncodeType.of(
+                        getFirstOrDefault(configurations, PASSWORD_ENCODE_TYPE, PasswordEncodeType.NONE.name())))
+                .roleQuery(configurations.getFirst(ROLE_QUERY))
+                .roleIdField(configurations.getFirst(ROLE_ID_FIELD))
+                .roleNameField(configurations.getFirst(ROLE_NAME_FIELD))
+                .roleDescriptionField(configurations.getFirst(ROLE_DESCRIPTION_FIELD))
+                .roleBatchSize(getInt(configurations, ROLE_BATCH_SIZE, DEFAULT_ROLE_BATCH_SIZE))
+                .roleUserIdField(configurations.getFirst(ROLE_USER_ID_FIELD))
+                .roleUserIdLabel(getFirstOrDefault(configurations, ROLE_USER_ID_LABEL, ""))
+                .userRolesQuery(getFirstOrDefault(configurations, USER_ROLES_QUERY, ""))
+                .credentialQuery(getFirstOrDefault(configurations, CREDENTIAL_QUERY, ""))
+                .passwordPrefetch(Boolean.parseBoolean(getFirstOrDefault(configurations, PASSWORD_PREFETCH, "false")))
+                .combinedLookup(Boolean.parseBoolean(getFirstOrDefault(configurations, COMBINED_LOOKUP, "false")))
+                .userCountStrategy(UserCountStrategy.of(
+                        getFirstOrDefault(configurations, USER_COUNT_STRATEGY, UserCountStrategy.EXACT.name())))
+                .userCountTable(getFirstOrDefault(configurations, USER_COUNT_TABLE, ""))
+                .userCountCacheTtl(getLong(configurations, USER_COUNT_CACHE_TTL, DEFAULT_USER_COUNT_CACHE_TTL))
+                .cacheMaxSize(getLong(configurations, CACHE_MAX_SIZE, DEFAULT_CACHE_MAX_SIZE))
+                .cacheTtl(getLong(configurations, CACHE_TTL, DEFAULT_CACHE_TTL))
+                .negativeCacheMaxSize(getLong(configurations, NEGATIVE_CACHE_MAX_SIZE, DEFAULT_NEGATIVE_CACHE_MAX_SIZE))
+                .negativeCacheTtl(getLong(configurations, NEGATIVE_CACHE_TTL, DEFAULT_NEGATIVE_CACHE_TTL))
+                .verificationThreads(getInt(configurations, VERIFICATION_THREADS, DEFAULT_VERIFICATION_THREADS))
+                .verificationQueueSize(getInt(configurations, VERIFICATION_QUEUE_SIZE, DEFAULT_VERIFICATION_QUEUE_SIZE))
+                .verificationTimeout(getLong(configurations, VERIFICATION_TIMEOUT, DEFAULT_VERIFICATION_TIMEOUT))
+                .credentialCacheMaxSize(getLong(configurations, CREDENTIAL_CACHE_MAX_SIZE, DEFAULT_CREDENTIAL_CACHE_MAX_SIZE))
+                .credentialCacheTtl(getLong(configurations, CREDENTIAL_CACHE_TTL, DEFAULT_CREDENTIAL_CACHE_TTL))
+                .credentialCacheTrustCachedUser(Boolean.parseBoolean(
+                        getFirstOrDefault(configurations, CREDENTIAL_CACHE_TRUST_CACHED_USER, DEFAULT_CREDENTIAL_CACHE_TRUST_CACHED_USER)))
+                .build();
+
+        log.debug("{}", configuration);
+
+        return configuration;
+    }
 
-        properties.put(ROLE_DESCRIPTION_FIELD, configurations.getFirst(ROLE_DESCRIPTION_FIELD));
-        log.debug("ROLE_DESCRIPTION_FIELD: {}", properties.get(ROLE_DESCRIPTION_FIELD));
+    private static int getInt(MultivaluedHashMap<String, String> configurations, String key, String defaultValue) {
+        return Integer.parseInt(getFirstOrDefault(configurations, key, defaultValue));
+    }
 
-        properties.put(ROLE_USER_ID_FIELD, configurations.getFirst(ROLE_USER_ID_FIELD));
-        log.debug("ROLE_USER_ID_FIELD: {}", properties.get(ROLE_USER_ID_FIELD));
+    private static long getLong(MultivaluedHashMap<String, String> configurations, String key, String defaultValue) {
+        return Long.parseLong(getFirstOrDefault(configurations, key, defaultValue));
+    }
 
-        return properties;
+    private static String getFirstOrDefault(MultivaluedHashMap<String, String> configurations, String key, String defaultValue) {
+        var value = configurations.getFirst(key);
+        return value == null || value.isBlank() ? defaultValue : value;
     }
 }
@@ -1,37 +1,69 @@
 package com.github.paulosalonso.keycloak.userstorage.configurations;
 
-import com.github.paulosalonso.keycloak.userstorage.data.database.ConnectionFactory;
-import lombok.extern.slf4j.Slf4j;
 import org.keycloak.component.ComponentModel;
 import org.keycloak.component.ComponentValidationException;
 
 import java.sql.Connection;
+import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.List;
 
-import static com.github.paulosalonso.keycloak.userstorage.configurations.ConfigurationsMapper.toProperties;
+import static com.github.paulosalonso.keycloak.userstorage.configurations.ConfigurationsMapper.toConfiguration;
 
-@Slf4j
 public final class ConfigurationsValidator {
 
     private ConfigurationsValidator(){}
 
+    /**
+     * Checks the database properties with a single connection opened straight from the driver, instead of a pool
+     * that would keep retrying to connect to an unreachable database until its connection timeout elapses.
+     */
     public static void validate(ComponentModel componentModel) {
-        Connection connection = null;
-
         try {
-            var properties = toProperties(componentModel);
-            connection = new ConnectionFactory(properties).getConnection();
+            var configuration = toConfiguration(componentModel);
+
+            try (var connection = DriverManager.getConnection(
+                    configuration.getJdbcUrl(), configuration.getDbUser(), configuration.getDbPassword())) {
+                validateRoleBatch(configuration, connection);
+            }
+        } catch (ComponentValidationException e) {
+            throw e;
         } catch (Exception e) {
             throw new ComponentValidationException("Database properties are invalid: " + getRootCause(e), e);
-        } finally {
-            try {
-                if (connection != null) {
-                    connection.close();
+        }
+    }
+
+    /**
+     * Role batches read the user id of each role row by its label, so the role query must select it under a
+     * label of its own. Role fields are read by their names without the table qualifier, so they are compared that
+     * way. The label is checked with a query that returns no row.
+     */
+    private static void validateRoleBatch(UserStorageConfiguration configuration, Connection connection) throws SQLException {
+        if (configuration.getRoleBatchSize() <= 0) {
+            return;
+        }
+
+        var label = configuration.getRoleUserIdLabel();
+        var roleFields = List.of(configuration.getRoleIdField(), configuration.getRoleNameField(),
+                configuration.getRoleDescriptionField());
+
+        if (roleFields.stream().map(field -> field.substring(field.lastIndexOf('.') + 1)).anyMatch(label::equalsIgnoreCase)) {
+            throw new ComponentValidationException("Role user id label clashes with a role field: " + label
+                    + ". Select the user id with an alias and use it as role user id label.");
+        }
+
+        try (var statement = connection.prepareStatement(configuration.getRoleQuery() + " WHERE 1 = 0");
+             var resultSet = statement.executeQuery()) {
+            var metaData = resultSet.getMetaData();
+
+            for (int column = 1; column <= metaData.getColumnCount(); column++) {
+                if (label.equalsIgnoreCase(metaData.getColumnLabel(column))) {
+                    return;
                 }
-            } catch (SQLException e) {
-                log.warn("An error occurred when validating database connection", e);
             }
         }
+
+        throw new ComponentValidationException("Role query must select the role user id label to load roles in batches: " + label);
     }
 
     private static String getRootCause(Throwable e) {
@@ -8,6 +8,9 @@ import static java.util.stream.Collectors.toList;
 public enum PasswordEncodeType {
     BCRYPT,
     MD5,
+    SHA1,
+    SHA256,
+    SHA512,
     NONE;
 
     public static List<String> asStringList() {
@@ -0,0 +1,26 @@
+package com.github.paulosalonso.keycloak.userstorage.configurations;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+
+public enum UserCountStrategy {
+    EXACT,
+    MYSQL_ESTIMATE,
+    POSTGRESQL_ESTIMATE;
+
+    public static List<String> asStringList() {
+        return Arrays.stream(values()).map(Enum::name).collect(toList());
+    }
+
+    public static UserCountStrategy of(String name) {
+        for (var strategy : values()) {
+            if (strategy.name().equals(name)) {
+                return strategy;
+            }
+        }
+
+        throw new IllegalArgumentException("Invalid user count strategy: " + name);
+    }
+}
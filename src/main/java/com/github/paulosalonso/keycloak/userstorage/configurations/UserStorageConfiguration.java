@@ -0,0 +1,120 @@
+package com.github.paulosalonso.keycloak.userstorage.configurations;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+import static com.github.paulosalonso.keycloak.userstorage.configurations.Configurations.*;
+
+/**
+ * Immutable, typed view of the component configuration. It is built once per runtime, so requests read plain
+ * final fields instead of parsing the configuration values.
+ */
+@Getter
+@Builder
+@ToString
+public class UserStorageConfiguration {
+
+    private final String jdbcUrl;
+    private final String dbUser;
+    @ToString.Exclude
+    private final String dbPassword;
+    @Builder.Default
+    private final int poolMinIdle = Integer.parseInt(DEFAULT_POOL_MIN_IDLE);
+    @Builder.Default
+    private final int poolMaxSize = Integer.parseInt(DEFAULT_POOL_MAX_SIZE);
+    @Builder.Default
+    private final long poolIdleTimeout = Long.parseLong(DEFAULT_POOL_IDLE_TIMEOUT);
+    @Builder.Default
+    private final long poolConnectionTimeout = Long.parseLong(DEFAULT_POOL_CONNECTION_TIMEOUT);
+    @Builder.Default
+    private final long poolMaxLifetime = Long.parseLong(DEFAULT_POOL_MAX_LIFETIME);
+    @Builder.Default
+    private final int statementCacheSize = Integer.parseInt(DEFAULT_STATEMENT_CACHE_SIZE);
+    @Builder.Default
+    private final long queryTimeout = Long.parseLong(DEFAULT_QUERY_TIMEOUT);
+    @Builder.Default
+    private final int queryFetchSize = Integer.parseInt(DEFAULT_QUERY_FETCH_SIZE);
+    @Builder.Default
+    private final long adminQueryTimeout = Long.parseLong(DEFAULT_ADMIN_QUERY_TIMEOUT);
+    @Builder.Default
+    private final int circuitBreakerFailureThreshold = Integer.parseInt(DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD);
+    @Builder.Default
+    private final long circuitBreakerOpenDuration = Long.parseLong(DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION);
+    @Builder.Default
+    private final int bulkheadMaxConcurrent = Integer.parseInt(DEFAULT_BULKHEAD_MAX_CONCURRENT);
+    @Builder.Default
+    private final long bulkheadMaxWait = Long.parseLong(DEFAULT_BULKHEAD_MAX_WAIT);
+    @Builder.Default
+    private final boolean bulkheadAdaptive = Boolean.parseBoolean(DEFAULT_BULKHEAD_ADAPTIVE);
+
+    private final String userQuery;
+    private final String userIdField;
+    private final String userUsernameField;
+    private final String userEmailField;
+    private final String userPasswordField;
+    @Builder.Default
+    private final PasswordEncodeType passwordEncodeType = PasswordEncodeType.NONE;
+
+    private final String roleQuery;
+    private final String roleIdField;
+    private final String roleNameField;
+    private final String roleDescriptionField;
+    @Builder.Default
+    private final int roleBatchSize = Integer.parseInt(DEFAULT_ROLE_BATCH_SIZE);
+    private final String roleUserIdField;
+    @Builder.Default
+    private final String roleUserIdLabel = "";
+
+    @Builder.Default
+    private final String userRolesQuery = "";
+    @Builder.Default
+    private final String credentialQuery = "";
+    private final boolean passwordPrefetch;
+    private final boolean combinedLookup;
+
+    @Builder.Default
+    private final UserCountStrategy userCountStrategy = UserCountStrategy.EXACT;
+    @Builder.Default
+    private final String userCountTable = "";
+    @Builder.Default
+    private final long userCountCacheTtl = Long.parseLong(DEFAULT_USER_COUNT_CACHE_TTL);
+
+    @Builder.Default
+    private final long cacheMaxSize = Long.parseLong(DEFAULT_CACHE_MAX_SIZE);
+    @Builder.Default
+    private final long cacheTtl = Long.parseLong(DEFAULT_CACHE_TTL);
+    @Builder.Default
+    private final long negativeCacheMaxSize = Long.parseLong(DEFAULT_NEGATIVE_CACHE_MAX_SIZE);
+    @Builder.Default
+    private final long negativeCacheTtl = Long.parseLong(DEFAULT_NEGATIVE_CACHE_TTL);
+
+    @Builder.Default
+    private final int verificationThreads = Integer.parseInt(DEFAULT_VERIFICATION_THREADS);
+    @Builder.Default
+    private final int verificationQueueSize = Integer.parseInt(DEFAULT_VERIFICATION_QUEUE_SIZE);
+    @Builder.Default
+    private final long verificationTimeout = Long.parseLong(DEFAULT_VERIFICATION_TIMEOUT);
+    @Builder.Default
+    private final long credentialCacheMaxSize = Long.parseLong(DEFAULT_CREDENTIAL_CACHE_MAX_SIZE);
+    @Builder.Default
+    private final long credentialCacheTtl = Long.parseLong(DEFAULT_CREDENTIAL_CACHE_TTL);
+    @Builder.Default
+    private final boolean credentialCacheTrustCachedUser = Boolean.parseBoolean(DEFAULT_CREDENTIAL_CACHE_TRUST_CACHED_USER);
+
+    /**
+     * Label of the role user id field in the rows of the role query: the configured label or, when empty, the
+     * field without its table qualifier.
+     */
+    public String getRoleUserIdLabel() {
+        if (!roleUserIdLabel.isBlank() || roleUserIdField == null) {
+            return roleUserIdLabel;
+        }
+
+        return roleUserIdField.substring(roleUserIdField.lastIndexOf('.') + 1);
+    }
+
+    public boolean isJoinedLookup() {
+        return !userRolesQuery.isBlank();
+    }
+}
@@ -0,0 +1,121 @@
+package com.github.paulosalonso.keycloak.userstorage.data.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import com.github.paulosalonso.keycloak.userstorage.data.model.Role;
+import com.github.paulosalonso.keycloak.userstorage.data.model.User;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Users and roles shared by all sessions of a federation component. Users are stored by id, and the username
+ * and email indexes point to the id, so an evicted user is simply read again. Passwords are never cached.
+ * <p>
+ * Usernames and emails that matched no user are remembered in a separate, short lived negative cache. Each part
+ * can be disabled with a maximum size of zero.
+ */
+public class UserCache {
+
+    private final Cache<String, User> users;
+    private final Cache<String, String> userIdsByUsername;
+    private final Cache<String, String> userIdsByEmail;
+    private final Cache<String, List<Role>> roles;
+    private final Cache<String, Boolean> missingUsernames;
+    private final Cache<String, Boolean> missingEmails;
+
+    public UserCache(UserStorageConfiguration configuration) {
+        var maximumSize = configuration.getCacheMaxSize();
+        var timeToLive = Duration.ofMillis(configuration.getCacheTtl());
+
+        users = newCache(maximumSize, timeToLive);
+        userIdsByUsername = newCache(maximumSize, timeToLive);
+        userIdsByEmail = newCache(maximumSize, timeToLive);
+        roles = newCache(maximumSize, timeToLive);
+
+        var negativeMaximumSize = configuration.getNegativeCacheMaxSize();
+        var negativeTimeToLive = Duration.ofMillis(configuration.getNegativeCacheTtl());
+
+        missingUsernames = newCache(negativeMaximumSize, negativeTimeToLive);
+        missingEmails = newCache(negativeMaximumSize, negativeTimeToLive);
+    }
+
+    public static boolean isEnabled(UserStorageConfiguration configuration) {
+        return configuration.getCacheMaxSize() > 0 || configuration.getNegativeCacheMaxSize() > 0;
+    }
+
+    public Optional<User> getById(String id) {
+        return Optional.ofNullable(users.getIfPresent(id));
+    }
+
+    public Optional<User> getByUsername(String username) {
+        return Optional.ofNullable(userIdsByUsername.getIfPresent(username)).flatMap(this::getById);
+    }
+
+    public Optional<User> getByEmail(String email) {
+        return Optional.ofNullable(userIdsByEmail.getIfPresent(email)).flatMap(this::getById);
+    }
+
+    public void put(User user) {
+        users.put(user.getId(), user.toBuilder().password(null).build());
+        userIdsByUsername.put(user.getUsername(), user.getId());
+        missingUsernames.invalidate(user.getUsername());
+
+        if (user.getEmail() != null) {
+            userIdsByEmail.put(user.getEmail(), user.getId());
+            missingEmails.invalidate(user.getEmail());
+        }
+    }
+
+    public boolean isMissingUsername(String username) {
+        return missingUsernames.getIfPresent(username) != null;
+    }
+
+    public void putMissingUsername(String username) {
+        missingUsernames.put(username, Boolean.TRUE);
+    }
+
+    public boolean isMissingEmail(String email) {
+        return missingEmails.getIfPresent(email) != null;
+    }
+
+    public void putMissingEmail(String email) {
+        missingEmails.put(email, Boolean.TRUE);
+    }
+
+    public Optional<List<Role>> getRoles(String userId) {
+        return Optional.ofNullable(roles.getIfPresent(userId));
+    }
+
+    public void putRoles(String userId, List<Role> userRoles) {
+        roles.put(userId, userRoles);
+    }
+
+    public CacheStats getUserStats() {
+        return users.stats();
+    }
+
+    public CacheStats getRoleStats() {
+        return roles.stats();
+    }
+
+    public CacheStats getMissingUserStats() {
+        return missingUsernames.stats().plus(missingEmails.stats());
+    }
+
+    /*
+     * Maintenance runs on the calling thread, so a cache with maximum size zero drops each entry before put
+     * returns and behaves as disabled.
+     */
+    private static <V> Cache<String, V> newCache(long maximumSize, Duration timeToLive) {
+        return Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(timeToLive)
+                .executor(Runnable::run)
+                .recordStats()
+                .build();
+    }
+}
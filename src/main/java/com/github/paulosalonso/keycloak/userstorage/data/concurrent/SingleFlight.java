@@ -0,0 +1,49 @@
+package com.github.paulosalonso.keycloak.userstorage.data.concurrent;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls for the same key: the first caller runs the loader and every caller that arrives
+ * while it is running waits for and receives the same result, or the same exception or error. Nothing is kept
+ * once the call completes.
+ */
+public class SingleFlight<K, V> {
+
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    public V execute(K key, Supplier<V> loader) {
+        var call = new CompletableFuture<V>();
+        var runningCall = inFlight.putIfAbsent(key, call);
+
+        if (runningCall != null) {
+            return await(runningCall);
+        }
+
+        try {
+            var result = loader.get();
+            call.complete(result);
+            return result;
+        } catch (Throwable e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, call);
+        }
+    }
+
+    private static <V> V await(CompletableFuture<V> call) {
+        try {
+            return call.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+
+            throw (RuntimeException) e.getCause();
+        }
+    }
+}
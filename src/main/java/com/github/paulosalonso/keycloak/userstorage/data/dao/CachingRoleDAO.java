@@ -0,0 +1,49 @@
+package com.github.paulosalonso.keycloak.userstorage.data.dao;
+
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import com.github.paulosalonso.keycloak.userstorage.data.cache.UserCache;
+import com.github.paulosalonso.keycloak.userstorage.data.database.StatementExecutor;
+import com.github.paulosalonso.keycloak.userstorage.data.mapper.RoleMapper;
+import com.github.paulosalonso.keycloak.userstorage.data.model.Role;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CachingRoleDAO extends RoleDAO {
+
+    private final UserCache cache;
+
+    public CachingRoleDAO(StatementExecutor executor, UserStorageConfiguration configuration, RoleMapper mapper, UserCache cache) {
+        super(executor, configuration, mapper);
+        this.cache = cache;
+    }
+
+    @Override
+    public List<Role> getRolesByUserId(String userId) {
+        return cache.getRoles(userId).orElseGet(() -> {
+            var roles = super.getRolesByUserId(userId);
+            cache.putRoles(userId, roles);
+            return roles;
+        });
+    }
+
+    @Override
+    public Map<String, List<Role>> getRolesByUserIds(Collection<String> userIds) {
+        var roles = new HashMap<String, List<Role>>();
+        var uncachedIds = new ArrayList<String>();
+
+        userIds.forEach(userId -> cache.getRoles(userId)
+                .ifPresentOrElse(userRoles -> roles.put(userId, userRoles), () -> uncachedIds.add(userId)));
+
+        if (!uncachedIds.isEmpty()) {
+            var loadedRoles = super.getRolesByUserIds(uncachedIds);
+            loadedRoles.forEach(cache::putRoles);
+            roles.putAll(loadedRoles);
+        }
+
+        return roles;
+    }
+}
@@ -0,0 +1,46 @@
+package com.github.paulosalonso.keycloak.userstorage.data.dao;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import com.github.paulosalonso.keycloak.userstorage.data.database.StatementExecutor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+
+/**
+ * Keeps the user count for the configured time to live, so paging through the admin console counts the users
+ * once instead of on every page. Concurrent requests for an expired count wait for a single count query. When
+ * counting fails, like an exact count cancelled by the query timeout, the last count read is returned instead.
+ */
+@Slf4j
+public class CachingUserCountDAO extends UserCountDAO {
+
+    private static final String COUNT_KEY = "count";
+
+    private final Cache<String, Integer> cache;
+    private volatile Integer lastCount;
+
+    public CachingUserCountDAO(StatementExecutor executor, UserStorageConfiguration configuration) {
+        super(executor, configuration);
+        cache = Caffeine.newBuilder()
+                .maximumSize(1)
+                .expireAfterWrite(Duration.ofMillis(configuration.getUserCountCacheTtl()))
+                .build();
+    }
+
+    @Override
+    public int countUsers() {
+        try {
+            lastCount = cache.get(COUNT_KEY, key -> super.countUsers());
+        } catch (RuntimeException e) {
+            if (lastCount == null) {
+                throw e;
+            }
+
+            log.warn("User count failed, returning the last count read: {}", e.getMessage());
+        }
+
+        return lastCount;
+    }
+}
@@ -0,0 +1,89 @@
+package com.github.paulosalonso.keycloak.userstorage.data.dao;
+
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import com.github.paulosalonso.keycloak.userstorage.data.cache.UserCache;
+import com.github.paulosalonso.keycloak.userstorage.data.database.StatementExecutor;
+import com.github.paulosalonso.keycloak.userstorage.data.mapper.UserMapper;
+import com.github.paulosalonso.keycloak.userstorage.data.model.User;
+import com.github.paulosalonso.keycloak.userstorage.data.model.UserMatches;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Optional;
+
+@Slf4j
+public class CachingUserDAO extends UserDAO {
+
+    private final UserCache cache;
+
+    public CachingUserDAO(StatementExecutor executor, UserStorageConfiguration configuration, UserMapper mapper, UserCache cache) {
+        super(executor, configuration, mapper);
+        this.cache = cache;
+    }
+
+    @Override
+    public Optional<User> findById(String id) {
+        return cache.getById(id).or(() -> store(super.findById(id)));
+    }
+
+    @Override
+    public Optional<User> findByUsername(String name) {
+        if (cache.isMissingUsername(name)) {
+            log.debug("Username {} is known to be missing", name);
+            return Optional.empty();
+        }
+
+        return cache.getByUsername(name)
+                .or(() -> store(super.findByUsername(name), () -> cache.putMissingUsername(name)));
+    }
+
+    @Override
+    public Optional<User> findByEmail(String email) {
+        if (cache.isMissingEmail(email)) {
+            log.debug("Email {} is known to be missing", email);
+            return Optional.empty();
+        }
+
+        return cache.getByEmail(email)
+                .or(() -> store(super.findByEmail(email), () -> cache.putMissingEmail(email)));
+    }
+
+    /**
+     * Answers from the cache when it already knows the email, or knows it is missing and also knows the username.
+     * Otherwise both outcomes of the query are cached.
+     */
+    @Override
+    public UserMatches findByUsernameOrEmail(String value) {
+        var cachedByEmail = cache.getByEmail(value);
+
+        if (cachedByEmail.isPresent()) {
+            return new UserMatches(null, cachedByEmail.get());
+        }
+
+        if (cache.isMissingEmail(value)) {
+            if (cache.isMissingUsername(value)) {
+                log.debug("Username and email {} are known to be missing", value);
+                return new UserMatches(null, null);
+            }
+
+            var cachedUser = cache.getByUsername(value);
+
+            if (cachedUser.isPresent()) {
+                return new UserMatches(cachedUser.get(), null);
+            }
+        }
+
+        var matches = super.findByUsernameOrEmail(value);
+        store(matches.getByUsername(), () -> cache.putMissingUsername(value));
+        store(matches.getByEmail(), () -> cache.putMissingEmail(value));
+        return matches;
+    }
+
+    private Optional<User> store(Optional<User> user) {
+        return store(user, () -> {});
+    }
+
+    private Optional<User> store(Optional<User> user, Runnable onMissing) {
+        user.ifPresentOrElse(cache::put, onMissing);
+        return user;
+    }
+}
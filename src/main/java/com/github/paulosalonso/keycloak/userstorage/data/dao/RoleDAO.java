@@ -1,49 +1,69 @@
 package com.github.paulosalonso.keycloak.userstorage.data.dao;
 
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import com.github.paulosalonso.keycloak.userstorage.data.concurrent.SingleFlight;
 import com.github.paulosalonso.keycloak.userstorage.data.database.StatementExecutor;
 import com.github.paulosalonso.keycloak.userstorage.data.mapper.RoleMapper;
 import com.github.paulosalonso.keycloak.userstorage.data.model.Role;
 import lombok.extern.slf4j.Slf4j;
 
-import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Properties;
-
-import static com.github.paulosalonso.keycloak.userstorage.configurations.Configurations.ROLE_QUERY;
-import static com.github.paulosalonso.keycloak.userstorage.configurations.Configurations.ROLE_USER_ID_FIELD;
+import java.util.Map;
 
 @Slf4j
 public class RoleDAO {
 
     private static final String QUERY_PLACEHOLDER = "%s WHERE %s = ?";
+    private static final String BATCH_QUERY_PLACEHOLDER = "%s WHERE %s IN (%s)";
 
     private final StatementExecutor executor;
     private final RoleMapper mapper;
     private final String query;
+    private final String batchQuery;
+    private final int batchSize;
+    private final SingleFlight<String, List<Role>> calls = new SingleFlight<>();
 
-    public RoleDAO(StatementExecutor executor, Properties properties, RoleMapper mapper) {
+    public RoleDAO(StatementExecutor executor, UserStorageConfiguration configuration, RoleMapper mapper) {
         this.executor = executor;
         this.mapper = mapper;
-        query = String.format(QUERY_PLACEHOLDER,
-                properties.getProperty(ROLE_QUERY), properties.getProperty(ROLE_USER_ID_FIELD));
+        query = String.format(QUERY_PLACEHOLDER, configuration.getRoleQuery(), configuration.getRoleUserIdField());
+        batchSize = Math.max(configuration.getRoleBatchSize(), 1);
+        batchQuery = String.format(BATCH_QUERY_PLACEHOLDER, configuration.getRoleQuery(),
+                configuration.getRoleUserIdField(), String.join(", ", Collections.nCopies(batchSize, "?")));
     }
 
     public List<Role> getRolesByUserId(String userId) {
-        return executor.executeStatement(connection -> {
-
+        return calls.execute(userId, () -> {
             log.debug("Searching roles by user id {} with query: {}", userId, query);
+            return executor.executeQuery(query, userId, mapper::map);
+        });
+    }
 
-            try {
-                var statement = connection.prepareStatement(query);
-                statement.setString(1, userId);
-                statement.execute();
+    /**
+     * Loads the roles of many users with one query per batch of ids, up to the configured batch size. Every batch
+     * binds the same number of parameters, the last one repeating its last id, so a single prepared statement
+     * serves all of them. Users without roles are mapped to an empty list.
+     */
+    public Map<String, List<Role>> getRolesByUserIds(Collection<String> userIds) {
+        var ids = new ArrayList<>(userIds);
+        var roles = new HashMap<String, List<Role>>();
 
-                var resultSet = statement.getResultSet();
+        for (int from = 0; from < ids.size(); from += batchSize) {
+            var batch = new ArrayList<>(ids.subList(from, Math.min(from + batchSize, ids.size())));
 
-                return mapper.map(resultSet);
-            } catch (SQLException e) {
-                throw new RuntimeException(e);
+            while (batch.size() < batchSize) {
+                batch.add(batch.get(batch.size() - 1));
             }
-        });
+
+            log.debug("Searching roles by user ids {} with query: {}", batch, batchQuery);
+            roles.putAll(executor.executeBatchQuery(batchQuery, batch, mapper::mapByUserId));
+        }
+
+        ids.forEach(id -> roles.putIfAbsent(id, List.of()));
+        return roles;
     }
 }
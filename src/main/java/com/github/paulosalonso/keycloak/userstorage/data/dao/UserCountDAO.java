@@ -0,0 +1,74 @@
+package com.github.paulosalonso.keycloak.userstorage.data.dao;
+
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserCountStrategy;
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import com.github.paulosalonso.keycloak.userstorage.data.database.StatementExecutor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Counts the users listed by the admin console. The exact strategy runs {@code COUNT(*)} over the user query,
+ * which reads every user. The estimate strategies read the row count the database keeps in its statistics for
+ * the user table instead, answering at once at the price of precision. When the database has no estimate for
+ * the table, like a PostgreSQL table never analyzed, the users are counted exactly.
+ */
+@Slf4j
+public class UserCountDAO {
+
+    private static final String COUNT_PLACEHOLDER = "SELECT COUNT(*) FROM (%s) users";
+    private static final String MYSQL_ESTIMATE_QUERY =
+            "SELECT TABLE_ROWS FROM information_schema.TABLES WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?";
+    private static final String POSTGRESQL_ESTIMATE_QUERY = "SELECT reltuples::bigint FROM pg_class WHERE oid = to_regclass(?)";
+
+    private final StatementExecutor executor;
+    private final String countQuery;
+    private final String estimateQuery;
+    private final String table;
+
+    public UserCountDAO(StatementExecutor executor, UserStorageConfiguration configuration) {
+        this.executor = executor;
+        this.countQuery = String.format(COUNT_PLACEHOLDER, configuration.getUserQuery());
+        this.table = configuration.getUserCountTable();
+        this.estimateQuery = getEstimateQuery(configuration.getUserCountStrategy(), table);
+    }
+
+    public int countUsers() {
+        if (estimateQuery != null) {
+            log.debug("Estimating users of table {} with query: {}", table, estimateQuery);
+            var estimate = executor.executeQuery(estimateQuery, table, UserCountDAO::readEstimate);
+
+            if (estimate >= 0) {
+                return (int) Math.min(estimate, Integer.MAX_VALUE);
+            }
+
+            log.debug("There is no estimate for table {}, counting users exactly", table);
+        }
+
+        log.debug("Counting users with query: {}", countQuery);
+        return executor.executeQuery(countQuery, resultSet -> resultSet.next() ? resultSet.getInt(1) : 0);
+    }
+
+    private static String getEstimateQuery(UserCountStrategy strategy, String table) {
+        if (strategy == UserCountStrategy.EXACT) {
+            return null;
+        }
+
+        if (table.isBlank()) {
+            log.warn("User count strategy {} needs the user count table, counting users exactly", strategy);
+            return null;
+        }
+
+        return strategy == UserCountStrategy.MYSQL_ESTIMATE ? MYSQL_ESTIMATE_QUERY : POSTGRESQL_ESTIMATE_QUERY;
+    }
+
+    private static long readEstimate(ResultSet resultSet) throws SQLException {
+        if (!resultSet.next()) {
+            return -1;
+        }
+
+        var estimate = resultSet.getLong(1);
+        return resultSet.wasNull() ? -1 : estimate;
+    }
+}
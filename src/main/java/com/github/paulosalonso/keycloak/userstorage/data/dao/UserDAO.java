@@ -1,97 +1,139 @@
 package com.github.paulosalonso.keycloak.userstorage.data.dao;
 
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import com.github.paulosalonso.keycloak.userstorage.data.concurrent.SingleFlight;
 import com.github.paulosalonso.keycloak.userstorage.data.database.StatementExecutor;
 import com.github.paulosalonso.keycloak.userstorage.data.mapper.UserMapper;
 import com.github.paulosalonso.keycloak.userstorage.data.model.User;
-import lombok.RequiredArgsConstructor;
+import com.github.paulosalonso.keycloak.userstorage.data.model.UserMatches;
 import lombok.extern.slf4j.Slf4j;
 
-import java.sql.SQLException;
+import java.util.List;
 import java.util.Optional;
-import java.util.Properties;
-
-import static com.github.paulosalonso.keycloak.userstorage.configurations.Configurations.*;
+import java.util.regex.Pattern;
 
 @Slf4j
-@RequiredArgsConstructor
 public class UserDAO {
 
+    private static final String QUERY_PLACEHOLDER = "%s WHERE %s = ?";
+    private static final String EITHER_QUERY_PLACEHOLDER = "%s WHERE %s = ? OR %s = ?";
+    private static final Pattern FROM_KEYWORD = Pattern.compile("FROM\\s", Pattern.CASE_INSENSITIVE);
+    private static final String MATCH_COLUMNS_PLACEHOLDER = ", CASE WHEN %s = ? THEN 1 ELSE 0 END AS %s, CASE WHEN %s = ? THEN 1 ELSE 0 END AS %s";
+
     private final StatementExecutor executor;
-    private final Properties properties;
     private final UserMapper mapper;
+    private final String findByIdQuery;
+    private final String findByUsernameQuery;
+    private final String findByEmailQuery;
+    private final String findByUsernameOrEmailQuery;
+    private final String findPasswordByUserIdQuery;
+    private final String passwordField;
+    private final SingleFlight<String, Optional<User>> findByIdCalls = new SingleFlight<>();
+    private final SingleFlight<String, Optional<User>> findByUsernameCalls = new SingleFlight<>();
+    private final SingleFlight<String, Optional<User>> findByEmailCalls = new SingleFlight<>();
+    private final SingleFlight<String, UserMatches> findByUsernameOrEmailCalls = new SingleFlight<>();
+
+    public UserDAO(StatementExecutor executor, UserStorageConfiguration configuration, UserMapper mapper) {
+        this.executor = executor;
+        this.mapper = mapper;
+
+        var userQuery = configuration.getUserQuery();
+        var lookupQuery = firstNonBlank(configuration.getUserRolesQuery(), userQuery);
+        var credentialQuery = firstNonBlank(configuration.getCredentialQuery(), userQuery);
+
+        findByIdQuery = compileQuery(lookupQuery, configuration.getUserIdField());
+        findByUsernameQuery = compileQuery(lookupQuery, configuration.getUserUsernameField());
+        findByEmailQuery = compileQuery(lookupQuery, configuration.getUserEmailField());
+        findByUsernameOrEmailQuery = configuration.isCombinedLookup()
+                ? compileEitherQuery(lookupQuery, configuration.getUserUsernameField(), configuration.getUserEmailField())
+                : null;
+        findPasswordByUserIdQuery = compileQuery(credentialQuery, configuration.getUserIdField());
+        passwordField = configuration.getUserPasswordField();
+    }
 
     public Optional<User> findById(String id) {
-        return executor.executeStatement(connection -> {
-            try {
-                var statement = connection.prepareStatement(prepareQuery(USER_ID_FIELD));
-                statement.setString(1, id);
-                statement.execute();
-
-                var resultSet = statement.getResultSet();
-
-                return mapper.map(resultSet);
-            } catch (SQLException e) {
-                throw new RuntimeException(e);
-            }
+        return findByIdCalls.execute(id, () -> {
+            log.debug("Searching user by id {} with query: {}", id, findByIdQuery);
+            return executor.executeQuery(findByIdQuery, id, mapper::map);
         });
     }
 
     public Optional<User> findByUsername(String name) {
-        return executor.executeStatement(connection -> {
-            try {
-                var statement = connection.prepareStatement(prepareQuery(USER_USERNAME_FIELD));
-                statement.setString(1, name);
-                statement.execute();
-
-                var resultSet = statement.getResultSet();
-
-                return mapper.map(resultSet);
-            } catch (SQLException e) {
-                throw new RuntimeException("Error when finding user", e);
-            }
+        return findByUsernameCalls.execute(name, () -> {
+            log.debug("Searching user by username {} with query: {}", name, findByUsernameQuery);
+            return executor.executeQuery(findByUsernameQuery, name, mapper::map);
         });
     }
 
     public Optional<User> findByEmail(String email) {
-        return executor.executeStatement(connection -> {
-            try {
-                var statement = connection.prepareStatement(prepareQuery(USER_EMAIL_FIELD));
-                statement.setString(1, email);
-                statement.execute();
-
-                var resultSet = statement.getResultSet();
+        return findByEmailCalls.execute(email, () -> {
+            log.debug("Searching user by email {} with query: {}", email, findByEmailQuery);
+            return executor.executeQuery(findByEmailQuery, email, mapper::map);
+        });
+    }
 
-                return mapper.map(resultSet);
-            } catch (SQLException e) {
-                throw new RuntimeException("Error when finding user", e);
-            }
+    /**
+     * Searches the value as username and as email with one query. A single predicate with OR lets the database
+     * combine the username and email indexes, and returns each matching user once. The query also tells which of
+     * the fields each user matched, so the users are classified with the collation of the database.
+     */
+    public UserMatches findByUsernameOrEmail(String value) {
+        return findByUsernameOrEmailCalls.execute(value, () -> {
+            log.debug("Searching user by username or email {} with query: {}", value, findByUsernameOrEmailQuery);
+            return executor.executeBatchQuery(findByUsernameOrEmailQuery, List.of(value, value, value, value), mapper::mapMatches);
         });
     }
 
     public Optional<String> findPasswordByUserId(String id) {
-        return executor.executeStatement(connection -> {
-            try {
-                var statement = connection.prepareStatement(prepareQuery(USER_ID_FIELD));
-                statement.setString(1, id);
-                statement.execute();
+        log.debug("Searching password by user id {} with query: {}", id, findPasswordByUserIdQuery);
 
-                var resultSet = statement.getResultSet();
+        return executor.executeQuery(findPasswordByUserIdQuery, id, resultSet -> resultSet.next()
+                ? Optional.of(resultSet.getString(passwordField))
+                : Optional.empty());
+    }
 
-                if (resultSet.next()) {
-                    return Optional.of(resultSet.getString(properties.getProperty(USER_PASSWORD_FIELD)));
-                }
+    private static String compileQuery(String query, String wantedField) {
+        return String.format(QUERY_PLACEHOLDER, query, wantedField);
+    }
 
-                return Optional.empty();
-            } catch (SQLException e) {
-                throw new RuntimeException("Error when finding user password", e);
+    /**
+     * The match markers are added at the end of the select list, so the columns of the lookup query keep the
+     * positions the mappers resolved for the other lookups.
+     */
+    private static String compileEitherQuery(String query, String usernameField, String emailField) {
+        var matchColumns = String.format(MATCH_COLUMNS_PLACEHOLDER, usernameField, UserMapper.USERNAME_MATCH_LABEL,
+                emailField, UserMapper.EMAIL_MATCH_LABEL);
+        var from = indexOfFrom(query);
+
+        return String.format(EITHER_QUERY_PLACEHOLDER, query.substring(0, from) + matchColumns + query.substring(from),
+                usernameField, emailField);
+    }
+
+    /**
+     * Finds the FROM keyword of the outer query, skipping the ones of subqueries in parentheses, or the end of the
+     * query when there is none.
+     */
+    private static int indexOfFrom(String query) {
+        var depth = 0;
+
+        for (int i = 0; i < query.length(); i++) {
+            var character = query.charAt(i);
+
+            if (character == '(') {
+                depth++;
+            } else if (character == ')') {
+                depth--;
+            } else if (depth == 0 && Character.isWhitespace(character)
+                    && FROM_KEYWORD.matcher(query).region(i + 1, query.length()).lookingAt()) {
+                return i;
             }
-        });
+        }
+
+        return query.length();
     }
 
-    private String prepareQuery(String wantedField) {
-        var query = String.format("%s WHERE %s = ?", properties.getProperty(USER_QUERY), properties.getProperty(wantedField));
-        log.debug("Searching user with query: {}", query);
-        return query;
+    private static String firstNonBlank(String preferred, String fallback) {
+        return preferred == null || preferred.isBlank() ? fallback : preferred;
     }
 
 }
@@ -0,0 +1,162 @@
+package com.github.paulosalonso.keycloak.userstorage.data.dao;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import com.github.paulosalonso.keycloak.userstorage.data.database.StatementExecutor;
+import com.github.paulosalonso.keycloak.userstorage.data.mapper.UserMapper;
+import com.github.paulosalonso.keycloak.userstorage.data.model.User;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Lists and searches users page by page. Pages are read with keyset pagination on the id column: the query of a
+ * page starts after the last id of the previous page, so the database seeks the id index instead of reading and
+ * discarding every row before the offset.
+ * <p>
+ * Keycloak asks for pages by offset, so the last id of each page read is remembered as the start of the page
+ * that follows it. A page without a known start, like a jump straight to a distant page, is read from the first
+ * row.
+ */
+@Slf4j
+public class UserQueryDAO {
+
+    private static final String LIST_PLACEHOLDER = "%s ORDER BY %s";
+    private static final String LIST_AFTER_PLACEHOLDER = "%s WHERE %s > ? ORDER BY %s";
+    private static final String SEARCH_PLACEHOLDER =
+            "%s WHERE (LOWER(%s) LIKE ? ESCAPE '!' OR LOWER(%s) LIKE ? ESCAPE '!') ORDER BY %s";
+    private static final String SEARCH_AFTER_PLACEHOLDER =
+            "%s WHERE (LOWER(%s) LIKE ? ESCAPE '!' OR LOWER(%s) LIKE ? ESCAPE '!') AND %s > ? ORDER BY %s";
+    private static final String SEARCH_COUNT_PLACEHOLDER =
+            "SELECT COUNT(*) FROM (%s WHERE (LOWER(%s) LIKE ? ESCAPE '!' OR LOWER(%s) LIKE ? ESCAPE '!')) users";
+    private static final long MAX_PAGE_STARTS = 1000;
+    private static final Duration PAGE_START_TTL = Duration.ofMinutes(10);
+
+    private final StatementExecutor executor;
+    private final UserMapper mapper;
+    private final String listQuery;
+    private final String listAfterQuery;
+    private final String searchQuery;
+    private final String searchAfterQuery;
+    private final String searchCountQuery;
+    private final Cache<String, String> pageStarts = Caffeine.newBuilder()
+            .maximumSize(MAX_PAGE_STARTS)
+            .expireAfterWrite(PAGE_START_TTL)
+            .build();
+
+    public UserQueryDAO(StatementExecutor executor, UserStorageConfiguration configuration, UserMapper mapper) {
+        this.executor = executor;
+        this.mapper = mapper;
+
+        var query = configuration.getUserQuery();
+        var id = configuration.getUserIdField();
+        var username = configuration.getUserUsernameField();
+        var email = configuration.getUserEmailField();
+
+        listQuery = String.format(LIST_PLACEHOLDER, query, id);
+        listAfterQuery = String.format(LIST_AFTER_PLACEHOLDER, query, id, id);
+        searchQuery = String.format(SEARCH_PLACEHOLDER, query, username, email, id);
+        searchAfterQuery = String.format(SEARCH_AFTER_PLACEHOLDER, query, username, email, id, id);
+        searchCountQuery = String.format(SEARCH_COUNT_PLACEHOLDER, query, username, email);
+    }
+
+    /**
+     * Streams a page of users ordered by id. A blank search or {@code *} lists every user, any other search is
+     * matched ignoring case anywhere in the username or email, with {@code *} as wildcard. A negative
+     * {@code maxResults} reads every user from the offset on.
+     */
+    public Stream<User> findUsers(String search, int firstResult, int maxResults) {
+        if (maxResults == 0) {
+            return Stream.empty();
+        }
+
+        var pattern = toPattern(search);
+        var first = Math.max(firstResult, 0);
+        var start = first > 0 ? pageStarts.getIfPresent(pageKey(pattern, first)) : null;
+        Stream<User> users;
+
+        if (first == 0 || start != null) {
+            users = query(pattern, start, Math.max(maxResults, 0));
+        } else {
+            log.debug("Start of the page at {} is unknown, reading it from the first user", first);
+            users = query(pattern, null, maxResults > 0 ? first + maxResults : 0).skip(first);
+        }
+
+        return maxResults > 0 ? rememberNextPageStart(users, pattern, first, maxResults) : users;
+    }
+
+    /**
+     * Counts the users matched by a search with a {@code COUNT(*)} query, so no matching user is read. A search
+     * that lists every user is counted by the {@link UserCountDAO} instead.
+     */
+    public int countUsers(String search) {
+        var pattern = toPattern(search);
+
+        if (pattern == null) {
+            throw new IllegalArgumentException("Search lists every user: " + search);
+        }
+
+        log.debug("Counting users with query: {}", searchCountQuery);
+        return executor.executeQuery(searchCountQuery, pattern, pattern,
+                resultSet -> resultSet.next() ? resultSet.getInt(1) : 0);
+    }
+
+    /**
+     * Tells whether the search lists every user instead of matching some of them.
+     */
+    public static boolean isListing(String search) {
+        return toPattern(search) == null;
+    }
+
+    private Stream<User> query(String pattern, String start, int maxRows) {
+        if (pattern == null) {
+            return start == null
+                    ? stream(listQuery, maxRows)
+                    : stream(listAfterQuery, maxRows, start);
+        }
+
+        return start == null
+                ? stream(searchQuery, maxRows, pattern, pattern)
+                : stream(searchAfterQuery, maxRows, pattern, pattern, start);
+    }
+
+    private Stream<User> stream(String query, int maxRows, String... parameters) {
+        log.debug("Streaming up to {} users with query: {}", maxRows, query);
+        return executor.executeStreamingQuery(query, maxRows, mapper::mapCurrent, parameters);
+    }
+
+    private Stream<User> rememberNextPageStart(Stream<User> users, String pattern, int first, int maxResults) {
+        var read = new AtomicInteger();
+
+        return users.peek(user -> {
+            if (read.incrementAndGet() == maxResults) {
+                pageStarts.put(pageKey(pattern, first + maxResults), user.getId());
+            }
+        });
+    }
+
+    /**
+     * The {@code %} and {@code _} typed in a search are matched literally, escaped with {@code !}: unlike the
+     * backslash, it needs no escaping inside a string literal of either MySQL or PostgreSQL.
+     */
+    private static String toPattern(String search) {
+        if (search == null || search.isBlank() || search.trim().equals("*")) {
+            return null;
+        }
+
+        var escaped = search.trim().toLowerCase(Locale.ROOT)
+                .replace("!", "!!")
+                .replace("%", "!%")
+                .replace("_", "!_");
+
+        return "%" + escaped.replace('*', '%') + "%";
+    }
+
+    private static String pageKey(String pattern, int firstResult) {
+        return firstResult + ":" + (pattern == null ? "" : pattern);
+    }
+}
@@ -0,0 +1,145 @@
+package com.github.paulosalonso.keycloak.userstorage.data.database;
+
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the queries a federation component runs at the same time, so one busy realm can not take every
+ * connection of the shared database. Queries beyond the limit wait up to the configured time for a slot and are
+ * shed after that.
+ * <p>
+ * In adaptive mode the limit follows the latency gradient: it shrinks while the smoothed query latency grows above
+ * the lowest latency observed, which means queries are queueing in the database, and grows back up to the
+ * configured maximum as latency recovers.
+ */
+@Slf4j
+public class Bulkhead {
+
+    static final int MIN_LATENCY_RESET_SAMPLES = 1000;
+
+    private static final double SMOOTHING = 0.1;
+    private static final double MIN_GRADIENT = 0.5;
+
+    private final int maxLimit;
+    private final long maxWait;
+    private final boolean adaptive;
+    private final AdjustableSemaphore permits;
+    private final LongAdder rejections = new LongAdder();
+
+    private volatile int limit;
+    private long minLatency = Long.MAX_VALUE;
+    private double smoothedLatency;
+    private int samples;
+
+    public Bulkhead(UserStorageConfiguration configuration) {
+        maxLimit = configuration.getBulkheadMaxConcurrent();
+        maxWait = configuration.getBulkheadMaxWait();
+        adaptive = configuration.isBulkheadAdaptive();
+        limit = maxLimit;
+        permits = new AdjustableSemaphore(Math.max(maxLimit, 0));
+    }
+
+    public boolean isEnabled() {
+        return maxLimit > 0;
+    }
+
+    /**
+     * Takes a query slot, waiting up to the configured time for one. Returns false when the query must be shed.
+     */
+    public boolean tryAcquire() {
+        if (!isEnabled()) {
+            return true;
+        }
+
+        try {
+            if (permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        rejections.increment();
+        return false;
+    }
+
+    /**
+     * Returns the slot taken by {@link #tryAcquire()} and, in adaptive mode, feeds the query latency to the limit.
+     */
+    public void release(long latencyNanos) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        if (adaptive) {
+            adjustLimit(latencyNanos);
+        }
+
+        permits.release();
+    }
+
+    /**
+     * Returns the slot taken by {@link #tryAcquire()} without a latency sample, for a query that failed.
+     */
+    public void release() {
+        if (isEnabled()) {
+            permits.release();
+        }
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return limit - permits.availablePermits();
+    }
+
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    private synchronized void adjustLimit(long latencyNanos) {
+        var latency = Math.max(1, latencyNanos);
+
+        if (++samples >= MIN_LATENCY_RESET_SAMPLES) {
+            samples = 0;
+            minLatency = (long) smoothedLatency;
+        }
+
+        minLatency = Math.min(minLatency, latency);
+        smoothedLatency = smoothedLatency == 0 ? latency : smoothedLatency * (1 - SMOOTHING) + latency * SMOOTHING;
+
+        var gradient = Math.max(MIN_GRADIENT, Math.min(1, minLatency / smoothedLatency));
+        var newLimit = (int) Math.max(1, Math.min(maxLimit, Math.round(limit * gradient + Math.sqrt(limit))));
+
+        if (newLimit == limit) {
+            return;
+        }
+
+        if (newLimit > limit) {
+            permits.release(newLimit - limit);
+        } else {
+            permits.reducePermits(limit - newLimit);
+        }
+
+        log.debug("Concurrent query limit changed from {} to {}", limit, newLimit);
+        limit = newLimit;
+    }
+
+    private static class AdjustableSemaphore extends Semaphore {
+
+        AdjustableSemaphore(int permits) {
+            super(permits);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.github.paulosalonso.keycloak.userstorage.data.database;
+
+/**
+ * Thrown instead of running a statement when the {@link Bulkhead} has no free query slot within the wait time.
+ */
+public class BulkheadFullException extends RuntimeException {
+
+    public BulkheadFullException() {
+        super("Concurrent query limit reached");
+    }
+}
@@ -0,0 +1,148 @@
+package com.github.paulosalonso.keycloak.userstorage.data.database;
+
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops sending statements to the database after a run of consecutive failures. While open, every statement is
+ * rejected without touching the pool. Once the open duration elapses a single probe is let through: its success
+ * closes the circuit and its failure opens it for another period.
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openDurationNanos;
+    private final LongSupplier nanoClock;
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder halfOpened = new LongAdder();
+    private final LongAdder closed = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    private volatile State state = State.CLOSED;
+    private volatile int failures;
+    private long openedAt;
+    private boolean probing;
+
+    public CircuitBreaker(UserStorageConfiguration configuration) {
+        this(configuration, System::nanoTime);
+    }
+
+    CircuitBreaker(UserStorageConfiguration configuration, LongSupplier nanoClock) {
+        failureThreshold = configuration.getCircuitBreakerFailureThreshold();
+        openDurationNanos = TimeUnit.MILLISECONDS.toNanos(configuration.getCircuitBreakerOpenDuration());
+        this.nanoClock = nanoClock;
+    }
+
+    public boolean tryAcquire() {
+        return state == State.CLOSED || tryAcquireWhileUnhealthy();
+    }
+
+    public void onSuccess() {
+        if (state == State.CLOSED && failures == 0) {
+            return;
+        }
+
+        synchronized (this) {
+            failures = 0;
+            probing = false;
+
+            if (state != State.CLOSED) {
+                transitionTo(State.CLOSED);
+            }
+        }
+    }
+
+    /**
+     * Gives back a probe let through by {@link #tryAcquire()} for a statement that never reached the database,
+     * so the next statement may probe it instead.
+     */
+    public void release() {
+        if (state == State.CLOSED) {
+            return;
+        }
+
+        synchronized (this) {
+            probing = false;
+        }
+    }
+
+    public void onFailure() {
+        if (failureThreshold <= 0) {
+            return;
+        }
+
+        synchronized (this) {
+            failures++;
+            probing = false;
+
+            if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold)) {
+                openedAt = nanoClock.getAsLong();
+                transitionTo(State.OPEN);
+            }
+        }
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getOpened() {
+        return opened.sum();
+    }
+
+    public long getHalfOpened() {
+        return halfOpened.sum();
+    }
+
+    public long getClosed() {
+        return closed.sum();
+    }
+
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    private synchronized boolean tryAcquireWhileUnhealthy() {
+        if (state == State.OPEN) {
+            if (nanoClock.getAsLong() - openedAt < openDurationNanos) {
+                rejections.increment();
+                return false;
+            }
+
+            transitionTo(State.HALF_OPEN);
+        }
+
+        if (probing) {
+            rejections.increment();
+            return false;
+        }
+
+        probing = true;
+        return true;
+    }
+
+    private void transitionTo(State next) {
+        log.warn("Database circuit breaker changed from {} to {}", state, next);
+        state = next;
+
+        switch (next) {
+            case OPEN:
+                opened.increment();
+                break;
+            case HALF_OPEN:
+                halfOpened.increment();
+                break;
+            default:
+                closed.increment();
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.github.paulosalonso.keycloak.userstorage.data.database;
+
+/**
+ * Thrown instead of running a statement while the {@link CircuitBreaker} considers the database unhealthy.
+ */
+public class CircuitOpenException extends RuntimeException {
+
+    public CircuitOpenException() {
+        super("Database circuit breaker is open");
+    }
+}
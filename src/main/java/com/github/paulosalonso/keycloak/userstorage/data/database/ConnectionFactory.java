@@ -1,25 +1,86 @@
 package com.github.paulosalonso.keycloak.userstorage.data.database;
 
-import lombok.RequiredArgsConstructor;
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
 
+import java.io.Closeable;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
-import java.util.Properties;
 
-import static com.github.paulosalonso.keycloak.userstorage.configurations.Configurations.*;
+public class ConnectionFactory implements Closeable {
 
-@RequiredArgsConstructor
-public class ConnectionFactory {
+    private final HikariDataSource dataSource;
 
-    private final Properties properties;
+    public ConnectionFactory(UserStorageConfiguration configuration) {
+        dataSource = new HikariDataSource(toHikariConfig(configuration));
+    }
 
     public Connection getConnection() {
         try {
-            return DriverManager.getConnection(properties.getProperty(JDBC_URL),
-                    properties.getProperty(DB_USER), properties.getProperty(DB_PASSWORD));
+            return dataSource.getConnection();
         } catch (SQLException e) {
             throw new RuntimeException("Error acquiring database connection", e);
         }
     }
+
+    @Override
+    public void close() {
+        dataSource.close();
+    }
+
+    /**
+     * The pool starts without connecting to the database, so a database that is down when the runtime starts does
+     * not fail building the pool. Its connection failures reach the circuit breaker with the first statements.
+     */
+    private static HikariConfig toHikariConfig(UserStorageConfiguration configuration) {
+        var config = new HikariConfig();
+        config.setJdbcUrl(configuration.getJdbcUrl());
+        config.setUsername(configuration.getDbUser());
+        config.setPassword(configuration.getDbPassword());
+        config.setMinimumIdle(configuration.getPoolMinIdle());
+        config.setMaximumPoolSize(configuration.getPoolMaxSize());
+        config.setIdleTimeout(configuration.getPoolIdleTimeout());
+        config.setConnectionTimeout(configuration.getPoolConnectionTimeout());
+        config.setMaxLifetime(configuration.getPoolMaxLifetime());
+        config.setInitializationFailTimeout(-1);
+        configureStatementCache(config, configuration);
+        configureCursorFetch(config, configuration);
+        return config;
+    }
+
+    /**
+     * Hikari does not cache statements itself, so the cache of the JDBC driver is enabled for the drivers that
+     * keep one per connection. Other drivers keep their own defaults.
+     */
+    private static void configureStatementCache(HikariConfig config, UserStorageConfiguration configuration) {
+        var cacheSize = configuration.getStatementCacheSize();
+        var jdbcUrl = configuration.getJdbcUrl();
+
+        if (cacheSize <= 0 || jdbcUrl == null) {
+            return;
+        }
+
+        if (jdbcUrl.startsWith("jdbc:mysql:") || jdbcUrl.startsWith("jdbc:mariadb:")) {
+            config.addDataSourceProperty("cachePrepStmts", "true");
+            config.addDataSourceProperty("useServerPrepStmts", "true");
+            config.addDataSourceProperty("prepStmtCacheSize", String.valueOf(cacheSize));
+            config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        } else if (jdbcUrl.startsWith("jdbc:postgresql:")) {
+            config.addDataSourceProperty("prepareThreshold", "1");
+            config.addDataSourceProperty("preparedStatementCacheQueries", String.valueOf(cacheSize));
+        }
+    }
+
+    /**
+     * MySQL Connector/J reads the whole result set into memory unless it is told to fetch it through a server
+     * cursor, in which case it honours the fetch size of the statement. The other drivers need no property.
+     */
+    private static void configureCursorFetch(HikariConfig config, UserStorageConfiguration configuration) {
+        var jdbcUrl = configuration.getJdbcUrl();
+
+        if (configuration.getQueryFetchSize() > 0 && jdbcUrl != null && jdbcUrl.startsWith("jdbc:mysql:")) {
+            config.addDataSourceProperty("useCursorFetch", "true");
+        }
+    }
 }
@@ -0,0 +1,73 @@
+package com.github.paulosalonso.keycloak.userstorage.data.database;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Keeps one pooled connection for the statements of a Keycloak session. The connection is borrowed on the first
+ * statement, so sessions answered from the caches never touch the pool, and returned when the lease is closed.
+ */
+@Slf4j
+public class ConnectionLease implements Closeable {
+
+    private final ConnectionFactory connectionFactory;
+    private final Runnable onClose;
+    private Connection connection;
+    private boolean closed;
+
+    ConnectionLease(ConnectionFactory connectionFactory, Runnable onClose) {
+        this.connectionFactory = connectionFactory;
+        this.onClose = onClose;
+    }
+
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    Connection getConnection() {
+        if (closed) {
+            throw new IllegalStateException("Connection lease is closed");
+        }
+
+        if (connection == null) {
+            connection = connectionFactory.getConnection();
+        }
+
+        return connection;
+    }
+
+    /**
+     * Returns the connection to the pool and keeps the lease open, so a connection left unusable by a failed
+     * statement is not reused by the next one, and no connection is held while the session waits on something
+     * else. The next statement borrows a connection again.
+     */
+    public void release() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                log.warn("Error closing leased connection", e);
+            } finally {
+                connection = null;
+            }
+        }
+    }
+
+    /**
+     * Closing the lease again does nothing, so the close callback runs once and a runtime counting its open leases
+     * is not told twice about the same one.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        release();
+        onClose.run();
+    }
+}
@@ -0,0 +1,10 @@
+package com.github.paulosalonso.keycloak.userstorage.data.database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+@FunctionalInterface
+public interface ResultSetHandler<T> {
+
+    T handle(ResultSet resultSet) throws SQLException;
+}
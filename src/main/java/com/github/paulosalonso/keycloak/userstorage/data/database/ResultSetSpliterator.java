@@ -0,0 +1,68 @@
+package com.github.paulosalonso.keycloak.userstorage.data.database;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * Rows of an open result set, mapped one at a time as the stream reading them advances. The result set and its
+ * statement are closed, and the close action run, once the rows are exhausted, reading them fails or the stream
+ * is closed.
+ */
+@Slf4j
+class ResultSetSpliterator<T> extends Spliterators.AbstractSpliterator<T> {
+
+    private final Statement statement;
+    private final ResultSet resultSet;
+    private final ResultSetHandler<T> rowMapper;
+    private final Runnable onClose;
+    private boolean closed;
+
+    ResultSetSpliterator(Statement statement, ResultSet resultSet, ResultSetHandler<T> rowMapper, Runnable onClose) {
+        super(Long.MAX_VALUE, ORDERED | NONNULL);
+        this.statement = statement;
+        this.resultSet = resultSet;
+        this.rowMapper = rowMapper;
+        this.onClose = onClose;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (closed) {
+            return false;
+        }
+
+        try {
+            if (!resultSet.next()) {
+                close();
+                return false;
+            }
+
+            action.accept(rowMapper.handle(resultSet));
+            return true;
+        } catch (SQLException e) {
+            close();
+            throw new RuntimeException("Error reading query results", e);
+        }
+    }
+
+    void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        try (statement; resultSet) {
+            log.debug("Closing streamed query");
+        } catch (SQLException e) {
+            log.warn("Error closing streamed query", e);
+        } finally {
+            onClose.run();
+        }
+    }
+}
@@ -1,17 +1,242 @@
 package com.github.paulosalonso.keycloak.userstorage.data.database;
 
-import lombok.RequiredArgsConstructor;
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import lombok.extern.slf4j.Slf4j;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-@RequiredArgsConstructor
+@Slf4j
 public class StatementExecutor {
 
     private final ConnectionFactory connectionFactory;
+    private final CircuitBreaker circuitBreaker;
+    private final Bulkhead bulkhead;
+    private final int queryTimeoutSeconds;
+    private final int fetchSize;
+    private final ThreadLocal<ConnectionLease> leases;
 
+    public StatementExecutor(ConnectionFactory connectionFactory, CircuitBreaker circuitBreaker, Bulkhead bulkhead,
+                             UserStorageConfiguration configuration) {
+        this.connectionFactory = connectionFactory;
+        this.circuitBreaker = circuitBreaker;
+        this.bulkhead = bulkhead;
+        queryTimeoutSeconds = toSeconds(configuration.getQueryTimeout());
+        fetchSize = configuration.getQueryFetchSize();
+        leases = new ThreadLocal<>();
+    }
+
+    private StatementExecutor(StatementExecutor executor, long queryTimeout) {
+        connectionFactory = executor.connectionFactory;
+        circuitBreaker = null;
+        bulkhead = null;
+        queryTimeoutSeconds = toSeconds(queryTimeout);
+        fetchSize = executor.fetchSize;
+        leases = executor.leases;
+    }
+
+    /**
+     * Returns an executor for the queries of the admin console, sharing the pool and the connection leases of this
+     * one. Its statements run with the given timeout, and neither the circuit breaker nor the bulkhead guards
+     * them: a slow listing or count of every user says nothing about the health of the database for logins, and
+     * must neither open the circuit nor hold the slots and shrink the limit of the bulkhead while it runs.
+     */
+    public StatementExecutor forAdminQueries(long queryTimeout) {
+        return new StatementExecutor(this, queryTimeout);
+    }
+
+    /**
+     * Binds a new lease to the current thread, so the statements it runs until the lease is closed share one
+     * pooled connection. Closing it restores the lease that was bound before, if any.
+     */
+    public ConnectionLease openLease() {
+        return openLease(() -> {});
+    }
+
+    /**
+     * Binds a new lease like {@link #openLease()} and runs the given callback once the lease is closed.
+     */
+    public ConnectionLease openLease(Runnable onClose) {
+        var previous = leases.get();
+        var lease = new ConnectionLease[1];
+
+        lease[0] = new ConnectionLease(connectionFactory, () -> {
+            if (leases.get() == lease[0]) {
+                restore(previous);
+            }
+
+            onClose.run();
+        });
+
+        leases.set(lease[0]);
+
+        return lease[0];
+    }
+
+    /**
+     * Runs the statement once the bulkhead grants a query slot. It fails fast with a {@link CircuitOpenException}
+     * while the circuit breaker is open, and with a {@link BulkheadFullException} when no slot frees up in time.
+     * Any failure counts towards opening the circuit, except a connection acquire timeout of a pool that is only
+     * exhausted: it means the database is busy serving this component, not that it is down.
+     */
     public <T> T executeStatement(Function<Connection, T> statement) {
+        return guard(() -> execute(statement));
+    }
+
+    /**
+     * Runs a query with a single string parameter on a pooled connection. The statement and the result set are
+     * closed before the connection returns to the pool, so the driver can release the server cursor and put the
+     * statement back in its cache. The driver cancels the query when it runs longer than the configured timeout.
+     */
+    public <T> T executeQuery(String query, String parameter, ResultSetHandler<T> handler) {
+        return query(query, handler, parameter);
+    }
+
+    /**
+     * Same as {@link #executeQuery(String, String, ResultSetHandler)} for a query without parameters.
+     */
+    public <T> T executeQuery(String query, ResultSetHandler<T> handler) {
+        return query(query, handler);
+    }
+
+    /**
+     * Same as {@link #executeQuery(String, String, ResultSetHandler)} for a query with two string parameters.
+     */
+    public <T> T executeQuery(String query, String firstParameter, String secondParameter, ResultSetHandler<T> handler) {
+        return query(query, handler, firstParameter, secondParameter);
+    }
+
+    /**
+     * Same as {@link #executeQuery(String, String, ResultSetHandler)} for a query with one string parameter per
+     * item of the list, like an {@code IN} clause or a value compared more than once.
+     */
+    public <T> T executeBatchQuery(String query, List<String> parameters, ResultSetHandler<T> handler) {
+        return query(query, handler, parameters.toArray(String[]::new));
+    }
+
+    /**
+     * Runs a query and returns its rows as a stream that maps them one at a time while it is consumed, reading
+     * them from the database in batches of the configured fetch size, so no page of users is ever held in a list.
+     * At most {@code maxRows} rows are read, or every row when it is zero.
+     * <p>
+     * Drivers like PostgreSQL's only read a result set through a cursor inside a transaction, so a connection in
+     * auto-commit mode reads the rows in a transaction of its own, ended when the statement is closed.
+     * <p>
+     * Only the execution of the query is guarded by the bulkhead and the circuit breaker. The statement is closed
+     * when the rows are exhausted or the stream is closed, and so is the connection when it is not leased. A leased
+     * connection keeps serving the session and closes a cursor left open when it is released.
+     */
+    public <T> Stream<T> executeStreamingQuery(String query, int maxRows, ResultSetHandler<T> rowMapper,
+                                               String... parameters) {
+        var boundLease = Optional.ofNullable(leases.get()).filter(ConnectionLease::isOpen).orElse(null);
+        var lease = boundLease != null ? boundLease : new ConnectionLease(connectionFactory, () -> {});
+        Runnable onClose = boundLease != null ? () -> {} : lease::close;
+
+        var rows = guard(() -> executeLeased(lease, connection -> {
+            try {
+                var ownTransaction = fetchSize > 0 && connection.getAutoCommit();
+
+                if (ownTransaction) {
+                    connection.setAutoCommit(false);
+                }
+
+                var statement = prepare(connection, query, parameters);
+                statement.setFetchSize(fetchSize);
+                statement.setMaxRows(maxRows);
+                return new ResultSetSpliterator<>(statement, statement.executeQuery(), rowMapper,
+                        ownTransaction ? () -> endTransaction(connection, onClose) : onClose);
+            } catch (SQLException e) {
+                throw new RuntimeException("Error executing query", e);
+            }
+        }));
+
+        return StreamSupport.stream(rows, false).onClose(rows::close);
+    }
+
+    private <T> T query(String query, ResultSetHandler<T> handler, String... parameters) {
+        return executeStatement(connection -> {
+            try (var statement = prepare(connection, query, parameters)) {
+                try (var resultSet = statement.executeQuery()) {
+                    return handler.handle(resultSet);
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException("Error executing query", e);
+            }
+        });
+    }
+
+    private PreparedStatement prepare(Connection connection, String query, String... parameters) throws SQLException {
+        var statement = connection.prepareStatement(query);
+        statement.setQueryTimeout(queryTimeoutSeconds);
+
+        for (int i = 0; i < parameters.length; i++) {
+            statement.setString(i + 1, parameters[i]);
+        }
+
+        return statement;
+    }
+
+    /**
+     * The circuit breaker is checked before a bulkhead slot is taken, so a rejected statement never holds a slot.
+     * Only statements that succeeded feed their latency to the bulkhead: a failure says nothing about how busy the
+     * database is, and a fast one would pin the lowest latency near zero and collapse an adaptive limit. The
+     * executor for admin queries has neither and runs its statements unguarded.
+     */
+    private <T> T guard(Supplier<T> statement) {
+        if (circuitBreaker == null) {
+            return statement.get();
+        }
+
+        if (!circuitBreaker.tryAcquire()) {
+            throw new CircuitOpenException();
+        }
+
+        if (!bulkhead.tryAcquire()) {
+            circuitBreaker.release();
+            throw new BulkheadFullException();
+        }
+
+        var start = System.nanoTime();
+        var latency = -1L;
+
+        try {
+            var result = statement.get();
+            latency = System.nanoTime() - start;
+            circuitBreaker.onSuccess();
+            return result;
+        } catch (RuntimeException e) {
+            if (isPoolExhausted(e)) {
+                circuitBreaker.release();
+            } else {
+                circuitBreaker.onFailure();
+            }
+
+            throw e;
+        } finally {
+            if (latency < 0) {
+                bulkhead.release();
+            } else {
+                bulkhead.release(latency);
+            }
+        }
+    }
+
+    private <T> T execute(Function<Connection, T> statement) {
+        var lease = leases.get();
+
+        if (lease != null && lease.isOpen()) {
+            return executeLeased(lease, statement);
+        }
+
         Connection connection = null;
 
         try {
@@ -28,4 +253,48 @@ public class StatementExecutor {
         }
     }
 
+    private <T> T executeLeased(ConnectionLease lease, Function<Connection, T> statement) {
+        try {
+            return statement.apply(lease.getConnection());
+        } catch (RuntimeException e) {
+            lease.release();
+            throw e;
+        }
+    }
+
+    /**
+     * A failure here is only logged: the rows were already read, and a connection left in a transaction is rolled
+     * back and put back in auto-commit mode by the pool when it is closed.
+     */
+    private static void endTransaction(Connection connection, Runnable onClose) {
+        try {
+            connection.rollback();
+            connection.setAutoCommit(true);
+        } catch (SQLException e) {
+            log.warn("Error ending streamed query transaction", e);
+        } finally {
+            onClose.run();
+        }
+    }
+
+    private void restore(ConnectionLease previous) {
+        if (previous != null && previous.isOpen()) {
+            leases.set(previous);
+        } else {
+            leases.remove();
+        }
+    }
+
+    /**
+     * Hikari times out with a {@link SQLTransientConnectionException} both when every connection is in use and
+     * when it can not open new ones. Only in the latter case it carries the last connection failure as cause.
+     */
+    private static boolean isPoolExhausted(RuntimeException e) {
+        return e.getCause() instanceof SQLTransientConnectionException && e.getCause().getCause() == null;
+    }
+
+    private static int toSeconds(long millis) {
+        return (int) TimeUnit.MILLISECONDS.toSeconds(millis + 999);
+    }
+
 }
@@ -0,0 +1,69 @@
+package com.github.paulosalonso.keycloak.userstorage.data.mapper;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Resolves the indexes of a fixed set of column labels from the metadata of the first result set and reuses
+ * them for every following row and result set, so each instance must serve a single query shape. Labels are
+ * matched ignoring case and, like {@link ResultSet#getString(String)}, the first matching column wins. A field
+ * qualified with its table, like {@code u.id}, is labelled by the database without the qualifier, so it falls back
+ * to the column labelled with the unqualified name.
+ */
+class ColumnIndexes {
+
+    private final String[] labels;
+    private volatile int[] indexes;
+
+    ColumnIndexes(String... labels) {
+        this.labels = labels;
+    }
+
+    int[] resolve(ResultSet resultSet) throws SQLException {
+        var resolved = indexes;
+
+        if (resolved == null) {
+            resolved = lookup(resultSet);
+            indexes = resolved;
+        }
+
+        return resolved;
+    }
+
+    private int[] lookup(ResultSet resultSet) throws SQLException {
+        var metaData = resultSet.getMetaData();
+        var columnCount = metaData.getColumnCount();
+        var resolved = new int[labels.length];
+
+        for (int i = 0; i < labels.length; i++) {
+            resolved[i] = indexOf(labels[i], metaData, columnCount);
+        }
+
+        return resolved;
+    }
+
+    private static int indexOf(String label, ResultSetMetaData metaData, int columnCount) throws SQLException {
+        var column = find(label, metaData, columnCount);
+
+        if (column == 0) {
+            column = find(label.substring(label.lastIndexOf('.') + 1), metaData, columnCount);
+        }
+
+        if (column == 0) {
+            throw new SQLException("Column not found in result set: " + label);
+        }
+
+        return column;
+    }
+
+    private static int find(String label, ResultSetMetaData metaData, int columnCount) throws SQLException {
+        for (int column = 1; column <= columnCount; column++) {
+            if (label.equalsIgnoreCase(metaData.getColumnLabel(column))) {
+                return column;
+            }
+        }
+
+        return 0;
+    }
+}
@@ -0,0 +1,58 @@
+package com.github.paulosalonso.keycloak.userstorage.data.mapper;
+
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import com.github.paulosalonso.keycloak.userstorage.data.model.Role;
+import com.github.paulosalonso.keycloak.userstorage.data.model.User;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Maps the result of the user with roles query, where each row carries the user fields and one of its roles.
+ */
+public class JoinedUserMapper extends UserMapper {
+
+    private final RoleMapper roleMapper;
+
+    public JoinedUserMapper(UserStorageConfiguration configuration, RoleMapper roleMapper) {
+        super(configuration);
+        this.roleMapper = roleMapper;
+    }
+
+    @Override
+    public Optional<User> map(ResultSet resultSet) throws SQLException {
+        if (!resultSet.next()) {
+            return Optional.empty();
+        }
+
+        var user = mapRow(resultSet);
+        var roles = new ArrayList<Role>();
+
+        do {
+            roleMapper.addRow(resultSet, roles);
+        } while (resultSet.next());
+
+        return Optional.of(user.roles(roles).build());
+    }
+
+    /**
+     * Maps the rows of each user found into one user with all its roles, whatever the order of the rows.
+     */
+    @Override
+    protected List<User> mapAll(ResultSet resultSet, RowConsumer consumer) throws SQLException {
+        var users = new LinkedHashMap<String, User>();
+
+        while (resultSet.next()) {
+            var row = mapRow(resultSet).roles(new ArrayList<>()).build();
+            var user = users.computeIfAbsent(row.getId(), id -> row);
+            roleMapper.addRow(resultSet, user.getRoles());
+            consumer.accept(user, resultSet);
+        }
+
+        return new ArrayList<>(users.values());
+    }
+}
@@ -1,32 +1,69 @@
 package com.github.paulosalonso.keycloak.userstorage.data.mapper;
 
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
 import com.github.paulosalonso.keycloak.userstorage.data.model.Role;
-import lombok.RequiredArgsConstructor;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Properties;
+import java.util.Map;
 
-import static com.github.paulosalonso.keycloak.userstorage.configurations.Configurations.*;
-
-@RequiredArgsConstructor
 public class RoleMapper {
 
-    private final Properties properties;
+    private static final int ID = 0;
+    private static final int NAME = 1;
+    private static final int DESCRIPTION = 2;
+
+    private final ColumnIndexes columns;
+    private final ColumnIndexes userIdColumn;
+
+    public RoleMapper(UserStorageConfiguration configuration) {
+        columns = new ColumnIndexes(configuration.getRoleIdField(), configuration.getRoleNameField(),
+                configuration.getRoleDescriptionField());
+        userIdColumn = new ColumnIndexes(configuration.getRoleUserIdLabel());
+    }
 
     public List<Role> map(ResultSet resultSet) throws SQLException {
         var roles = new ArrayList<Role>();
 
         while(resultSet.next()) {
-            roles.add(Role.builder()
-                    .id(resultSet.getString(properties.getProperty(ROLE_ID_FIELD)))
-                    .name(resultSet.getString(properties.getProperty(ROLE_NAME_FIELD)))
-                    .description(resultSet.getString(properties.getProperty(ROLE_DESCRIPTION_FIELD)))
-                    .build());
+            addRow(resultSet, roles);
+        }
+
+        return roles;
+    }
+
+    /**
+     * Maps the roles of many users, grouped by the role user id label of each row, whatever the order of the rows.
+     */
+    public Map<String, List<Role>> mapByUserId(ResultSet resultSet) throws SQLException {
+        var roles = new HashMap<String, List<Role>>();
+
+        while (resultSet.next()) {
+            var userId = resultSet.getString(userIdColumn.resolve(resultSet)[0]);
+            addRow(resultSet, roles.computeIfAbsent(userId, id -> new ArrayList<>()));
         }
 
         return roles;
     }
+
+    /**
+     * Maps the role of the current row into the list. Rows without role id, as produced by a LEFT JOIN
+     * for users without roles, are skipped. The column indexes are resolved from the first result set, so an
+     * instance must only map rows of one query.
+     */
+    public void addRow(ResultSet resultSet, List<Role> roles) throws SQLException {
+        var indexes = columns.resolve(resultSet);
+        var id = resultSet.getString(indexes[ID]);
+
+        if (id != null) {
+            roles.add(Role.builder()
+                    .id(id)
+                    .name(resultSet.getString(indexes[NAME]))
+                    .description(resultSet.getString(indexes[DESCRIPTION]))
+                    .build());
+        }
+    }
 }
@@ -1,29 +1,115 @@
 package com.github.paulosalonso.keycloak.userstorage.data.mapper;
 
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
 import com.github.paulosalonso.keycloak.userstorage.data.model.User;
-import lombok.RequiredArgsConstructor;
+import com.github.paulosalonso.keycloak.userstorage.data.model.UserMatches;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
-import java.util.Properties;
 
-import static com.github.paulosalonso.keycloak.userstorage.configurations.Configurations.*;
-
-@RequiredArgsConstructor
 public class UserMapper {
 
-    private final Properties properties;
+    public static final String USERNAME_MATCH_LABEL = "username_match";
+    public static final String EMAIL_MATCH_LABEL = "email_match";
+
+    private static final int ID = 0;
+    private static final int USERNAME = 1;
+    private static final int EMAIL = 2;
+    private static final int PASSWORD = 3;
+
+    private final boolean passwordPrefetch;
+    private final ColumnIndexes columns;
+    private final ColumnIndexes matchColumns = new ColumnIndexes(USERNAME_MATCH_LABEL, EMAIL_MATCH_LABEL);
+
+    public UserMapper(UserStorageConfiguration configuration) {
+        passwordPrefetch = configuration.isPasswordPrefetch();
+        columns = passwordPrefetch
+                ? new ColumnIndexes(configuration.getUserIdField(), configuration.getUserUsernameField(),
+                        configuration.getUserEmailField(), configuration.getUserPasswordField())
+                : new ColumnIndexes(configuration.getUserIdField(), configuration.getUserUsernameField(),
+                        configuration.getUserEmailField());
+    }
 
     public Optional<User> map(ResultSet resultSet) throws SQLException {
         if (resultSet.next()) {
-            return Optional.of(User.builder()
-                    .id(resultSet.getString(properties.getProperty(USER_ID_FIELD)))
-                    .username(resultSet.getString(properties.getProperty(USER_USERNAME_FIELD)))
-                    .email(resultSet.getString(properties.getProperty(USER_EMAIL_FIELD)))
-                    .build());
+            return Optional.of(mapRow(resultSet).build());
         }
 
         return Optional.empty();
     }
+
+    /**
+     * Maps every row of the result set, for queries that may match more than one user.
+     */
+    public List<User> mapAll(ResultSet resultSet) throws SQLException {
+        return mapAll(resultSet, (user, row) -> {});
+    }
+
+    /**
+     * Maps the users of a username or email query, classified by the match markers the query selects with each
+     * row under {@link #USERNAME_MATCH_LABEL} and {@link #EMAIL_MATCH_LABEL}. The database sets them with the
+     * same comparison that found the rows, so the classification follows its collation.
+     */
+    public UserMatches mapMatches(ResultSet resultSet) throws SQLException {
+        var byUsername = new User[1];
+        var byEmail = new User[1];
+
+        mapAll(resultSet, (user, row) -> {
+            var indexes = matchColumns.resolve(row);
+
+            if (byUsername[0] == null && row.getInt(indexes[0]) == 1) {
+                byUsername[0] = user;
+            }
+
+            if (byEmail[0] == null && row.getInt(indexes[1]) == 1) {
+                byEmail[0] = user;
+            }
+        });
+
+        return new UserMatches(byUsername[0], byEmail[0]);
+    }
+
+    /**
+     * Maps every row of the result set, handing each row to the consumer along with the user it was mapped to.
+     */
+    protected List<User> mapAll(ResultSet resultSet, RowConsumer consumer) throws SQLException {
+        var users = new ArrayList<User>();
+
+        while (resultSet.next()) {
+            var user = mapRow(resultSet).build();
+            users.add(user);
+            consumer.accept(user, resultSet);
+        }
+
+        return users;
+    }
+
+    /**
+     * Maps the row the result set is positioned at, for rows streamed one at a time.
+     */
+    public User mapCurrent(ResultSet resultSet) throws SQLException {
+        return mapRow(resultSet).build();
+    }
+
+    protected User.UserBuilder mapRow(ResultSet resultSet) throws SQLException {
+        var indexes = columns.resolve(resultSet);
+        var builder = User.builder()
+                .id(resultSet.getString(indexes[ID]))
+                .username(resultSet.getString(indexes[USERNAME]))
+                .email(resultSet.getString(indexes[EMAIL]));
+
+        if (passwordPrefetch) {
+            builder.password(resultSet.getString(indexes[PASSWORD]));
+        }
+
+        return builder;
+    }
+
+    @FunctionalInterface
+    protected interface RowConsumer {
+        void accept(User user, ResultSet resultSet) throws SQLException;
+    }
 }
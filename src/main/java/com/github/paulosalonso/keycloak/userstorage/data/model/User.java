@@ -3,10 +3,14 @@ package com.github.paulosalonso.keycloak.userstorage.data.model;
 import lombok.Builder;
 import lombok.Getter;
 
+import java.util.List;
+
 @Getter
-@Builder
+@Builder(toBuilder = true)
 public class User {
     private final String id;
     private final String username;
     private final String email;
+    private final String password;
+    private final List<Role> roles;
 }
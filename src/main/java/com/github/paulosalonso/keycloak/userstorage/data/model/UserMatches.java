@@ -0,0 +1,27 @@
+package com.github.paulosalonso.keycloak.userstorage.data.model;
+
+import java.util.Optional;
+
+/**
+ * Users found by a value searched both as email and as username. When no user has the value as email, the
+ * username match is always resolved, so an empty username match then means that no user has the value as username
+ * either.
+ */
+public class UserMatches {
+
+    private final User byUsername;
+    private final User byEmail;
+
+    public UserMatches(User byUsername, User byEmail) {
+        this.byUsername = byUsername;
+        this.byEmail = byEmail;
+    }
+
+    public Optional<User> getByUsername() {
+        return Optional.ofNullable(byUsername);
+    }
+
+    public Optional<User> getByEmail() {
+        return Optional.ofNullable(byEmail);
+    }
+}
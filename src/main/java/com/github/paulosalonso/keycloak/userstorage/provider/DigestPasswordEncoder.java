@@ -0,0 +1,89 @@
+package com.github.paulosalonso.keycloak.userstorage.provider;
+
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hex encoded message digest verification compatible with Spring's MessageDigestPasswordEncoder, including its
+ * optional "{salt}" prefix. Each thread reuses its own MessageDigest and the stored hash is compared byte by byte,
+ * in constant time, without building the hex string of the computed digest.
+ */
+public class DigestPasswordEncoder implements PasswordEncoder {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final ThreadLocal<MessageDigest> digests;
+
+    public DigestPasswordEncoder(String algorithm) {
+        newDigest(algorithm);
+        digests = ThreadLocal.withInitial(() -> newDigest(algorithm));
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        var digest = digest(rawPassword, "");
+        var encoded = new char[digest.length * 2];
+
+        for (int i = 0; i < digest.length; i++) {
+            encoded[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+            encoded[i * 2 + 1] = HEX[digest[i] & 0xf];
+        }
+
+        return new String(encoded);
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        if (encodedPassword == null) {
+            return false;
+        }
+
+        var hashStart = getHashStart(encodedPassword);
+        var digest = digest(rawPassword, encodedPassword.substring(0, hashStart));
+
+        if (encodedPassword.length() - hashStart != digest.length * 2) {
+            return false;
+        }
+
+        var difference = 0;
+
+        for (int i = 0; i < digest.length; i++) {
+            var high = Character.digit(encodedPassword.charAt(hashStart + i * 2), 16);
+            var low = Character.digit(encodedPassword.charAt(hashStart + i * 2 + 1), 16);
+            difference |= (high | low) >>> 31;
+            difference |= ((high << 4) | low) ^ (digest[i] & 0xff);
+        }
+
+        return difference == 0;
+    }
+
+    private byte[] digest(CharSequence rawPassword, String salt) {
+        var digest = digests.get();
+        digest.update(rawPassword.toString().getBytes(StandardCharsets.UTF_8));
+        digest.update(salt.getBytes(StandardCharsets.UTF_8));
+        return digest.digest();
+    }
+
+    private static int getHashStart(String encodedPassword) {
+        if (encodedPassword.startsWith("{")) {
+            var saltEnd = encodedPassword.indexOf('}');
+
+            if (saltEnd > 0) {
+                return saltEnd + 1;
+            }
+        }
+
+        return 0;
+    }
+
+    private static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Invalid message digest algorithm: " + algorithm, e);
+        }
+    }
+}
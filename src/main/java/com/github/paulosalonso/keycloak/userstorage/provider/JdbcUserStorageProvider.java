@@ -1,8 +1,14 @@
 package com.github.paulosalonso.keycloak.userstorage.provider;
 
-import com.github.paulosalonso.keycloak.userstorage.configurations.PasswordEncodeType;
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
 import com.github.paulosalonso.keycloak.userstorage.data.dao.RoleDAO;
+import com.github.paulosalonso.keycloak.userstorage.data.dao.UserCountDAO;
 import com.github.paulosalonso.keycloak.userstorage.data.dao.UserDAO;
+import com.github.paulosalonso.keycloak.userstorage.data.dao.UserQueryDAO;
+import com.github.paulosalonso.keycloak.userstorage.data.database.BulkheadFullException;
+import com.github.paulosalonso.keycloak.userstorage.data.database.CircuitOpenException;
+import com.github.paulosalonso.keycloak.userstorage.data.database.ConnectionLease;
+import com.github.paulosalonso.keycloak.userstorage.data.model.Role;
 import com.github.paulosalonso.keycloak.userstorage.data.model.User;
 import com.github.paulosalonso.keycloak.userstorage.provider.model.CustomUserModel;
 import lombok.RequiredArgsConstructor;
@@ -10,48 +16,259 @@ import lombok.extern.slf4j.Slf4j;
 import org.keycloak.component.ComponentModel;
 import org.keycloak.credential.CredentialInput;
 import org.keycloak.credential.CredentialInputValidator;
+import org.keycloak.models.GroupModel;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserModel;
+import org.keycloak.models.cache.CachedUserModel;
+import org.keycloak.models.cache.OnUserCache;
 import org.keycloak.models.credential.PasswordCredentialModel;
 import org.keycloak.storage.StorageId;
 import org.keycloak.storage.UserStorageProvider;
 import org.keycloak.storage.user.UserLookupProvider;
+import org.keycloak.storage.user.UserQueryProvider;
+import org.springframework.security.crypto.password.PasswordEncoder;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.Properties;
+import java.util.Set;
 import java.util.function.Function;
+import java.util.function.IntSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-import static com.github.paulosalonso.keycloak.userstorage.configurations.Configurations.PASSWORD_ENCODE_TYPE;
+import static com.github.paulosalonso.keycloak.userstorage.configurations.PasswordEncodeType.BCRYPT;
 
 @Slf4j
 @RequiredArgsConstructor
-public class JdbcUserStorageProvider implements UserStorageProvider, UserLookupProvider, CredentialInputValidator {
+public class JdbcUserStorageProvider implements UserStorageProvider, UserLookupProvider, UserQueryProvider,
+        CredentialInputValidator, OnUserCache {
+
+    static final String CACHED_ROLES = "jdbc-user-storage.roles";
+    static final String CACHED_PASSWORD_FINGERPRINT = "jdbc-user-storage.password-fingerprint";
+
+    private static final Set<String> QUERY_OPTIONS = Set.of(UserModel.INCLUDE_SERVICE_ACCOUNT, UserModel.EXACT);
+    private static final List<String> SEARCHABLE_FILTERS = List.of(UserModel.USERNAME, UserModel.EMAIL, UserModel.SEARCH);
 
     private final UserDAO userDAO;
     private final RoleDAO roleDAO;
+    private final UserQueryDAO userQueryDAO;
+    private final UserCountDAO userCountDAO;
     private final KeycloakSession session;
     private final ComponentModel componentModel;
-    private final Properties properties;
+    private final UserStorageConfiguration configuration;
     private final PasswordEncoderFactory passwordEncoderFactory;
+    private final PasswordVerifier passwordVerifier;
+    private final VerifiedCredentialCache verifiedCredentialCache;
+    private final ConnectionLease connectionLease;
+    private final UserIdentityMap identityMap = new UserIdentityMap();
+    private final Set<String> unloadedRoleUserIds = new LinkedHashSet<>();
+    private final Map<String, List<Role>> batchedRoles = new HashMap<>();
 
     @Override
     public UserModel getUserById(String id, RealmModel realmModel) {
         id = new StorageId(id).getExternalId();
         log.debug("Find user by external id: {}", id);
-        return findUser(userDAO::findById, id, realmModel);
+        return findUser(identityMap::getById, userDAO::findById, id, realmModel);
     }
 
     @Override
     public UserModel getUserByUsername(String username, RealmModel realmModel) {
         log.debug("Find user by username: {}", username);
-        return findUser(userDAO::findByUsername, username, realmModel);
+
+        if (identityMap.isMissingUsername(username)) {
+            log.debug("Username already known to be missing in this session");
+            return null;
+        }
+
+        return findUser(identityMap::getByUsername, userDAO::findByUsername, username, realmModel);
     }
 
     @Override
     public UserModel getUserByEmail(String email, RealmModel realmModel) {
         log.debug("Find user by email: {}", email);
-        return  findUser(userDAO::findByEmail, email, realmModel);
+
+        if (identityMap.isMissingEmail(email)) {
+            log.debug("Email already known to be missing in this session");
+            return null;
+        }
+
+        if (configuration.isCombinedLookup()) {
+            return findUser(identityMap::getByEmail, value -> findByEmailOrUsername(value, realmModel), email, realmModel);
+        }
+
+        return findUser(identityMap::getByEmail, userDAO::findByEmail, email, realmModel);
+    }
+
+    @Override
+    public int getUsersCount(RealmModel realmModel) {
+        log.debug("Count users");
+        return count(userCountDAO::countUsers);
+    }
+
+    /**
+     * Counts with a query instead of the default of counting the streamed search results, which reads every
+     * matching user.
+     */
+    @Override
+    public int getUsersCount(String search, RealmModel realmModel) {
+        if (UserQueryDAO.isListing(search)) {
+            return getUsersCount(realmModel);
+        }
+
+        log.debug("Count users by {}", search);
+        return count(() -> userQueryDAO.countUsers(search));
+    }
+
+    @Override
+    public int getUsersCount(Map<String, String> params, RealmModel realmModel) {
+        var filters = getFilters(params);
+
+        if (filters.isEmpty()) {
+            return getUsersCount(realmModel);
+        }
+
+        return toSearch(filters).map(search -> getUsersCount(search, realmModel)).orElse(0);
+    }
+
+    /**
+     * Users of this provider belong to no group, so counting the members of groups never reads them.
+     */
+    @Override
+    public int getUsersCount(RealmModel realmModel, Set<String> groupIds) {
+        return 0;
+    }
+
+    @Override
+    public int getUsersCount(String search, RealmModel realmModel, Set<String> groupIds) {
+        return 0;
+    }
+
+    @Override
+    public int getUsersCount(Map<String, String> params, RealmModel realmModel, Set<String> groupIds) {
+        return 0;
+    }
+
+    @Override
+    public Stream<UserModel> getUsersStream(RealmModel realmModel) {
+        return searchForUserStream((String) null, realmModel, null, null);
+    }
+
+    @Override
+    public Stream<UserModel> getUsersStream(RealmModel realmModel, int firstResult, int maxResults) {
+        return searchForUserStream((String) null, realmModel, firstResult, maxResults);
+    }
+
+    @Override
+    public Stream<UserModel> searchForUserStream(String search, RealmModel realmModel) {
+        return searchForUserStream(search, realmModel, null, null);
+    }
+
+    /**
+     * Streams the users straight from the result set of a keyset paginated query, so a page is never held in a
+     * list before Keycloak reads it.
+     */
+    @Override
+    public Stream<UserModel> searchForUserStream(String search, RealmModel realmModel, Integer firstResult, Integer maxResults) {
+        log.debug("Search users by {}, first result {}, max results {}", search, firstResult, maxResults);
+
+        var paged = maxResults != null && maxResults > 0;
+
+        try {
+            return userQueryDAO.findUsers(search, firstResult == null ? 0 : firstResult, maxResults == null ? -1 : maxResults)
+                    .map(user -> toUserModel(user, realmModel, paged));
+        } catch (RuntimeException e) {
+            log.warn("User search failed: {}", e.getMessage(), e);
+            return Stream.empty();
+        }
+    }
+
+    @Override
+    public Stream<UserModel> searchForUserStream(Map<String, String> params, RealmModel realmModel) {
+        return searchForUserStream(params, realmModel, null, null);
+    }
+
+    /**
+     * Only the username and email fields are known to this provider, so the search uses the username or, when
+     * absent, the email or the free search parameter, and other filters given along with them are ignored. Filters
+     * on anything else alone match no user: only a search without filters lists every user.
+     */
+    @Override
+    public Stream<UserModel> searchForUserStream(Map<String, String> params, RealmModel realmModel, Integer firstResult, Integer maxResults) {
+        var filters = getFilters(params);
+
+        if (filters.isEmpty()) {
+            return searchForUserStream((String) null, realmModel, firstResult, maxResults);
+        }
+
+        return toSearch(filters)
+                .map(search -> searchForUserStream(search, realmModel, firstResult, maxResults))
+                .orElseGet(Stream::empty);
+    }
+
+    @Override
+    public Stream<UserModel> getGroupMembersStream(RealmModel realmModel, GroupModel group) {
+        return Stream.empty();
+    }
+
+    @Override
+    public Stream<UserModel> getGroupMembersStream(RealmModel realmModel, GroupModel group, Integer firstResult, Integer maxResults) {
+        return Stream.empty();
+    }
+
+    @Override
+    public Stream<UserModel> searchForUserByUserAttributeStream(String attrName, String attrValue, RealmModel realmModel) {
+        return Stream.empty();
+    }
+
+    @Override
+    public List<UserModel> getUsers(RealmModel realmModel) {
+        return toList(getUsersStream(realmModel));
+    }
+
+    @Override
+    public List<UserModel> getUsers(RealmModel realmModel, int firstResult, int maxResults) {
+        return toList(getUsersStream(realmModel, firstResult, maxResults));
+    }
+
+    @Override
+    public List<UserModel> searchForUser(String search, RealmModel realmModel) {
+        return toList(searchForUserStream(search, realmModel));
+    }
+
+    @Override
+    public List<UserModel> searchForUser(String search, RealmModel realmModel, int firstResult, int maxResults) {
+        return toList(searchForUserStream(search, realmModel, firstResult, maxResults));
+    }
+
+    @Override
+    public List<UserModel> searchForUser(Map<String, String> params, RealmModel realmModel) {
+        return toList(searchForUserStream(params, realmModel));
+    }
+
+    @Override
+    public List<UserModel> searchForUser(Map<String, String> params, RealmModel realmModel, int firstResult, int maxResults) {
+        return toList(searchForUserStream(params, realmModel, firstResult, maxResults));
+    }
+
+    @Override
+    public List<UserModel> getGroupMembers(RealmModel realmModel, GroupModel group) {
+        return List.of();
+    }
+
+    @Override
+    public List<UserModel> getGroupMembers(RealmModel realmModel, GroupModel group, int firstResult, int maxResults) {
+        return List.of();
+    }
+
+    @Override
+    public List<UserModel> searchForUserByUserAttribute(String attrName, String attrValue, RealmModel realmModel) {
+        return List.of();
     }
 
     @Override
@@ -67,17 +284,29 @@ public class JdbcUserStorageProvider implements UserStorageProvider, UserLookupP
 
     @Override
     public boolean isValid(RealmModel realmModel, UserModel userModel, CredentialInput credentialInput) {
-        var encodeType = PasswordEncodeType.of(properties.getProperty(PASSWORD_ENCODE_TYPE));
+        var encodeType = configuration.getPasswordEncodeType();
 
         log.debug("Validating credential with credential encoder {}", encodeType);
 
         var encoder = passwordEncoderFactory.getPasswordEncoder(encodeType);
 
         try {
-            var storageId = new StorageId(userModel.getId());
-            log.debug("Searching password for user id: {}", storageId.getExternalId());
-            return userDAO.findPasswordByUserId(storageId.getExternalId())
-                    .map(password -> encoder.matches(credentialInput.getChallengeResponse(), password))
+            var userId = new StorageId(userModel.getId()).getExternalId();
+
+            if (userModel instanceof CachedUserModel) {
+                var cachedUser = (CachedUserModel) userModel;
+                restoreCachedUser(cachedUser, userId, realmModel);
+
+                if (encodeType == BCRYPT && configuration.isCredentialCacheTrustCachedUser() && isVerifiedWhileCached(cachedUser, userId, credentialInput.getChallengeResponse())) {
+                    log.debug("Credential of cached user id {} already verified", userId);
+                    return true;
+                }
+            }
+
+            return findPassword(userModel, userId)
+                    .map(password -> encodeType == BCRYPT ?
+                            matchesBCrypt(encoder, userModel, userId, credentialInput.getChallengeResponse(), password) :
+                            encoder.matches(credentialInput.getChallengeResponse(), password))
                     .orElse(false);
         } catch (Exception e) {
             log.error(e.getMessage(), e);
@@ -85,12 +314,50 @@ public class JdbcUserStorageProvider implements UserStorageProvider, UserLookupP
         }
     }
 
+    /**
+     * Keeps the roles of the user next to the Keycloak cached user, so a login served from that cache can be answered
+     * without reading the user or its roles again. The password fingerprint is kept too when the verified credential
+     * of a cached user is trusted, so the password is not read again either.
+     */
     @Override
-    public void close() {}
+    public void onCache(RealmModel realmModel, CachedUserModel cachedUser, UserModel delegate) {
+        if (delegate instanceof CustomUserModel) {
+            var userModel = (CustomUserModel) delegate;
 
-    private <T> UserModel findUser(Function<T, Optional<User>> function, T param, RealmModel realmModel) {
-        var opt = function.apply(param)
-                .map(user -> new CustomUserModel(session, realmModel, componentModel, user, roleDAO.getRolesByUserId(user.getId())));
+            keepWithCachedUser(cachedUser, CACHED_ROLES, userModel.getRoles());
+
+            if (configuration.isCredentialCacheTrustCachedUser()) {
+                userModel.getPrefetchedPassword().ifPresent(password -> keepWithCachedUser(cachedUser,
+                        CACHED_PASSWORD_FINGERPRINT, verifiedCredentialCache.fingerprint(password)));
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        log.debug("Session user lookups: {} hits, {} misses", identityMap.getHits(), identityMap.getMisses());
+        connectionLease.close();
+    }
+
+    private <T> UserModel findUser(Function<T, CustomUserModel> identityLookup, Function<T, Optional<User>> function, T param, RealmModel realmModel) {
+        var loadedUser = identityLookup.apply(param);
+
+        if (loadedUser != null) {
+            log.debug("User already loaded in this session");
+            return loadedUser;
+        }
+
+        Optional<User> found;
+
+        try {
+            found = function.apply(param);
+        } catch (CircuitOpenException | BulkheadFullException e) {
+            log.warn("User lookup skipped: {}", e.getMessage());
+            return null;
+        }
+
+        var opt = found
+                .map(user -> register(user, realmModel));
 
         if (opt.isPresent()) {
             log.debug("User found");
@@ -100,4 +367,187 @@ public class JdbcUserStorageProvider implements UserStorageProvider, UserLookupP
             return null;
         }
     }
+
+    /**
+     * Keycloak searches a login containing '@' as email first and as username when no user has that email, so when
+     * the email is not found both outcomes of the query are kept for the rest of the session, and the username
+     * search that follows is answered without querying again.
+     */
+    private Optional<User> findByEmailOrUsername(String value, RealmModel realmModel) {
+        var matches = userDAO.findByUsernameOrEmail(value);
+
+        if (matches.getByEmail().isPresent()) {
+            return matches.getByEmail();
+        }
+
+        identityMap.putMissingEmail(value);
+        matches.getByUsername().ifPresentOrElse(user -> register(user, realmModel), () -> identityMap.putMissingUsername(value));
+        return Optional.empty();
+    }
+
+    /**
+     * Listed users are not kept in the identity map, so streaming a large search does not hold every user for
+     * the rest of the session. Only the users of a page are remembered for the role batches, since a page is
+     * bounded and its roles are usually read right after it.
+     */
+    private UserModel toUserModel(User user, RealmModel realmModel, boolean paged) {
+        var loadedUser = identityMap.getById(user.getId());
+
+        if (loadedUser != null) {
+            return loadedUser;
+        }
+
+        if (paged && configuration.getRoleBatchSize() > 0) {
+            unloadedRoleUserIds.add(user.getId());
+        }
+
+        return new CustomUserModel(session, realmModel, componentModel, user, () -> getRoles(user));
+    }
+
+    private int count(IntSupplier counter) {
+        try {
+            return counter.getAsInt();
+        } catch (RuntimeException e) {
+            log.warn("User count failed: {}", e.getMessage(), e);
+            return 0;
+        }
+    }
+
+    private static Map<String, String> getFilters(Map<String, String> params) {
+        var filters = new HashMap<>(params);
+        QUERY_OPTIONS.forEach(filters::remove);
+        return filters;
+    }
+
+    private static Optional<String> toSearch(Map<String, String> filters) {
+        return SEARCHABLE_FILTERS.stream()
+                .map(filters::get)
+                .filter(Objects::nonNull)
+                .findFirst();
+    }
+
+    private static List<UserModel> toList(Stream<UserModel> users) {
+        try (users) {
+            return users.collect(Collectors.toList());
+        }
+    }
+
+    private CustomUserModel register(User user, RealmModel realmModel) {
+        var userModel = new CustomUserModel(session, realmModel, componentModel, user, () -> getRoles(user));
+        identityMap.put(user, userModel);
+        return userModel;
+    }
+
+    private Optional<String> findPassword(UserModel userModel, String userId) {
+        if (userModel instanceof CustomUserModel) {
+            var password = ((CustomUserModel) userModel).getPrefetchedPassword();
+
+            if (password.isPresent()) {
+                log.debug("Using password prefetched for user id: {}", userId);
+                return password;
+            }
+        }
+
+        log.debug("Searching password for user id: {}", userId);
+        return userDAO.findPasswordByUserId(userId);
+    }
+
+    /**
+     * The session connection goes back to the pool before a BCrypt verification, which blocks for the BCrypt cost,
+     * so a burst of logins does not hold every pooled connection while it waits for the verifier.
+     */
+    private boolean matchesBCrypt(PasswordEncoder encoder, UserModel userModel, String userId, String rawPassword, String password) {
+        var fingerprint = verifiedCredentialCache.fingerprint(password);
+
+        if (verifiedCredentialCache.isVerified(userId, fingerprint, rawPassword)) {
+            log.debug("Credential of user id {} already verified", userId);
+        } else {
+            connectionLease.release();
+
+            if (!passwordVerifier.matches(encoder, rawPassword, password)) {
+                return false;
+            }
+
+            verifiedCredentialCache.putVerified(userId, fingerprint, rawPassword);
+        }
+
+        if (userModel instanceof CachedUserModel && configuration.isCredentialCacheTrustCachedUser()) {
+            keepWithCachedUser((CachedUserModel) userModel, CACHED_PASSWORD_FINGERPRINT, fingerprint);
+        }
+
+        return true;
+    }
+
+    /**
+     * Keycloak exposes the values kept with a cached user as a raw map, so every write to it is unchecked.
+     */
+    @SuppressWarnings("unchecked")
+    private static void keepWithCachedUser(CachedUserModel cachedUser, String key, Object value) {
+        cachedUser.getCachedWith().put(key, value);
+    }
+
+    private boolean isVerifiedWhileCached(CachedUserModel cachedUser, String userId, String rawPassword) {
+        var fingerprint = (String) cachedUser.getCachedWith().get(CACHED_PASSWORD_FINGERPRINT);
+        return fingerprint != null && verifiedCredentialCache.isVerified(userId, fingerprint, rawPassword);
+    }
+
+    /**
+     * Rebuilds the user from the values kept by {@link #onCache}, so Keycloak asking for the delegate of its cached
+     * user later in this session, for instance to resolve role mappings, is answered without database access.
+     */
+    @SuppressWarnings("unchecked")
+    private void restoreCachedUser(CachedUserModel cachedUser, String userId, RealmModel realmModel) {
+        var roles = (List<Role>) cachedUser.getCachedWith().get(CACHED_ROLES);
+
+        if (roles != null) {
+            var user = User.builder()
+                    .id(userId)
+                    .username(cachedUser.getUsername())
+                    .email(cachedUser.getEmail())
+                    .roles(roles)
+                    .build();
+
+            identityMap.putIfAbsent(user, new CustomUserModel(session, realmModel, componentModel, user, () -> getRoles(user)));
+        }
+    }
+
+    private List<Role> getRoles(User user) {
+        if (user.getRoles() != null) {
+            return user.getRoles();
+        }
+
+        var roles = batchedRoles.remove(user.getId());
+
+        if (roles != null) {
+            return roles;
+        }
+
+        if (unloadedRoleUserIds.contains(user.getId())) {
+            return loadRoleBatch(user.getId());
+        }
+
+        return roleDAO.getRolesByUserId(user.getId());
+    }
+
+    /**
+     * Loads the roles of a listed user together with the roles of the next users listed in this session, so
+     * reading the roles of a page of users costs one query per batch instead of one query per user.
+     */
+    private List<Role> loadRoleBatch(String userId) {
+        var batch = new ArrayList<String>();
+        batch.add(userId);
+        unloadedRoleUserIds.remove(userId);
+
+        var iterator = unloadedRoleUserIds.iterator();
+
+        while (batch.size() < configuration.getRoleBatchSize() && iterator.hasNext()) {
+            batch.add(iterator.next());
+            iterator.remove();
+        }
+
+        log.debug("Loading roles of {} listed users", batch.size());
+        batchedRoles.putAll(roleDAO.getRolesByUserIds(batch));
+
+        return batchedRoles.remove(userId);
+    }
 }
@@ -1,14 +1,10 @@
 package com.github.paulosalonso.keycloak.userstorage.provider;
 
-import com.github.paulosalonso.keycloak.userstorage.configurations.ConfigurationsMapper;
 import com.github.paulosalonso.keycloak.userstorage.configurations.ConfigurationsValidator;
 import com.github.paulosalonso.keycloak.userstorage.configurations.PasswordEncodeType;
-import com.github.paulosalonso.keycloak.userstorage.data.dao.RoleDAO;
-import com.github.paulosalonso.keycloak.userstorage.data.dao.UserDAO;
-import com.github.paulosalonso.keycloak.userstorage.data.database.ConnectionFactory;
-import com.github.paulosalonso.keycloak.userstorage.data.database.StatementExecutor;
-import com.github.paulosalonso.keycloak.userstorage.data.mapper.RoleMapper;
-import com.github.paulosalonso.keycloak.userstorage.data.mapper.UserMapper;
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserCountStrategy;
+import com.github.paulosalonso.keycloak.userstorage.data.database.ConnectionLease;
+import lombok.extern.slf4j.Slf4j;
 import org.keycloak.component.ComponentModel;
 import org.keycloak.component.ComponentValidationException;
 import org.keycloak.models.KeycloakSession;
@@ -18,14 +14,19 @@ import org.keycloak.provider.ProviderConfigurationBuilder;
 import org.keycloak.storage.UserStorageProviderFactory;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 import static com.github.paulosalonso.keycloak.userstorage.configurations.Configurations.*;
 import static org.keycloak.provider.ProviderConfigProperty.*;
 
+@Slf4j
 public class JdbcUserStorageProviderFactory implements UserStorageProviderFactory<JdbcUserStorageProvider> {
 
     private static final String STORAGE_ID = "jdbc-user-storage";
     private final List<ProviderConfigProperty> CONFIG_PROPERTIES;
+    private final Map<String, JdbcUserStorageRuntime> runtimes = new ConcurrentHashMap<>();
 
     public JdbcUserStorageProviderFactory() {
         CONFIG_PROPERTIES = ProviderConfigurationBuilder.create()
@@ -33,6 +34,39 @@ public class JdbcUserStorageProviderFactory implements UserStorageProviderFactor
                 .property(DB_USER, "Database user", "Database user", STRING_TYPE, null, null)
                 .property(DB_PASSWORD, "Database password", "Database password", PASSWORD, null, null, true)
 
+                .property(POOL_MIN_IDLE, "Pool minimum idle", "Minimum number of idle connections kept in the pool", STRING_TYPE, DEFAULT_POOL_MIN_IDLE, null)
+                .property(POOL_MAX_SIZE, "Pool maximum size", "Maximum number of connections in the pool", STRING_TYPE, DEFAULT_POOL_MAX_SIZE, null)
+                .property(POOL_IDLE_TIMEOUT, "Pool idle timeout", "Milliseconds an idle connection is kept in the pool before being retired", STRING_TYPE, DEFAULT_POOL_IDLE_TIMEOUT, null)
+                .property(POOL_CONNECTION_TIMEOUT, "Pool acquire timeout", "Milliseconds to wait for a connection from the pool before failing", STRING_TYPE, DEFAULT_POOL_CONNECTION_TIMEOUT, null)
+                .property(POOL_MAX_LIFETIME, "Pool connection max lifetime", "Maximum lifetime in milliseconds of a connection in the pool", STRING_TYPE, DEFAULT_POOL_MAX_LIFETIME, null)
+                .property(STATEMENT_CACHE_SIZE,
+                        "Prepared statement cache size", "Number of prepared statements cached per pooled connection by the MySQL, MariaDB and PostgreSQL drivers, so repeated lookups reuse statements already parsed by the database. Zero disables the cache.",
+                        STRING_TYPE, DEFAULT_STATEMENT_CACHE_SIZE, null)
+                .property(QUERY_TIMEOUT,
+                        "Query timeout", "Maximum time in milliseconds a query may run before the driver cancels it. It is rounded up to whole seconds. Zero disables the timeout.",
+                        STRING_TYPE, DEFAULT_QUERY_TIMEOUT, null)
+                .property(QUERY_FETCH_SIZE,
+                        "Query fetch size", "Number of rows the driver reads from the database at a time while the admin console lists or searches users. The rows are read through a cursor in a transaction of their own, with cursor fetching enabled on MySQL. Zero reads every row at once.",
+                        STRING_TYPE, DEFAULT_QUERY_FETCH_SIZE, null)
+                .property(ADMIN_QUERY_TIMEOUT,
+                        "Admin query timeout", "Maximum time in milliseconds a query listing, searching or counting users for the admin console may run before the driver cancels it. It is rounded up to whole seconds. Zero disables the timeout. These queries do not count towards the circuit breaker.",
+                        STRING_TYPE, DEFAULT_ADMIN_QUERY_TIMEOUT, null)
+                .property(CIRCUIT_BREAKER_FAILURE_THRESHOLD,
+                        "Circuit breaker failure threshold", "Number of consecutive database failures that open the circuit. While it is open, lookups fail fast without touching the database. Zero disables the circuit breaker.",
+                        STRING_TYPE, DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD, null)
+                .property(CIRCUIT_BREAKER_OPEN_DURATION,
+                        "Circuit breaker open duration", "Time in milliseconds the circuit stays open before a single probe query is let through. A successful probe closes the circuit and a failed one keeps it open for another period.",
+                        STRING_TYPE, DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION, null)
+                .property(BULKHEAD_MAX_CONCURRENT,
+                        "Maximum concurrent queries", "Maximum number of queries this component runs against the database at the same time. Lookups beyond the limit wait for a free slot. Zero disables the limit.",
+                        STRING_TYPE, DEFAULT_BULKHEAD_MAX_CONCURRENT, null)
+                .property(BULKHEAD_MAX_WAIT,
+                        "Maximum wait for a query slot", "Time in milliseconds a lookup waits for a free query slot before it is shed. Zero sheds immediately.",
+                        STRING_TYPE, DEFAULT_BULKHEAD_MAX_WAIT, null)
+                .property(BULKHEAD_ADAPTIVE,
+                        "Adaptive concurrency limit", "Lowers the concurrent query limit while query latency grows above the lowest latency observed, and raises it back up to the maximum as latency recovers.",
+                        BOOLEAN_TYPE, DEFAULT_BULKHEAD_ADAPTIVE, null)
+
                 .property(USER_QUERY,
                         "User query", "Query to get users in database. It must contain the fields referring to the id, username, email and password. It should not contain the WHERE clause.",
                         STRING_TYPE, null, null)
@@ -51,7 +85,69 @@ public class JdbcUserStorageProviderFactory implements UserStorageProviderFactor
                 .property(ROLE_ID_FIELD, "Role id field", "Name of id field in role query", STRING_TYPE, null, null)
                 .property(ROLE_NAME_FIELD, "Role name field", "Name of name field in role query", STRING_TYPE, null, null)
                 .property(ROLE_DESCRIPTION_FIELD, "Role description field", "Name of description field in role query", STRING_TYPE, null, null)
+                .property(ROLE_BATCH_SIZE,
+                        "Role batch size", "Maximum number of listed users whose roles are loaded with a single query. The role query must also select the role user id field, under the role user id label. Zero loads the roles of each user with its own query.",
+                        STRING_TYPE, DEFAULT_ROLE_BATCH_SIZE, null)
                 .property(ROLE_USER_ID_FIELD, "Role user id field", "Name of user id field in role query", STRING_TYPE, null, null)
+                .property(ROLE_USER_ID_LABEL,
+                        "Role user id label", "Label of the user id field in the role query results, like the alias it is selected with. Role batches group roles by it, so it must not clash with the role fields. When empty, the role user id field without its table qualifier is used.",
+                        STRING_TYPE, null, null)
+
+                .property(USER_ROLES_QUERY,
+                        "User with roles query", "Optional query to get users and their roles in a single round trip, one row per role (e.g. a LEFT JOIN). It must contain the user fields and the role id, name and description fields, without name clashes between them. It should not contain the WHERE clause.",
+                        STRING_TYPE, null, null)
+                .property(CREDENTIAL_QUERY,
+                        "Credential query", "Optional query used to validate passwords. It should select only the password field, filtered by the user id field, so it can be answered from the primary key index. It should not contain the WHERE clause. When empty, the user query is used.",
+                        STRING_TYPE, null, null)
+                .property(PASSWORD_PREFETCH,
+                        "Prefetch password", "Read the password field along with the user, so the password validation of a login does not query the database again. The user query must contain the password field.",
+                        BOOLEAN_TYPE, "false", null)
+                .property(COMBINED_LOOKUP,
+                        "Combined username or email lookup", "Search users by email and by username in a single query, so a login containing @ that matches no email does not query the database again to search it as username. The username and email fields should be indexed.",
+                        BOOLEAN_TYPE, "false", null)
+
+                .property(USER_COUNT_STRATEGY,
+                        "User count strategy", "How the admin console counts users. EXACT counts the rows of the user query. MYSQL_ESTIMATE and POSTGRESQL_ESTIMATE read the row count kept in the database statistics for the user count table, which is instant but approximate.",
+                        LIST_TYPE, UserCountStrategy.EXACT.name(), UserCountStrategy.asStringList())
+                .property(USER_COUNT_TABLE,
+                        "User count table", "Table whose estimated row count is used as the user count by the estimate strategies. It may be qualified with the schema on PostgreSQL.",
+                        STRING_TYPE, null, null)
+                .property(USER_COUNT_CACHE_TTL,
+                        "User count time to live", "Milliseconds a user count is kept before counting again, so paging through the admin console does not count on every page. When counting again fails, the last count is returned. Zero disables the cache.",
+                        STRING_TYPE, DEFAULT_USER_COUNT_CACHE_TTL, null)
+
+                .property(CACHE_MAX_SIZE,
+                        "Cache maximum size", "Maximum number of users kept in the in-memory cache shared by all sessions. Zero disables the cache.",
+                        STRING_TYPE, DEFAULT_CACHE_MAX_SIZE, null)
+                .property(CACHE_TTL,
+                        "Cache time to live", "Milliseconds a cached user is kept before being read again from the database",
+                        STRING_TYPE, DEFAULT_CACHE_TTL, null)
+                .property(NEGATIVE_CACHE_MAX_SIZE,
+                        "Negative cache maximum size", "Maximum number of unknown usernames and emails remembered, so repeated lookups of users that do not exist skip the database. Zero disables the negative cache.",
+                        STRING_TYPE, DEFAULT_NEGATIVE_CACHE_MAX_SIZE, null)
+                .property(NEGATIVE_CACHE_TTL,
+                        "Negative cache time to live", "Milliseconds an unknown username or email is remembered. Keep it short, because users created in the meantime stay invisible until it expires.",
+                        STRING_TYPE, DEFAULT_NEGATIVE_CACHE_TTL, null)
+
+                .property(VERIFICATION_THREADS,
+                        "BCrypt verification threads", "Number of threads that verify BCrypt passwords, isolated from the Keycloak worker threads. Zero uses one thread per available processor.",
+                        STRING_TYPE, DEFAULT_VERIFICATION_THREADS, null)
+                .property(VERIFICATION_QUEUE_SIZE,
+                        "BCrypt verification queue size", "Maximum number of BCrypt verifications waiting for a thread. Logins beyond it fail immediately. Zero queues none, failing logins while every thread is busy.",
+                        STRING_TYPE, DEFAULT_VERIFICATION_QUEUE_SIZE, null)
+                .property(VERIFICATION_TIMEOUT,
+                        "BCrypt verification timeout", "Milliseconds to wait for a BCrypt verification, including the time queued, before failing the login",
+                        STRING_TYPE, DEFAULT_VERIFICATION_TIMEOUT, null)
+
+                .property(CREDENTIAL_CACHE_MAX_SIZE,
+                        "Verified credential cache maximum size", "Maximum number of successful BCrypt verifications remembered, so repeated logins with the same password and an unchanged stored hash skip BCrypt. The stored hash is read on every login unless the verified credential of cached users is trusted. Only a keyed hash of the password is kept. Zero disables the cache.",
+                        STRING_TYPE, DEFAULT_CREDENTIAL_CACHE_MAX_SIZE, null)
+                .property(CREDENTIAL_CACHE_TTL,
+                        "Verified credential cache time to live", "Milliseconds a successful BCrypt verification is remembered",
+                        STRING_TYPE, DEFAULT_CREDENTIAL_CACHE_TTL, null)
+                .property(CREDENTIAL_CACHE_TRUST_CACHED_USER,
+                        "Trust verified credential of cached user", "Accepts a login of a user served from the Keycloak user cache when the password was verified against the hash read when the user was cached, without reading the stored hash again. A password changed in the database keeps working until the verification expires from the verified credential cache or the user leaves the Keycloak user cache, whichever comes first.",
+                        BOOLEAN_TYPE, DEFAULT_CREDENTIAL_CACHE_TRUST_CACHED_USER, null)
                 .build();
     }
 
@@ -72,13 +168,66 @@ public class JdbcUserStorageProviderFactory implements UserStorageProviderFactor
 
     @Override
     public JdbcUserStorageProvider create(KeycloakSession keycloakSession, ComponentModel componentModel) {
-        var properties = ConfigurationsMapper.toProperties(componentModel);
-        var connectionFactory = new ConnectionFactory(properties);
-        var statementExecutor = new StatementExecutor(connectionFactory);
-        var userDAO = new UserDAO(statementExecutor, properties, new UserMapper(properties));
-        var roleDAO = new RoleDAO(statementExecutor, properties, new RoleMapper(properties));
-
-        return new JdbcUserStorageProvider(
-                userDAO, roleDAO, keycloakSession, componentModel, properties, new PasswordEncoderFactory());
+        var connectionLease = new ConnectionLease[1];
+        var runtime = startRuntime(componentModel, started -> connectionLease[0] = started.openConnectionLease());
+
+        return new JdbcUserStorageProvider(runtime.getUserDAO(), runtime.getRoleDAO(), runtime.getUserQueryDAO(),
+                runtime.getUserCountDAO(), keycloakSession, componentModel, runtime.getConfiguration(), runtime.getPasswordEncoderFactory(), runtime.getPasswordVerifier(),
+                runtime.getVerifiedCredentialCache(), connectionLease[0]);
+    }
+
+    @Override
+    public void onCreate(KeycloakSession session, RealmModel realm, ComponentModel componentModel) {
+        startRuntime(componentModel, started -> {});
+    }
+
+    @Override
+    public void onUpdate(KeycloakSession session, RealmModel realm, ComponentModel oldModel, ComponentModel newModel) {
+        startRuntime(newModel, started -> {});
+    }
+
+    @Override
+    public void preRemove(KeycloakSession session, RealmModel realm, ComponentModel componentModel) {
+        var runtime = runtimes.remove(componentModel.getId());
+
+        if (runtime != null) {
+            log.debug("Stopping JDBC User Storage runtime for component {}", componentModel.getId());
+            runtime.retire();
+        }
+    }
+
+    @Override
+    public void close() {
+        runtimes.values().forEach(JdbcUserStorageRuntime::close);
+        runtimes.clear();
+    }
+
+    /**
+     * Returns the runtime of the component, starting a new one when its configuration changed. Only the component
+     * being started is locked, so building a pool does not hold up sessions of other components. The callback runs
+     * under that lock, so a session opened on a runtime is counted before the runtime can be retired. A replaced
+     * runtime is retired, closing once the sessions still running on it are done.
+     */
+    private JdbcUserStorageRuntime startRuntime(ComponentModel componentModel, Consumer<JdbcUserStorageRuntime> onStarted) {
+        var replaced = new JdbcUserStorageRuntime[1];
+
+        var runtime = runtimes.compute(componentModel.getId(), (componentId, current) -> {
+            var started = current;
+
+            if (current == null || !current.isConfiguredBy(componentModel)) {
+                log.debug("Starting JDBC User Storage runtime for component {}", componentId);
+                started = new JdbcUserStorageRuntime(componentModel);
+                replaced[0] = current;
+            }
+
+            onStarted.accept(started);
+            return started;
+        });
+
+        if (replaced[0] != null) {
+            replaced[0].retire();
+        }
+
+        return runtime;
     }
 }
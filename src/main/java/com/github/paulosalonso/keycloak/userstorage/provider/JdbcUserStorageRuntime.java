@@ -0,0 +1,134 @@
+package com.github.paulosalonso.keycloak.userstorage.provider;
+
+import com.github.paulosalonso.keycloak.userstorage.configurations.ConfigurationsMapper;
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import com.github.paulosalonso.keycloak.userstorage.data.cache.UserCache;
+import com.github.paulosalonso.keycloak.userstorage.data.dao.CachingRoleDAO;
+import com.github.paulosalonso.keycloak.userstorage.data.dao.CachingUserCountDAO;
+import com.github.paulosalonso.keycloak.userstorage.data.dao.CachingUserDAO;
+import com.github.paulosalonso.keycloak.userstorage.data.dao.RoleDAO;
+import com.github.paulosalonso.keycloak.userstorage.data.dao.UserCountDAO;
+import com.github.paulosalonso.keycloak.userstorage.data.dao.UserDAO;
+import com.github.paulosalonso.keycloak.userstorage.data.dao.UserQueryDAO;
+import com.github.paulosalonso.keycloak.userstorage.data.database.Bulkhead;
+import com.github.paulosalonso.keycloak.userstorage.data.database.CircuitBreaker;
+import com.github.paulosalonso.keycloak.userstorage.data.database.ConnectionFactory;
+import com.github.paulosalonso.keycloak.userstorage.data.database.ConnectionLease;
+import com.github.paulosalonso.keycloak.userstorage.data.database.StatementExecutor;
+import com.github.paulosalonso.keycloak.userstorage.data.mapper.JoinedUserMapper;
+import com.github.paulosalonso.keycloak.userstorage.data.mapper.RoleMapper;
+import com.github.paulosalonso.keycloak.userstorage.data.mapper.UserMapper;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.keycloak.common.util.MultivaluedHashMap;
+import org.keycloak.component.ComponentModel;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Slf4j
+@Getter
+public class JdbcUserStorageRuntime implements Closeable {
+
+    private final MultivaluedHashMap<String, String> configurations;
+    private final UserStorageConfiguration configuration;
+    private final ConnectionFactory connectionFactory;
+    private final CircuitBreaker circuitBreaker;
+    private final Bulkhead bulkhead;
+    private final StatementExecutor statementExecutor;
+    private final UserCache userCache;
+    private final UserDAO userDAO;
+    private final RoleDAO roleDAO;
+    private final UserQueryDAO userQueryDAO;
+    private final UserCountDAO userCountDAO;
+    private final PasswordEncoderFactory passwordEncoderFactory;
+    private final PasswordVerifier passwordVerifier;
+    private final VerifiedCredentialCache verifiedCredentialCache;
+    private final AtomicInteger openLeases = new AtomicInteger();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile boolean retired;
+
+    public JdbcUserStorageRuntime(ComponentModel componentModel) {
+        configurations = new MultivaluedHashMap<>(componentModel.getConfig());
+        configuration = ConfigurationsMapper.toConfiguration(componentModel);
+        connectionFactory = new ConnectionFactory(configuration);
+
+        circuitBreaker = new CircuitBreaker(configuration);
+        bulkhead = new Bulkhead(configuration);
+        statementExecutor = new StatementExecutor(connectionFactory, circuitBreaker, bulkhead, configuration);
+        var roleMapper = new RoleMapper(configuration);
+        var userMapper = configuration.isJoinedLookup()
+                ? new JoinedUserMapper(configuration, new RoleMapper(configuration)) : new UserMapper(configuration);
+
+        if (UserCache.isEnabled(configuration)) {
+            userCache = new UserCache(configuration);
+            userDAO = new CachingUserDAO(statementExecutor, configuration, userMapper, userCache);
+            roleDAO = new CachingRoleDAO(statementExecutor, configuration, roleMapper, userCache);
+        } else {
+            userCache = null;
+            userDAO = new UserDAO(statementExecutor, configuration, userMapper);
+            roleDAO = new RoleDAO(statementExecutor, configuration, roleMapper);
+        }
+
+        var adminStatementExecutor = statementExecutor.forAdminQueries(configuration.getAdminQueryTimeout());
+        userQueryDAO = new UserQueryDAO(adminStatementExecutor, configuration, new UserMapper(configuration));
+        userCountDAO = configuration.getUserCountCacheTtl() > 0
+                ? new CachingUserCountDAO(adminStatementExecutor, configuration)
+                : new UserCountDAO(adminStatementExecutor, configuration);
+        passwordEncoderFactory = new PasswordEncoderFactory();
+        passwordVerifier = new PasswordVerifier(configuration);
+        verifiedCredentialCache = new VerifiedCredentialCache(configuration);
+    }
+
+    /**
+     * Opens the lease of a session running on this runtime. The runtime counts it as open until the session closes
+     * it, so a retired runtime knows when it can be closed.
+     */
+    public ConnectionLease openConnectionLease() {
+        openLeases.incrementAndGet();
+        return statementExecutor.openLease(this::onLeaseClosed);
+    }
+
+    public boolean isConfiguredBy(ComponentModel componentModel) {
+        return configurations.equals(componentModel.getConfig());
+    }
+
+    /**
+     * Closes the runtime once the sessions still running on it have closed their leases, so a runtime replaced or
+     * removed does not close the pool under them. New sessions must be created on another runtime.
+     */
+    public void retire() {
+        retired = true;
+
+        if (openLeases.get() == 0) {
+            close();
+        }
+    }
+
+    private void onLeaseClosed() {
+        if (openLeases.decrementAndGet() == 0 && retired) {
+            close();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        if (userCache != null) {
+            log.info("User cache stats: {}", userCache.getUserStats());
+            log.info("Role cache stats: {}", userCache.getRoleStats());
+            log.info("Missing user cache stats: {}", userCache.getMissingUserStats());
+        }
+
+        log.info("Database circuit breaker: {}, opened {} times, {} statements rejected",
+                circuitBreaker.getState(), circuitBreaker.getOpened(), circuitBreaker.getRejections());
+        log.info("Concurrent query limit: {}, {} queries shed", bulkhead.getLimit(), bulkhead.getRejections());
+
+        passwordVerifier.close();
+        connectionFactory.close();
+    }
+}
@@ -2,31 +2,33 @@ package com.github.paulosalonso.keycloak.userstorage.provider;
 
 import com.github.paulosalonso.keycloak.userstorage.configurations.PasswordEncodeType;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
-import org.springframework.security.crypto.password.MessageDigestPasswordEncoder;
 import org.springframework.security.crypto.password.NoOpPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.Map;
 
 public class PasswordEncoderFactory {
 
-    private final Map<PasswordEncodeType, PasswordEncoder> cache = new HashMap<>();
+    private final Map<PasswordEncodeType, PasswordEncoder> encoders = new EnumMap<>(PasswordEncodeType.class);
 
-    public PasswordEncoder getPasswordEncoder(PasswordEncodeType type) {
-        if (cache.containsKey(type)) {
-            return cache.get(type);
+    public PasswordEncoderFactory() {
+        for (var type : PasswordEncodeType.values()) {
+            encoders.put(type, createPasswordEncoder(type));
         }
+    }
 
-        var passwordEncoder = createPasswordEncoder(type);
-        cache.put(type, passwordEncoder);
-        return passwordEncoder;
+    public PasswordEncoder getPasswordEncoder(PasswordEncodeType type) {
+        return encoders.get(type);
     }
 
     private PasswordEncoder createPasswordEncoder(PasswordEncodeType type) {
         switch (type) {
             case BCRYPT: return new BCryptPasswordEncoder();
-            case MD5: return new MessageDigestPasswordEncoder("MD5");
+            case MD5: return new DigestPasswordEncoder("MD5");
+            case SHA1: return new DigestPasswordEncoder("SHA-1");
+            case SHA256: return new DigestPasswordEncoder("SHA-256");
+            case SHA512: return new DigestPasswordEncoder("SHA-512");
             default: return NoOpPasswordEncoder.getInstance();
         }
     }
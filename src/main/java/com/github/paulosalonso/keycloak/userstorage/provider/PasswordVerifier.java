@@ -0,0 +1,135 @@
+package com.github.paulosalonso.keycloak.userstorage.provider;
+
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs CPU-heavy password verifications on a bounded pool, so login spikes can not take every core from the
+ * Keycloak worker threads. A verification fails fast when the queue is full or when it does not complete
+ * within the configured timeout. Without a queue, it fails fast when every thread is busy.
+ */
+@Slf4j
+public class PasswordVerifier implements Closeable {
+
+    private final ThreadPoolExecutor executor;
+    private final long timeout;
+    private final LongAdder verifications = new LongAdder();
+    private final LongAdder verificationNanos = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    public PasswordVerifier(UserStorageConfiguration configuration) {
+        var threads = configuration.getVerificationThreads();
+        var queueSize = configuration.getVerificationQueueSize();
+        timeout = configuration.getVerificationTimeout();
+
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                queueSize > 0 ? new ArrayBlockingQueue<>(queueSize) : new SynchronousQueue<>(),
+                new VerifierThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public boolean matches(PasswordEncoder encoder, CharSequence rawPassword, String encodedPassword) {
+        Future<Boolean> verification;
+
+        try {
+            verification = executor.submit(() -> verify(encoder, rawPassword, encodedPassword));
+        } catch (RejectedExecutionException e) {
+            if (executor.isShutdown()) {
+                throw new RuntimeException("Password verifier is closed", e);
+            }
+
+            rejections.increment();
+            throw new RuntimeException("Password verification queue is full", e);
+        }
+
+        try {
+            return verification.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            verification.cancel(true);
+            timeouts.increment();
+            throw new RuntimeException("Password verification timed out", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error when verifying password", e.getCause());
+        } catch (InterruptedException e) {
+            verification.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while verifying password", e);
+        }
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveVerifications() {
+        return executor.getActiveCount();
+    }
+
+    public long getVerifications() {
+        return verifications.sum();
+    }
+
+    public long getAverageVerificationMillis() {
+        var count = verifications.sum();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(verificationNanos.sum() / count);
+    }
+
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public void close() {
+        log.info("Password verifications: {} completed, {} ms average, {} rejected, {} timed out",
+                getVerifications(), getAverageVerificationMillis(), getRejections(), getTimeouts());
+        executor.shutdownNow();
+    }
+
+    private boolean verify(PasswordEncoder encoder, CharSequence rawPassword, String encodedPassword) {
+        var start = System.nanoTime();
+
+        try {
+            return encoder.matches(rawPassword, encodedPassword);
+        } finally {
+            var elapsed = System.nanoTime() - start;
+            verifications.increment();
+            verificationNanos.add(elapsed);
+            log.debug("Password verified in {} ms, {} verifications queued",
+                    TimeUnit.NANOSECONDS.toMillis(elapsed), getQueueDepth());
+        }
+    }
+
+    private static class VerifierThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            var thread = new Thread(runnable, "jdbc-user-storage-password-verifier-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.github.paulosalonso.keycloak.userstorage.provider;
+
+import com.github.paulosalonso.keycloak.userstorage.data.model.User;
+import com.github.paulosalonso.keycloak.userstorage.provider.model.CustomUserModel;
+import lombok.Getter;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Users already loaded by a provider instance, indexed by id, username and email, and usernames and emails known
+ * to match no user. A provider lives as long as a Keycloak session, which is used by a single thread, so no synchronization
+ * is needed.
+ */
+public class UserIdentityMap {
+
+    private final Map<String, CustomUserModel> byId = new HashMap<>();
+    private final Map<String, CustomUserModel> byUsername = new HashMap<>();
+    private final Map<String, CustomUserModel> byEmail = new HashMap<>();
+    private final Set<String> missingUsernames = new HashSet<>();
+    private final Set<String> missingEmails = new HashSet<>();
+    @Getter
+    private long hits;
+    @Getter
+    private long misses;
+
+    public CustomUserModel getById(String id) {
+        return count(byId.get(id));
+    }
+
+    public CustomUserModel getByUsername(String username) {
+        return count(byUsername.get(username));
+    }
+
+    public CustomUserModel getByEmail(String email) {
+        return count(byEmail.get(email));
+    }
+
+    public void put(User user, CustomUserModel userModel) {
+        byId.put(user.getId(), userModel);
+        byUsername.put(user.getUsername(), userModel);
+
+        if (user.getEmail() != null) {
+            byEmail.put(user.getEmail(), userModel);
+        }
+    }
+
+    public void putIfAbsent(User user, CustomUserModel userModel) {
+        if (!byId.containsKey(user.getId())) {
+            put(user, userModel);
+        }
+    }
+
+    public boolean isMissingUsername(String username) {
+        return missingUsernames.contains(username);
+    }
+
+    public void putMissingUsername(String username) {
+        missingUsernames.add(username);
+    }
+
+    public boolean isMissingEmail(String email) {
+        return missingEmails.contains(email);
+    }
+
+    public void putMissingEmail(String email) {
+        missingEmails.add(email);
+    }
+
+    private CustomUserModel count(CustomUserModel userModel) {
+        if (userModel == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+
+        return userModel;
+    }
+}
@@ -0,0 +1,81 @@
+package com.github.paulosalonso.keycloak.userstorage.provider;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+
+/**
+ * Remembers successful password verifications. Entries are keyed by an HMAC of the user id, the fingerprint of
+ * the stored hash and the presented password, computed with a random key that never leaves this node, so the
+ * cache holds no password and a changed stored hash misses immediately.
+ * <p>
+ * The fingerprint is itself an HMAC of the stored hash, so it can be kept next to a Keycloak cached user to check
+ * a repeated login without reading the hash again.
+ */
+public class VerifiedCredentialCache {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final boolean enabled;
+    private final Cache<String, Boolean> verified;
+    private final ThreadLocal<Mac> macs;
+
+    public VerifiedCredentialCache(UserStorageConfiguration configuration) {
+        var maximumSize = configuration.getCredentialCacheMaxSize();
+        var timeToLive = configuration.getCredentialCacheTtl();
+
+        enabled = maximumSize > 0;
+        verified = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(Duration.ofMillis(timeToLive))
+                .build();
+
+        var secretKey = new byte[32];
+        new SecureRandom().nextBytes(secretKey);
+        var keySpec = new SecretKeySpec(secretKey, ALGORITHM);
+        macs = ThreadLocal.withInitial(() -> newMac(keySpec));
+    }
+
+    public String fingerprint(String storedHash) {
+        var mac = macs.get();
+        return Base64.getEncoder().encodeToString(mac.doFinal(storedHash.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public boolean isVerified(String userId, String fingerprint, String rawPassword) {
+        return enabled && verified.getIfPresent(key(userId, fingerprint, rawPassword)) != null;
+    }
+
+    public void putVerified(String userId, String fingerprint, String rawPassword) {
+        if (enabled) {
+            verified.put(key(userId, fingerprint, rawPassword), Boolean.TRUE);
+        }
+    }
+
+    private String key(String userId, String fingerprint, String rawPassword) {
+        var mac = macs.get();
+        mac.update(userId.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        mac.update(fingerprint.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        mac.update(rawPassword.getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(mac.doFinal());
+    }
+
+    private static Mac newMac(SecretKeySpec keySpec) {
+        try {
+            var mac = Mac.getInstance(ALGORITHM);
+            mac.init(keySpec);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
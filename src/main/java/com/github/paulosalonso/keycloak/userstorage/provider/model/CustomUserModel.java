@@ -11,21 +11,22 @@ import org.keycloak.storage.StorageId;
 import org.keycloak.storage.adapter.AbstractUserAdapter;
 
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Slf4j
 public class CustomUserModel extends AbstractUserAdapter {
 
     private final User user;
-    private final Set<RoleModel> roles;
+    private final Supplier<List<Role>> rolesSupplier;
+    private volatile Set<RoleModel> roles;
 
-    public CustomUserModel(KeycloakSession session, RealmModel realm, ComponentModel storageProviderModel, User user, List<Role> roles) {
+    public CustomUserModel(KeycloakSession session, RealmModel realm, ComponentModel storageProviderModel, User user, Supplier<List<Role>> rolesSupplier) {
         super(session, realm, storageProviderModel);
         this.user = user;
-        this.roles = roles.stream()
-                .map(role -> new CustomRoleModel(role, realm))
-                .collect(Collectors.toSet());
+        this.rolesSupplier = rolesSupplier;
     }
 
     @Override
@@ -43,8 +44,45 @@ public class CustomUserModel extends AbstractUserAdapter {
         return user.getEmail();
     }
 
+    /**
+     * Password hash read together with the user, when password prefetch is enabled. It is not an attribute,
+     * so it is never exposed through the admin API or copied into the Keycloak user cache.
+     */
+    public Optional<String> getPrefetchedPassword() {
+        return Optional.ofNullable(user.getPassword());
+    }
+
+    /**
+     * Roles mapped to the user, loading them if needed, as plain values that can be kept in the Keycloak user cache.
+     */
+    public List<Role> getRoles() {
+        return getRoleMappingsInternal().stream()
+                .map(role -> Role.builder()
+                        .id(role.getId())
+                        .name(role.getName())
+                        .description(role.getDescription())
+                        .build())
+                .collect(Collectors.toList());
+    }
+
     @Override
     public Set<RoleModel> getRoleMappingsInternal() {
-        return roles;
+        var mappedRoles = roles;
+
+        if (mappedRoles == null) {
+            synchronized (this) {
+                mappedRoles = roles;
+
+                if (mappedRoles == null) {
+                    log.debug("Loading roles of user {}", user.getId());
+                    mappedRoles = rolesSupplier.get().stream()
+                            .map(role -> new CustomRoleModel(role, realm))
+                            .collect(Collectors.toSet());
+                    roles = mappedRoles;
+                }
+            }
+        }
+
+        return mappedRoles;
     }
 }
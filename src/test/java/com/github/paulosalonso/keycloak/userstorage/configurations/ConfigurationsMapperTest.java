@@ -10,6 +10,8 @@ import org.mockito.junit.jupiter.MockitoExtension;
 
 import static com.github.paulosalonso.keycloak.userstorage.configurations.Configurations.*;
 import static org.assertj.core.api.Assertions.assertThat;
+import static com.github.paulosalonso.keycloak.userstorage.configurations.PasswordEncodeType.BCRYPT;
+import static com.github.paulosalonso.keycloak.userstorage.configurations.PasswordEncodeType.NONE;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -33,37 +35,120 @@ public class ConfigurationsMapperTest {
         when(configurations.getFirst(USER_USERNAME_FIELD)).thenReturn("USER_USERNAME_FIELD");
         when(configurations.getFirst(USER_EMAIL_FIELD)).thenReturn("USER_EMAIL_FIELD");
         when(configurations.getFirst(USER_PASSWORD_FIELD)).thenReturn("USER_PASSWORD_FIELD");
-        when(configurations.getFirst(PASSWORD_ENCODE_TYPE)).thenReturn("PASSWORD_ENCODE_TYPE");
         when(configurations.getFirst(ROLE_QUERY)).thenReturn("ROLE_QUERY");
         when(configurations.getFirst(ROLE_ID_FIELD)).thenReturn("ROLE_ID_FIELD");
         when(configurations.getFirst(ROLE_NAME_FIELD)).thenReturn("ROLE_NAME_FIELD");
         when(configurations.getFirst(ROLE_DESCRIPTION_FIELD)).thenReturn("ROLE_DESCRIPTION_FIELD");
+        when(configurations.getFirst(ROLE_BATCH_SIZE)).thenReturn("100");
         when(configurations.getFirst(ROLE_USER_ID_FIELD)).thenReturn("ROLE_USER_ID_FIELD");
     }
 
     @Test
-    public void givenAComponentModelWhenMapThenReturnProperties() {
-        var properties = ConfigurationsMapper.toProperties(componentModel);
+    public void givenAComponentModelWhenMapThenReturnConfiguration() {
+        when(configurations.getFirst(POOL_MIN_IDLE)).thenReturn("1");
+        when(configurations.getFirst(POOL_MAX_SIZE)).thenReturn("2");
+        when(configurations.getFirst(POOL_IDLE_TIMEOUT)).thenReturn("3");
+        when(configurations.getFirst(POOL_CONNECTION_TIMEOUT)).thenReturn("4");
+        when(configurations.getFirst(POOL_MAX_LIFETIME)).thenReturn("5");
+        when(configurations.getFirst(STATEMENT_CACHE_SIZE)).thenReturn("15");
+        when(configurations.getFirst(QUERY_TIMEOUT)).thenReturn("3000");
+        when(configurations.getFirst(QUERY_FETCH_SIZE)).thenReturn("50");
+        when(configurations.getFirst(ADMIN_QUERY_TIMEOUT)).thenReturn("90000");
+        when(configurations.getFirst(ROLE_USER_ID_LABEL)).thenReturn("ROLE_USER_ID_LABEL");
+        when(configurations.getFirst(CIRCUIT_BREAKER_FAILURE_THRESHOLD)).thenReturn("3");
+        when(configurations.getFirst(CIRCUIT_BREAKER_OPEN_DURATION)).thenReturn("10000");
+        when(configurations.getFirst(BULKHEAD_MAX_CONCURRENT)).thenReturn("8");
+        when(configurations.getFirst(BULKHEAD_MAX_WAIT)).thenReturn("200");
+        when(configurations.getFirst(BULKHEAD_ADAPTIVE)).thenReturn("true");
+        when(configurations.getFirst(PASSWORD_ENCODE_TYPE)).thenReturn("BCRYPT");
+        when(configurations.getFirst(USER_ROLES_QUERY)).thenReturn("USER_ROLES_QUERY");
+        when(configurations.getFirst(CREDENTIAL_QUERY)).thenReturn("CREDENTIAL_QUERY");
+        when(configurations.getFirst(PASSWORD_PREFETCH)).thenReturn("true");
+        when(configurations.getFirst(COMBINED_LOOKUP)).thenReturn("true");
+        when(configurations.getFirst(USER_COUNT_STRATEGY)).thenReturn("POSTGRESQL_ESTIMATE");
+        when(configurations.getFirst(USER_COUNT_TABLE)).thenReturn("USER_COUNT_TABLE");
+        when(configurations.getFirst(USER_COUNT_CACHE_TTL)).thenReturn("16");
+        when(configurations.getFirst(CACHE_MAX_SIZE)).thenReturn("6");
+        when(configurations.getFirst(CACHE_TTL)).thenReturn("7");
+        when(configurations.getFirst(NEGATIVE_CACHE_MAX_SIZE)).thenReturn("8");
+        when(configurations.getFirst(NEGATIVE_CACHE_TTL)).thenReturn("9");
+        when(configurations.getFirst(VERIFICATION_THREADS)).thenReturn("10");
+        when(configurations.getFirst(VERIFICATION_QUEUE_SIZE)).thenReturn("11");
+        when(configurations.getFirst(VERIFICATION_TIMEOUT)).thenReturn("12");
+        when(configurations.getFirst(CREDENTIAL_CACHE_MAX_SIZE)).thenReturn("13");
+        when(configurations.getFirst(CREDENTIAL_CACHE_TTL)).thenReturn("14");
+        when(configurations.getFirst(CREDENTIAL_CACHE_TRUST_CACHED_USER)).thenReturn("true");
 
-        assertThat(properties.get(JDBC_URL)).isEqualTo("JDBC_URL");
-        assertThat(properties.get(DB_USER)).isEqualTo("DB_USER");
-        assertThat(properties.get(DB_PASSWORD)).isEqualTo("DB_PASSWORD");
-        assertThat(properties.get(USER_QUERY)).isEqualTo("USER_QUERY");
-        assertThat(properties.get(USER_ID_FIELD)).isEqualTo("USER_ID_FIELD");
-        assertThat(properties.get(USER_USERNAME_FIELD)).isEqualTo("USER_USERNAME_FIELD");
-        assertThat(properties.get(USER_EMAIL_FIELD)).isEqualTo("USER_EMAIL_FIELD");
-        assertThat(properties.get(USER_PASSWORD_FIELD)).isEqualTo("USER_PASSWORD_FIELD");
-        assertThat(properties.get(PASSWORD_ENCODE_TYPE)).isEqualTo("PASSWORD_ENCODE_TYPE");
-        assertThat(properties.get(ROLE_QUERY)).isEqualTo("ROLE_QUERY");
-        assertThat(properties.get(ROLE_ID_FIELD)).isEqualTo("ROLE_ID_FIELD");
-        assertThat(properties.get(ROLE_NAME_FIELD)).isEqualTo("ROLE_NAME_FIELD");
-        assertThat(properties.get(ROLE_DESCRIPTION_FIELD)).isEqualTo("ROLE_DESCRIPTION_FIELD");
-        assertThat(properties.get(ROLE_USER_ID_FIELD)).isEqualTo("ROLE_USER_ID_FIELD");
+        var configuration = ConfigurationsMapper.toConfiguration(componentModel);
+
+        assertThat(configuration.getJdbcUrl()).isEqualTo("JDBC_URL");
+        assertThat(configuration.getDbUser()).isEqualTo("DB_USER");
+        assertThat(configuration.getDbPassword()).isEqualTo("DB_PASSWORD");
+        assertThat(configuration.getPoolMinIdle()).isEqualTo(1);
+        assertThat(configuration.getPoolMaxSize()).isEqualTo(2);
+        assertThat(configuration.getPoolIdleTimeout()).isEqualTo(3);
+        assertThat(configuration.getPoolConnectionTimeout()).isEqualTo(4);
+        assertThat(configuration.getPoolMaxLifetime()).isEqualTo(5);
+        assertThat(configuration.getStatementCacheSize()).isEqualTo(15);
+        assertThat(configuration.getQueryTimeout()).isEqualTo(3000);
+        assertThat(configuration.getQueryFetchSize()).isEqualTo(50);
+        assertThat(configuration.getAdminQueryTimeout()).isEqualTo(90000);
+        assertThat(configuration.getCircuitBreakerFailureThreshold()).isEqualTo(3);
+        assertThat(configuration.getCircuitBreakerOpenDuration()).isEqualTo(10000);
+        assertThat(configuration.getBulkheadMaxConcurrent()).isEqualTo(8);
+        assertThat(configuration.getBulkheadMaxWait()).isEqualTo(200);
+        assertThat(configuration.isBulkheadAdaptive()).isTrue();
+        assertThat(configuration.getUserQuery()).isEqualTo("USER_QUERY");
+        assertThat(configuration.getUserIdField()).isEqualTo("USER_ID_FIELD");
+        assertThat(configuration.getUserUsernameField()).isEqualTo("USER_USERNAME_FIELD");
+        assertThat(configuration.getUserEmailField()).isEqualTo("USER_EMAIL_FIELD");
+        assertThat(configuration.getUserPasswordField()).isEqualTo("USER_PASSWORD_FIELD");
+        assertThat(configuration.getPasswordEncodeType()).isEqualTo(BCRYPT);
+        assertThat(configuration.getRoleQuery()).isEqualTo("ROLE_QUERY");
+        assertThat(configuration.getRoleIdField()).isEqualTo("ROLE_ID_FIELD");
+        assertThat(configuration.getRoleNameField()).isEqualTo("ROLE_NAME_FIELD");
+        assertThat(configuration.getRoleDescriptionField()).isEqualTo("ROLE_DESCRIPTION_FIELD");
+        assertThat(configuration.getRoleBatchSize()).isEqualTo(100);
+        assertThat(configuration.getRoleUserIdField()).isEqualTo("ROLE_USER_ID_FIELD");
+        assertThat(configuration.getRoleUserIdLabel()).isEqualTo("ROLE_USER_ID_LABEL");
+        assertThat(configuration.getUserRolesQuery()).isEqualTo("USER_ROLES_QUERY");
+        assertThat(configuration.getCredentialQuery()).isEqualTo("CREDENTIAL_QUERY");
+        assertThat(configuration.isPasswordPrefetch()).isTrue();
+        assertThat(configuration.isCombinedLookup()).isTrue();
+        assertThat(configuration.getUserCountStrategy()).isEqualTo(UserCountStrategy.POSTGRESQL_ESTIMATE);
+        assertThat(configuration.getUserCountTable()).isEqualTo("USER_COUNT_TABLE");
+        assertThat(configuration.getUserCountCacheTtl()).isEqualTo(16);
+        assertThat(configuration.getCacheMaxSize()).isEqualTo(6);
+        assertThat(configuration.getCacheTtl()).isEqualTo(7);
+        assertThat(configuration.getNegativeCacheMaxSize()).isEqualTo(8);
+        assertThat(configuration.getNegativeCacheTtl()).isEqualTo(9);
+        assertThat(configuration.getVerificationThreads()).isEqualTo(10);
+        assertThat(configuration.getVerificationQueueSize()).isEqualTo(11);
+        assertThat(configuration.getVerificationTimeout()).isEqualTo(12);
+        assertThat(configuration.getCredentialCacheMaxSize()).isEqualTo(13);
+        assertThat(configuration.getCredentialCacheTtl()).isEqualTo(14);
+        assertThat(configuration.isCredentialCacheTrustCachedUser()).isTrue();
+        assertThat(configuration.isJoinedLookup()).isTrue();
+        assertThat(configuration.toString()).doesNotContain("DB_PASSWORD");
 
         verify(componentModel).getConfig();
         verify(configurations).getFirst(JDBC_URL);
         verify(configurations).getFirst(DB_USER);
         verify(configurations).getFirst(DB_PASSWORD);
+        verify(configurations).getFirst(POOL_MIN_IDLE);
+        verify(configurations).getFirst(POOL_MAX_SIZE);
+        verify(configurations).getFirst(POOL_IDLE_TIMEOUT);
+        verify(configurations).getFirst(POOL_CONNECTION_TIMEOUT);
+        verify(configurations).getFirst(POOL_MAX_LIFETIME);
+        verify(configurations).getFirst(STATEMENT_CACHE_SIZE);
+        verify(configurations).getFirst(QUERY_TIMEOUT);
+        verify(configurations).getFirst(QUERY_FETCH_SIZE);
+        verify(configurations).getFirst(ADMIN_QUERY_TIMEOUT);
+        verify(configurations).getFirst(CIRCUIT_BREAKER_FAILURE_THRESHOLD);
+        verify(configurations).getFirst(CIRCUIT_BREAKER_OPEN_DURATION);
+        verify(configurations).getFirst(BULKHEAD_MAX_CONCURRENT);
+        verify(configurations).getFirst(BULKHEAD_MAX_WAIT);
+        verify(configurations).getFirst(BULKHEAD_ADAPTIVE);
         verify(configurations).getFirst(USER_QUERY);
         verify(configurations).getFirst(USER_ID_FIELD);
         verify(configurations).getFirst(USER_USERNAME_FIELD);
@@ -74,6 +159,102 @@ public class ConfigurationsMapperTest {
         verify(configurations).getFirst(ROLE_ID_FIELD);
         verify(configurations).getFirst(ROLE_NAME_FIELD);
         verify(configurations).getFirst(ROLE_DESCRIPTION_FIELD);
+        verify(configurations).getFirst(ROLE_BATCH_SIZE);
         verify(configurations).getFirst(ROLE_USER_ID_FIELD);
+        verify(configurations).getFirst(ROLE_USER_ID_LABEL);
+        verify(configurations).getFirst(USER_ROLES_QUERY);
+        verify(configurations).getFirst(CREDENTIAL_QUERY);
+        verify(configurations).getFirst(PASSWORD_PREFETCH);
+        verify(configurations).getFirst(COMBINED_LOOKUP);
+        verify(configurations).getFirst(USER_COUNT_STRATEGY);
+        verify(configurations).getFirst(USER_COUNT_TABLE);
+        verify(configurations).getFirst(USER_COUNT_CACHE_TTL);
+        verify(configurations).getFirst(CACHE_MAX_SIZE);
+        verify(configurations).getFirst(CACHE_TTL);
+        verify(configurations).getFirst(NEGATIVE_CACHE_MAX_SIZE);
+        verify(configurations).getFirst(NEGATIVE_CACHE_TTL);
+        verify(configurations).getFirst(VERIFICATION_THREADS);
+        verify(configurations).getFirst(VERIFICATION_QUEUE_SIZE);
+        verify(configurations).getFirst(VERIFICATION_TIMEOUT);
+        verify(configurations).getFirst(CREDENTIAL_CACHE_MAX_SIZE);
+        verify(configurations).getFirst(CREDENTIAL_CACHE_TTL);
+        verify(configurations).getFirst(CREDENTIAL_CACHE_TRUST_CACHED_USER);
+    }
+
+    @Test
+    public void givenAComponentModelWithoutOptionalConfigurationsWhenMapThenReturnDefaults() {
+        when(configurations.getFirst(POOL_MIN_IDLE)).thenReturn(null);
+        when(configurations.getFirst(POOL_MAX_SIZE)).thenReturn(" ");
+        when(configurations.getFirst(POOL_IDLE_TIMEOUT)).thenReturn(null);
+        when(configurations.getFirst(POOL_CONNECTION_TIMEOUT)).thenReturn(null);
+        when(configurations.getFirst(POOL_MAX_LIFETIME)).thenReturn(null);
+        when(configurations.getFirst(STATEMENT_CACHE_SIZE)).thenReturn(null);
+        when(configurations.getFirst(QUERY_TIMEOUT)).thenReturn(null);
+        when(configurations.getFirst(QUERY_FETCH_SIZE)).thenReturn(null);
+        when(configurations.getFirst(ADMIN_QUERY_TIMEOUT)).thenReturn(null);
+        when(configurations.getFirst(CIRCUIT_BREAKER_FAILURE_THRESHOLD)).thenReturn(null);
+        when(configurations.getFirst(CIRCUIT_BREAKER_OPEN_DURATION)).thenReturn(null);
+        when(configurations.getFirst(BULKHEAD_MAX_CONCURRENT)).thenReturn(null);
+        when(configurations.getFirst(BULKHEAD_MAX_WAIT)).thenReturn(null);
+        when(configurations.getFirst(BULKHEAD_ADAPTIVE)).thenReturn(null);
+        when(configurations.getFirst(ROLE_BATCH_SIZE)).thenReturn(null);
+        when(configurations.getFirst(ROLE_USER_ID_FIELD)).thenReturn("u.user_id");
+        when(configurations.getFirst(ROLE_USER_ID_LABEL)).thenReturn(null);
+        when(configurations.getFirst(PASSWORD_ENCODE_TYPE)).thenReturn(null);
+        when(configurations.getFirst(USER_ROLES_QUERY)).thenReturn(null);
+        when(configurations.getFirst(CREDENTIAL_QUERY)).thenReturn(null);
+        when(configurations.getFirst(PASSWORD_PREFETCH)).thenReturn(null);
+        when(configurations.getFirst(COMBINED_LOOKUP)).thenReturn(null);
+        when(configurations.getFirst(USER_COUNT_STRATEGY)).thenReturn(null);
+        when(configurations.getFirst(USER_COUNT_TABLE)).thenReturn(null);
+        when(configurations.getFirst(USER_COUNT_CACHE_TTL)).thenReturn(null);
+        when(configurations.getFirst(CACHE_MAX_SIZE)).thenReturn(null);
+        when(configurations.getFirst(CACHE_TTL)).thenReturn(null);
+        when(configurations.getFirst(NEGATIVE_CACHE_MAX_SIZE)).thenReturn(null);
+        when(configurations.getFirst(NEGATIVE_CACHE_TTL)).thenReturn(null);
+        when(configurations.getFirst(VERIFICATION_THREADS)).thenReturn(null);
+        when(configurations.getFirst(VERIFICATION_QUEUE_SIZE)).thenReturn(null);
+        when(configurations.getFirst(VERIFICATION_TIMEOUT)).thenReturn(null);
+        when(configurations.getFirst(CREDENTIAL_CACHE_MAX_SIZE)).thenReturn(null);
+        when(configurations.getFirst(CREDENTIAL_CACHE_TTL)).thenReturn(null);
+        when(configurations.getFirst(CREDENTIAL_CACHE_TRUST_CACHED_USER)).thenReturn(null);
+
+        var configuration = ConfigurationsMapper.toConfiguration(componentModel);
+
+        assertThat(configuration.getPoolMinIdle()).isEqualTo(Integer.parseInt(DEFAULT_POOL_MIN_IDLE));
+        assertThat(configuration.getPoolMaxSize()).isEqualTo(Integer.parseInt(DEFAULT_POOL_MAX_SIZE));
+        assertThat(configuration.getPoolIdleTimeout()).isEqualTo(Long.parseLong(DEFAULT_POOL_IDLE_TIMEOUT));
+        assertThat(configuration.getPoolConnectionTimeout()).isEqualTo(Long.parseLong(DEFAULT_POOL_CONNECTION_TIMEOUT));
+        assertThat(configuration.getPoolMaxLifetime()).isEqualTo(Long.parseLong(DEFAULT_POOL_MAX_LIFETIME));
+        assertThat(configuration.getStatementCacheSize()).isEqualTo(Integer.parseInt(DEFAULT_STATEMENT_CACHE_SIZE));
+        assertThat(configuration.getQueryTimeout()).isEqualTo(Long.parseLong(DEFAULT_QUERY_TIMEOUT));
+        assertThat(configuration.getQueryFetchSize()).isEqualTo(Integer.parseInt(DEFAULT_QUERY_FETCH_SIZE));
+        assertThat(configuration.getAdminQueryTimeout()).isEqualTo(Long.parseLong(DEFAULT_ADMIN_QUERY_TIMEOUT));
+        assertThat(configuration.getCircuitBreakerFailureThreshold()).isEqualTo(Integer.parseInt(DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD));
+        assertThat(configuration.getCircuitBreakerOpenDuration()).isEqualTo(Long.parseLong(DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION));
+        assertThat(configuration.getBulkheadMaxConcurrent()).isEqualTo(Integer.parseInt(DEFAULT_BULKHEAD_MAX_CONCURRENT));
+        assertThat(configuration.getBulkheadMaxWait()).isEqualTo(Long.parseLong(DEFAULT_BULKHEAD_MAX_WAIT));
+        assertThat(configuration.isBulkheadAdaptive()).isEqualTo(Boolean.parseBoolean(DEFAULT_BULKHEAD_ADAPTIVE));
+        assertThat(configuration.getRoleBatchSize()).isEqualTo(Integer.parseInt(DEFAULT_ROLE_BATCH_SIZE));
+        assertThat(configuration.getRoleUserIdLabel()).isEqualTo("user_id");
+        assertThat(configuration.getPasswordEncodeType()).isEqualTo(NONE);
+        assertThat(configuration.getUserRolesQuery()).isEmpty();
+        assertThat(configuration.getCredentialQuery()).isEmpty();
+        assertThat(configuration.isPasswordPrefetch()).isFalse();
+        assertThat(configuration.isCombinedLookup()).isFalse();
+        assertThat(configuration.getUserCountStrategy()).isEqualTo(UserCountStrategy.EXACT);
+        assertThat(configuration.getUserCountTable()).isEmpty();
+        assertThat(configuration.getUserCountCacheTtl()).isEqualTo(Long.parseLong(DEFAULT_USER_COUNT_CACHE_TTL));
+        assertThat(configuration.getCacheMaxSize()).isEqualTo(Long.parseLong(DEFAULT_CACHE_MAX_SIZE));
+        assertThat(configuration.getCacheTtl()).isEqualTo(Long.parseLong(DEFAULT_CACHE_TTL));
+        assertThat(configuration.getNegativeCacheMaxSize()).isEqualTo(Long.parseLong(DEFAULT_NEGATIVE_CACHE_MAX_SIZE));
+        assertThat(configuration.getNegativeCacheTtl()).isEqualTo(Long.parseLong(DEFAULT_NEGATIVE_CACHE_TTL));
+        assertThat(configuration.getVerificationThreads()).isEqualTo(Integer.parseInt(DEFAULT_VERIFICATION_THREADS));
+        assertThat(configuration.getVerificationQueueSize()).isEqualTo(Integer.parseInt(DEFAULT_VERIFICATION_QUEUE_SIZE));
+        assertThat(configuration.getVerificationTimeout()).isEqualTo(Long.parseLong(DEFAULT_VERIFICATION_TIMEOUT));
+        assertThat(configuration.getCredentialCacheMaxSize()).isEqualTo(Long.parseLong(DEFAULT_CREDENTIAL_CACHE_MAX_SIZE));
+        assertThat(configuration.getCredentialCacheTtl()).isEqualTo(Long.parseLong(DEFAULT_CREDENTIAL_CACHE_TTL));
+        assertThat(configuration.isCredentialCacheTrustCachedUser()).isEqualTo(Boolean.parseBoolean(DEFAULT_CREDENTIAL_CACHE_TRUST_CACHED_USER));
+        assertThat(configuration.isJoinedLookup()).isFalse();
     }
 }
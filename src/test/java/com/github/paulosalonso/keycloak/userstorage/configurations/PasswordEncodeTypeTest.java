@@ -10,7 +10,7 @@ public class PasswordEncodeTypeTest {
     @Test
     public void whenGetEnumEntriesAsStringListThenReturnString() {
         var stringList = PasswordEncodeType.asStringList();
-        assertThat(stringList).containsExactly("BCRYPT", "MD5", "NONE");
+        assertThat(stringList).containsExactly("BCRYPT", "MD5", "SHA1", "SHA256", "SHA512", "NONE");
     }
 
     @Test
@@ -0,0 +1,30 @@
+package com.github.paulosalonso.keycloak.userstorage.configurations;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class UserCountStrategyTest {
+
+    @Test
+    public void whenGetEnumEntriesAsStringListThenReturnString() {
+        var stringList = UserCountStrategy.asStringList();
+        assertThat(stringList).containsExactly("EXACT", "MYSQL_ESTIMATE", "POSTGRESQL_ESTIMATE");
+    }
+
+    @Test
+    public void whenGetUserCountStrategyOfNameThenReturnUserCountStrategy() {
+        var name = UserCountStrategy.MYSQL_ESTIMATE.name();
+        var strategy = UserCountStrategy.of(name);
+        assertThat(strategy).isEqualByComparingTo(UserCountStrategy.MYSQL_ESTIMATE);
+    }
+
+    @Test
+    public void whenGetUserCountStrategyOfInvalidNameThenThrowsIllegalArgumentException() {
+        assertThatThrownBy(() -> UserCountStrategy.of("invalid-strategy"))
+                .isExactlyInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Invalid user count strategy: invalid-strategy")
+                .hasNoCause();
+    }
+}
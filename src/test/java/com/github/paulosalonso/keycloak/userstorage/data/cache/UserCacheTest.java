@@ -0,0 +1,146 @@
+package com.github.paulosalonso.keycloak.userstorage.data.cache;
+
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import com.github.paulosalonso.keycloak.userstorage.data.model.Role;
+import com.github.paulosalonso.keycloak.userstorage.data.model.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class UserCacheTest {
+
+    private UserCache userCache;
+
+    @BeforeEach
+    public void setUp() {
+        var configuration = UserStorageConfiguration.builder()
+                .cacheMaxSize(100)
+                .cacheTtl(60000)
+                .negativeCacheMaxSize(100)
+                .negativeCacheTtl(10000)
+                .build();
+
+        userCache = new UserCache(configuration);
+    }
+
+    @Test
+    public void givenPositiveMaxSizeWhenCheckIfIsEnabledThenReturnTrue() {
+        var configuration = UserStorageConfiguration.builder().cacheMaxSize(1).build();
+
+        assertThat(UserCache.isEnabled(configuration)).isTrue();
+    }
+
+    @Test
+    public void givenPositiveNegativeCacheMaxSizeWhenCheckIfIsEnabledThenReturnTrue() {
+        var configuration = UserStorageConfiguration.builder().negativeCacheMaxSize(1).build();
+
+        assertThat(UserCache.isEnabled(configuration)).isTrue();
+    }
+
+    @Test
+    public void givenZeroOrMissingMaxSizeWhenCheckIfIsEnabledThenReturnFalse() {
+        assertThat(UserCache.isEnabled(UserStorageConfiguration.builder().build())).isFalse();
+
+        var configuration = UserStorageConfiguration.builder()
+                .cacheMaxSize(0)
+                .negativeCacheMaxSize(0)
+                .build();
+
+        assertThat(UserCache.isEnabled(configuration)).isFalse();
+    }
+
+    @Test
+    public void givenZeroMaxSizeWhenPutThenDoNotKeepEntries() {
+        var configuration = UserStorageConfiguration.builder()
+                .cacheMaxSize(0)
+                .negativeCacheMaxSize(0)
+                .build();
+        var disabledCache = new UserCache(configuration);
+
+        disabledCache.put(User.builder().id("id").username("fulano").build());
+        disabledCache.putMissingUsername("beltrano");
+
+        assertThat(disabledCache.getById("id")).isEmpty();
+        assertThat(disabledCache.isMissingUsername("beltrano")).isFalse();
+    }
+
+    @Test
+    public void givenMissingUsernameAndEmailWhenCheckThenReturnTrue() {
+        userCache.putMissingUsername("fulano");
+        userCache.putMissingEmail("fulano@mail.com");
+
+        assertThat(userCache.isMissingUsername("fulano")).isTrue();
+        assertThat(userCache.isMissingEmail("fulano@mail.com")).isTrue();
+        assertThat(userCache.isMissingUsername("beltrano")).isFalse();
+        assertThat(userCache.isMissingEmail("beltrano@mail.com")).isFalse();
+        assertThat(userCache.getMissingUserStats().hitCount()).isEqualTo(2);
+        assertThat(userCache.getMissingUserStats().missCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void givenMissingUserWhenPutItThenItIsNoLongerMissing() {
+        userCache.putMissingUsername("fulano");
+        userCache.putMissingEmail("fulano@mail.com");
+
+        userCache.put(User.builder()
+                .id("id")
+                .username("fulano")
+                .email("fulano@mail.com")
+                .build());
+
+        assertThat(userCache.isMissingUsername("fulano")).isFalse();
+        assertThat(userCache.isMissingEmail("fulano@mail.com")).isFalse();
+    }
+
+    @Test
+    public void givenCachedUserWhenGetByAnyKeyThenReturnUserWithoutPassword() {
+        userCache.put(User.builder()
+                .id("id")
+                .username("fulano")
+                .email("fulano@mail.com")
+                .password("hash")
+                .build());
+
+        assertThat(userCache.getById("id")).hasValueSatisfying(user -> {
+            assertThat(user.getUsername()).isEqualTo("fulano");
+            assertThat(user.getPassword()).isNull();
+        });
+        assertThat(userCache.getByUsername("fulano")).map(User::getId).contains("id");
+        assertThat(userCache.getByEmail("fulano@mail.com")).map(User::getId).contains("id");
+        assertThat(userCache.getUserStats().hitCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void givenUserWithoutEmailWhenPutThenDoNotIndexByEmail() {
+        userCache.put(User.builder()
+                .id("id")
+                .username("fulano")
+                .build());
+
+        assertThat(userCache.getByUsername("fulano")).isPresent();
+        assertThat(userCache.getByEmail("fulano@mail.com")).isEmpty();
+    }
+
+    @Test
+    public void whenGetUnknownUserThenReturnEmptyAndCountMiss() {
+        assertThat(userCache.getById("id")).isEmpty();
+        assertThat(userCache.getByUsername("fulano")).isEmpty();
+        assertThat(userCache.getByEmail("fulano@mail.com")).isEmpty();
+        assertThat(userCache.getUserStats().missCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void givenCachedRolesWhenGetRolesThenReturnThem() {
+        var roles = List.of(Role.builder().id("role-id").build());
+
+        userCache.putRoles("id", roles);
+
+        assertThat(userCache.getRoles("id")).containsSame(roles);
+        assertThat(userCache.getRoles("other-id")).isEmpty();
+        assertThat(userCache.getRoleStats().hitCount()).isEqualTo(1);
+        assertThat(userCache.getRoleStats().missCount()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,148 @@
+package com.github.paulosalonso.keycloak.userstorage.data.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class SingleFlightTest {
+
+    private static final int THREADS = 16;
+
+    private final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+
+    @Test
+    public void whenExecuteSequentiallyThenRunLoaderEachTime() {
+        var calls = new AtomicInteger();
+
+        singleFlight.execute("key", () -> "value-" + calls.incrementAndGet());
+        var result = singleFlight.execute("key", () -> "value-" + calls.incrementAndGet());
+
+        assertThat(result).isEqualTo("value-2");
+        assertThat(calls).hasValue(2);
+    }
+
+    @Test
+    public void whenLoaderThrowsThenRethrowIt() {
+        var exception = new RuntimeException("failure");
+
+        assertThatThrownBy(() -> singleFlight.execute("key", () -> { throw exception; }))
+                .isSameAs(exception);
+        assertThat(singleFlight.execute("key", () -> "value")).isEqualTo("value");
+    }
+
+    @Test
+    public void whenExecuteConcurrentlyWithSameKeyThenRunLoaderOnceAndShareResult() throws Exception {
+        var calls = new AtomicInteger();
+        var release = new CountDownLatch(1);
+
+        var results = executeConcurrently(() -> {
+            calls.incrementAndGet();
+            await(release);
+            return "value";
+        }, release);
+
+        for (var result : results) {
+            assertThat(result.get()).isEqualTo("value");
+        }
+
+        assertThat(calls).hasValue(1);
+    }
+
+    @Test
+    public void whenLoaderThrowsWhileOthersWaitThenAllReceiveTheException() throws Exception {
+        var exception = new RuntimeException("failure");
+        var release = new CountDownLatch(1);
+
+        var results = executeConcurrently(() -> {
+            await(release);
+            throw exception;
+        }, release);
+
+        for (var result : results) {
+            assertThatThrownBy(result::get)
+                    .isInstanceOf(ExecutionException.class)
+                    .hasCauseReference(exception);
+        }
+    }
+
+    @Test
+    public void whenLoaderFailsWithErrorWhileOthersWaitThenAllReceiveTheError() throws Exception {
+        var error = new AssertionError("failure");
+        var release = new CountDownLatch(1);
+
+        var results = executeConcurrently(() -> {
+            await(release);
+            throw error;
+        }, release);
+
+        for (var result : results) {
+            assertThatThrownBy(() -> result.get(5, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .hasCauseReference(error);
+        }
+
+        assertThat(singleFlight.execute("key", () -> "value")).isEqualTo("value");
+    }
+
+    private List<Future<String>> executeConcurrently(Supplier<String> loader, CountDownLatch release) throws InterruptedException {
+        var executor = Executors.newFixedThreadPool(THREADS);
+        var started = new CountDownLatch(THREADS);
+        var threads = new ArrayList<Thread>();
+        var results = new ArrayList<Future<String>>();
+
+        try {
+            for (int i = 0; i < THREADS; i++) {
+                results.add(executor.submit(() -> {
+                    synchronized (threads) {
+                        threads.add(Thread.currentThread());
+                    }
+                    started.countDown();
+                    return singleFlight.execute("key", loader);
+                }));
+            }
+
+            started.await();
+
+            synchronized (threads) {
+                for (var thread : threads) {
+                    while (thread.getState() != Thread.State.WAITING) {
+                        Thread.onSpinWait();
+                    }
+                }
+            }
+
+            release.countDown();
+
+            for (var result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    // asserted by the caller
+                }
+            }
+
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
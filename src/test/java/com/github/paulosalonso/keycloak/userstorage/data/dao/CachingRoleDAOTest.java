@@ -0,0 +1,87 @@
+package com.github.paulosalonso.keycloak.userstorage.data.dao;
+
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import com.github.paulosalonso.keycloak.userstorage.data.cache.UserCache;
+import com.github.paulosalonso.keycloak.userstorage.data.database.StatementExecutor;
+import com.github.paulosalonso.keycloak.userstorage.data.mapper.RoleMapper;
+import com.github.paulosalonso.keycloak.userstorage.data.model.Role;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class CachingRoleDAOTest {
+
+    private CachingRoleDAO roleDAO;
+
+    @Mock
+    private StatementExecutor statementExecutor;
+
+    @Mock
+    private RoleMapper roleMapper;
+
+    @Mock
+    private UserCache userCache;
+
+    private final List<Role> roles = List.of(Role.builder().id("role-id").build());
+
+    @BeforeEach
+    public void setUp() {
+        roleDAO = new CachingRoleDAO(statementExecutor, UserStorageConfiguration.builder().build(), roleMapper, userCache);
+    }
+
+    @Test
+    public void givenCachedRolesWhenGetRolesByUserIdThenDoNotQueryDatabase() {
+        when(userCache.getRoles("id")).thenReturn(Optional.of(roles));
+
+        assertThat(roleDAO.getRolesByUserId("id")).isSameAs(roles);
+        verifyNoInteractions(statementExecutor);
+    }
+
+    @Test
+    public void givenUncachedRolesWhenGetRolesByUserIdThenQueryDatabaseAndCacheThem() {
+        when(userCache.getRoles("id")).thenReturn(Optional.empty());
+        when(statementExecutor.executeQuery(any(), any(), any())).thenReturn(roles);
+
+        assertThat(roleDAO.getRolesByUserId("id")).isSameAs(roles);
+
+        verify(statementExecutor).executeQuery(any(), any(), any());
+        verify(userCache).putRoles("id", roles);
+    }
+
+    @Test
+    public void givenSomeCachedRolesWhenGetRolesByUserIdsThenQueryOnlyUncachedOnesAndCacheThem() {
+        var otherRoles = List.of(Role.builder().id("other-role-id").build());
+
+        when(userCache.getRoles("id")).thenReturn(Optional.of(roles));
+        when(userCache.getRoles("other-id")).thenReturn(Optional.empty());
+        when(statementExecutor.executeBatchQuery(any(), eq(List.of("other-id")), any()))
+                .thenReturn(Map.of("other-id", otherRoles));
+
+        var result = roleDAO.getRolesByUserIds(List.of("id", "other-id"));
+
+        assertThat(result).containsOnly(entry("id", roles), entry("other-id", otherRoles));
+        verify(userCache).putRoles("other-id", otherRoles);
+        verify(userCache, never()).putRoles(eq("id"), any());
+    }
+
+    @Test
+    public void givenAllRolesCachedWhenGetRolesByUserIdsThenDoNotQueryDatabase() {
+        when(userCache.getRoles("id")).thenReturn(Optional.of(roles));
+
+        assertThat(roleDAO.getRolesByUserIds(List.of("id"))).containsOnly(entry("id", roles));
+        verifyNoInteractions(statementExecutor);
+    }
+}
@@ -0,0 +1,71 @@
+package com.github.paulosalonso.keycloak.userstorage.data.dao;
+
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import com.github.paulosalonso.keycloak.userstorage.data.database.CircuitOpenException;
+import com.github.paulosalonso.keycloak.userstorage.data.database.StatementExecutor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class CachingUserCountDAOTest {
+
+    @Mock
+    private StatementExecutor statementExecutor;
+
+    @Test
+    public void givenCountedUsersWhenCountUsersAgainThenReturnCachedCount() {
+        var userCountDAO = userCountDAO(60000);
+
+        when(statementExecutor.executeQuery(anyString(), any())).thenReturn(42);
+
+        assertThat(userCountDAO.countUsers()).isEqualTo(42);
+        assertThat(userCountDAO.countUsers()).isEqualTo(42);
+
+        verify(statementExecutor).executeQuery(anyString(), any());
+    }
+
+    @Test
+    public void givenFailedCountWhenCountUsersAgainThenCountAgain() {
+        var userCountDAO = userCountDAO(60000);
+
+        when(statementExecutor.executeQuery(anyString(), any()))
+                .thenThrow(new CircuitOpenException())
+                .thenReturn(42);
+
+        assertThatThrownBy(userCountDAO::countUsers).isInstanceOf(CircuitOpenException.class);
+        assertThat(userCountDAO.countUsers()).isEqualTo(42);
+    }
+
+    @Test
+    public void givenExpiredCountWhenCountFailsThenReturnLastCount() {
+        var userCountDAO = userCountDAO(0);
+
+        when(statementExecutor.executeQuery(anyString(), any()))
+                .thenReturn(42)
+                .thenThrow(new RuntimeException("Error executing query"))
+                .thenReturn(43);
+
+        assertThat(userCountDAO.countUsers()).isEqualTo(42);
+        assertThat(userCountDAO.countUsers()).isEqualTo(42);
+        assertThat(userCountDAO.countUsers()).isEqualTo(43);
+
+        verify(statementExecutor, times(3)).executeQuery(anyString(), any());
+    }
+
+    private UserCountDAO userCountDAO(long timeToLive) {
+        var configuration = UserStorageConfiguration.builder()
+                .userQuery("SELECT id FROM user")
+                .userCountCacheTtl(timeToLive)
+                .build();
+
+        return new CachingUserCountDAO(statementExecutor, configuration);
+    }
+}
@@ -0,0 +1,195 @@
+package com.github.paulosalonso.keycloak.userstorage.data.dao;
+
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import com.github.paulosalonso.keycloak.userstorage.data.cache.UserCache;
+import com.github.paulosalonso.keycloak.userstorage.data.database.StatementExecutor;
+import com.github.paulosalonso.keycloak.userstorage.data.mapper.UserMapper;
+import com.github.paulosalonso.keycloak.userstorage.data.model.User;
+import com.github.paulosalonso.keycloak.userstorage.data.model.UserMatches;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class CachingUserDAOTest {
+
+    private CachingUserDAO userDAO;
+
+    @Mock
+    private StatementExecutor statementExecutor;
+
+    @Mock
+    private UserMapper userMapper;
+
+    @Mock
+    private UserCache userCache;
+
+    private final User user = User.builder().id("id").build();
+
+    @BeforeEach
+    public void setUp() {
+        userDAO = new CachingUserDAO(statementExecutor, UserStorageConfiguration.builder().build(), userMapper, userCache);
+    }
+
+    @Test
+    public void givenCachedUserWhenFindByIdThenDoNotQueryDatabase() {
+        when(userCache.getById("id")).thenReturn(Optional.of(user));
+
+        assertThat(userDAO.findById("id")).containsSame(user);
+        verifyNoInteractions(statementExecutor);
+    }
+
+    @Test
+    public void givenCachedUserWhenFindByUsernameThenDoNotQueryDatabase() {
+        when(userCache.getByUsername("fulano")).thenReturn(Optional.of(user));
+
+        assertThat(userDAO.findByUsername("fulano")).containsSame(user);
+        verifyNoInteractions(statementExecutor);
+    }
+
+    @Test
+    public void givenCachedUserWhenFindByEmailThenDoNotQueryDatabase() {
+        when(userCache.getByEmail("fulano@mail.com")).thenReturn(Optional.of(user));
+
+        assertThat(userDAO.findByEmail("fulano@mail.com")).containsSame(user);
+        verifyNoInteractions(statementExecutor);
+    }
+
+    @Test
+    public void givenUncachedUserWhenFindThenQueryDatabaseAndCacheIt() {
+        when(userCache.getById("id")).thenReturn(Optional.empty());
+        when(userCache.getByUsername("fulano")).thenReturn(Optional.empty());
+        when(userCache.getByEmail("fulano@mail.com")).thenReturn(Optional.empty());
+        when(statementExecutor.executeQuery(any(), any(), any())).thenReturn(Optional.of(user));
+
+        assertThat(userDAO.findById("id")).containsSame(user);
+        assertThat(userDAO.findByUsername("fulano")).containsSame(user);
+        assertThat(userDAO.findByEmail("fulano@mail.com")).containsSame(user);
+
+        verify(statementExecutor, times(3)).executeQuery(any(), any(), any());
+        verify(userCache, times(3)).put(user);
+    }
+
+    @Test
+    public void givenNonexistentUserWhenFindThenDoNotCacheIt() {
+        when(userCache.getById("id")).thenReturn(Optional.empty());
+        when(statementExecutor.executeQuery(any(), any(), any())).thenReturn(Optional.empty());
+
+        assertThat(userDAO.findById("id")).isEmpty();
+
+        verify(userCache, never()).put(any());
+    }
+
+    @Test
+    public void givenMissingUsernameWhenFindByUsernameThenReturnEmptyWithoutQueryingDatabase() {
+        when(userCache.isMissingUsername("fulano")).thenReturn(true);
+
+        assertThat(userDAO.findByUsername("fulano")).isEmpty();
+
+        verify(userCache, never()).getByUsername(any());
+        verifyNoInteractions(statementExecutor);
+    }
+
+    @Test
+    public void givenMissingEmailWhenFindByEmailThenReturnEmptyWithoutQueryingDatabase() {
+        when(userCache.isMissingEmail("fulano@mail.com")).thenReturn(true);
+
+        assertThat(userDAO.findByEmail("fulano@mail.com")).isEmpty();
+
+        verify(userCache, never()).getByEmail(any());
+        verifyNoInteractions(statementExecutor);
+    }
+
+    @Test
+    public void givenNonexistentUsernameAndEmailWhenFindThenRememberThemAsMissing() {
+        when(userCache.getByUsername("fulano")).thenReturn(Optional.empty());
+        when(userCache.getByEmail("fulano@mail.com")).thenReturn(Optional.empty());
+        when(statementExecutor.executeQuery(any(), any(), any())).thenReturn(Optional.empty());
+
+        assertThat(userDAO.findByUsername("fulano")).isEmpty();
+        assertThat(userDAO.findByEmail("fulano@mail.com")).isEmpty();
+
+        verify(userCache).putMissingUsername("fulano");
+        verify(userCache).putMissingEmail("fulano@mail.com");
+    }
+
+    @Test
+    public void givenCachedEmailWhenFindByUsernameOrEmailThenDoNotQueryDatabase() {
+        when(userCache.getByEmail("fulano")).thenReturn(Optional.of(user));
+
+        var matches = userDAO.findByUsernameOrEmail("fulano");
+
+        assertThat(matches.getByEmail()).containsSame(user);
+        assertThat(matches.getByUsername()).isEmpty();
+        verifyNoInteractions(statementExecutor);
+    }
+
+    @Test
+    public void givenMissingUsernameAndEmailWhenFindByUsernameOrEmailThenDoNotQueryDatabase() {
+        when(userCache.getByEmail("fulano")).thenReturn(Optional.empty());
+        when(userCache.isMissingEmail("fulano")).thenReturn(true);
+        when(userCache.isMissingUsername("fulano")).thenReturn(true);
+
+        var matches = userDAO.findByUsernameOrEmail("fulano");
+
+        assertThat(matches.getByUsername()).isEmpty();
+        assertThat(matches.getByEmail()).isEmpty();
+        verifyNoInteractions(statementExecutor);
+    }
+
+    @Test
+    public void givenMissingEmailAndCachedUsernameWhenFindByUsernameOrEmailThenDoNotQueryDatabase() {
+        when(userCache.getByEmail("fulano")).thenReturn(Optional.empty());
+        when(userCache.isMissingEmail("fulano")).thenReturn(true);
+        when(userCache.getByUsername("fulano")).thenReturn(Optional.of(user));
+
+        var matches = userDAO.findByUsernameOrEmail("fulano");
+
+        assertThat(matches.getByEmail()).isEmpty();
+        assertThat(matches.getByUsername()).containsSame(user);
+        verifyNoInteractions(statementExecutor);
+    }
+
+    @Test
+    public void givenMissingEmailAndUnknownUsernameWhenFindByUsernameOrEmailThenQueryDatabaseAndCacheUsername() {
+        when(userCache.getByEmail("fulano")).thenReturn(Optional.empty());
+        when(userCache.isMissingEmail("fulano")).thenReturn(true);
+        when(userCache.getByUsername("fulano")).thenReturn(Optional.empty());
+        when(statementExecutor.executeBatchQuery(any(), anyList(), any())).thenReturn(new UserMatches(null, null));
+
+        var matches = userDAO.findByUsernameOrEmail("fulano");
+
+        assertThat(matches.getByUsername()).isEmpty();
+        assertThat(matches.getByEmail()).isEmpty();
+        verify(userCache).putMissingUsername("fulano");
+        verify(userCache).putMissingEmail("fulano");
+    }
+
+    @Test
+    public void givenUncachedValueWhenFindByUsernameOrEmailThenQueryDatabaseAndCacheBothOutcomes() {
+        var byEmail = User.builder().id("other").email("fulano").build();
+        var byUsername = User.builder().id("id").username("fulano").build();
+
+        when(userCache.getByEmail("fulano")).thenReturn(Optional.empty());
+        when(statementExecutor.executeBatchQuery(any(), anyList(), any())).thenReturn(new UserMatches(byUsername, byEmail));
+
+        var matches = userDAO.findByUsernameOrEmail("fulano");
+
+        assertThat(matches.getByUsername()).containsSame(byUsername);
+        assertThat(matches.getByEmail()).containsSame(byEmail);
+        verify(statementExecutor).executeBatchQuery(any(), anyList(), any());
+        verify(userCache).put(byUsername);
+        verify(userCache).put(byEmail);
+        verify(userCache, never()).putMissingUsername(any());
+        verify(userCache, never()).putMissingEmail(any());
+    }
+}
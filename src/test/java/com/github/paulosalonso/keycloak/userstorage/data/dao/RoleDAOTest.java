@@ -1,5 +1,7 @@
 package com.github.paulosalonso.keycloak.userstorage.data.dao;
 
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import com.github.paulosalonso.keycloak.userstorage.data.database.ResultSetHandler;
 import com.github.paulosalonso.keycloak.userstorage.data.database.StatementExecutor;
 import com.github.paulosalonso.keycloak.userstorage.data.mapper.RoleMapper;
 import com.github.paulosalonso.keycloak.userstorage.data.model.Role;
@@ -11,21 +13,17 @@ import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.List;
-import java.util.Properties;
-import java.util.function.Function;
+import java.util.Map;
 
-import static com.github.paulosalonso.keycloak.userstorage.configurations.Configurations.ROLE_QUERY;
-import static com.github.paulosalonso.keycloak.userstorage.configurations.Configurations.ROLE_USER_ID_FIELD;
 import static java.lang.String.format;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -40,83 +38,95 @@ public class RoleDAOTest {
     private StatementExecutor statementExecutor;
 
     @Mock
-    private Properties properties;
+    private UserStorageConfiguration configuration;
 
     @Mock
     private RoleMapper roleMapper;
 
-    @Mock
-    private Connection connection;
-
-    @Mock
-    private PreparedStatement preparedStatement;
-
     @Mock
     private ResultSet resultSet;
 
     @Captor
-    private ArgumentCaptor<Function<Connection, List<Role>>> functionCaptor;
+    private ArgumentCaptor<ResultSetHandler<List<Role>>> handlerCaptor;
 
     @Captor
-    private ArgumentCaptor<String> queryCaptor;
+    private ArgumentCaptor<ResultSetHandler<Map<String, List<Role>>>> batchHandlerCaptor;
 
     @BeforeEach
     public void setUp() throws SQLException {
-        lenient().when(connection.prepareStatement(anyString())).thenReturn(preparedStatement);
-        lenient().when(preparedStatement.getResultSet()).thenReturn(resultSet);
-        lenient().when(properties.getProperty(ROLE_USER_ID_FIELD)).thenReturn("userId");
-        lenient().when(properties.getProperty(ROLE_QUERY)).thenReturn(BASE_QUERY);
+        lenient().when(configuration.getRoleUserIdField()).thenReturn("userId");
+        lenient().when(configuration.getRoleQuery()).thenReturn(BASE_QUERY);
 
-        roleDAO = new RoleDAO(statementExecutor, properties, roleMapper);
+        roleDAO = new RoleDAO(statementExecutor, configuration, roleMapper);
 
-        verify(properties).getProperty(ROLE_USER_ID_FIELD);
+        verify(configuration, times(2)).getRoleUserIdField();
     }
 
     @Test
-    public void whenFindUserByIdThenReturnOptionalWithUser() throws SQLException {
+    public void whenGetRolesByUserIdThenReturnRoleList() throws SQLException {
         var roleList = List.of(Role.builder().build());
+        var query = format(COMPLETE_QUERY, "userId");
 
-        when(statementExecutor.executeStatement(any(Function.class))).thenReturn(roleList);
+        when(statementExecutor.executeQuery(eq(query), eq("1"), any())).thenReturn(roleList);
 
         var result = roleDAO.getRolesByUserId("1");
         assertThat(result).isSameAs(roleList);
-        verify(statementExecutor).executeStatement(functionCaptor.capture());
-        var function = functionCaptor.getValue();
+        verify(statementExecutor).executeQuery(eq(query), eq("1"), handlerCaptor.capture());
 
         when(roleMapper.map(resultSet)).thenReturn(roleList);
 
-        var functionRoleList = function.apply(connection);
-        assertThat(functionRoleList).isSameAs(roleList);
-
-        verify(connection).prepareStatement(queryCaptor.capture());
-        var query = queryCaptor.getValue();
-        assertThat(query).isEqualTo(format(COMPLETE_QUERY, "userId"));
+        assertThat(handlerCaptor.getValue().handle(resultSet)).isSameAs(roleList);
 
-        verify(preparedStatement).setString(1, "1");
-        verify(preparedStatement).execute();
-        verify(preparedStatement).getResultSet();
         verify(roleMapper).map(resultSet);
     }
 
     @Test
-    public void whenAnErrorOccursSearchingUserByIdThenThrowsRuntimeException() throws SQLException {
+    public void whenAnErrorOccursGettingRolesByUserIdThenThrowsSameException() {
         var exception = new RuntimeException();
 
-        when(statementExecutor.executeStatement(any(Function.class))).thenThrow(exception);
+        when(statementExecutor.executeQuery(anyString(), eq("1"), any())).thenThrow(exception);
 
         assertThatThrownBy(() -> roleDAO.getRolesByUserId("1")).isSameAs(exception);
-        verify(statementExecutor).executeStatement(functionCaptor.capture());
-        var function = functionCaptor.getValue();
+        verifyNoInteractions(roleMapper);
+    }
 
-        doThrow(SQLException.class).when(preparedStatement).execute();
+    @Test
+    public void whenGetRolesByUserIdsThenQueryBatchesOfSameSizeAndMapUsersWithoutRolesToEmptyList() throws SQLException {
+        when(configuration.getRoleBatchSize()).thenReturn(2);
+        var batchRoleDAO = new RoleDAO(statementExecutor, configuration, roleMapper);
+        var query = BASE_QUERY + " WHERE userId IN (?, ?)";
+        var firstRoles = List.of(Role.builder().id("role-1").build());
+        var thirdRoles = List.of(Role.builder().id("role-3").build());
 
-        assertThatThrownBy(() -> function.apply(connection))
-                .isExactlyInstanceOf(RuntimeException.class)
-                .hasCauseExactlyInstanceOf(SQLException.class);
+        when(statementExecutor.executeBatchQuery(eq(query), eq(List.of("1", "2")), any()))
+                .thenReturn(Map.of("1", firstRoles));
+        when(statementExecutor.executeBatchQuery(eq(query), eq(List.of("3", "3")), any()))
+                .thenReturn(Map.of("3", thirdRoles));
 
-        verify(preparedStatement).setString(1, "1");
-        verify(preparedStatement).execute();
-        verifyNoMoreInteractions(preparedStatement);
-        verifyNoInteractions(roleMapper);
+        var result = batchRoleDAO.getRolesByUserIds(List.of("1", "2", "3"));
+
+        assertThat(result).containsOnlyKeys("1", "2", "3");
+        assertThat(result.get("1")).isSameAs(firstRoles);
+        assertThat(result.get("2")).isEmpty();
+        assertThat(result.get("3")).isSameAs(thirdRoles);
+
+        verify(statementExecutor).executeBatchQuery(eq(query), eq(List.of("1", "2")), batchHandlerCaptor.capture());
+
+        var mappedRoles = Map.of("1", firstRoles);
+        when(roleMapper.mapByUserId(resultSet)).thenReturn(mappedRoles);
+
+        assertThat(batchHandlerCaptor.getValue().handle(resultSet)).isSameAs(mappedRoles);
+    }
+
+    @Test
+    public void givenBatchSizeDisabledWhenGetRolesByUserIdsThenQueryOneUserAtATime() {
+        var query = BASE_QUERY + " WHERE userId IN (?)";
+
+        when(statementExecutor.executeBatchQuery(eq(query), any(), any())).thenReturn(Map.of());
+
+        assertThat(roleDAO.getRolesByUserIds(List.of("1", "2"))).containsOnlyKeys("1", "2");
+
+        verify(statementExecutor).executeBatchQuery(eq(query), eq(List.of("1")), any());
+        verify(statementExecutor).executeBatchQuery(eq(query), eq(List.of("2")), any());
     }
 }
@@ -0,0 +1,116 @@
+package com.github.paulosalonso.keycloak.userstorage.data.dao;
+
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserCountStrategy;
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import com.github.paulosalonso.keycloak.userstorage.data.database.ResultSetHandler;
+import com.github.paulosalonso.keycloak.userstorage.data.database.StatementExecutor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class UserCountDAOTest {
+
+    private static final String BASE_QUERY = "SELECT id, name, email FROM user";
+    private static final String COUNT_QUERY = "SELECT COUNT(*) FROM (" + BASE_QUERY + ") users";
+    private static final String MYSQL_ESTIMATE_QUERY =
+            "SELECT TABLE_ROWS FROM information_schema.TABLES WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?";
+    private static final String POSTGRESQL_ESTIMATE_QUERY = "SELECT reltuples::bigint FROM pg_class WHERE oid = to_regclass(?)";
+
+    @Mock
+    private StatementExecutor statementExecutor;
+
+    @Mock
+    private ResultSet resultSet;
+
+    @Captor
+    private ArgumentCaptor<ResultSetHandler<Integer>> countHandlerCaptor;
+
+    @Captor
+    private ArgumentCaptor<ResultSetHandler<Long>> estimateHandlerCaptor;
+
+    @Test
+    public void whenCountUsersThenCountRowsOfUserQuery() throws SQLException {
+        var userCountDAO = userCountDAO(UserCountStrategy.EXACT, "user");
+
+        when(statementExecutor.executeQuery(eq(COUNT_QUERY), any())).thenReturn(42);
+
+        assertThat(userCountDAO.countUsers()).isEqualTo(42);
+
+        verify(statementExecutor).executeQuery(eq(COUNT_QUERY), countHandlerCaptor.capture());
+        verifyNoMoreInteractions(statementExecutor);
+        when(resultSet.next()).thenReturn(true, false);
+        when(resultSet.getInt(1)).thenReturn(42);
+        assertThat(countHandlerCaptor.getValue().handle(resultSet)).isEqualTo(42);
+        assertThat(countHandlerCaptor.getValue().handle(resultSet)).isZero();
+    }
+
+    @Test
+    public void givenMySqlEstimateWhenCountUsersThenReadTableRowsOfUserTable() throws SQLException {
+        var userCountDAO = userCountDAO(UserCountStrategy.MYSQL_ESTIMATE, "user");
+
+        when(statementExecutor.executeQuery(eq(MYSQL_ESTIMATE_QUERY), eq("user"), any())).thenReturn(1_000_000L);
+
+        assertThat(userCountDAO.countUsers()).isEqualTo(1_000_000);
+
+        verify(statementExecutor).executeQuery(eq(MYSQL_ESTIMATE_QUERY), eq("user"), estimateHandlerCaptor.capture());
+        verifyNoMoreInteractions(statementExecutor);
+        when(resultSet.next()).thenReturn(true, true, false);
+        when(resultSet.getLong(1)).thenReturn(1_000_000L, 0L);
+        when(resultSet.wasNull()).thenReturn(false, true);
+        assertThat(estimateHandlerCaptor.getValue().handle(resultSet)).isEqualTo(1_000_000L);
+        assertThat(estimateHandlerCaptor.getValue().handle(resultSet)).isEqualTo(-1L);
+        assertThat(estimateHandlerCaptor.getValue().handle(resultSet)).isEqualTo(-1L);
+    }
+
+    @Test
+    public void givenPostgreSqlEstimateBeyondIntegerRangeWhenCountUsersThenReturnMaxInteger() {
+        var userCountDAO = userCountDAO(UserCountStrategy.POSTGRESQL_ESTIMATE, "public.user");
+
+        when(statementExecutor.executeQuery(eq(POSTGRESQL_ESTIMATE_QUERY), eq("public.user"), any()))
+                .thenReturn(Integer.MAX_VALUE + 1L);
+
+        assertThat(userCountDAO.countUsers()).isEqualTo(Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void givenNoEstimateWhenCountUsersThenCountRowsOfUserQuery() {
+        var userCountDAO = userCountDAO(UserCountStrategy.POSTGRESQL_ESTIMATE, "user");
+
+        when(statementExecutor.executeQuery(eq(POSTGRESQL_ESTIMATE_QUERY), eq("user"), any())).thenReturn(-1L);
+        when(statementExecutor.executeQuery(eq(COUNT_QUERY), any())).thenReturn(42);
+
+        assertThat(userCountDAO.countUsers()).isEqualTo(42);
+    }
+
+    @Test
+    public void givenEstimateWithoutTableWhenCountUsersThenCountRowsOfUserQuery() {
+        var userCountDAO = userCountDAO(UserCountStrategy.MYSQL_ESTIMATE, " ");
+
+        when(statementExecutor.executeQuery(eq(COUNT_QUERY), any())).thenReturn(42);
+
+        assertThat(userCountDAO.countUsers()).isEqualTo(42);
+        verifyNoMoreInteractions(statementExecutor);
+    }
+
+    private UserCountDAO userCountDAO(UserCountStrategy strategy, String table) {
+        var configuration = UserStorageConfiguration.builder()
+                .userQuery(BASE_QUERY)
+                .userCountStrategy(strategy)
+                .userCountTable(table)
+                .build();
+
+        return new UserCountDAO(statementExecutor, configuration);
+    }
+}
@@ -0,0 +1,141 @@
+package com.github.paulosalonso.keycloak.userstorage.data.dao;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import com.github.paulosalonso.keycloak.userstorage.data.database.StatementExecutor;
+import com.github.paulosalonso.keycloak.userstorage.data.mapper.UserMapper;
+import com.github.paulosalonso.keycloak.userstorage.data.model.User;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static com.github.paulosalonso.keycloak.userstorage.configurations.Configurations.*;
+
+/**
+ * Compares the lookup path that formatted the SQL and read the column labels from {@link Properties}
+ * on every call with the precompiled {@link UserDAO}. The JDBC objects are no-op proxies, so only the
+ * DAO and mapper overhead is measured.
+ *
+ * Run with: mvn -Pbenchmark test-compile exec:exec -Dbenchmark.includes=UserDAOBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserDAOBenchmark {
+
+    private Properties properties;
+    private StatementExecutor executor;
+    private UserDAO userDAO;
+
+    @Setup
+    public void setUp() {
+        ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.INFO);
+
+        properties = new Properties();
+        properties.put(USER_QUERY, "SELECT id, username, email, password FROM user");
+        properties.put(USER_ID_FIELD, "id");
+        properties.put(USER_USERNAME_FIELD, "username");
+        properties.put(USER_EMAIL_FIELD, "email");
+        properties.put(USER_PASSWORD_FIELD, "password");
+
+        var connection = fakeConnection();
+
+        var configuration = UserStorageConfiguration.builder()
+                .userQuery("SELECT id, username, email, password FROM user")
+                .userIdField("id")
+                .userUsernameField("username")
+                .userEmailField("email")
+                .userPasswordField("password")
+                .build();
+
+        executor = new StatementExecutor(null, null, null, configuration) {
+            @Override
+            public <T> T executeStatement(Function<Connection, T> statement) {
+                return statement.apply(connection);
+            }
+        };
+
+        userDAO = new UserDAO(executor, configuration, new UserMapper(configuration));
+    }
+
+    @Benchmark
+    public Optional<User> formattedQueryPerLookup() {
+        return executor.executeStatement(connection -> {
+            try {
+                var query = String.format("%s WHERE %s = ?",
+                        properties.getProperty(USER_QUERY), properties.getProperty(USER_USERNAME_FIELD));
+                var statement = connection.prepareStatement(query);
+                statement.setString(1, "fulano");
+                statement.execute();
+
+                var resultSet = statement.getResultSet();
+
+                if (resultSet.next()) {
+                    return Optional.of(User.builder()
+                            .id(resultSet.getString(properties.getProperty(USER_ID_FIELD)))
+                            .username(resultSet.getString(properties.getProperty(USER_USERNAME_FIELD)))
+                            .email(resultSet.getString(properties.getProperty(USER_EMAIL_FIELD)))
+                            .build());
+                }
+
+                return Optional.empty();
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    @Benchmark
+    public Optional<User> precompiledQueryLookup() {
+        return userDAO.findByUsername("fulano");
+    }
+
+    private static Connection fakeConnection() {
+        var columns = new String[] { "id", "username", "email", "password" };
+        var metaData = (ResultSetMetaData) Proxy.newProxyInstance(ResultSetMetaData.class.getClassLoader(), new Class<?>[] { ResultSetMetaData.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getColumnCount": return columns.length;
+                        case "getColumnLabel": return columns[(int) args[0] - 1];
+                        default: return null;
+                    }
+                });
+
+        var resultSet = (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "next": return true;
+                        case "getString": return "value";
+                        case "getMetaData": return metaData;
+                        default: return null;
+                    }
+                });
+
+        var statement = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[] { PreparedStatement.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "execute": return true;
+                        case "getResultSet":
+                        case "executeQuery": return resultSet;
+                        default: return null;
+                    }
+                });
+
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+                (proxy, method, args) -> "prepareStatement".equals(method.getName()) ? statement : null);
+    }
+}
@@ -1,30 +1,37 @@
 package com.github.paulosalonso.keycloak.userstorage.data.dao;
 
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import com.github.paulosalonso.keycloak.userstorage.data.database.ResultSetHandler;
 import com.github.paulosalonso.keycloak.userstorage.data.database.StatementExecutor;
 import com.github.paulosalonso.keycloak.userstorage.data.mapper.UserMapper;
 import com.github.paulosalonso.keycloak.userstorage.data.model.User;
+import com.github.paulosalonso.keycloak.userstorage.data.model.UserMatches;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
-import java.util.Properties;
-import java.util.function.Function;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import static com.github.paulosalonso.keycloak.userstorage.configurations.Configurations.*;
 import static java.lang.String.format;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -36,246 +43,236 @@ public class UserDAOTest {
     private static final String PASSWORD_FIELD = "password";
     private static final String BASE_QUERY = "SELECT id, name, email, password FROM user";
     private static final String COMPLETE_QUERY = BASE_QUERY + " WHERE %s = ?";
+    private static final String CREDENTIAL_ONLY_QUERY = "SELECT password FROM user";
+    private static final String JOINED_QUERY = "SELECT * FROM (SELECT u.id, u.name, u.email, r.id role_id FROM user u LEFT JOIN role r ON r.user_id = u.id) j";
 
-    @InjectMocks
     private UserDAO userDAO;
 
     @Mock
     private StatementExecutor statementExecutor;
 
     @Mock
-    private Properties properties;
+    private UserStorageConfiguration configuration;
 
     @Mock
     private UserMapper userMapper;
 
     @Mock
-    private Connection connection;
+    private ResultSet resultSet;
 
-    @Mock
-    private PreparedStatement preparedStatement;
+    @Captor
+    private ArgumentCaptor<ResultSetHandler<Optional<User>>> userHandlerCaptor;
 
-    @Mock
-    private ResultSet resultSet;
+    @Captor
+    private ArgumentCaptor<ResultSetHandler<UserMatches>> matchesHandlerCaptor;
 
     @Captor
-    private ArgumentCaptor<Function<Connection, Optional<User>>> functionCaptor;
+    private ArgumentCaptor<ResultSetHandler<Optional<String>>> passwordHandlerCaptor;
 
     @BeforeEach
     public void setUp() throws SQLException {
-        lenient().when(connection.prepareStatement(anyString())).thenReturn(preparedStatement);
-        lenient().when(preparedStatement.getResultSet()).thenReturn(resultSet);
-        lenient().when(properties.getProperty(USER_QUERY)).thenReturn(BASE_QUERY);
+        when(configuration.getUserQuery()).thenReturn(BASE_QUERY);
+        when(configuration.getUserIdField()).thenReturn(ID_FIELD);
+        when(configuration.getUserUsernameField()).thenReturn(USERNAME_FIELD);
+        when(configuration.getUserEmailField()).thenReturn(EMAIL_FIELD);
+        when(configuration.getUserPasswordField()).thenReturn(PASSWORD_FIELD);
+        when(configuration.getUserRolesQuery()).thenReturn("");
+        when(configuration.getCredentialQuery()).thenReturn(null);
+        when(configuration.isCombinedLookup()).thenReturn(true);
+
+        userDAO = new UserDAO(statementExecutor, configuration, userMapper);
+
+        verify(configuration).getUserQuery();
+        verify(configuration).getUserRolesQuery();
+        verify(configuration).getCredentialQuery();
+        verify(configuration, times(2)).getUserIdField();
+        verify(configuration, times(2)).getUserUsernameField();
+        verify(configuration, times(2)).getUserEmailField();
+        verify(configuration).getUserPasswordField();
+        clearInvocations(configuration);
     }
 
     @Test
     public void whenFindUserByIdThenReturnOptionalWithUser() throws SQLException {
         var userOptional = Optional.of(User.builder().build());
+        var query = format(COMPLETE_QUERY, ID_FIELD);
 
-        when(statementExecutor.executeStatement(any(Function.class))).thenReturn(userOptional);
+        when(statementExecutor.executeQuery(eq(query), eq("1"), any())).thenReturn(userOptional);
 
         var result = userDAO.findById("1");
         assertThat(result).isSameAs(userOptional);
-        verify(statementExecutor).executeStatement(functionCaptor.capture());
-        var function = functionCaptor.getValue();
+        verify(statementExecutor).executeQuery(eq(query), eq("1"), userHandlerCaptor.capture());
 
-        when(properties.getProperty(USER_ID_FIELD)).thenReturn(ID_FIELD);
         when(userMapper.map(resultSet)).thenReturn(userOptional);
 
-        var functionUserOptional = function.apply(connection);
-        assertThat(functionUserOptional).isSameAs(userOptional);
-
-        verify(properties).getProperty(USER_QUERY);
-        verify(properties).getProperty(USER_ID_FIELD);
-        verifyNoMoreInteractions(properties);
-
-        var queryCaptor = ArgumentCaptor.forClass(String.class);
-        verify(connection).prepareStatement(queryCaptor.capture());
-
-        var query = queryCaptor.getValue();
-        assertThat(query).isEqualTo(format(COMPLETE_QUERY, ID_FIELD));
+        assertThat(userHandlerCaptor.getValue().handle(resultSet)).isSameAs(userOptional);
 
-        verify(preparedStatement).setString(1, "1");
-        verify(preparedStatement).execute();
-        verify(preparedStatement).getResultSet();
+        verifyNoInteractions(configuration);
         verify(userMapper).map(resultSet);
     }
 
     @Test
-    public void whenAnErrorOccursSearchingUserByIdThenThrowsRuntimeException() throws SQLException {
+    public void whenAnErrorOccursSearchingUserByIdThenThrowsSameException() {
         var exception = new RuntimeException();
 
-        when(statementExecutor.executeStatement(any(Function.class))).thenThrow(exception);
+        when(statementExecutor.executeQuery(anyString(), eq("1"), any())).thenThrow(exception);
 
         assertThatThrownBy(() -> userDAO.findById("1")).isSameAs(exception);
-        verify(statementExecutor).executeStatement(functionCaptor.capture());
-        var function = functionCaptor.getValue();
-
-        doThrow(SQLException.class).when(preparedStatement).execute();
-
-        assertThatThrownBy(() -> function.apply(connection))
-                .isExactlyInstanceOf(RuntimeException.class)
-                .hasCauseExactlyInstanceOf(SQLException.class);
-
-        verify(properties).getProperty(USER_QUERY);
-        verify(properties).getProperty(USER_ID_FIELD);
-        verifyNoMoreInteractions(properties);
-        verify(preparedStatement).setString(1, "1");
-        verify(preparedStatement).execute();
-        verifyNoMoreInteractions(preparedStatement);
         verifyNoInteractions(userMapper);
     }
 
     @Test
     public void whenFindUserByUsernameThenReturnOptionalWithUser() throws SQLException {
         var userOptional = Optional.of(User.builder().build());
+        var query = format(COMPLETE_QUERY, USERNAME_FIELD);
 
-        when(statementExecutor.executeStatement(any(Function.class))).thenReturn(userOptional);
+        when(statementExecutor.executeQuery(eq(query), eq("fulano"), any())).thenReturn(userOptional);
 
         var result = userDAO.findByUsername("fulano");
         assertThat(result).isSameAs(userOptional);
-        verify(statementExecutor).executeStatement(functionCaptor.capture());
-        var function = functionCaptor.getValue();
+        verify(statementExecutor).executeQuery(eq(query), eq("fulano"), userHandlerCaptor.capture());
 
-        when(properties.getProperty(USER_USERNAME_FIELD)).thenReturn(USERNAME_FIELD);
         when(userMapper.map(resultSet)).thenReturn(userOptional);
 
-        var functionUserOptional = function.apply(connection);
-        assertThat(functionUserOptional).isSameAs(userOptional);
-
-        verify(properties).getProperty(USER_QUERY);
-        verify(properties).getProperty(USER_USERNAME_FIELD);
-        verifyNoMoreInteractions(properties);
-
-        var queryCaptor = ArgumentCaptor.forClass(String.class);
-        verify(connection).prepareStatement(queryCaptor.capture());
-
-        var query = queryCaptor.getValue();
-        assertThat(query).isEqualTo(format(COMPLETE_QUERY, USERNAME_FIELD));
+        assertThat(userHandlerCaptor.getValue().handle(resultSet)).isSameAs(userOptional);
 
-        verify(preparedStatement).setString(1, "fulano");
-        verify(preparedStatement).execute();
-        verify(preparedStatement).getResultSet();
+        verifyNoInteractions(configuration);
         verify(userMapper).map(resultSet);
     }
 
     @Test
-    public void whenAnErrorOccursSearchingUserByUsernameThenThrowsRuntimeException() throws SQLException {
+    public void whenAnErrorOccursSearchingUserByUsernameThenThrowsSameException() {
         var exception = new RuntimeException();
 
-        when(statementExecutor.executeStatement(any(Function.class))).thenThrow(exception);
+        when(statementExecutor.executeQuery(anyString(), eq("fulano"), any())).thenThrow(exception);
 
         assertThatThrownBy(() -> userDAO.findByUsername("fulano")).isSameAs(exception);
-        verify(statementExecutor).executeStatement(functionCaptor.capture());
-        var function = functionCaptor.getValue();
-
-        doThrow(SQLException.class).when(preparedStatement).execute();
-
-        assertThatThrownBy(() -> function.apply(connection))
-                .isExactlyInstanceOf(RuntimeException.class)
-                .hasCauseExactlyInstanceOf(SQLException.class);
-
-        verify(properties).getProperty(USER_QUERY);
-        verify(properties).getProperty(USER_USERNAME_FIELD);
-        verifyNoMoreInteractions(properties);
-        verify(preparedStatement).setString(1, "fulano");
-        verify(preparedStatement).execute();
-        verifyNoMoreInteractions(preparedStatement);
         verifyNoInteractions(userMapper);
     }
 
     @Test
     public void whenFindUserByEmailThenReturnOptionalWithUser() throws SQLException {
         var userOptional = Optional.of(User.builder().build());
+        var query = format(COMPLETE_QUERY, EMAIL_FIELD);
 
-        when(statementExecutor.executeStatement(any(Function.class))).thenReturn(userOptional);
+        when(statementExecutor.executeQuery(eq(query), eq("fulano@mail.com"), any())).thenReturn(userOptional);
 
         var result = userDAO.findByEmail("fulano@mail.com");
         assertThat(result).isSameAs(userOptional);
-        verify(statementExecutor).executeStatement(functionCaptor.capture());
-        var function = functionCaptor.getValue();
+        verify(statementExecutor).executeQuery(eq(query), eq("fulano@mail.com"), userHandlerCaptor.capture());
 
-        when(properties.getProperty(USER_EMAIL_FIELD)).thenReturn(EMAIL_FIELD);
         when(userMapper.map(resultSet)).thenReturn(userOptional);
 
-        var functionUserOptional = function.apply(connection);
-        assertThat(functionUserOptional).isSameAs(userOptional);
+        assertThat(userHandlerCaptor.getValue().handle(resultSet)).isSameAs(userOptional);
 
-        verify(properties).getProperty(USER_QUERY);
-        verify(properties).getProperty(USER_EMAIL_FIELD);
-        verifyNoMoreInteractions(properties);
+        verifyNoInteractions(configuration);
+        verify(userMapper).map(resultSet);
+    }
 
-        var queryCaptor = ArgumentCaptor.forClass(String.class);
-        verify(connection).prepareStatement(queryCaptor.capture());
+    @Test
+    public void whenAnErrorOccursSearchingUserByEmailThenThrowsSameException() {
+        var exception = new RuntimeException();
 
-        var query = queryCaptor.getValue();
-        assertThat(query).isEqualTo(format(COMPLETE_QUERY, EMAIL_FIELD));
+        when(statementExecutor.executeQuery(anyString(), eq("fulano@mail.com"), any())).thenThrow(exception);
 
-        verify(preparedStatement).setString(1, "fulano@mail.com");
-        verify(preparedStatement).execute();
-        verify(preparedStatement).getResultSet();
-        verify(userMapper).map(resultSet);
+        assertThatThrownBy(() -> userDAO.findByEmail("fulano@mail.com")).isSameAs(exception);
+        verifyNoInteractions(userMapper);
+    }
+
+    @Test
+    public void whenFindUserByUsernameOrEmailThenSearchBothWithOneQueryThatTellsWhichFieldMatched() throws SQLException {
+        var matches = new UserMatches(User.builder().id("1").build(), null);
+        var query = "SELECT id, name, email, password"
+                + ", CASE WHEN name = ? THEN 1 ELSE 0 END AS username_match, CASE WHEN email = ? THEN 1 ELSE 0 END AS email_match"
+                + " FROM user WHERE name = ? OR email = ?";
+
+        when(statementExecutor.executeBatchQuery(eq(query), eq(List.of("fulano", "fulano", "fulano", "fulano")), any()))
+                .thenReturn(matches);
+
+        var result = userDAO.findByUsernameOrEmail("fulano");
+        assertThat(result).isSameAs(matches);
+        verify(statementExecutor).executeBatchQuery(eq(query), eq(List.of("fulano", "fulano", "fulano", "fulano")),
+                matchesHandlerCaptor.capture());
+
+        when(userMapper.mapMatches(resultSet)).thenReturn(matches);
+
+        assertThat(matchesHandlerCaptor.getValue().handle(resultSet)).isSameAs(matches);
+
+        verify(userMapper).mapMatches(resultSet);
+    }
+
+    @Test
+    public void givenUserRolesQueryWhenFindUserByUsernameOrEmailThenSelectMatchesBeforeOuterFrom() {
+        when(configuration.getUserRolesQuery()).thenReturn(JOINED_QUERY);
+        var joinedUserDAO = new UserDAO(statementExecutor, configuration, userMapper);
+
+        joinedUserDAO.findByUsernameOrEmail("fulano");
+
+        verify(statementExecutor).executeBatchQuery(eq("SELECT *"
+                + ", CASE WHEN name = ? THEN 1 ELSE 0 END AS username_match, CASE WHEN email = ? THEN 1 ELSE 0 END AS email_match"
+                + " FROM (SELECT u.id, u.name, u.email, r.id role_id FROM user u LEFT JOIN role r ON r.user_id = u.id) j"
+                + " WHERE name = ? OR email = ?"), anyList(), any());
+    }
+
+    @Test
+    public void givenSubqueryInSelectListWhenFindUserByUsernameOrEmailThenSelectMatchesBeforeOuterFrom() {
+        when(configuration.getUserQuery()).thenReturn("SELECT id, (SELECT MAX(l.at) FROM login l WHERE l.user_id = u.id) last_login FROM user u");
+        var subqueryUserDAO = new UserDAO(statementExecutor, configuration, userMapper);
+
+        subqueryUserDAO.findByUsernameOrEmail("fulano");
+
+        verify(statementExecutor).executeBatchQuery(eq("SELECT id, (SELECT MAX(l.at) FROM login l WHERE l.user_id = u.id) last_login"
+                + ", CASE WHEN name = ? THEN 1 ELSE 0 END AS username_match, CASE WHEN email = ? THEN 1 ELSE 0 END AS email_match"
+                + " FROM user u WHERE name = ? OR email = ?"), anyList(), any());
+    }
+
+    @Test
+    public void givenUserQueryWithoutFromWhenFindUserByUsernameOrEmailThenSelectMatchesAtTheEnd() {
+        when(configuration.getUserQuery()).thenReturn("SELECT fromage, name\nFROMusers");
+        var userDAOWithoutFrom = new UserDAO(statementExecutor, configuration, userMapper);
+
+        userDAOWithoutFrom.findByUsernameOrEmail("fulano");
+
+        verify(statementExecutor).executeBatchQuery(eq("SELECT fromage, name\nFROMusers"
+                + ", CASE WHEN name = ? THEN 1 ELSE 0 END AS username_match, CASE WHEN email = ? THEN 1 ELSE 0 END AS email_match"
+                + " WHERE name = ? OR email = ?"), anyList(), any());
+    }
+
+    @Test
+    public void givenCombinedLookupDisabledWhenCreateThenDoNotCompileUsernameOrEmailQuery() {
+        when(configuration.isCombinedLookup()).thenReturn(false);
+        when(configuration.getUserQuery()).thenReturn(null);
+
+        assertThatCode(() -> new UserDAO(statementExecutor, configuration, userMapper)).doesNotThrowAnyException();
     }
 
     @Test
-    public void whenAnErrorOccursSearchingUserByEmailThenThrowsRuntimeException() throws SQLException {
+    public void whenAnErrorOccursSearchingUserByUsernameOrEmailThenThrowsSameException() {
         var exception = new RuntimeException();
 
-        when(statementExecutor.executeStatement(any(Function.class))).thenThrow(exception);
+        when(statementExecutor.executeBatchQuery(anyString(), anyList(), any())).thenThrow(exception);
 
-        assertThatThrownBy(() -> userDAO.findByEmail("fulano@mail.com")).isSameAs(exception);
-        verify(statementExecutor).executeStatement(functionCaptor.capture());
-        var function = functionCaptor.getValue();
-
-        doThrow(SQLException.class).when(preparedStatement).execute();
-
-        assertThatThrownBy(() -> function.apply(connection))
-                .isExactlyInstanceOf(RuntimeException.class)
-                .hasCauseExactlyInstanceOf(SQLException.class);
-
-        verify(properties).getProperty(USER_QUERY);
-        verify(properties).getProperty(USER_EMAIL_FIELD);
-        verifyNoMoreInteractions(properties);
-        verify(connection).prepareStatement(anyString());
-        verify(preparedStatement).setString(1, "fulano@mail.com");
-        verify(preparedStatement).execute();
-        verifyNoMoreInteractions(preparedStatement);
+        assertThatThrownBy(() -> userDAO.findByUsernameOrEmail("fulano")).isSameAs(exception);
         verifyNoInteractions(userMapper);
     }
 
     @Test
     public void whenFindPasswordByUserIdThenReturnOptionalWithPassword() throws SQLException {
         var passwordOptional = Optional.of("P@ssw0rd");
+        var query = format(COMPLETE_QUERY, ID_FIELD);
 
-        when(statementExecutor.executeStatement(any(Function.class))).thenReturn(passwordOptional);
+        when(statementExecutor.executeQuery(eq(query), eq("1"), any())).thenReturn(passwordOptional);
 
         var result = userDAO.findPasswordByUserId("1");
         assertThat(result).isSameAs(passwordOptional);
-        verify(statementExecutor).executeStatement(functionCaptor.capture());
-        var function = functionCaptor.getValue();
+        verify(statementExecutor).executeQuery(eq(query), eq("1"), passwordHandlerCaptor.capture());
 
-        when(properties.getProperty(USER_ID_FIELD)).thenReturn(ID_FIELD);
-        when(properties.getProperty(USER_PASSWORD_FIELD)).thenReturn(PASSWORD_FIELD);
         when(resultSet.next()).thenReturn(true);
         when(resultSet.getString(PASSWORD_FIELD)).thenReturn("P@ssw0rd");
 
-        var functionPasswordOptional = function.apply(connection);
-        assertThat(functionPasswordOptional).isEqualTo(passwordOptional);
-
-        verify(properties).getProperty(USER_QUERY);
-        verify(properties).getProperty(USER_ID_FIELD);
-        verify(properties).getProperty(USER_PASSWORD_FIELD);
-        verifyNoMoreInteractions(properties);
-
-        var queryCaptor = ArgumentCaptor.forClass(String.class);
-        verify(connection).prepareStatement(queryCaptor.capture());
+        assertThat(passwordHandlerCaptor.getValue().handle(resultSet)).isEqualTo(passwordOptional);
 
-        var query = queryCaptor.getValue();
-        assertThat(query).isEqualTo(format(COMPLETE_QUERY, ID_FIELD));
-
-        verify(preparedStatement).setString(1, "1");
-        verify(preparedStatement).execute();
-        verify(preparedStatement).getResultSet();
+        verifyNoInteractions(configuration);
         verify(resultSet).next();
         verify(resultSet).getString(PASSWORD_FIELD);
         verifyNoInteractions(userMapper);
@@ -283,57 +280,105 @@ public class UserDAOTest {
 
     @Test
     public void whenFindPasswordByNonexistentUserIdThenReturnEmptyOptional() throws SQLException {
-        var passwordOptional = Optional.empty();
-
-        when(statementExecutor.executeStatement(any(Function.class))).thenReturn(passwordOptional);
-
-        var result = userDAO.findPasswordByUserId("1");
-        assertThat(result).isSameAs(passwordOptional);
-        verify(statementExecutor).executeStatement(functionCaptor.capture());
-        var function = functionCaptor.getValue();
+        userDAO.findPasswordByUserId("1");
+        verify(statementExecutor).executeQuery(anyString(), eq("1"), passwordHandlerCaptor.capture());
 
-        when(properties.getProperty(USER_ID_FIELD)).thenReturn(ID_FIELD);
         when(resultSet.next()).thenReturn(false);
 
-        var functionPasswordOptional = function.apply(connection);
-        assertThat(functionPasswordOptional).isSameAs(passwordOptional);
+        assertThat(passwordHandlerCaptor.getValue().handle(resultSet)).isEmpty();
 
-        verify(properties).getProperty(USER_QUERY);
-        verify(properties).getProperty(USER_ID_FIELD);
-        verifyNoMoreInteractions(properties);
-        verify(connection).prepareStatement(anyString());
-        verify(preparedStatement).setString(1, "1");
-        verify(preparedStatement).execute();
-        verify(preparedStatement).getResultSet();
         verify(resultSet).next();
         verifyNoMoreInteractions(resultSet);
         verifyNoInteractions(userMapper);
     }
 
     @Test
-    public void whenAnErrorOccursSearchingPasswordByUserIdThenThrowsRuntimeException() throws SQLException {
+    public void whenAnErrorOccursSearchingPasswordByUserIdThenThrowsSameException() {
         var exception = new RuntimeException();
 
-        when(statementExecutor.executeStatement(any(Function.class))).thenThrow(exception);
+        when(statementExecutor.executeQuery(anyString(), eq("1"), any())).thenThrow(exception);
 
         assertThatThrownBy(() -> userDAO.findPasswordByUserId("1")).isSameAs(exception);
-        verify(statementExecutor).executeStatement(functionCaptor.capture());
-        var function = functionCaptor.getValue();
-
-        doThrow(SQLException.class).when(preparedStatement).execute();
-
-        assertThatThrownBy(() -> function.apply(connection))
-                .isExactlyInstanceOf(RuntimeException.class)
-                .hasCauseExactlyInstanceOf(SQLException.class);
-
-        verify(properties).getProperty(USER_QUERY);
-        verify(properties).getProperty(USER_ID_FIELD);
-        verifyNoMoreInteractions(properties);
-        verify(connection).prepareStatement(anyString());
-        verify(preparedStatement).setString(1, "1");
-        verify(preparedStatement).execute();
-        verifyNoMoreInteractions(preparedStatement);
-        verifyNoInteractions(resultSet);
         verifyNoInteractions(userMapper);
     }
+
+    @Test
+    public void givenUserRolesQueryWhenFindUserThenUseItAndKeepUserQueryForPassword() {
+        when(configuration.getUserRolesQuery()).thenReturn(JOINED_QUERY);
+        var joinedUserDAO = new UserDAO(statementExecutor, configuration, userMapper);
+
+        joinedUserDAO.findById("1");
+        joinedUserDAO.findByUsername("fulano");
+        joinedUserDAO.findByEmail("fulano@mail.com");
+        joinedUserDAO.findPasswordByUserId("1");
+
+        var queryCaptor = ArgumentCaptor.forClass(String.class);
+        verify(statementExecutor, times(4)).executeQuery(queryCaptor.capture(), anyString(), any());
+        assertThat(queryCaptor.getAllValues()).containsExactly(
+                format(JOINED_QUERY + " WHERE %s = ?", ID_FIELD),
+                format(JOINED_QUERY + " WHERE %s = ?", USERNAME_FIELD),
+                format(JOINED_QUERY + " WHERE %s = ?", EMAIL_FIELD),
+                format(COMPLETE_QUERY, ID_FIELD));
+    }
+
+    @Test
+    public void givenCredentialQueryWhenFindPasswordByUserIdThenUseIt() {
+        when(configuration.getCredentialQuery()).thenReturn(CREDENTIAL_ONLY_QUERY);
+        var credentialUserDAO = new UserDAO(statementExecutor, configuration, userMapper);
+
+        credentialUserDAO.findPasswordByUserId("1");
+
+        verify(statementExecutor).executeQuery(eq(format(CREDENTIAL_ONLY_QUERY + " WHERE %s = ?", ID_FIELD)), eq("1"), any());
+    }
+
+    @Test
+    public void givenManyConcurrentLookupsOfSameUsernameThenQueryDatabaseOnce() throws Exception {
+        var threads = 32;
+        var user = Optional.of(User.builder().id("1").build());
+        var databaseCalls = new AtomicInteger();
+        var release = new CountDownLatch(1);
+
+        when(statementExecutor.executeQuery(anyString(), eq("fulano"), any())).thenAnswer(invocation -> {
+            databaseCalls.incrementAndGet();
+            release.await();
+            return user;
+        });
+
+        var executor = Executors.newFixedThreadPool(threads);
+        var started = new CountDownLatch(threads);
+        var callers = new ArrayList<Thread>();
+        var results = new ArrayList<Future<Optional<User>>>();
+
+        try {
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    synchronized (callers) {
+                        callers.add(Thread.currentThread());
+                    }
+                    started.countDown();
+                    return userDAO.findByUsername("fulano");
+                }));
+            }
+
+            started.await();
+
+            synchronized (callers) {
+                for (var caller : callers) {
+                    while (caller.getState() != Thread.State.WAITING) {
+                        Thread.onSpinWait();
+                    }
+                }
+            }
+
+            release.countDown();
+
+            for (var result : results) {
+                assertThat(result.get()).isSameAs(user);
+            }
+
+            assertThat(databaseCalls).hasValue(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 }
@@ -0,0 +1,181 @@
+package com.github.paulosalonso.keycloak.userstorage.data.dao;
+
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import com.github.paulosalonso.keycloak.userstorage.data.database.ResultSetHandler;
+import com.github.paulosalonso.keycloak.userstorage.data.database.StatementExecutor;
+import com.github.paulosalonso.keycloak.userstorage.data.mapper.UserMapper;
+import com.github.paulosalonso.keycloak.userstorage.data.model.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class UserQueryDAOTest {
+
+    private static final String BASE_QUERY = "SELECT id, name, email FROM user";
+    private static final String LIST_QUERY = BASE_QUERY + " ORDER BY id";
+    private static final String LIST_AFTER_QUERY = BASE_QUERY + " WHERE id > ? ORDER BY id";
+    private static final String SEARCH_QUERY = BASE_QUERY + " WHERE (LOWER(name) LIKE ? ESCAPE '!' OR LOWER(email) LIKE ? ESCAPE '!') ORDER BY id";
+    private static final String SEARCH_AFTER_QUERY = BASE_QUERY + " WHERE (LOWER(name) LIKE ? ESCAPE '!' OR LOWER(email) LIKE ? ESCAPE '!') AND id > ? ORDER BY id";
+    private static final String SEARCH_COUNT_QUERY = "SELECT COUNT(*) FROM (" + BASE_QUERY + " WHERE (LOWER(name) LIKE ? ESCAPE '!' OR LOWER(email) LIKE ? ESCAPE '!')) users";
+
+    private UserQueryDAO userQueryDAO;
+
+    @Mock
+    private StatementExecutor statementExecutor;
+
+    @Mock
+    private UserMapper userMapper;
+
+    @Mock
+    private ResultSet resultSet;
+
+    @Captor
+    private ArgumentCaptor<ResultSetHandler<User>> rowMapperCaptor;
+
+    @Captor
+    private ArgumentCaptor<ResultSetHandler<Integer>> countHandlerCaptor;
+
+    @BeforeEach
+    public void setUp() {
+        var configuration = UserStorageConfiguration.builder()
+                .userQuery(BASE_QUERY)
+                .userIdField("id")
+                .userUsernameField("name")
+                .userEmailField("email")
+                .build();
+
+        userQueryDAO = new UserQueryDAO(statementExecutor, configuration, userMapper);
+    }
+
+    @Test
+    public void whenFindFirstPageThenStreamItOrderedByIdAndMapEachRow() throws SQLException {
+        var user = User.builder().id("1").build();
+
+        when(statementExecutor.executeStreamingQuery(eq(LIST_QUERY), eq(20), anyRowMapper())).thenReturn(Stream.of(user));
+
+        assertThat(userQueryDAO.findUsers(null, 0, 20)).containsExactly(user);
+
+        verify(statementExecutor).executeStreamingQuery(eq(LIST_QUERY), eq(20), rowMapperCaptor.capture());
+        when(userMapper.mapCurrent(resultSet)).thenReturn(user);
+        assertThat(rowMapperCaptor.getValue().handle(resultSet)).isSameAs(user);
+    }
+
+    @Test
+    public void givenReadPageWhenFindNextPageThenStartAfterLastIdOfReadPage() {
+        when(statementExecutor.executeStreamingQuery(eq(LIST_QUERY), eq(2), anyRowMapper())).thenReturn(users(1, 2));
+        when(statementExecutor.executeStreamingQuery(eq(LIST_AFTER_QUERY), eq(2), anyRowMapper(), eq("2"))).thenReturn(users(3, 4));
+        when(statementExecutor.executeStreamingQuery(eq(LIST_AFTER_QUERY), eq(2), anyRowMapper(), eq("4"))).thenReturn(users(5));
+
+        assertThat(ids(userQueryDAO.findUsers("*", 0, 2))).containsExactly("1", "2");
+        assertThat(ids(userQueryDAO.findUsers("", 2, 2))).containsExactly("3", "4");
+        assertThat(ids(userQueryDAO.findUsers(null, 4, 2))).containsExactly("5");
+    }
+
+    @Test
+    public void givenPartiallyReadPageWhenFindNextPageThenReadItFromFirstUser() {
+        when(statementExecutor.executeStreamingQuery(eq(LIST_QUERY), eq(2), anyRowMapper())).thenReturn(users(1, 2));
+        when(statementExecutor.executeStreamingQuery(eq(LIST_QUERY), eq(4), anyRowMapper())).thenReturn(users(1, 2, 3, 4));
+
+        assertThat(userQueryDAO.findUsers(null, 0, 2).findFirst()).isPresent();
+        assertThat(ids(userQueryDAO.findUsers(null, 2, 2))).containsExactly("3", "4");
+    }
+
+    @Test
+    public void givenSearchWhenFindPagesThenMatchUsernameOrEmailIgnoringCaseAndKeepSearchPageStarts() {
+        when(statementExecutor.executeStreamingQuery(eq(SEARCH_QUERY), eq(1), anyRowMapper(), eq("%ful%no%"), eq("%ful%no%")))
+                .thenReturn(users(1));
+        when(statementExecutor.executeStreamingQuery(eq(SEARCH_AFTER_QUERY), eq(1), anyRowMapper(), eq("%ful%no%"), eq("%ful%no%"), eq("1")))
+                .thenReturn(users(7));
+        when(statementExecutor.executeStreamingQuery(eq(LIST_QUERY), eq(2), anyRowMapper())).thenReturn(users(1, 2));
+
+        assertThat(ids(userQueryDAO.findUsers(" FUL*no ", 0, 1))).containsExactly("1");
+        assertThat(ids(userQueryDAO.findUsers("ful*no", 1, 1))).containsExactly("7");
+        assertThat(ids(userQueryDAO.findUsers(null, 1, 1))).containsExactly("2");
+    }
+
+    @Test
+    public void givenSearchWithLikeWildcardsWhenFindUsersThenMatchThemLiterally() {
+        when(statementExecutor.executeStreamingQuery(eq(SEARCH_QUERY), eq(0), anyRowMapper(), eq("%a!_b!%c!!d%e%"),
+                eq("%a!_b!%c!!d%e%"))).thenReturn(users(1));
+
+        assertThat(ids(userQueryDAO.findUsers("a_b%c!d*e", 0, -1))).containsExactly("1");
+    }
+
+    @Test
+    public void givenNoMaxResultsWhenFindUsersThenStreamEveryUserFromOffset() {
+        when(statementExecutor.executeStreamingQuery(eq(LIST_QUERY), eq(0), anyRowMapper())).thenReturn(users(1, 2, 3));
+
+        assertThat(ids(userQueryDAO.findUsers(null, 1, -1))).containsExactly("2", "3");
+    }
+
+    @Test
+    public void givenNegativeFirstResultWhenFindUsersThenStreamFromFirstUser() {
+        when(statementExecutor.executeStreamingQuery(eq(LIST_QUERY), eq(0), anyRowMapper())).thenReturn(users(1, 2));
+
+        assertThat(ids(userQueryDAO.findUsers(null, -1, -1))).containsExactly("1", "2");
+    }
+
+    @Test
+    public void givenZeroMaxResultsWhenFindUsersThenReturnEmptyStreamWithoutQuerying() {
+        assertThat(userQueryDAO.findUsers(null, 0, 0)).isEmpty();
+        verifyNoInteractions(statementExecutor);
+    }
+
+    @Test
+    public void whenCountUsersBySearchThenCountMatchingRowsOfUserQuery() throws SQLException {
+        when(statementExecutor.executeQuery(eq(SEARCH_COUNT_QUERY), eq("%ful%"), eq("%ful%"), any())).thenReturn(7);
+
+        assertThat(userQueryDAO.countUsers("Ful")).isEqualTo(7);
+
+        verify(statementExecutor).executeQuery(eq(SEARCH_COUNT_QUERY), eq("%ful%"), eq("%ful%"), countHandlerCaptor.capture());
+        when(resultSet.next()).thenReturn(true, false);
+        when(resultSet.getInt(1)).thenReturn(7);
+        assertThat(countHandlerCaptor.getValue().handle(resultSet)).isEqualTo(7);
+        assertThat(countHandlerCaptor.getValue().handle(resultSet)).isZero();
+    }
+
+    @Test
+    public void givenListingSearchWhenCountUsersBySearchThenThrowIllegalArgumentException() {
+        assertThatThrownBy(() -> userQueryDAO.countUsers("*"))
+                .isExactlyInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Search lists every user: *");
+        verifyNoInteractions(statementExecutor);
+    }
+
+    @Test
+    public void whenCheckIfSearchIsListingThenOnlyBlankOrWildcardSearchesAre() {
+        assertThat(UserQueryDAO.isListing(null)).isTrue();
+        assertThat(UserQueryDAO.isListing(" ")).isTrue();
+        assertThat(UserQueryDAO.isListing(" * ")).isTrue();
+        assertThat(UserQueryDAO.isListing("ful*")).isFalse();
+    }
+
+    private static ResultSetHandler<User> anyRowMapper() {
+        return any();
+    }
+
+    private static Stream<User> users(int... ids) {
+        return IntStream.of(ids).mapToObj(id -> User.builder().id(String.valueOf(id)).build());
+    }
+
+    private static Iterable<String> ids(Stream<User> users) {
+        return users.map(User::getId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,166 @@
+package com.github.paulosalonso.keycloak.userstorage.data.database;
+
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BulkheadTest {
+
+    @Test
+    public void givenDisabledBulkheadThenNeverLimitQueries() {
+        var bulkhead = bulkhead(0, 0, false);
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(bulkhead.tryAcquire()).isTrue();
+        }
+
+        bulkhead.release(1);
+
+        assertThat(bulkhead.isEnabled()).isFalse();
+        assertThat(bulkhead.getInFlight()).isZero();
+        assertThat(bulkhead.getRejections()).isZero();
+    }
+
+    @Test
+    public void givenAllSlotsTakenWhenTryAcquireWithoutWaitThenShedQuery() {
+        var bulkhead = bulkhead(2, 0, false);
+
+        assertThat(bulkhead.tryAcquire()).isTrue();
+        assertThat(bulkhead.tryAcquire()).isTrue();
+        assertThat(bulkhead.tryAcquire()).isFalse();
+        assertThat(bulkhead.getInFlight()).isEqualTo(2);
+        assertThat(bulkhead.getRejections()).isOne();
+
+        bulkhead.release(1);
+
+        assertThat(bulkhead.tryAcquire()).isTrue();
+        assertThat(bulkhead.getLimit()).isEqualTo(2);
+    }
+
+    @Test
+    public void givenAllSlotsTakenWhenSlotIsReleasedWithinWaitThenAcquireIt() throws Exception {
+        var bulkhead = bulkhead(1, 5000, false);
+
+        bulkhead.tryAcquire();
+
+        var waiting = CompletableFuture.supplyAsync(bulkhead::tryAcquire);
+        bulkhead.release(1);
+
+        assertThat(waiting.get(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(bulkhead.getRejections()).isZero();
+    }
+
+    @Test
+    public void givenInterruptedThreadWhenWaitForSlotThenShedQueryAndKeepInterruptFlag() {
+        var bulkhead = bulkhead(1, 5000, false);
+
+        bulkhead.tryAcquire();
+        Thread.currentThread().interrupt();
+
+        try {
+            assertThat(bulkhead.tryAcquire()).isFalse();
+            assertThat(Thread.currentThread().isInterrupted()).isTrue();
+            assertThat(bulkhead.getRejections()).isOne();
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    public void whenReleaseWithoutLatencyThenReturnSlotAndKeepLimit() {
+        var bulkhead = bulkhead(2, 0, true);
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(bulkhead.tryAcquire()).isTrue();
+            bulkhead.release();
+        }
+
+        assertThat(bulkhead.getLimit()).isEqualTo(2);
+        assertThat(bulkhead.getInFlight()).isZero();
+
+        bulkhead(0, 0, false).release();
+    }
+
+    @Test
+    public void givenStaticBulkheadWhenLatencyGrowsThenKeepLimit() {
+        var bulkhead = bulkhead(10, 0, false);
+
+        query(bulkhead, 100);
+        query(bulkhead, 10_000);
+
+        assertThat(bulkhead.getLimit()).isEqualTo(10);
+    }
+
+    @Test
+    public void givenAdaptiveBulkheadWhenLatencyGrowsThenLowerLimitAndRaiseItBackWhenLatencyRecovers() {
+        var bulkhead = bulkhead(20, 0, true);
+
+        query(bulkhead, 100);
+        assertThat(bulkhead.getLimit()).isEqualTo(20);
+
+        for (int i = 0; i < 20; i++) {
+            query(bulkhead, 10_000);
+        }
+
+        var loweredLimit = bulkhead.getLimit();
+
+        assertThat(loweredLimit).isLessThan(20);
+        assertThat(bulkhead.getInFlight()).isZero();
+
+        for (int i = 0; i < 100; i++) {
+            query(bulkhead, 100);
+        }
+
+        assertThat(bulkhead.getLimit()).isEqualTo(20);
+        assertThat(bulkhead.getInFlight()).isZero();
+    }
+
+    @Test
+    public void givenAdaptiveBulkheadWithLoweredLimitThenShedQueriesBeyondIt() {
+        var bulkhead = bulkhead(20, 0, true);
+
+        query(bulkhead, 100);
+
+        for (int i = 0; i < 20; i++) {
+            query(bulkhead, 10_000);
+        }
+
+        var limit = bulkhead.getLimit();
+
+        for (int i = 0; i < limit; i++) {
+            assertThat(bulkhead.tryAcquire()).isTrue();
+        }
+
+        assertThat(bulkhead.tryAcquire()).isFalse();
+    }
+
+    @Test
+    public void givenAdaptiveBulkheadWhenLatencyBaselineShiftsThenResetLowestLatency() {
+        var bulkhead = bulkhead(20, 0, true);
+
+        query(bulkhead, 0);
+
+        for (int i = 0; i < Bulkhead.MIN_LATENCY_RESET_SAMPLES * 2; i++) {
+            query(bulkhead, 10_000);
+        }
+
+        assertThat(bulkhead.getLimit()).isEqualTo(20);
+    }
+
+    private static void query(Bulkhead bulkhead, long latencyNanos) {
+        assertThat(bulkhead.tryAcquire()).isTrue();
+        bulkhead.release(latencyNanos);
+    }
+
+    private static Bulkhead bulkhead(int maxConcurrent, long maxWait, boolean adaptive) {
+        return new Bulkhead(UserStorageConfiguration.builder()
+                .bulkheadMaxConcurrent(maxConcurrent)
+                .bulkheadMaxWait(maxWait)
+                .bulkheadAdaptive(adaptive)
+                .build());
+    }
+}
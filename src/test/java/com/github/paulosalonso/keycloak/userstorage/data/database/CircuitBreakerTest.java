@@ -0,0 +1,179 @@
+package com.github.paulosalonso.keycloak.userstorage.data.database;
+
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.github.paulosalonso.keycloak.userstorage.data.database.CircuitBreaker.State.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CircuitBreakerTest {
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    private CircuitBreaker circuitBreaker;
+
+    @BeforeEach
+    public void setUp() {
+        circuitBreaker = circuitBreaker(3);
+    }
+
+    @Test
+    public void givenNewCircuitBreakerThenItIsClosedAndAcquires() {
+        assertThat(circuitBreaker.getState()).isEqualTo(CLOSED);
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+        assertThat(circuitBreaker.getRejections()).isZero();
+    }
+
+    @Test
+    public void givenClosedCircuitWhenSucceedThenStayClosed() {
+        circuitBreaker.onSuccess();
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CLOSED);
+        assertThat(circuitBreaker.getClosed()).isZero();
+    }
+
+    @Test
+    public void givenFailuresBelowThresholdWhenSucceedThenResetFailures() {
+        circuitBreaker.onFailure();
+        circuitBreaker.onFailure();
+        circuitBreaker.onSuccess();
+        circuitBreaker.onFailure();
+        circuitBreaker.onFailure();
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CLOSED);
+        assertThat(circuitBreaker.getClosed()).isZero();
+    }
+
+    @Test
+    public void givenConsecutiveFailuresReachingThresholdThenOpenAndReject() {
+        fail(3);
+
+        assertThat(circuitBreaker.getState()).isEqualTo(OPEN);
+        assertThat(circuitBreaker.tryAcquire()).isFalse();
+        assertThat(circuitBreaker.getOpened()).isOne();
+        assertThat(circuitBreaker.getRejections()).isOne();
+    }
+
+    @Test
+    public void givenOpenCircuitWhenOpenDurationElapsesThenLetOnlyOneProbeThrough() {
+        fail(3);
+        elapse(1000);
+
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+        assertThat(circuitBreaker.getState()).isEqualTo(HALF_OPEN);
+        assertThat(circuitBreaker.tryAcquire()).isFalse();
+        assertThat(circuitBreaker.getHalfOpened()).isOne();
+        assertThat(circuitBreaker.getRejections()).isOne();
+    }
+
+    @Test
+    public void givenProbeWhenSucceedThenCloseCircuit() {
+        fail(3);
+        elapse(1000);
+        circuitBreaker.tryAcquire();
+
+        circuitBreaker.onSuccess();
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CLOSED);
+        assertThat(circuitBreaker.getClosed()).isOne();
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+    }
+
+    @Test
+    public void givenProbeWhenFailThenOpenForAnotherPeriod() {
+        fail(3);
+        elapse(1000);
+        circuitBreaker.tryAcquire();
+
+        circuitBreaker.onFailure();
+        elapse(999);
+
+        assertThat(circuitBreaker.getState()).isEqualTo(OPEN);
+        assertThat(circuitBreaker.tryAcquire()).isFalse();
+        assertThat(circuitBreaker.getOpened()).isEqualTo(2);
+
+        elapse(1);
+
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+    }
+
+    @Test
+    public void givenProbeWhenReleaseThenLetNextProbeThrough() {
+        fail(3);
+        elapse(1000);
+        circuitBreaker.tryAcquire();
+
+        circuitBreaker.release();
+
+        assertThat(circuitBreaker.getState()).isEqualTo(HALF_OPEN);
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+        assertThat(circuitBreaker.tryAcquire()).isFalse();
+    }
+
+    @Test
+    public void givenClosedCircuitWhenReleaseThenStayClosed() {
+        circuitBreaker.release();
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CLOSED);
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+    }
+
+    @Test
+    public void givenOpenCircuitWhenLateStatementFailsThenKeepOpenPeriod() {
+        fail(3);
+        elapse(999);
+
+        circuitBreaker.onFailure();
+        elapse(1);
+
+        assertThat(circuitBreaker.getOpened()).isOne();
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+    }
+
+    @Test
+    public void givenDisabledCircuitBreakerWhenFailThenNeverOpen() {
+        circuitBreaker = circuitBreaker(0);
+
+        fail(10);
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CLOSED);
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+    }
+
+    @Test
+    public void whenCreateWithConfigurationThenUseSystemClock() {
+        var configuration = UserStorageConfiguration.builder()
+                .circuitBreakerFailureThreshold(1)
+                .circuitBreakerOpenDuration(0)
+                .build();
+        var systemCircuitBreaker = new CircuitBreaker(configuration);
+
+        systemCircuitBreaker.onFailure();
+
+        assertThat(systemCircuitBreaker.getState()).isEqualTo(OPEN);
+        assertThat(systemCircuitBreaker.tryAcquire()).isTrue();
+    }
+
+    private CircuitBreaker circuitBreaker(int failureThreshold) {
+        var configuration = UserStorageConfiguration.builder()
+                .circuitBreakerFailureThreshold(failureThreshold)
+                .circuitBreakerOpenDuration(1000)
+                .build();
+
+        return new CircuitBreaker(configuration, nanos::get);
+    }
+
+    private void fail(int times) {
+        for (int i = 0; i < times; i++) {
+            circuitBreaker.onFailure();
+        }
+    }
+
+    private void elapse(long millis) {
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+}
@@ -1,62 +1,82 @@
 package com.github.paulosalonso.keycloak.userstorage.data.database;
 
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
-import org.mockito.MockedStatic;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.Properties;
 
-import static com.github.paulosalonso.keycloak.userstorage.configurations.Configurations.*;
+import static com.github.paulosalonso.keycloak.userstorage.configurations.Configurations.DEFAULT_STATEMENT_CACHE_SIZE;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
 import static org.mockito.Mockito.*;
 
 @ExtendWith({MockitoExtension.class})
 public class ConnectionFactoryTest {
 
-    @InjectMocks
-    private ConnectionFactory connectionFactory;
-
-    @Mock
-    private Properties properties;
-
     @Mock
     private Connection connection;
 
+    private final UserStorageConfiguration configuration = UserStorageConfiguration.builder()
+            .jdbcUrl("JDBC_URL")
+            .dbUser("DB_USER")
+            .dbPassword("DB_PASSWORD")
+            .poolMinIdle(1)
+            .poolMaxSize(5)
+            .poolIdleTimeout(20000)
+            .poolConnectionTimeout(3000)
+            .poolMaxLifetime(60000)
+            .build();
+
     @Test
-    public void whenGetConnectionThenCallDriverManager() {
-        when(properties.getProperty(JDBC_URL)).thenReturn("JDBC_URL");
-        when(properties.getProperty(DB_USER)).thenReturn("DB_USER");
-        when(properties.getProperty(DB_PASSWORD)).thenReturn("DB_PASSWORD");
+    public void whenCreateThenConfigurePoolWithConfiguration() {
+        try (var dataSourceMock = mockConstruction(HikariDataSource.class, (mock, context) -> {
+            var config = (HikariConfig) context.arguments().get(0);
+
+            assertThat(config.getJdbcUrl()).isEqualTo("JDBC_URL");
+            assertThat(config.getUsername()).isEqualTo("DB_USER");
+            assertThat(config.getPassword()).isEqualTo("DB_PASSWORD");
+            assertThat(config.getMinimumIdle()).isEqualTo(1);
+            assertThat(config.getMaximumPoolSize()).isEqualTo(5);
+            assertThat(config.getIdleTimeout()).isEqualTo(20000);
+            assertThat(config.getConnectionTimeout()).isEqualTo(3000);
+            assertThat(config.getMaxLifetime()).isEqualTo(60000);
+            assertThat(config.getInitializationFailTimeout()).isEqualTo(-1);
+            assertThat(config.getDataSourceProperties()).isEmpty();
+        })) {
+            new ConnectionFactory(configuration);
 
-        try (MockedStatic<DriverManager> driverManagerMock = mockStatic(DriverManager.class)) {
-            driverManagerMock.when(() ->
-                    DriverManager.getConnection("JDBC_URL", "DB_USER", "DB_PASSWORD")).thenReturn(connection);
+            assertThat(dataSourceMock.constructed()).hasSize(1);
+        }
+    }
 
-            var producedConnection = connectionFactory.getConnection();
+    @Test
+    public void whenGetConnectionThenBorrowItFromPool() throws SQLException {
+        try (var dataSourceMock = mockConstruction(HikariDataSource.class,
+                (mock, context) -> when(mock.getConnection()).thenReturn(connection))) {
+
+            var producedConnection = new ConnectionFactory(configuration).getConnection();
 
             assertThat(producedConnection).isSameAs(connection);
-            driverManagerMock.verify(() -> DriverManager.getConnection("JDBC_URL", "DB_USER", "DB_PASSWORD"));
+            verify(dataSourceMock.constructed().get(0)).getConnection();
         }
-
-        verify(properties).getProperty(JDBC_URL);
-        verify(properties).getProperty(DB_USER);
-        verify(properties).getProperty(DB_PASSWORD);
     }
 
     @Test
-    public void whenDriverManagerThrowsSQLExceptionThenThrowsRuntimeExceptionWithSQLExceptionAsRootCause() {
-        try (MockedStatic<DriverManager> driverManagerMock = mockStatic(DriverManager.class)) {
-            var sqlException = new SQLException();
+    public void whenPoolThrowsSQLExceptionThenThrowsRuntimeExceptionWithSQLExceptionAsRootCause() {
+        var sqlException = new SQLException();
 
-            driverManagerMock.when(() ->
-                    DriverManager.getConnection(any(), any(), any())).thenThrow(sqlException);
+        try (var dataSourceMock = mockConstruction(HikariDataSource.class,
+                (mock, context) -> when(mock.getConnection()).thenThrow(sqlException))) {
+
+            var connectionFactory = new ConnectionFactory(configuration);
 
             assertThatThrownBy(() -> connectionFactory.getConnection())
                     .isExactlyInstanceOf(RuntimeException.class)
@@ -65,4 +85,83 @@ public class ConnectionFactoryTest {
                     .isSameAs(sqlException);
         }
     }
+
+    @Test
+    public void whenCloseThenClosePool() {
+        try (var dataSourceMock = mockConstruction(HikariDataSource.class)) {
+            new ConnectionFactory(configuration).close();
+
+            verify(dataSourceMock.constructed().get(0)).close();
+        }
+    }
+
+    @Test
+    public void givenMySQLUrlWhenCreateThenEnableDriverStatementCache() {
+        var properties = dataSourcePropertiesFor(UserStorageConfiguration.builder()
+                .jdbcUrl("jdbc:mysql://localhost/keycloak")
+                .statementCacheSize(100)
+                .build());
+
+        assertThat(properties)
+                .containsEntry("cachePrepStmts", "true")
+                .containsEntry("useServerPrepStmts", "true")
+                .containsEntry("prepStmtCacheSize", "100")
+                .containsEntry("prepStmtCacheSqlLimit", "2048");
+    }
+
+    @Test
+    public void givenMariaDBUrlWhenCreateThenEnableDriverStatementCache() {
+        var properties = dataSourcePropertiesFor(UserStorageConfiguration.builder()
+                .jdbcUrl("jdbc:mariadb://localhost/keycloak")
+                .build());
+
+        assertThat(properties)
+                .containsEntry("cachePrepStmts", "true")
+                .containsEntry("prepStmtCacheSize", DEFAULT_STATEMENT_CACHE_SIZE);
+    }
+
+    @Test
+    public void givenPostgreSQLUrlWhenCreateThenEnableDriverStatementCache() {
+        var properties = dataSourcePropertiesFor(UserStorageConfiguration.builder()
+                .jdbcUrl("jdbc:postgresql://localhost/keycloak")
+                .statementCacheSize(100)
+                .build());
+
+        assertThat(properties)
+                .containsEntry("prepareThreshold", "1")
+                .containsEntry("preparedStatementCacheQueries", "100");
+    }
+
+    @Test
+    public void givenZeroStatementCacheSizeOrMissingUrlWhenCreateThenKeepDriverDefaults() {
+        assertThat(dataSourcePropertiesFor(UserStorageConfiguration.builder()
+                .jdbcUrl("jdbc:mysql://localhost/keycloak")
+                .statementCacheSize(0)
+                .queryFetchSize(0)
+                .build())).isEmpty();
+        assertThat(dataSourcePropertiesFor(UserStorageConfiguration.builder().build())).isEmpty();
+    }
+
+    @Test
+    public void givenMySQLUrlAndFetchSizeWhenCreateThenEnableCursorFetch() {
+        assertThat(dataSourcePropertiesFor(UserStorageConfiguration.builder()
+                .jdbcUrl("jdbc:mysql://localhost/keycloak")
+                .statementCacheSize(0)
+                .build())).containsOnly(entry("useCursorFetch", "true"));
+        assertThat(dataSourcePropertiesFor(UserStorageConfiguration.builder()
+                .jdbcUrl("jdbc:mariadb://localhost/keycloak")
+                .statementCacheSize(0)
+                .build())).isEmpty();
+    }
+
+    private static Properties dataSourcePropertiesFor(UserStorageConfiguration configuration) {
+        var properties = new Properties();
+
+        try (var dataSourceMock = mockConstruction(HikariDataSource.class, (mock, context) ->
+                properties.putAll(((HikariConfig) context.arguments().get(0)).getDataSourceProperties()))) {
+            new ConnectionFactory(configuration);
+        }
+
+        return properties;
+    }
 }
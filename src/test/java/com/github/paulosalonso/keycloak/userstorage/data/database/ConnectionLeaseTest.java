@@ -0,0 +1,102 @@
+package com.github.paulosalonso.keycloak.userstorage.data.database;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class ConnectionLeaseTest {
+
+    @Mock
+    private ConnectionFactory connectionFactory;
+
+    @Mock
+    private Connection connection;
+
+    @Mock
+    private Runnable onClose;
+
+    private ConnectionLease lease;
+
+    @BeforeEach
+    public void setUp() {
+        lease = new ConnectionLease(connectionFactory, onClose);
+    }
+
+    @Test
+    public void whenGetConnectionTwiceThenAcquireOnlyOnce() {
+        when(connectionFactory.getConnection()).thenReturn(connection);
+
+        assertThat(lease.getConnection()).isSameAs(connection);
+        assertThat(lease.getConnection()).isSameAs(connection);
+        verify(connectionFactory).getConnection();
+    }
+
+    @Test
+    public void whenCloseThenCloseConnectionAndRunCallback() throws SQLException {
+        when(connectionFactory.getConnection()).thenReturn(connection);
+        lease.getConnection();
+
+        lease.close();
+
+        assertThat(lease.isOpen()).isFalse();
+        verify(connection).close();
+        verify(onClose).run();
+    }
+
+    @Test
+    public void givenClosedLeaseWhenCloseAgainThenDoNothing() throws SQLException {
+        when(connectionFactory.getConnection()).thenReturn(connection);
+        lease.getConnection();
+
+        lease.close();
+        lease.close();
+
+        verify(connection).close();
+        verify(onClose).run();
+    }
+
+    @Test
+    public void givenErrorClosingConnectionWhenCloseThenRunCallbackAnyway() throws SQLException {
+        when(connectionFactory.getConnection()).thenReturn(connection);
+        doThrow(SQLException.class).when(connection).close();
+        lease.getConnection();
+
+        lease.close();
+
+        verify(onClose).run();
+    }
+
+    @Test
+    public void whenReleaseThenKeepLeaseOpenAndAcquireNewConnectionOnNextUse() throws SQLException {
+        when(connectionFactory.getConnection()).thenReturn(connection);
+        lease.getConnection();
+
+        lease.release();
+        lease.getConnection();
+
+        assertThat(lease.isOpen()).isTrue();
+        verify(connection).close();
+        verify(connectionFactory, times(2)).getConnection();
+        verifyNoInteractions(onClose);
+    }
+
+    @Test
+    public void givenClosedLeaseWhenGetConnectionThenFailWithoutAcquiringConnection() {
+        lease.close();
+
+        assertThatThrownBy(lease::getConnection)
+                .isExactlyInstanceOf(IllegalStateException.class)
+                .hasMessage("Connection lease is closed");
+        verifyNoInteractions(connectionFactory);
+    }
+}
@@ -0,0 +1,76 @@
+package com.github.paulosalonso.keycloak.userstorage.data.database;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class ResultSetSpliteratorTest {
+
+    private ResultSetSpliterator<String> rows;
+
+    @Mock
+    private PreparedStatement statement;
+
+    @Mock
+    private ResultSet resultSet;
+
+    @Mock
+    private ResultSetHandler<String> rowMapper;
+
+    @Mock
+    private Runnable onClose;
+
+    @BeforeEach
+    public void setUp() {
+        rows = new ResultSetSpliterator<>(statement, resultSet, rowMapper, onClose);
+    }
+
+    @Test
+    public void whenRowsAreExhaustedThenCloseOnceAndStopAdvancing() throws SQLException {
+        when(resultSet.next()).thenReturn(true, false);
+        when(rowMapper.handle(resultSet)).thenReturn("row");
+
+        assertThat(rows.tryAdvance(row -> assertThat(row).isEqualTo("row"))).isTrue();
+        assertThat(rows.tryAdvance(row -> {})).isFalse();
+        assertThat(rows.tryAdvance(row -> {})).isFalse();
+        rows.close();
+
+        verify(resultSet, times(2)).next();
+        verify(resultSet).close();
+        verify(statement).close();
+        verify(onClose).run();
+    }
+
+    @Test
+    public void whenReadingRowFailsThenCloseAndThrowRuntimeException() throws SQLException {
+        when(resultSet.next()).thenThrow(SQLException.class);
+
+        assertThatThrownBy(() -> rows.tryAdvance(row -> {}))
+                .isExactlyInstanceOf(RuntimeException.class)
+                .hasMessage("Error reading query results");
+
+        verify(statement).close();
+        verify(onClose).run();
+    }
+
+    @Test
+    public void whenClosingStatementFailsThenStillRunCloseAction() throws SQLException {
+        doThrow(SQLException.class).when(statement).close();
+
+        rows.close();
+
+        verify(resultSet).close();
+        verify(onClose).run();
+    }
+}
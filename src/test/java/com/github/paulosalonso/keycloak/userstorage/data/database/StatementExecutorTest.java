@@ -1,15 +1,22 @@
 package com.github.paulosalonso.keycloak.userstorage.data.database;
 
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -18,21 +25,43 @@ import static org.mockito.Mockito.*;
 @ExtendWith(MockitoExtension.class)
 public class StatementExecutorTest {
 
-    @InjectMocks
     private StatementExecutor executor;
 
     @Mock
     private ConnectionFactory connectionFactory;
 
+    @Mock
+    private CircuitBreaker circuitBreaker;
+
+    @Mock
+    private Bulkhead bulkhead;
+
     @Mock
     private Connection connection;
 
     @Mock
     private Function<Connection, String> function;
 
+    @Mock
+    private PreparedStatement statement;
+
+    @Mock
+    private ResultSet resultSet;
+
+    @Mock
+    private ResultSetHandler<String> handler;
+
     @BeforeEach
     public void setUp() {
+        var configuration = UserStorageConfiguration.builder()
+                .queryTimeout(2500)
+                .queryFetchSize(50)
+                .build();
+
+        executor = new StatementExecutor(connectionFactory, circuitBreaker, bulkhead, configuration);
         lenient().when(connectionFactory.getConnection()).thenReturn(connection);
+        lenient().when(circuitBreaker.tryAcquire()).thenReturn(true);
+        lenient().when(bulkhead.tryAcquire()).thenReturn(true);
     }
 
     @Test
@@ -42,6 +71,38 @@ public class StatementExecutorTest {
         verify(connectionFactory).getConnection();
         verify(function).apply(connection);
         verify(connection).close();
+        verify(circuitBreaker).onSuccess();
+        verify(circuitBreaker, never()).onFailure();
+        verify(bulkhead).release(anyLong());
+    }
+
+    @Test
+    public void givenFullBulkheadWhenExecuteStatementThenShedWithoutAcquiringConnection() {
+        when(bulkhead.tryAcquire()).thenReturn(false);
+
+        assertThatThrownBy(() -> executor.executeStatement(function))
+                .isExactlyInstanceOf(BulkheadFullException.class)
+                .hasMessage("Concurrent query limit reached");
+
+        verifyNoInteractions(connectionFactory, function);
+        verify(circuitBreaker).release();
+        verify(circuitBreaker, never()).onSuccess();
+        verify(circuitBreaker, never()).onFailure();
+        verify(bulkhead, never()).release();
+        verify(bulkhead, never()).release(anyLong());
+    }
+
+    @Test
+    public void givenOpenCircuitWhenExecuteStatementThenFailFastWithoutAcquiringConnection() {
+        when(circuitBreaker.tryAcquire()).thenReturn(false);
+
+        assertThatThrownBy(() -> executor.executeStatement(function))
+                .isExactlyInstanceOf(CircuitOpenException.class)
+                .hasMessage("Database circuit breaker is open");
+
+        verifyNoInteractions(connectionFactory, function, bulkhead);
+        verify(circuitBreaker, never()).onSuccess();
+        verify(circuitBreaker, never()).onFailure();
     }
 
     @Test
@@ -53,6 +114,9 @@ public class StatementExecutorTest {
         verify(connectionFactory).getConnection();
         verifyNoInteractions(function);
         verifyNoInteractions(connection);
+        verify(circuitBreaker).onFailure();
+        verify(bulkhead).release();
+        verify(bulkhead, never()).release(anyLong());
     }
 
     @Test
@@ -75,4 +139,397 @@ public class StatementExecutorTest {
                 .hasMessage("Error closing connection");
         verify(connection).close();
     }
+
+    @Test
+    public void whenExecuteQueryThenReturnHandlerResultAndCloseEverything() throws SQLException {
+        when(connection.prepareStatement("query")).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(handler.handle(resultSet)).thenReturn("result");
+
+        assertThat(executor.executeQuery("query", "parameter", handler)).isEqualTo("result");
+
+        var inOrder = inOrder(statement, resultSet, connection);
+        inOrder.verify(statement).setQueryTimeout(3);
+        inOrder.verify(statement).setString(1, "parameter");
+        inOrder.verify(statement).executeQuery();
+        inOrder.verify(resultSet).close();
+        inOrder.verify(statement).close();
+        inOrder.verify(connection).close();
+    }
+
+    @Test
+    public void whenExecuteQueryWithTwoParametersThenBindBoth() throws SQLException {
+        when(connection.prepareStatement("query")).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(handler.handle(resultSet)).thenReturn("result");
+
+        assertThat(executor.executeQuery("query", "first", "second", handler)).isEqualTo("result");
+
+        var inOrder = inOrder(statement, resultSet, connection);
+        inOrder.verify(statement).setString(1, "first");
+        inOrder.verify(statement).setString(2, "second");
+        inOrder.verify(statement).executeQuery();
+        inOrder.verify(resultSet).close();
+        inOrder.verify(statement).close();
+        inOrder.verify(connection).close();
+    }
+
+    @Test
+    public void whenExecuteQueryWithoutParametersThenBindNone() throws SQLException {
+        when(connection.prepareStatement("query")).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(handler.handle(resultSet)).thenReturn("result");
+
+        assertThat(executor.executeQuery("query", handler)).isEqualTo("result");
+
+        verify(statement, never()).setString(anyInt(), any());
+        verify(connection).close();
+    }
+
+    @Test
+    public void whenExecuteBatchQueryThenBindEachParameter() throws SQLException {
+        when(connection.prepareStatement("query")).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(handler.handle(resultSet)).thenReturn("result");
+
+        assertThat(executor.executeBatchQuery("query", List.of("first", "second", "third"), handler)).isEqualTo("result");
+
+        verify(statement).setString(1, "first");
+        verify(statement).setString(2, "second");
+        verify(statement).setString(3, "third");
+        verify(connection).close();
+    }
+
+    @Test
+    public void whenExecuteStreamingQueryThenMapRowsWhileStreamIsReadAndCloseEverythingAtTheEnd() throws SQLException {
+        when(connection.prepareStatement("query")).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true, true, false);
+        when(handler.handle(resultSet)).thenReturn("first", "second");
+
+        var rows = executor.executeStreamingQuery("query", 20, handler, "parameter");
+
+        verifyNoInteractions(handler);
+        verify(connection, never()).close();
+
+        assertThat(rows.collect(Collectors.toList())).containsExactly("first", "second");
+
+        var inOrder = inOrder(statement, resultSet, connection);
+        inOrder.verify(statement).setQueryTimeout(3);
+        inOrder.verify(statement).setString(1, "parameter");
+        inOrder.verify(statement).setFetchSize(50);
+        inOrder.verify(statement).setMaxRows(20);
+        inOrder.verify(statement).executeQuery();
+        inOrder.verify(resultSet).close();
+        inOrder.verify(statement).close();
+        inOrder.verify(connection).close();
+        verify(bulkhead).release(anyLong());
+        verify(circuitBreaker).onSuccess();
+    }
+
+    @Test
+    public void givenAutoCommitConnectionWhenStreamingQueryThenReadRowsInOwnTransaction() throws SQLException {
+        when(connection.getAutoCommit()).thenReturn(true);
+        when(connection.prepareStatement("query")).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(false);
+
+        assertThat(executor.executeStreamingQuery("query", 0, handler).count()).isZero();
+
+        var inOrder = inOrder(statement, connection);
+        inOrder.verify(connection).setAutoCommit(false);
+        inOrder.verify(statement).executeQuery();
+        inOrder.verify(statement).close();
+        inOrder.verify(connection).rollback();
+        inOrder.verify(connection).setAutoCommit(true);
+        inOrder.verify(connection).close();
+    }
+
+    @Test
+    public void givenEndingTransactionFailsWhenStreamingQueryEndsThenStillCloseConnection() throws SQLException {
+        when(connection.getAutoCommit()).thenReturn(true);
+        when(connection.prepareStatement("query")).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(false);
+        doThrow(SQLException.class).when(connection).rollback();
+
+        assertThat(executor.executeStreamingQuery("query", 0, handler).count()).isZero();
+
+        verify(connection, never()).setAutoCommit(true);
+        verify(connection).close();
+    }
+
+    @Test
+    public void givenZeroFetchSizeWhenStreamingQueryThenKeepAutoCommit() throws SQLException {
+        executor = new StatementExecutor(connectionFactory, circuitBreaker, bulkhead,
+                UserStorageConfiguration.builder().queryFetchSize(0).build());
+
+        when(connection.prepareStatement("query")).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(false);
+
+        assertThat(executor.executeStreamingQuery("query", 0, handler).count()).isZero();
+
+        verify(connection, never()).getAutoCommit();
+        verify(connection, never()).setAutoCommit(anyBoolean());
+        verify(connection).close();
+    }
+
+    @Test
+    public void givenAdminExecutorWhenExecuteQueryThenUseAdminTimeoutWithoutGuards() throws SQLException {
+        var adminExecutor = executor.forAdminQueries(30000);
+
+        when(connection.prepareStatement("query")).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(handler.handle(resultSet)).thenReturn("result");
+
+        assertThat(adminExecutor.executeQuery("query", handler)).isEqualTo("result");
+
+        verify(statement).setQueryTimeout(30);
+        verify(connection).close();
+        verifyNoInteractions(circuitBreaker, bulkhead);
+    }
+
+    @Test
+    public void givenAdminExecutorWhenQueryFailsThenDoNotCountFailure() throws SQLException {
+        var adminExecutor = executor.forAdminQueries(0);
+
+        when(connection.prepareStatement("query")).thenReturn(statement);
+        when(statement.executeQuery()).thenThrow(SQLException.class);
+
+        assertThatThrownBy(() -> adminExecutor.executeStreamingQuery("query", 0, handler))
+                .isExactlyInstanceOf(RuntimeException.class)
+                .hasMessage("Error executing query");
+
+        verify(statement).setQueryTimeout(0);
+        verify(connection).close();
+        verifyNoInteractions(circuitBreaker, bulkhead);
+    }
+
+    @Test
+    public void givenOpenLeaseWhenAdminExecutorRunsQueryThenUseLeasedConnection() throws SQLException {
+        var adminExecutor = executor.forAdminQueries(30000);
+
+        when(function.apply(connection)).thenReturn("result");
+
+        try (var lease = executor.openLease()) {
+            assertThat(adminExecutor.executeStatement(function)).isEqualTo("result");
+            verify(connection, never()).close();
+        }
+
+        verify(connectionFactory).getConnection();
+        verify(connection).close();
+    }
+
+    @Test
+    public void whenCloseStreamingQueryBeforeLastRowThenCloseEverything() throws SQLException {
+        when(connection.prepareStatement("query")).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true);
+        when(handler.handle(resultSet)).thenReturn("first");
+
+        try (var rows = executor.executeStreamingQuery("query", 0, handler)) {
+            assertThat(rows.findFirst()).contains("first");
+        }
+
+        verify(resultSet).close();
+        verify(statement).close();
+        verify(connection).close();
+    }
+
+    @Test
+    public void givenOpenLeaseWhenStreamingQueryEndsThenKeepLeasedConnection() throws SQLException {
+        when(connection.prepareStatement("query")).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(false);
+
+        try (var lease = executor.openLease()) {
+            assertThat(executor.executeStreamingQuery("query", 0, handler).count()).isZero();
+            verify(statement).close();
+            verify(connection, never()).close();
+        }
+
+        verify(connection).close();
+    }
+
+    @Test
+    public void whenStreamingQueryFailsThenReleaseConnectionAndCountFailure() throws SQLException {
+        when(connection.prepareStatement("query")).thenReturn(statement);
+        when(statement.executeQuery()).thenThrow(SQLException.class);
+
+        assertThatThrownBy(() -> executor.executeStreamingQuery("query", 0, handler))
+                .isExactlyInstanceOf(RuntimeException.class)
+                .hasMessage("Error executing query");
+
+        verify(connection).close();
+        verify(circuitBreaker).onFailure();
+        verifyNoInteractions(handler);
+    }
+
+    @Test
+    public void whenHandlerThrowsSQLExceptionThenCloseEverythingAndThrowsRuntimeException() throws SQLException {
+        var exception = new SQLException();
+
+        when(connection.prepareStatement("query")).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(handler.handle(resultSet)).thenThrow(exception);
+
+        assertThatThrownBy(() -> executor.executeQuery("query", "parameter", handler))
+                .isExactlyInstanceOf(RuntimeException.class)
+                .hasMessage("Error executing query")
+                .getCause()
+                .isSameAs(exception);
+
+        verify(resultSet).close();
+        verify(statement).close();
+        verify(connection).close();
+    }
+
+    @Test
+    public void whenQueryFailsThenCloseStatementAndConnectionWithoutHandlingResult() throws SQLException {
+        when(connection.prepareStatement("query")).thenReturn(statement);
+        when(statement.executeQuery()).thenThrow(SQLException.class);
+
+        assertThatThrownBy(() -> executor.executeQuery("query", "parameter", handler))
+                .isExactlyInstanceOf(RuntimeException.class)
+                .hasCauseExactlyInstanceOf(SQLException.class);
+
+        verify(statement).close();
+        verify(connection).close();
+        verifyNoInteractions(handler, resultSet);
+    }
+
+    @Test
+    public void givenOpenLeaseWhenExecuteStatementsThenShareOneConnectionUntilLeaseIsClosed() throws SQLException {
+        when(function.apply(connection)).thenReturn("result");
+
+        try (var lease = executor.openLease()) {
+            assertThat(executor.executeStatement(function)).isEqualTo("result");
+            assertThat(executor.executeStatement(function)).isEqualTo("result");
+            verify(connection, never()).close();
+        }
+
+        verify(connectionFactory).getConnection();
+        verify(connection).close();
+    }
+
+    @Test
+    public void givenOpenLeaseWithoutStatementsWhenCloseThenDoesNotAcquireConnection() {
+        executor.openLease().close();
+        verifyNoInteractions(connectionFactory);
+    }
+
+    @Test
+    public void whenCloseLeaseThenRunCloseCallback() {
+        var onClose = mock(Runnable.class);
+
+        executor.openLease(onClose).close();
+
+        verify(onClose).run();
+        verifyNoInteractions(connectionFactory);
+    }
+
+    @Test
+    public void givenClosedLeaseWhenExecuteStatementThenAcquireAndCloseConnection() throws SQLException {
+        executor.openLease().close();
+
+        executor.executeStatement(function);
+
+        verify(connectionFactory).getConnection();
+        verify(connection).close();
+    }
+
+    @Test
+    public void givenOpenLeaseWhenStatementFailsThenReleaseConnectionAndAcquireAnotherForNextStatement() throws SQLException {
+        var exception = new RuntimeException();
+
+        when(function.apply(connection)).thenThrow(exception).thenReturn("result");
+
+        try (var lease = executor.openLease()) {
+            assertThatThrownBy(() -> executor.executeStatement(function)).isSameAs(exception);
+            verify(connection).close();
+            assertThat(executor.executeStatement(function)).isEqualTo("result");
+            assertThat(lease.isOpen()).isTrue();
+        }
+
+        verify(connectionFactory, times(2)).getConnection();
+        verify(connection, times(2)).close();
+    }
+
+    @Test
+    public void givenNestedLeaseWhenCloseThenRestorePreviousLease() throws SQLException {
+        var outerConnection = mock(Connection.class);
+
+        when(connectionFactory.getConnection()).thenReturn(outerConnection, connection);
+
+        try (var outer = executor.openLease()) {
+            executor.executeStatement(function);
+
+            try (var inner = executor.openLease()) {
+                executor.executeStatement(function);
+            }
+
+            executor.executeStatement(function);
+            verify(function, times(2)).apply(outerConnection);
+            verify(function).apply(connection);
+            verify(connection).close();
+            verify(outerConnection, never()).close();
+        }
+
+        verify(outerConnection).close();
+    }
+
+    @Test
+    public void givenOuterLeaseClosedFirstWhenCloseInnerLeaseThenUnbindBoth() throws SQLException {
+        var outer = executor.openLease();
+        var inner = executor.openLease();
+
+        outer.close();
+        executor.executeStatement(function);
+        inner.close();
+        executor.executeStatement(function);
+
+        verify(connectionFactory, times(2)).getConnection();
+        verify(connection, times(2)).close();
+    }
+
+    @Test
+    public void givenLeaseClosedByOtherThreadWhenExecuteStatementsThenAcquireAndCloseConnection() throws Exception {
+        var lease = executor.openLease();
+
+        CompletableFuture.runAsync(lease::close).get(5, TimeUnit.SECONDS);
+        when(connection.prepareStatement("query")).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+
+        executor.executeStatement(function);
+        executor.executeStreamingQuery("query", 0, handler).close();
+
+        verify(connectionFactory, times(2)).getConnection();
+        verify(connection, times(2)).close();
+    }
+
+    @Test
+    public void givenExhaustedPoolWhenExecuteStatementThenDoNotCountFailure() {
+        var exception = new RuntimeException(new SQLTransientConnectionException("Connection is not available"));
+
+        when(connectionFactory.getConnection()).thenThrow(exception);
+
+        assertThatThrownBy(() -> executor.executeStatement(function)).isSameAs(exception);
+
+        verify(circuitBreaker).release();
+        verify(circuitBreaker, never()).onFailure();
+        verify(bulkhead).release();
+    }
+
+    @Test
+    public void givenUnreachableDatabaseWhenExecuteStatementThenCountFailure() {
+        var cause = new SQLTransientConnectionException("Connection is not available", new SQLException("Connection refused"));
+
+        when(connectionFactory.getConnection()).thenThrow(new RuntimeException(cause));
+
+        assertThatThrownBy(() -> executor.executeStatement(function)).hasCause(cause);
+
+        verify(circuitBreaker).onFailure();
+        verify(circuitBreaker, never()).release();
+    }
 }
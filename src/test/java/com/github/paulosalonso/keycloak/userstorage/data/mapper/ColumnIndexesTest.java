@@ -0,0 +1,103 @@
+package com.github.paulosalonso.keycloak.userstorage.data.mapper;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class ColumnIndexesTest {
+
+    @Mock
+    private ResultSet resultSet;
+
+    @Mock
+    private ResultSet otherResultSet;
+
+    @Mock
+    private ResultSetMetaData metaData;
+
+    @Test
+    public void whenResolveThenReturnIndexesInLabelOrder() throws SQLException {
+        givenColumns("name", "ID", "email");
+
+        var indexes = new ColumnIndexes("id", "email", "name").resolve(resultSet);
+
+        assertThat(indexes).containsExactly(2, 3, 1);
+    }
+
+    @Test
+    public void givenDuplicatedLabelsWhenResolveThenReturnFirstMatchingColumn() throws SQLException {
+        givenColumns("id", "username", "id");
+
+        var indexes = new ColumnIndexes("id").resolve(resultSet);
+
+        assertThat(indexes).containsExactly(1);
+    }
+
+    @Test
+    public void givenResolvedIndexesWhenResolveAgainThenReuseThem() throws SQLException {
+        givenColumns("id", "name");
+        var columnIndexes = new ColumnIndexes("name", "id");
+
+        var first = columnIndexes.resolve(resultSet);
+        var second = columnIndexes.resolve(otherResultSet);
+
+        assertThat(second).isSameAs(first).containsExactly(2, 1);
+        verify(resultSet).getMetaData();
+        verifyNoInteractions(otherResultSet);
+    }
+
+    @Test
+    public void givenQualifiedLabelWhenResolveThenReturnColumnOfUnqualifiedLabel() throws SQLException {
+        givenColumns("name", "id");
+
+        var indexes = new ColumnIndexes("u.id", "u.name").resolve(resultSet);
+
+        assertThat(indexes).containsExactly(2, 1);
+    }
+
+    @Test
+    public void givenColumnLabelledWithQualifiedLabelWhenResolveThenPreferIt() throws SQLException {
+        givenColumns("id", "u.id");
+
+        var indexes = new ColumnIndexes("u.id").resolve(resultSet);
+
+        assertThat(indexes).containsExactly(2);
+    }
+
+    @Test
+    public void givenMissingQualifiedLabelWhenResolveThenThrowsSQLException() throws SQLException {
+        givenColumns("id", "name");
+
+        assertThatThrownBy(() -> new ColumnIndexes("u.description").resolve(resultSet))
+                .isExactlyInstanceOf(SQLException.class)
+                .hasMessage("Column not found in result set: u.description");
+    }
+
+    @Test
+    public void givenMissingLabelWhenResolveThenThrowsSQLException() throws SQLException {
+        givenColumns("id", "name");
+
+        assertThatThrownBy(() -> new ColumnIndexes("id", "description").resolve(resultSet))
+                .isExactlyInstanceOf(SQLException.class)
+                .hasMessage("Column not found in result set: description");
+    }
+
+    private void givenColumns(String... labels) throws SQLException {
+        when(resultSet.getMetaData()).thenReturn(metaData);
+        when(metaData.getColumnCount()).thenReturn(labels.length);
+
+        for (int i = 0; i < labels.length; i++) {
+            lenient().when(metaData.getColumnLabel(i + 1)).thenReturn(labels[i]);
+        }
+    }
+}
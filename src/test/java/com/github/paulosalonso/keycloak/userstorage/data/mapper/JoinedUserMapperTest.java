@@ -0,0 +1,146 @@
+package com.github.paulosalonso.keycloak.userstorage.data.mapper;
+
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import com.github.paulosalonso.keycloak.userstorage.data.model.Role;
+import com.github.paulosalonso.keycloak.userstorage.data.model.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class JoinedUserMapperTest {
+
+    private JoinedUserMapper mapper;
+
+    @Mock
+    private UserStorageConfiguration configuration;
+
+    @Mock
+    private RoleMapper roleMapper;
+
+    @Mock
+    private ResultSet resultSet;
+
+    @Mock
+    private ResultSetMetaData metaData;
+
+    @BeforeEach
+    public void setUp() {
+        when(configuration.getUserIdField()).thenReturn("id");
+        when(configuration.getUserUsernameField()).thenReturn("username");
+        when(configuration.getUserEmailField()).thenReturn("email");
+
+        mapper = new JoinedUserMapper(configuration, roleMapper);
+    }
+
+    @Test
+    public void whenMapResultSetThenReturnUserWithRolesOfAllRows() throws SQLException {
+        givenColumns("id", "username", "email", "role_id");
+        when(resultSet.next()).thenReturn(true, true, false);
+        when(resultSet.getString(1)).thenReturn("1");
+        when(resultSet.getString(2)).thenReturn("fulano");
+        when(resultSet.getString(3)).thenReturn("fulano@mail.com");
+        doAnswer(invocation -> {
+            List<Role> roles = invocation.getArgument(1);
+            roles.add(Role.builder().id("role-" + roles.size()).build());
+            return null;
+        }).when(roleMapper).addRow(eq(resultSet), anyList());
+
+        var userOptional = mapper.map(resultSet);
+
+        assertThat(userOptional)
+                .isPresent()
+                .get()
+                .satisfies(user -> {
+                    assertThat(user.getId()).isEqualTo("1");
+                    assertThat(user.getUsername()).isEqualTo("fulano");
+                    assertThat(user.getEmail()).isEqualTo("fulano@mail.com");
+                    assertThat(user.getRoles())
+                            .extracting(Role::getId)
+                            .containsExactly("role-0", "role-1");
+                });
+
+        verify(resultSet, times(3)).next();
+        verify(resultSet).getString(1);
+        verify(roleMapper, times(2)).addRow(eq(resultSet), anyList());
+    }
+
+    @Test
+    public void givenAnEmptyResultSetWhenMapThenReturnEmptyOptional() throws SQLException {
+        when(resultSet.next()).thenReturn(false);
+
+        var userOptional = mapper.map(resultSet);
+
+        assertThat(userOptional).isEmpty();
+
+        verify(resultSet).next();
+        verifyNoMoreInteractions(resultSet);
+        verify(roleMapper, never()).addRow(any(), anyList());
+    }
+
+    @Test
+    public void whenMapAllThenGroupRowsOfEachUserWhateverTheirOrder() throws SQLException {
+        givenColumns("id", "username", "email", "role_id");
+        when(resultSet.next()).thenReturn(true, true, true, false);
+        when(resultSet.getString(1)).thenReturn("1", "2", "1");
+        when(resultSet.getString(2)).thenReturn("fulano", "beltrano", "fulano");
+        when(resultSet.getString(3)).thenReturn("fulano@mail.com", "fulano", "fulano@mail.com");
+        doAnswer(invocation -> {
+            List<Role> roles = invocation.getArgument(1);
+            roles.add(Role.builder().id("role-" + roles.size()).build());
+            return null;
+        }).when(roleMapper).addRow(eq(resultSet), anyList());
+
+        var users = mapper.mapAll(resultSet);
+
+        assertThat(users).extracting(User::getId).containsExactly("1", "2");
+        assertThat(users.get(0).getRoles()).extracting(Role::getId).containsExactly("role-0", "role-1");
+        assertThat(users.get(1).getRoles()).extracting(Role::getId).containsExactly("role-0");
+
+        verify(resultSet, times(4)).next();
+        verify(roleMapper, times(3)).addRow(eq(resultSet), anyList());
+    }
+
+    @Test
+    public void whenMapMatchesThenClassifyGroupedUsers() throws SQLException {
+        givenColumns("id", "username", "email", "role_id", "username_match", "email_match");
+        when(resultSet.next()).thenReturn(true, true, true, false);
+        when(resultSet.getString(1)).thenReturn("1", "2", "1");
+        when(resultSet.getInt(5)).thenReturn(0, 1, 0);
+        when(resultSet.getInt(6)).thenReturn(1, 0, 1);
+        doAnswer(invocation -> {
+            List<Role> roles = invocation.getArgument(1);
+            roles.add(Role.builder().id("role-" + roles.size()).build());
+            return null;
+        }).when(roleMapper).addRow(eq(resultSet), anyList());
+
+        var matches = mapper.mapMatches(resultSet);
+
+        assertThat(matches.getByUsername()).map(User::getId).contains("2");
+        assertThat(matches.getByEmail()).hasValueSatisfying(user -> {
+            assertThat(user.getId()).isEqualTo("1");
+            assertThat(user.getRoles()).extracting(Role::getId).containsExactly("role-0", "role-1");
+        });
+    }
+
+    private void givenColumns(String... labels) throws SQLException {
+        when(resultSet.getMetaData()).thenReturn(metaData);
+        when(metaData.getColumnCount()).thenReturn(labels.length);
+
+        for (int i = 0; i < labels.length; i++) {
+            lenient().when(metaData.getColumnLabel(i + 1)).thenReturn(labels[i]);
+        }
+    }
+}
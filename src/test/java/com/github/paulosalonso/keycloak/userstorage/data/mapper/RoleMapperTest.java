@@ -1,41 +1,57 @@
 package com.github.paulosalonso.keycloak.userstorage.data.mapper;
 
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import com.github.paulosalonso.keycloak.userstorage.data.model.Role;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.util.Properties;
 
-import static com.github.paulosalonso.keycloak.userstorage.configurations.Configurations.*;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 public class RoleMapperTest {
 
-    @InjectMocks
     private RoleMapper mapper;
 
     @Mock
-    private Properties properties;
+    private UserStorageConfiguration configuration;
 
     @Mock
     private ResultSet resultSet;
 
+    @Mock
+    private ResultSetMetaData metaData;
+
+    @BeforeEach
+    public void setUp() {
+        when(configuration.getRoleIdField()).thenReturn("id");
+        when(configuration.getRoleNameField()).thenReturn("name");
+        when(configuration.getRoleDescriptionField()).thenReturn("description");
+        when(configuration.getRoleUserIdLabel()).thenReturn("user_id");
+
+        mapper = new RoleMapper(configuration);
+
+        verify(configuration).getRoleIdField();
+        verify(configuration).getRoleNameField();
+        verify(configuration).getRoleDescriptionField();
+        verify(configuration).getRoleUserIdLabel();
+        clearInvocations(configuration);
+    }
+
     @Test
     public void whenMapResultSetThenReturnRoleList() throws SQLException {
-        when(properties.getProperty(ROLE_ID_FIELD)).thenReturn("id");
-        when(properties.getProperty(ROLE_NAME_FIELD)).thenReturn("name");
-        when(properties.getProperty(ROLE_DESCRIPTION_FIELD)).thenReturn("description");
-
+        givenColumns("id", "name", "description");
         when(resultSet.next()).thenReturn(true).thenReturn(false);
-        when(resultSet.getString("id")).thenReturn("role-id");
-        when(resultSet.getString("name")).thenReturn("role-name");
-        when(resultSet.getString("description")).thenReturn("role-description");
+        when(resultSet.getString(1)).thenReturn("role-id");
+        when(resultSet.getString(2)).thenReturn("role-name");
+        when(resultSet.getString(3)).thenReturn("role-description");
 
         var roles = mapper.map(resultSet);
 
@@ -48,14 +64,12 @@ public class RoleMapperTest {
                     assertThat(role.getDescription()).isEqualTo("role-description");
                 });
 
-        verify(properties).getProperty(ROLE_ID_FIELD);
-        verify(properties).getProperty(ROLE_NAME_FIELD);
-        verify(properties).getProperty(ROLE_DESCRIPTION_FIELD);
+        verifyNoInteractions(configuration);
 
         verify(resultSet, times(2)).next();
-        verify(resultSet).getString("id");
-        verify(resultSet).getString("name");
-        verify(resultSet).getString("description");
+        verify(resultSet).getString(1);
+        verify(resultSet).getString(2);
+        verify(resultSet).getString(3);
     }
 
     @Test
@@ -68,6 +82,47 @@ public class RoleMapperTest {
 
         verify(resultSet).next();
         verifyNoMoreInteractions(resultSet);
-        verifyNoInteractions(properties);
+        verifyNoInteractions(configuration);
+    }
+
+    @Test
+    public void givenARowWithoutRoleIdWhenMapThenSkipIt() throws SQLException {
+        givenColumns("id", "name", "description");
+        when(resultSet.next()).thenReturn(true).thenReturn(false);
+        when(resultSet.getString(1)).thenReturn(null);
+
+        var roles = mapper.map(resultSet);
+
+        assertThat(roles).isEmpty();
+
+        verify(resultSet, times(2)).next();
+        verify(resultSet).getMetaData();
+        verify(resultSet).getString(1);
+        verifyNoMoreInteractions(resultSet);
+    }
+
+    @Test
+    public void whenMapByUserIdThenGroupRolesByUserIdColumn() throws SQLException {
+        givenColumns("id", "name", "description", "user_id");
+        when(resultSet.next()).thenReturn(true, true, true, true, false);
+        when(resultSet.getString(1)).thenReturn("role-1", "role-2", "role-3", null);
+        when(resultSet.getString(4)).thenReturn("user-1", "user-2", "user-1", "user-3");
+
+        var roles = mapper.mapByUserId(resultSet);
+
+        assertThat(roles).containsOnlyKeys("user-1", "user-2", "user-3");
+        assertThat(roles.get("user-1")).extracting(Role::getId).containsExactly("role-1", "role-3");
+        assertThat(roles.get("user-2")).extracting(Role::getId).containsExactly("role-2");
+        assertThat(roles.get("user-3")).isEmpty();
+        verifyNoInteractions(configuration);
+    }
+
+    private void givenColumns(String... labels) throws SQLException {
+        when(resultSet.getMetaData()).thenReturn(metaData);
+        when(metaData.getColumnCount()).thenReturn(labels.length);
+
+        for (int i = 0; i < labels.length; i++) {
+            lenient().when(metaData.getColumnLabel(i + 1)).thenReturn(labels[i]);
+        }
     }
 }
@@ -1,41 +1,58 @@
 package com.github.paulosalonso.keycloak.userstorage.data.mapper;
 
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import com.github.paulosalonso.keycloak.userstorage.data.model.User;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.util.Properties;
 
-import static com.github.paulosalonso.keycloak.userstorage.configurations.Configurations.*;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 public class UserMapperTest {
 
-    @InjectMocks
     private UserMapper userMapper;
 
     @Mock
-    private Properties properties;
+    private UserStorageConfiguration configuration;
 
     @Mock
     private ResultSet resultSet;
 
+    @Mock
+    private ResultSetMetaData metaData;
+
+    @BeforeEach
+    public void setUp() {
+        when(configuration.getUserIdField()).thenReturn("id");
+        when(configuration.getUserUsernameField()).thenReturn("username");
+        when(configuration.getUserEmailField()).thenReturn("email");
+        when(configuration.isPasswordPrefetch()).thenReturn(false);
+
+        userMapper = new UserMapper(configuration);
+
+        verify(configuration).getUserIdField();
+        verify(configuration).getUserUsernameField();
+        verify(configuration).getUserEmailField();
+        verify(configuration).isPasswordPrefetch();
+        clearInvocations(configuration);
+    }
+
     @Test
     public void whenMapResultSetThenReturnOptionWithUser() throws SQLException {
-        when(properties.getProperty(USER_ID_FIELD)).thenReturn("id");
-        when(properties.getProperty(USER_USERNAME_FIELD)).thenReturn("username");
-        when(properties.getProperty(USER_EMAIL_FIELD)).thenReturn("email");
-
+        givenColumns("ID", "USERNAME", "EMAIL");
         when(resultSet.next()).thenReturn(true);
-        when(resultSet.getString("id")).thenReturn("1");
-        when(resultSet.getString("username")).thenReturn("fulano");
-        when(resultSet.getString("email")).thenReturn("fulano@mail.com");
+        when(resultSet.getString(1)).thenReturn("1");
+        when(resultSet.getString(2)).thenReturn("fulano");
+        when(resultSet.getString(3)).thenReturn("fulano@mail.com");
 
         var userOptional = userMapper.map(resultSet);
 
@@ -46,16 +63,63 @@ public class UserMapperTest {
                     assertThat(user.getId()).isEqualTo("1");
                     assertThat(user.getUsername()).isEqualTo("fulano");
                     assertThat(user.getEmail()).isEqualTo("fulano@mail.com");
+                    assertThat(user.getPassword()).isNull();
                 });
 
-        verify(properties).getProperty(USER_ID_FIELD);
-        verify(properties).getProperty(USER_USERNAME_FIELD);
-        verify(properties).getProperty(USER_EMAIL_FIELD);
+        verifyNoInteractions(configuration);
 
         verify(resultSet).next();
-        verify(resultSet).getString("id");
-        verify(resultSet).getString("username");
-        verify(resultSet).getString("email");
+        verify(resultSet).getString(1);
+        verify(resultSet).getString(2);
+        verify(resultSet).getString(3);
+    }
+
+    @Test
+    public void givenFieldsQualifiedWithTableWhenMapResultSetThenReadColumnsLabelledWithoutQualifier() throws SQLException {
+        when(configuration.getUserIdField()).thenReturn("u.id");
+        when(configuration.getUserUsernameField()).thenReturn("u.username");
+        when(configuration.getUserEmailField()).thenReturn("u.email");
+        givenColumns("id", "username", "email", "role_id");
+        when(resultSet.next()).thenReturn(true);
+        when(resultSet.getString(1)).thenReturn("1");
+        when(resultSet.getString(2)).thenReturn("fulano");
+        when(resultSet.getString(3)).thenReturn("fulano@mail.com");
+
+        var userOptional = new UserMapper(configuration).map(resultSet);
+
+        assertThat(userOptional)
+                .isPresent()
+                .get()
+                .satisfies(user -> {
+                    assertThat(user.getId()).isEqualTo("1");
+                    assertThat(user.getUsername()).isEqualTo("fulano");
+                    assertThat(user.getEmail()).isEqualTo("fulano@mail.com");
+                });
+    }
+
+    @Test
+    public void givenPasswordPrefetchWhenMapResultSetThenReturnUserWithPassword() throws SQLException {
+        when(configuration.isPasswordPrefetch()).thenReturn(true);
+        when(configuration.getUserPasswordField()).thenReturn("password");
+        givenColumns("id", "username", "email", "password");
+        when(resultSet.next()).thenReturn(true);
+        when(resultSet.getString(1)).thenReturn("1");
+        when(resultSet.getString(2)).thenReturn("fulano");
+        when(resultSet.getString(3)).thenReturn("fulano@mail.com");
+        when(resultSet.getString(4)).thenReturn("hash");
+
+        var userOptional = new UserMapper(configuration).map(resultSet);
+
+        assertThat(userOptional)
+                .isPresent()
+                .get()
+                .satisfies(user -> {
+                    assertThat(user.getId()).isEqualTo("1");
+                    assertThat(user.getPassword()).isEqualTo("hash");
+                });
+
+        verify(configuration).getUserPasswordField();
+        verify(resultSet).getString(4);
     }
 
     @Test
@@ -68,6 +132,84 @@ public class UserMapperTest {
 
         verify(resultSet).next();
         verifyNoMoreInteractions(resultSet);
-        verifyNoInteractions(properties);
+        verifyNoInteractions(configuration);
+    }
+
+    @Test
+    public void whenMapAllThenReturnUserOfEachRow() throws SQLException {
+        givenColumns("id", "username", "email");
+        when(resultSet.next()).thenReturn(true, true, false);
+        when(resultSet.getString(1)).thenReturn("1", "2");
+        when(resultSet.getString(2)).thenReturn("fulano", "beltrano");
+        when(resultSet.getString(3)).thenReturn("fulano@mail.com", "fulano");
+
+        var users = userMapper.mapAll(resultSet);
+
+        assertThat(users)
+                .extracting(User::getId, User::getUsername, User::getEmail)
+                .containsExactly(tuple("1", "fulano", "fulano@mail.com"), tuple("2", "beltrano", "fulano"));
+
+        verify(resultSet, times(3)).next();
+    }
+
+    @Test
+    public void whenMapMatchesThenClassifyFirstUserOfEachMatchMarker() throws SQLException {
+        givenColumns("id", "username", "email", "username_match", "email_match");
+        when(resultSet.next()).thenReturn(true, true, true, false);
+        when(resultSet.getString(1)).thenReturn("1", "2", "3");
+        when(resultSet.getInt(4)).thenReturn(0, 1, 1);
+        when(resultSet.getInt(5)).thenReturn(1, 0, 1);
+
+        var matches = userMapper.mapMatches(resultSet);
+
+        assertThat(matches.getByUsername()).map(User::getId).contains("2");
+        assertThat(matches.getByEmail()).map(User::getId).contains("1");
+    }
+
+    @Test
+    public void givenNoEmailMatchWhenMapMatchesThenReturnOnlyUsernameMatch() throws SQLException {
+        givenColumns("id", "username", "email", "username_match", "email_match");
+        when(resultSet.next()).thenReturn(true, false);
+        when(resultSet.getString(1)).thenReturn("1");
+        when(resultSet.getInt(4)).thenReturn(1);
+        when(resultSet.getInt(5)).thenReturn(0);
+
+        var matches = userMapper.mapMatches(resultSet);
+
+        assertThat(matches.getByUsername()).map(User::getId).contains("1");
+        assertThat(matches.getByEmail()).isEmpty();
+    }
+
+    @Test
+    public void whenMapCurrentThenMapRowResultSetIsPositionedAt() throws SQLException {
+        givenColumns("id", "username", "email");
+        when(resultSet.getString(1)).thenReturn("1");
+        when(resultSet.getString(2)).thenReturn("fulano");
+        when(resultSet.getString(3)).thenReturn("fulano@mail.com");
+
+        var user = userMapper.mapCurrent(resultSet);
+
+        assertThat(user.getId()).isEqualTo("1");
+        assertThat(user.getUsername()).isEqualTo("fulano");
+        verify(resultSet, never()).next();
+    }
+
+    @Test
+    public void givenAnEmptyResultSetWhenMapAllThenReturnEmptyList() throws SQLException {
+        when(resultSet.next()).thenReturn(false);
+
+        assertThat(userMapper.mapAll(resultSet)).isEmpty();
+
+        verify(resultSet).next();
+        verifyNoMoreInteractions(resultSet);
+    }
+
+    private void givenColumns(String... labels) throws SQLException {
+        when(resultSet.getMetaData()).thenReturn(metaData);
+        when(metaData.getColumnCount()).thenReturn(labels.length);
+
+        for (int i = 0; i < labels.length; i++) {
+            lenient().when(metaData.getColumnLabel(i + 1)).thenReturn(labels[i]);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,27 @@
+package com.github.paulosalonso.keycloak.userstorage.data.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class UserMatchesTest {
+
+    @Test
+    public void whenCreateThenExposeUsernameAndEmailMatches() {
+        var byUsername = User.builder().id("1").build();
+        var byEmail = User.builder().id("2").build();
+
+        var matches = new UserMatches(byUsername, byEmail);
+
+        assertThat(matches.getByUsername()).containsSame(byUsername);
+        assertThat(matches.getByEmail()).containsSame(byEmail);
+    }
+
+    @Test
+    public void givenNoMatchingUserWhenCreateThenReturnEmptyMatches() {
+        var matches = new UserMatches(null, null);
+
+        assertThat(matches.getByUsername()).isEmpty();
+        assertThat(matches.getByEmail()).isEmpty();
+    }
+}
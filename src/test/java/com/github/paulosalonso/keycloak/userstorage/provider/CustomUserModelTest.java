@@ -14,10 +14,13 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 import static org.assertj.core.api.Assertions.assertThat;
-import static org.mockito.Mockito.verify;
-import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 public class CustomUserModelTest {
@@ -38,7 +41,7 @@ public class CustomUserModelTest {
     private User user;
 
     @Mock
-    private List<Role> roles;
+    private Supplier<List<Role>> roles;
 
     @Test
     public void whenGetIdThenReturnKeycloakStorageIdFormat() {
@@ -62,6 +65,18 @@ public class CustomUserModelTest {
         verify(user).getEmail();
     }
 
+    @Test
+    public void whenGetPrefetchedPasswordThenReturnDecoratedUserPassword() {
+        when(user.getPassword()).thenReturn("hash");
+        assertThat(customUserModel.getPrefetchedPassword()).contains("hash");
+        verify(user).getPassword();
+    }
+
+    @Test
+    public void givenUserWithoutPasswordWhenGetPrefetchedPasswordThenReturnEmpty() {
+        assertThat(customUserModel.getPrefetchedPassword()).isEmpty();
+    }
+
     @Test
     public void whenGetRoleMappingsInternalThenReturnMappedRoles() {
         var role = Role.builder()
@@ -70,7 +85,7 @@ public class CustomUserModelTest {
                 .description("description")
                 .build();
 
-        var userModel = new CustomUserModel(session, realm, storageProviderModel, user, List.of(role));
+        var userModel = new CustomUserModel(session, realm, storageProviderModel, user, () -> List.of(role));
         var mappedRoles = userModel.getRoleMappingsInternal();
         assertThat(mappedRoles)
                 .hasSize(1)
@@ -78,6 +93,78 @@ public class CustomUserModelTest {
                 .isNotNull();
     }
 
+    @Test
+    public void whenGetRolesThenReturnMappedRolesAsPlainValues() {
+        var role = Role.builder()
+                .id("id")
+                .name("name")
+                .description("description")
+                .build();
+
+        var userModel = new CustomUserModel(session, realm, storageProviderModel, user, () -> List.of(role));
+
+        assertThat(userModel.getRoles())
+                .singleElement()
+                .satisfies(mappedRole -> {
+                    assertThat(mappedRole).isNotSameAs(role);
+                    assertThat(mappedRole.getId()).isEqualTo("id");
+                    assertThat(mappedRole.getName()).isEqualTo("name");
+                    assertThat(mappedRole.getDescription()).isEqualTo("description");
+                });
+    }
+
+    @Test
+    public void whenCreateThenDoNotLoadRoles() {
+        new CustomUserModel(session, realm, storageProviderModel, user, roles);
+        verifyNoInteractions(roles);
+    }
+
+    @Test
+    public void whenGetRoleMappingsInternalMoreThanOnceThenLoadRolesOnce() {
+        when(roles.get()).thenReturn(List.of(Role.builder().id("id").build()));
+
+        var mappedRoles = customUserModel.getRoleMappingsInternal();
+
+        assertThat(customUserModel.getRoleMappingsInternal()).isSameAs(mappedRoles);
+        verify(roles).get();
+    }
+
+    @Test
+    public void whenGetRoleMappingsInternalConcurrentlyThenLoadRolesOnce() throws Exception {
+        var loading = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+
+        when(roles.get()).thenAnswer(invocation -> {
+            loading.countDown();
+            release.await();
+            return List.of(Role.builder().id("id").build());
+        });
+
+        var executor = Executors.newFixedThreadPool(2);
+
+        try {
+            var first = executor.submit(customUserModel::getRoleMappingsInternal);
+            loading.await();
+
+            var waitingThread = new AtomicReference<Thread>();
+            var second = executor.submit(() -> {
+                waitingThread.set(Thread.currentThread());
+                return customUserModel.getRoleMappingsInternal();
+            });
+
+            while (waitingThread.get() == null || waitingThread.get().getState() != Thread.State.BLOCKED) {
+                Thread.onSpinWait();
+            }
+
+            release.countDown();
+
+            assertThat(second.get()).isSameAs(first.get());
+            verify(roles).get();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
 //    @Test
 //    public void whenGetRoleMappingsInternalThenReturnEmptyList() {
 //        var userModel = new CustomUserModel(session, realm, storageProviderModel, user, Collections.emptyList());
@@ -0,0 +1,55 @@
+package com.github.paulosalonso.keycloak.userstorage.provider;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.password.MessageDigestPasswordEncoder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class DigestPasswordEncoderTest {
+
+    private final DigestPasswordEncoder encoder = new DigestPasswordEncoder("MD5");
+    private final MessageDigestPasswordEncoder springEncoder = new MessageDigestPasswordEncoder("MD5");
+
+    @Test
+    public void givenInvalidAlgorithmWhenCreateThenThrowsIllegalArgumentException() {
+        assertThatThrownBy(() -> new DigestPasswordEncoder("invalid-algorithm"))
+                .isExactlyInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Invalid message digest algorithm: invalid-algorithm");
+    }
+
+    @Test
+    public void whenEncodeThenReturnUnsaltedHexDigest() {
+        assertThat(encoder.encode("password")).isEqualTo("5f4dcc3b5aa765d61d8327deb882cf99");
+    }
+
+    @Test
+    public void givenSpringSaltedHashWhenMatchesThenReturnTrue() {
+        var encodedPassword = springEncoder.encode("password");
+
+        assertThat(encodedPassword).startsWith("{");
+        assertThat(encoder.matches("password", encodedPassword)).isTrue();
+        assertThat(encoder.matches("other-password", encodedPassword)).isFalse();
+    }
+
+    @Test
+    public void givenUnsaltedHashWhenMatchesThenReturnTrue() {
+        assertThat(encoder.matches("password", "5f4dcc3b5aa765d61d8327deb882cf99")).isTrue();
+        assertThat(encoder.matches("password", "5F4DCC3B5AA765D61D8327DEB882CF99")).isTrue();
+        assertThat(encoder.matches("password", "5f4dcc3b5aa765d61d8327deb882cf98")).isFalse();
+    }
+
+    @Test
+    public void givenPrefixWithoutSuffixWhenMatchesThenHashWholeValue() {
+        assertThat(encoder.matches("password", "{5f4dcc3b5aa765d61d8327deb882cf9")).isFalse();
+    }
+
+    @Test
+    public void givenMalformedHashWhenMatchesThenReturnFalse() {
+        assertThat(encoder.matches("password", null)).isFalse();
+        assertThat(encoder.matches("password", "5f4dcc3b")).isFalse();
+        assertThat(encoder.matches("password", "zz4dcc3b5aa765d61d8327deb882cf99")).isFalse();
+        assertThat(encoder.matches("password", "5fzzcc3b5aa765d61d8327deb882cf99")).isFalse();
+        assertThat(encoder.matches("password", "5f4dcc3b5aa765d61d8327deb882cfzz")).isFalse();
+    }
+}
@@ -1,8 +1,8 @@
 package com.github.paulosalonso.keycloak.userstorage.provider;
 
-import com.github.paulosalonso.keycloak.userstorage.configurations.ConfigurationsMapper;
 import com.github.paulosalonso.keycloak.userstorage.configurations.ConfigurationsValidator;
 import com.github.paulosalonso.keycloak.userstorage.configurations.PasswordEncodeType;
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserCountStrategy;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.keycloak.component.ComponentModel;
@@ -14,7 +14,6 @@ import org.mockito.MockedStatic;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.util.List;
-import java.util.Properties;
 
 import static com.github.paulosalonso.keycloak.userstorage.configurations.Configurations.*;
 import static org.assertj.core.api.Assertions.*;
@@ -44,7 +43,7 @@ public class JdbcUserStorageProviderFactoryTest {
     public void wheGetConfigPropertiesThenReturnConfigurationList() {
         var configurations = factory.getConfigProperties();
 
-        assertThat(configurations).hasSize(14);
+        assertThat(configurations).hasSize(47);
 
         assertConfiguration(getConfigurationByName(configurations, JDBC_URL),
                 JDBC_URL, "JDBC URL Connection", "URL to connect database with JDBC", STRING_TYPE, null, null, false);
@@ -52,6 +51,43 @@ public class JdbcUserStorageProviderFactoryTest {
                 DB_USER, "Database user", "Database user", STRING_TYPE, null, null, false);
         assertConfiguration(getConfigurationByName(configurations, DB_PASSWORD),
                 DB_PASSWORD, "Database password", "Database password", PASSWORD, null, null, true);
+        assertConfiguration(getConfigurationByName(configurations, POOL_MIN_IDLE),
+                POOL_MIN_IDLE, "Pool minimum idle", "Minimum number of idle connections kept in the pool", STRING_TYPE, DEFAULT_POOL_MIN_IDLE, null, false);
+        assertConfiguration(getConfigurationByName(configurations, POOL_MAX_SIZE),
+                POOL_MAX_SIZE, "Pool maximum size", "Maximum number of connections in the pool", STRING_TYPE, DEFAULT_POOL_MAX_SIZE, null, false);
+        assertConfiguration(getConfigurationByName(configurations, POOL_IDLE_TIMEOUT),
+                POOL_IDLE_TIMEOUT, "Pool idle timeout", "Milliseconds an idle connection is kept in the pool before being retired", STRING_TYPE, DEFAULT_POOL_IDLE_TIMEOUT, null, false);
+        assertConfiguration(getConfigurationByName(configurations, POOL_CONNECTION_TIMEOUT),
+                POOL_CONNECTION_TIMEOUT, "Pool acquire timeout", "Milliseconds to wait for a connection from the pool before failing", STRING_TYPE, DEFAULT_POOL_CONNECTION_TIMEOUT, null, false);
+        assertConfiguration(getConfigurationByName(configurations, POOL_MAX_LIFETIME),
+                POOL_MAX_LIFETIME, "Pool connection max lifetime", "Maximum lifetime in milliseconds of a connection in the pool", STRING_TYPE, DEFAULT_POOL_MAX_LIFETIME, null, false);
+        assertConfiguration(getConfigurationByName(configurations, STATEMENT_CACHE_SIZE),
+                STATEMENT_CACHE_SIZE, "Prepared statement cache size", "Number of prepared statements cached per pooled connection by the MySQL, MariaDB and PostgreSQL drivers, so repeated lookups reuse statements already parsed by the database. Zero disables the cache.",
+                STRING_TYPE, DEFAULT_STATEMENT_CACHE_SIZE, null, false);
+        assertConfiguration(getConfigurationByName(configurations, QUERY_TIMEOUT),
+                QUERY_TIMEOUT, "Query timeout", "Maximum time in milliseconds a query may run before the driver cancels it. It is rounded up to whole seconds. Zero disables the timeout.",
+                STRING_TYPE, DEFAULT_QUERY_TIMEOUT, null, false);
+        assertConfiguration(getConfigurationByName(configurations, QUERY_FETCH_SIZE),
+                QUERY_FETCH_SIZE, "Query fetch size", "Number of rows the driver reads from the database at a time while the admin console lists or searches users. The rows are read through a cursor in a transaction of their own, with cursor fetching enabled on MySQL. Zero reads every row at once.",
+                STRING_TYPE, DEFAULT_QUERY_FETCH_SIZE, null, false);
+        assertConfiguration(getConfigurationByName(configurations, ADMIN_QUERY_TIMEOUT),
+                ADMIN_QUERY_TIMEOUT, "Admin query timeout", "Maximum time in milliseconds a query listing, searching or counting users for the admin console may run before the driver cancels it. It is rounded up to whole seconds. Zero disables the timeout. These queries do not count towards the circuit breaker.",
+                STRING_TYPE, DEFAULT_ADMIN_QUERY_TIMEOUT, null, false);
+        assertConfiguration(getConfigurationByName(configurations, CIRCUIT_BREAKER_FAILURE_THRESHOLD),
+                CIRCUIT_BREAKER_FAILURE_THRESHOLD, "Circuit breaker failure threshold", "Number of consecutive database failures that open the circuit. While it is open, lookups fail fast without touching the database. Zero disables the circuit breaker.",
+                STRING_TYPE, DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD, null, false);
+        assertConfiguration(getConfigurationByName(configurations, CIRCUIT_BREAKER_OPEN_DURATION),
+                CIRCUIT_BREAKER_OPEN_DURATION, "Circuit breaker open duration", "Time in milliseconds the circuit stays open before a single probe query is let through. A successful probe closes the circuit and a failed one keeps it open for another period.",
+                STRING_TYPE, DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION, null, false);
+        assertConfiguration(getConfigurationByName(configurations, BULKHEAD_MAX_CONCURRENT),
+                BULKHEAD_MAX_CONCURRENT, "Maximum concurrent queries", "Maximum number of queries this component runs against the database at the same time. Lookups beyond the limit wait for a free slot. Zero disables the limit.",
+                STRING_TYPE, DEFAULT_BULKHEAD_MAX_CONCURRENT, null, false);
+        assertConfiguration(getConfigurationByName(configurations, BULKHEAD_MAX_WAIT),
+                BULKHEAD_MAX_WAIT, "Maximum wait for a query slot", "Time in milliseconds a lookup waits for a free query slot before it is shed. Zero sheds immediately.",
+                STRING_TYPE, DEFAULT_BULKHEAD_MAX_WAIT, null, false);
+        assertConfiguration(getConfigurationByName(configurations, BULKHEAD_ADAPTIVE),
+                BULKHEAD_ADAPTIVE, "Adaptive concurrency limit", "Lowers the concurrent query limit while query latency grows above the lowest latency observed, and raises it back up to the maximum as latency recovers.",
+                BOOLEAN_TYPE, DEFAULT_BULKHEAD_ADAPTIVE, null, false);
         assertConfiguration(getConfigurationByName(configurations, USER_QUERY),
                 USER_QUERY, "User query", "Query to get users in database. It must contain the fields referring to the id, username, email and password. It should not contain the WHERE clause.",
                 STRING_TYPE, null, null, false);
@@ -74,8 +110,65 @@ public class JdbcUserStorageProviderFactoryTest {
                 ROLE_NAME_FIELD, "Role name field", "Name of name field in role query", STRING_TYPE, null, null, false);
         assertConfiguration(getConfigurationByName(configurations, ROLE_DESCRIPTION_FIELD),
                 ROLE_DESCRIPTION_FIELD, "Role description field", "Name of description field in role query", STRING_TYPE, null, null, false);
+        assertConfiguration(getConfigurationByName(configurations, ROLE_BATCH_SIZE),
+                ROLE_BATCH_SIZE, "Role batch size", "Maximum number of listed users whose roles are loaded with a single query. The role query must also select the role user id field, under the role user id label. Zero loads the roles of each user with its own query.",
+                STRING_TYPE, DEFAULT_ROLE_BATCH_SIZE, null, false);
         assertConfiguration(getConfigurationByName(configurations, ROLE_USER_ID_FIELD),
                 ROLE_USER_ID_FIELD, "Role user id field", "Name of user id field in role query", STRING_TYPE, null, null, false);
+        assertConfiguration(getConfigurationByName(configurations, ROLE_USER_ID_LABEL),
+                ROLE_USER_ID_LABEL, "Role user id label", "Label of the user id field in the role query results, like the alias it is selected with. Role batches group roles by it, so it must not clash with the role fields. When empty, the role user id field without its table qualifier is used.",
+                STRING_TYPE, null, null, false);
+        assertConfiguration(getConfigurationByName(configurations, USER_ROLES_QUERY),
+                USER_ROLES_QUERY, "User with roles query", "Optional query to get users and their roles in a single round trip, one row per role (e.g. a LEFT JOIN). It must contain the user fields and the role id, name and description fields, without name clashes between them. It should not contain the WHERE clause.",
+                STRING_TYPE, null, null, false);
+        assertConfiguration(getConfigurationByName(configurations, CREDENTIAL_QUERY),
+                CREDENTIAL_QUERY, "Credential query", "Optional query used to validate passwords. It should select only the password field, filtered by the user id field, so it can be answered from the primary key index. It should not contain the WHERE clause. When empty, the user query is used.",
+                STRING_TYPE, null, null, false);
+        assertConfiguration(getConfigurationByName(configurations, PASSWORD_PREFETCH),
+                PASSWORD_PREFETCH, "Prefetch password", "Read the password field along with the user, so the password validation of a login does not query the database again. The user query must contain the password field.",
+                BOOLEAN_TYPE, "false", null, false);
+        assertConfiguration(getConfigurationByName(configurations, COMBINED_LOOKUP),
+                COMBINED_LOOKUP, "Combined username or email lookup", "Search users by email and by username in a single query, so a login containing @ that matches no email does not query the database again to search it as username. The username and email fields should be indexed.",
+                BOOLEAN_TYPE, "false", null, false);
+        assertConfiguration(getConfigurationByName(configurations, USER_COUNT_STRATEGY),
+                USER_COUNT_STRATEGY, "User count strategy", "How the admin console counts users. EXACT counts the rows of the user query. MYSQL_ESTIMATE and POSTGRESQL_ESTIMATE read the row count kept in the database statistics for the user count table, which is instant but approximate.",
+                LIST_TYPE, UserCountStrategy.EXACT.name(), UserCountStrategy.asStringList(), false);
+        assertConfiguration(getConfigurationByName(configurations, USER_COUNT_TABLE),
+                USER_COUNT_TABLE, "User count table", "Table whose estimated row count is used as the user count by the estimate strategies. It may be qualified with the schema on PostgreSQL.",
+                STRING_TYPE, null, null, false);
+        assertConfiguration(getConfigurationByName(configurations, USER_COUNT_CACHE_TTL),
+                USER_COUNT_CACHE_TTL, "User count time to live", "Milliseconds a user count is kept before counting again, so paging through the admin console does not count on every page. When counting again fails, the last count is returned. Zero disables the cache.",
+                STRING_TYPE, DEFAULT_USER_COUNT_CACHE_TTL, null, false);
+        assertConfiguration(getConfigurationByName(configurations, CACHE_MAX_SIZE),
+                CACHE_MAX_SIZE, "Cache maximum size", "Maximum number of users kept in the in-memory cache shared by all sessions. Zero disables the cache.",
+                STRING_TYPE, DEFAULT_CACHE_MAX_SIZE, null, false);
+        assertConfiguration(getConfigurationByName(configurations, CACHE_TTL),
+                CACHE_TTL, "Cache time to live", "Milliseconds a cached user is kept before being read again from the database",
+                STRING_TYPE, DEFAULT_CACHE_TTL, null, false);
+        assertConfiguration(getConfigurationByName(configurations, NEGATIVE_CACHE_MAX_SIZE),
+                NEGATIVE_CACHE_MAX_SIZE, "Negative cache maximum size", "Maximum number of unknown usernames and emails remembered, so repeated lookups of users that do not exist skip the database. Zero disables the negative cache.",
+                STRING_TYPE, DEFAULT_NEGATIVE_CACHE_MAX_SIZE, null, false);
+        assertConfiguration(getConfigurationByName(configurations, NEGATIVE_CACHE_TTL),
+                NEGATIVE_CACHE_TTL, "Negative cache time to live", "Milliseconds an unknown username or email is remembered. Keep it short, because users created in the meantime stay invisible until it expires.",
+                STRING_TYPE, DEFAULT_NEGATIVE_CACHE_TTL, null, false);
+        assertConfiguration(getConfigurationByName(configurations, VERIFICATION_THREADS),
+                VERIFICATION_THREADS, "BCrypt verification threads", "Number of threads that verify BCrypt passwords, isolated from the Keycloak worker threads. Zero uses one thread per available processor.",
+                STRING_TYPE, DEFAULT_VERIFICATION_THREADS, null, false);
+        assertConfiguration(getConfigurationByName(configurations, VERIFICATION_QUEUE_SIZE),
+                VERIFICATION_QUEUE_SIZE, "BCrypt verification queue size", "Maximum number of BCrypt verifications waiting for a thread. Logins beyond it fail immediately. Zero queues none, failing logins while every thread is busy.",
+                STRING_TYPE, DEFAULT_VERIFICATION_QUEUE_SIZE, null, false);
+        assertConfiguration(getConfigurationByName(configurations, VERIFICATION_TIMEOUT),
+                VERIFICATION_TIMEOUT, "BCrypt verification timeout", "Milliseconds to wait for a BCrypt verification, including the time queued, before failing the login",
+                STRING_TYPE, DEFAULT_VERIFICATION_TIMEOUT, null, false);
+        assertConfiguration(getConfigurationByName(configurations, CREDENTIAL_CACHE_MAX_SIZE),
+                CREDENTIAL_CACHE_MAX_SIZE, "Verified credential cache maximum size", "Maximum number of successful BCrypt verifications remembered, so repeated logins with the same password and an unchanged stored hash skip BCrypt. The stored hash is read on every login unless the verified credential of cached users is trusted. Only a keyed hash of the password is kept. Zero disables the cache.",
+                STRING_TYPE, DEFAULT_CREDENTIAL_CACHE_MAX_SIZE, null, false);
+        assertConfiguration(getConfigurationByName(configurations, CREDENTIAL_CACHE_TTL),
+                CREDENTIAL_CACHE_TTL, "Verified credential cache time to live", "Milliseconds a successful BCrypt verification is remembered",
+                STRING_TYPE, DEFAULT_CREDENTIAL_CACHE_TTL, null, false);
+        assertConfiguration(getConfigurationByName(configurations, CREDENTIAL_CACHE_TRUST_CACHED_USER),
+                CREDENTIAL_CACHE_TRUST_CACHED_USER, "Trust verified credential of cached user", "Accepts a login of a user served from the Keycloak user cache when the password was verified against the hash read when the user was cached, without reading the stored hash again. A password changed in the database keeps working until the verification expires from the verified credential cache or the user leaves the Keycloak user cache, whichever comes first.",
+                BOOLEAN_TYPE, DEFAULT_CREDENTIAL_CACHE_TRUST_CACHED_USER, null, false);
     }
 
     @Test
@@ -106,14 +199,155 @@ public class JdbcUserStorageProviderFactoryTest {
 
     @Test
     public void whenCreateThenReturnProvider() {
-        try (var mapperMock = mockStatic(ConfigurationsMapper.class)) {
-            var properties = mock(Properties.class);
-            mapperMock.when(() -> ConfigurationsMapper.toProperties(componentModel)).thenReturn(properties);
+        try (var runtimeMock = mockConstruction(JdbcUserStorageRuntime.class)) {
+            when(componentModel.getId()).thenReturn("component-id");
 
             var providerReturned = factory.create(keycloakSession, componentModel);
 
             assertThat(providerReturned).isNotNull();
-            mapperMock.verify(() -> ConfigurationsMapper.toProperties(componentModel));
+            assertThat(runtimeMock.constructed()).hasSize(1);
+
+            var runtime = runtimeMock.constructed().get(0);
+            verify(runtime).getUserDAO();
+            verify(runtime).getRoleDAO();
+            verify(runtime).getConfiguration();
+            verify(runtime).getPasswordEncoderFactory();
+            verify(runtime).getPasswordVerifier();
+            verify(runtime).getVerifiedCredentialCache();
+            verify(runtime).openConnectionLease();
+        }
+    }
+
+    @Test
+    public void whenCreateMoreThanOnceForSameComponentThenReuseRuntime() {
+        try (var runtimeMock = mockConstruction(JdbcUserStorageRuntime.class,
+                (mock, context) -> when(mock.isConfiguredBy(componentModel)).thenReturn(true))) {
+            when(componentModel.getId()).thenReturn("component-id");
+
+            factory.create(keycloakSession, componentModel);
+            factory.create(keycloakSession, componentModel);
+
+            assertThat(runtimeMock.constructed()).hasSize(1);
+        }
+    }
+
+    @Test
+    public void whenCreateWithChangedConfigurationThenReplaceRuntime() {
+        try (var runtimeMock = mockConstruction(JdbcUserStorageRuntime.class)) {
+            when(componentModel.getId()).thenReturn("component-id");
+
+            factory.create(keycloakSession, componentModel);
+            factory.create(keycloakSession, componentModel);
+
+            assertThat(runtimeMock.constructed()).hasSize(2);
+            verify(runtimeMock.constructed().get(0)).retire();
+            verify(runtimeMock.constructed().get(0), never()).close();
+            verify(runtimeMock.constructed().get(1), never()).retire();
+        }
+    }
+
+    @Test
+    public void whenCreateComponentThenStartRuntime() {
+        try (var runtimeMock = mockConstruction(JdbcUserStorageRuntime.class,
+                (mock, context) -> when(mock.isConfiguredBy(componentModel)).thenReturn(true))) {
+            when(componentModel.getId()).thenReturn("component-id");
+
+            factory.onCreate(keycloakSession, realm, componentModel);
+            factory.onCreate(keycloakSession, realm, componentModel);
+            factory.create(keycloakSession, componentModel);
+
+            assertThat(runtimeMock.constructed()).hasSize(1);
+        }
+    }
+
+    @Test
+    public void whenUpdateComponentThenRestartRuntime() {
+        try (var runtimeMock = mockConstruction(JdbcUserStorageRuntime.class)) {
+            var newComponentModel = mock(ComponentModel.class);
+            when(componentModel.getId()).thenReturn("component-id");
+            when(newComponentModel.getId()).thenReturn("component-id");
+
+            factory.create(keycloakSession, componentModel);
+            factory.onUpdate(keycloakSession, realm, componentModel, newComponentModel);
+
+            assertThat(runtimeMock.constructed()).hasSize(2);
+            verify(runtimeMock.constructed().get(0)).retire();
+            verify(runtimeMock.constructed().get(0), never()).close();
+            verify(runtimeMock.constructed().get(1), never()).retire();
+        }
+    }
+
+    @Test
+    public void whenRemoveComponentThenRetireRuntime() {
+        try (var runtimeMock = mockConstruction(JdbcUserStorageRuntime.class)) {
+            when(componentModel.getId()).thenReturn("component-id");
+
+            factory.create(keycloakSession, componentModel);
+            factory.preRemove(keycloakSession, realm, componentModel);
+            factory.create(keycloakSession, componentModel);
+
+            assertThat(runtimeMock.constructed()).hasSize(2);
+            verify(runtimeMock.constructed().get(0)).retire();
+            verify(runtimeMock.constructed().get(0), never()).close();
+        }
+    }
+
+    @Test
+    public void whenCreateWithChangedConfigurationThenOpenLeaseOnNewRuntimeBeforeRetiringOld() {
+        try (var runtimeMock = mockConstruction(JdbcUserStorageRuntime.class)) {
+            when(componentModel.getId()).thenReturn("component-id");
+
+            factory.create(keycloakSession, componentModel);
+            factory.create(keycloakSession, componentModel);
+
+            var oldRuntime = runtimeMock.constructed().get(0);
+            var newRuntime = runtimeMock.constructed().get(1);
+            var inOrder = inOrder(oldRuntime, newRuntime);
+            inOrder.verify(oldRuntime).openConnectionLease();
+            inOrder.verify(newRuntime).openConnectionLease();
+            inOrder.verify(oldRuntime).retire();
+        }
+    }
+
+    @Test
+    public void givenFailingRuntimeStartWhenCreateThenKeepCurrentRuntime() {
+        try (var runtimeMock = mockConstruction(JdbcUserStorageRuntime.class, (mock, context) -> {
+            if (context.getCount() > 1) {
+                throw new IllegalStateException("Pool failed");
+            }
+        })) {
+            when(componentModel.getId()).thenReturn("component-id");
+
+            factory.create(keycloakSession, componentModel);
+
+            assertThatThrownBy(() -> factory.create(keycloakSession, componentModel))
+                    .hasRootCauseInstanceOf(IllegalStateException.class);
+
+            verify(runtimeMock.constructed().get(0), never()).retire();
+        }
+    }
+
+    @Test
+    public void whenRemoveComponentWithoutRuntimeThenDoNothing() {
+        when(componentModel.getId()).thenReturn("component-id");
+
+        assertThatCode(() -> factory.preRemove(keycloakSession, realm, componentModel))
+                .doesNotThrowAnyException();
+    }
+
+    @Test
+    public void whenCloseThenStopAllRuntimes() {
+        try (var runtimeMock = mockConstruction(JdbcUserStorageRuntime.class)) {
+            var otherComponentModel = mock(ComponentModel.class);
+            when(componentModel.getId()).thenReturn("component-id");
+            when(otherComponentModel.getId()).thenReturn("other-component-id");
+
+            factory.create(keycloakSession, componentModel);
+            factory.create(keycloakSession, otherComponentModel);
+            factory.close();
+
+            assertThat(runtimeMock.constructed()).hasSize(2);
+            runtimeMock.constructed().forEach(runtime -> verify(runtime).close());
         }
     }
 
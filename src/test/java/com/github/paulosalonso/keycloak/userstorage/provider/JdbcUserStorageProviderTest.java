@@ -1,15 +1,27 @@
 package com.github.paulosalonso.keycloak.userstorage.provider;
 
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
 import com.github.paulosalonso.keycloak.userstorage.data.dao.RoleDAO;
+import com.github.paulosalonso.keycloak.userstorage.data.dao.UserCountDAO;
 import com.github.paulosalonso.keycloak.userstorage.data.dao.UserDAO;
+import com.github.paulosalonso.keycloak.userstorage.data.dao.UserQueryDAO;
+import com.github.paulosalonso.keycloak.userstorage.data.database.BulkheadFullException;
+import com.github.paulosalonso.keycloak.userstorage.data.database.CircuitOpenException;
+import com.github.paulosalonso.keycloak.userstorage.data.database.ConnectionLease;
+import com.github.paulosalonso.keycloak.userstorage.data.model.Role;
 import com.github.paulosalonso.keycloak.userstorage.data.model.User;
+import com.github.paulosalonso.keycloak.userstorage.data.model.UserMatches;
+import com.github.paulosalonso.keycloak.userstorage.provider.model.CustomUserModel;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.keycloak.component.ComponentModel;
 import org.keycloak.credential.CredentialInput;
+import org.keycloak.models.GroupModel;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
+import org.keycloak.models.RoleModel;
 import org.keycloak.models.UserModel;
+import org.keycloak.models.cache.CachedUserModel;
 import org.keycloak.models.credential.PasswordCredentialModel;
 import org.keycloak.storage.StorageId;
 import org.mockito.InjectMocks;
@@ -17,11 +29,16 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.security.crypto.password.PasswordEncoder;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-import static com.github.paulosalonso.keycloak.userstorage.configurations.Configurations.PASSWORD_ENCODE_TYPE;
 import static com.github.paulosalonso.keycloak.userstorage.configurations.PasswordEncodeType.BCRYPT;
+import static com.github.paulosalonso.keycloak.userstorage.configurations.PasswordEncodeType.MD5;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.*;
 
@@ -37,6 +54,12 @@ public class JdbcUserStorageProviderTest {
     @Mock
     private RoleDAO roleDAO;
 
+    @Mock
+    private UserQueryDAO userQueryDAO;
+
+    @Mock
+    private UserCountDAO userCountDAO;
+
     @Mock
     private KeycloakSession session;
 
@@ -44,11 +67,20 @@ public class JdbcUserStorageProviderTest {
     private ComponentModel componentModel;
 
     @Mock
-    private Properties properties;
+    private UserStorageConfiguration configuration;
 
     @Mock
     private PasswordEncoderFactory passwordEncoderFactory;
 
+    @Mock
+    private PasswordVerifier passwordVerifier;
+
+    @Mock
+    private VerifiedCredentialCache verifiedCredentialCache;
+
+    @Mock
+    private ConnectionLease connectionLease;
+
     @Mock
     private RealmModel realmModel;
 
@@ -61,6 +93,9 @@ public class JdbcUserStorageProviderTest {
     @Mock
     private CredentialInput credentialInput;
 
+    @Mock
+    private CachedUserModel cachedUserModel;
+
     @Test
     public void whenGetUserByIdThenReturnUserModel() {
         var keycloakId = new StorageId("provider-id", "external-id").getId();
@@ -77,6 +112,77 @@ public class JdbcUserStorageProviderTest {
         assertThat(decoratedUser).isSameAs(user);
 
         verify(userDAO).findById("external-id");
+        verifyNoInteractions(roleDAO);
+    }
+
+    @Test
+    public void givenOpenCircuitWhenGetUserThenReturnNull() {
+        when(userDAO.findByUsername("fulano")).thenThrow(new CircuitOpenException());
+
+        assertThat(provider.getUserByUsername("fulano", realmModel)).isNull();
+        assertThat(provider.getUserByUsername("fulano", realmModel)).isNull();
+        verify(userDAO, times(2)).findByUsername("fulano");
+    }
+
+    @Test
+    public void givenFullBulkheadWhenGetUserThenReturnNull() {
+        when(userDAO.findByEmail("fulano@mail.com")).thenThrow(new BulkheadFullException());
+
+        assertThat(provider.getUserByEmail("fulano@mail.com", realmModel)).isNull();
+    }
+
+    @Test
+    public void whenGetRoleMappingsOfFoundUserThenSearchRolesOnce() {
+        var user = User.builder().id("external-id").build();
+
+        when(userDAO.findByUsername("fulano")).thenReturn(Optional.of(user));
+        when(roleDAO.getRolesByUserId("external-id")).thenReturn(List.of(Role.builder().id("role-id").build()));
+
+        var userModel = (CustomUserModel) provider.getUserByUsername("fulano", realmModel);
+
+        assertThat(userModel.getRoleMappingsInternal())
+                .extracting(RoleModel::getId)
+                .containsExactly("role-id");
+        assertThat(userModel.getRoleMappingsInternal()).hasSize(1);
+        verify(roleDAO).getRolesByUserId("external-id");
+    }
+
+    @Test
+    public void givenUserWithJoinedRolesWhenGetUserThenDoNotSearchRoles() {
+        var user = User.builder()
+                .id("external-id")
+                .roles(List.of(Role.builder().id("role-id").build()))
+                .build();
+
+        when(userDAO.findByUsername("fulano")).thenReturn(Optional.of(user));
+
+        var userModel = (CustomUserModel) provider.getUserByUsername("fulano", realmModel);
+
+        assertThat(userModel.getRoleMappingsInternal())
+                .extracting(RoleModel::getId)
+                .containsExactly("role-id");
+        verifyNoInteractions(roleDAO);
+    }
+
+    @Test
+    public void givenUserAlreadyLoadedWhenGetUserAgainThenReturnSameModelWithoutSearching() {
+        var user = User.builder()
+                .id("external-id")
+                .username("fulano")
+                .email("fulano@mail.com")
+                .build();
+
+        when(userDAO.findByUsername("fulano")).thenReturn(Optional.of(user));
+
+        var userModel = provider.getUserByUsername("fulano", realmModel);
+        var keycloakId = new StorageId("provider-id", "external-id").getId();
+
+        assertThat(provider.getUserByUsername("fulano", realmModel)).isSameAs(userModel);
+        assertThat(provider.getUserById(keycloakId, realmModel)).isSameAs(userModel);
+        assertThat(provider.getUserByEmail("fulano@mail.com", realmModel)).isSameAs(userModel);
+
+        verify(userDAO).findByUsername("fulano");
+        verifyNoMoreInteractions(userDAO);
     }
 
     @Test
@@ -145,6 +251,273 @@ public class JdbcUserStorageProviderTest {
         verify(userDAO).findByEmail("fulano@mail.com");
     }
 
+    @Test
+    public void givenCombinedLookupWhenGetUserByEmailThenSearchEmailAndUsernameWithOneQuery() {
+        var user = User.builder().id("1").username("fulano").email("fulano@mail.com").build();
+
+        when(configuration.isCombinedLookup()).thenReturn(true);
+        when(userDAO.findByUsernameOrEmail("fulano@mail.com")).thenReturn(new UserMatches(null, user));
+
+        var userModel = provider.getUserByEmail("fulano@mail.com", realmModel);
+
+        assertThat((User) getDecoratedUser(userModel)).isSameAs(user);
+        verify(userDAO).findByUsernameOrEmail("fulano@mail.com");
+        verifyNoMoreInteractions(userDAO);
+    }
+
+    @Test
+    public void givenCombinedLookupWhenEmailMissesThenAnswerUsernameLookupWithoutSearching() {
+        var user = User.builder().id("1").username("fulano@mail.com").email("other@mail.com").build();
+
+        when(configuration.isCombinedLookup()).thenReturn(true);
+        when(userDAO.findByUsernameOrEmail("fulano@mail.com")).thenReturn(new UserMatches(user, null));
+
+        assertThat(provider.getUserByEmail("fulano@mail.com", realmModel)).isNull();
+
+        var userModel = provider.getUserByUsername("fulano@mail.com", realmModel);
+
+        assertThat((User) getDecoratedUser(userModel)).isSameAs(user);
+        verify(userDAO).findByUsernameOrEmail("fulano@mail.com");
+        verifyNoMoreInteractions(userDAO);
+    }
+
+    @Test
+    public void givenCombinedLookupWhenEmailAndUsernameMissThenAnswerUsernameLookupWithoutSearching() {
+        when(configuration.isCombinedLookup()).thenReturn(true);
+        when(userDAO.findByUsernameOrEmail("fulano@mail.com")).thenReturn(new UserMatches(null, null));
+
+        assertThat(provider.getUserByEmail("fulano@mail.com", realmModel)).isNull();
+        assertThat(provider.getUserByUsername("fulano@mail.com", realmModel)).isNull();
+        assertThat(provider.getUserByEmail("fulano@mail.com", realmModel)).isNull();
+
+        verify(userDAO).findByUsernameOrEmail("fulano@mail.com");
+        verifyNoMoreInteractions(userDAO);
+    }
+
+    @Test
+    public void givenCombinedLookupWhenGetUserByUsernameThenSearchOnlyUsername() {
+        var user = User.builder().id("1").username("fulano").build();
+
+        when(userDAO.findByUsername("fulano")).thenReturn(Optional.of(user));
+
+        var userModel = provider.getUserByUsername("fulano", realmModel);
+
+        assertThat((User) getDecoratedUser(userModel)).isSameAs(user);
+        verify(userDAO).findByUsername("fulano");
+        verifyNoMoreInteractions(userDAO);
+        verify(configuration, never()).isCombinedLookup();
+    }
+
+    @Test
+    public void whenGetUsersCountThenCountUsers() {
+        when(userCountDAO.countUsers()).thenReturn(42);
+
+        assertThat(provider.getUsersCount(realmModel)).isEqualTo(42);
+    }
+
+    @Test
+    public void givenOpenCircuitWhenGetUsersCountThenReturnZero() {
+        when(userCountDAO.countUsers()).thenThrow(new CircuitOpenException());
+
+        assertThat(provider.getUsersCount(realmModel)).isZero();
+    }
+
+    @Test
+    public void givenQueryFailureWhenGetUsersCountThenReturnZero() {
+        when(userCountDAO.countUsers()).thenThrow(new RuntimeException("Error executing query"));
+
+        assertThat(provider.getUsersCount(realmModel)).isZero();
+    }
+
+    @Test
+    public void whenGetUsersCountBySearchThenCountWithQuery() {
+        when(userQueryDAO.countUsers("ful")).thenReturn(7);
+        when(userCountDAO.countUsers()).thenReturn(42);
+
+        assertThat(provider.getUsersCount("ful", realmModel)).isEqualTo(7);
+        assertThat(provider.getUsersCount("*", realmModel)).isEqualTo(42);
+        verify(userQueryDAO, never()).findUsers(any(), anyInt(), anyInt());
+    }
+
+    @Test
+    public void givenFullBulkheadWhenGetUsersCountBySearchThenReturnZero() {
+        when(userQueryDAO.countUsers("ful")).thenThrow(new BulkheadFullException());
+
+        assertThat(provider.getUsersCount("ful", realmModel)).isZero();
+    }
+
+    @Test
+    public void whenGetUsersCountByParamsThenCountSearchableFilterOnly() {
+        when(userQueryDAO.countUsers("fulano")).thenReturn(7);
+        when(userCountDAO.countUsers()).thenReturn(42);
+
+        assertThat(provider.getUsersCount(Map.of(UserModel.EMAIL, "fulano", UserModel.FIRST_NAME, "Fulano"), realmModel)).isEqualTo(7);
+        assertThat(provider.getUsersCount(Map.of(UserModel.INCLUDE_SERVICE_ACCOUNT, "true"), realmModel)).isEqualTo(42);
+        assertThat(provider.getUsersCount(Map.of(UserModel.LAST_NAME, "Silva"), realmModel)).isZero();
+        verify(userQueryDAO, never()).findUsers(any(), anyInt(), anyInt());
+    }
+
+    @Test
+    public void whenGetUsersCountByGroupsThenReturnZeroWithoutReadingUsers() {
+        assertThat(provider.getUsersCount(realmModel, Set.of("group"))).isZero();
+        assertThat(provider.getUsersCount("ful", realmModel, Set.of("group"))).isZero();
+        assertThat(provider.getUsersCount(Map.of(UserModel.USERNAME, "ful"), realmModel, Set.of("group"))).isZero();
+        verifyNoInteractions(userQueryDAO, userCountDAO);
+    }
+
+    @Test
+    public void whenSearchForUserStreamThenMapStreamedUsersToUserModels() {
+        var user = User.builder().id("1").username("fulano").build();
+
+        when(userQueryDAO.findUsers("ful", 10, 20)).thenReturn(Stream.of(user));
+
+        var userModels = provider.searchForUserStream("ful", realmModel, 10, 20).collect(Collectors.toList());
+
+        assertThat(userModels).hasSize(1);
+        assertThat((User) getDecoratedUser(userModels.get(0))).isSameAs(user);
+        verifyNoInteractions(userDAO);
+    }
+
+    @Test
+    public void givenListedUserWhenGetUserByUsernameThenDoNotReuseListedModel() {
+        var user = User.builder().id("1").username("fulano").build();
+
+        when(userQueryDAO.findUsers(null, 0, -1)).thenReturn(Stream.of(user));
+        when(userDAO.findByUsername("fulano")).thenReturn(Optional.of(user));
+
+        var listedUser = provider.getUsersStream(realmModel).findFirst().orElseThrow();
+
+        assertThat(provider.getUserByUsername("fulano", realmModel)).isNotSameAs(listedUser);
+        verify(userDAO).findByUsername("fulano");
+    }
+
+    @Test
+    public void givenRoleBatchSizeWhenGetRolesOfListedUsersThenLoadThemInBatches() {
+        var firstRole = Role.builder().id("role-1").build();
+        var thirdRole = Role.builder().id("role-3").build();
+
+        when(configuration.getRoleBatchSize()).thenReturn(2);
+        when(userQueryDAO.findUsers(null, 0, 3)).thenReturn(Stream.of(
+                User.builder().id("1").build(), User.builder().id("2").build(), User.builder().id("3").build()));
+        when(roleDAO.getRolesByUserIds(List.of("1", "2"))).thenReturn(Map.of("1", List.of(firstRole), "2", List.of()));
+        when(roleDAO.getRolesByUserIds(List.of("3"))).thenReturn(Map.of("3", List.of(thirdRole)));
+
+        var userModels = provider.getUsersStream(realmModel, 0, 3)
+                .map(CustomUserModel.class::cast)
+                .collect(Collectors.toList());
+
+        assertThat(userModels.get(0).getRoleMappingsInternal()).extracting(RoleModel::getId).containsExactly("role-1");
+        assertThat(userModels.get(1).getRoleMappingsInternal()).isEmpty();
+        assertThat(userModels.get(2).getRoleMappingsInternal()).extracting(RoleModel::getId).containsExactly("role-3");
+
+        verify(roleDAO).getRolesByUserIds(List.of("1", "2"));
+        verify(roleDAO).getRolesByUserIds(List.of("3"));
+        verifyNoMoreInteractions(roleDAO);
+    }
+
+    @Test
+    public void givenRoleBatchDisabledWhenGetRolesOfListedUserThenLoadThemAlone() {
+        when(userQueryDAO.findUsers(null, 0, -1)).thenReturn(Stream.of(User.builder().id("1").build()));
+        when(roleDAO.getRolesByUserId("1")).thenReturn(List.of(Role.builder().id("role-1").build()));
+
+        var userModel = (CustomUserModel) provider.getUsersStream(realmModel).findFirst().orElseThrow();
+
+        assertThat(userModel.getRoleMappingsInternal()).extracting(RoleModel::getId).containsExactly("role-1");
+        verify(roleDAO, never()).getRolesByUserIds(any());
+    }
+
+    @Test
+    public void givenNoMaxResultsWhenGetRolesOfListedUserThenLoadThemAlone() {
+        when(userQueryDAO.findUsers(null, 0, 0)).thenReturn(Stream.of(User.builder().id("1").build()));
+        when(roleDAO.getRolesByUserId("1")).thenReturn(List.of());
+
+        var userModel = (CustomUserModel) provider.getUsersStream(realmModel, 0, 0).findFirst().orElseThrow();
+
+        assertThat(userModel.getRoleMappingsInternal()).isEmpty();
+        verify(roleDAO, never()).getRolesByUserIds(any());
+    }
+
+    @Test
+    public void givenUserAlreadyLoadedWhenSearchForUserStreamThenReturnSameModel() {
+        var user = User.builder().id("1").username("fulano").build();
+
+        when(userDAO.findByUsername("fulano")).thenReturn(Optional.of(user));
+        when(userQueryDAO.findUsers(null, 0, -1)).thenReturn(Stream.of(User.builder().id("1").username("fulano").build()));
+
+        var loadedUser = provider.getUserByUsername("fulano", realmModel);
+
+        assertThat(provider.getUsersStream(realmModel)).containsExactly(loadedUser);
+    }
+
+    @Test
+    public void givenFullBulkheadWhenSearchForUserStreamThenReturnEmptyStream() {
+        when(userQueryDAO.findUsers(null, 0, 10)).thenThrow(new BulkheadFullException());
+
+        assertThat(provider.getUsersStream(realmModel, 0, 10)).isEmpty();
+    }
+
+    @Test
+    public void givenQueryFailureWhenSearchForUserStreamThenReturnEmptyStream() {
+        when(userQueryDAO.findUsers("ful", 0, 10)).thenThrow(new RuntimeException("Error executing query"));
+
+        assertThat(provider.searchForUserStream("ful", realmModel, 0, 10)).isEmpty();
+    }
+
+    @Test
+    public void whenSearchForUserStreamByParamsThenSearchUsernameOrElseEmail() {
+        when(userQueryDAO.findUsers("fulano", 0, -1)).thenAnswer(invocation -> Stream.empty());
+        when(userQueryDAO.findUsers("fulano@mail.com", 0, -1)).thenReturn(Stream.empty());
+        when(userQueryDAO.findUsers("ful", 0, -1)).thenReturn(Stream.empty());
+        when(userQueryDAO.findUsers(null, 0, -1)).thenReturn(Stream.empty());
+
+        assertThat(provider.searchForUserStream(Map.of(UserModel.USERNAME, "fulano", UserModel.EMAIL, "other"), realmModel)).isEmpty();
+        assertThat(provider.searchForUserStream(Map.of(UserModel.EMAIL, "fulano@mail.com"), realmModel)).isEmpty();
+        assertThat(provider.searchForUserStream(Map.of(UserModel.SEARCH, "ful"), realmModel)).isEmpty();
+        assertThat(provider.searchForUserStream(Map.of(UserModel.INCLUDE_SERVICE_ACCOUNT, "true"), realmModel)).isEmpty();
+        assertThat(provider.searchForUserStream("fulano", realmModel)).isEmpty();
+
+        verify(userQueryDAO, times(2)).findUsers("fulano", 0, -1);
+        verify(userQueryDAO).findUsers(null, 0, -1);
+    }
+
+    @Test
+    public void whenGetUsersAsListThenCollectStreamedUsers() {
+        var user = User.builder().id("1").username("fulano").build();
+
+        when(userQueryDAO.findUsers(any(), anyInt(), anyInt())).thenAnswer(invocation -> Stream.of(user));
+
+        assertThat(provider.getUsers(realmModel)).hasSize(1);
+        assertThat(provider.getUsers(realmModel, 0, 10)).hasSize(1);
+        assertThat(provider.searchForUser("ful", realmModel)).hasSize(1);
+        assertThat(provider.searchForUser("ful", realmModel, 0, 10)).hasSize(1);
+        assertThat(provider.searchForUser(Map.of(UserModel.USERNAME, "ful"), realmModel)).hasSize(1);
+        assertThat(provider.searchForUser(Map.of(UserModel.USERNAME, "ful"), realmModel, 0, 10)).hasSize(1);
+
+        verify(userQueryDAO).findUsers(null, 0, -1);
+        verify(userQueryDAO).findUsers(null, 0, 10);
+        verify(userQueryDAO, times(2)).findUsers("ful", 0, -1);
+        verify(userQueryDAO, times(2)).findUsers("ful", 0, 10);
+    }
+
+    @Test
+    public void givenOnlyUnsupportedFiltersWhenSearchForUserStreamByParamsThenReturnNoUsers() {
+        assertThat(provider.searchForUserStream(Map.of(UserModel.FIRST_NAME, "Fulano", UserModel.EXACT, "true"), realmModel)).isEmpty();
+        verifyNoInteractions(userQueryDAO);
+    }
+
+    @Test
+    public void whenGetGroupMembersOrSearchByAttributeThenReturnNoUsers() {
+        var group = mock(GroupModel.class);
+
+        assertThat(provider.getGroupMembers(realmModel, group)).isEmpty();
+        assertThat(provider.getGroupMembers(realmModel, group, 0, 10)).isEmpty();
+        assertThat(provider.getGroupMembersStream(realmModel, group)).isEmpty();
+        assertThat(provider.getGroupMembersStream(realmModel, group, 0, 10)).isEmpty();
+        assertThat(provider.searchForUserByUserAttribute("name", "value", realmModel)).isEmpty();
+        assertThat(provider.searchForUserByUserAttributeStream("name", "value", realmModel)).isEmpty();
+        verifyNoInteractions(userQueryDAO);
+    }
+
     @Test
     public void whenCheckIfSupportsPasswordCredentialTypeThenReturnTrue() {
         assertThat(provider.supportsCredentialType(PasswordCredentialModel.TYPE)).isTrue();
@@ -167,22 +540,141 @@ public class JdbcUserStorageProviderTest {
         var keycloakId = new StorageId("provider-id", "external-id").getId();
 
         when(userModel.getId()).thenReturn(keycloakId);
-        when(properties.getProperty(PASSWORD_ENCODE_TYPE)).thenReturn(BCRYPT.name());
+        when(configuration.getPasswordEncodeType()).thenReturn(BCRYPT);
         when(passwordEncoderFactory.getPasswordEncoder(BCRYPT)).thenReturn(passwordEncoder);
         when(userDAO.findPasswordByUserId("external-id")).thenReturn(Optional.of("any-user-password"));
         when(credentialInput.getChallengeResponse()).thenReturn("any-input-password");
-        when(passwordEncoder.matches("any-input-password", "any-user-password")).thenReturn(true);
+        when(passwordVerifier.matches(passwordEncoder, "any-input-password", "any-user-password")).thenReturn(true);
 
         var isValid = provider.isValid(realmModel, userModel, credentialInput);
 
         assertThat(isValid).isTrue();
 
         verify(userModel).getId();
-        verify(properties).getProperty(PASSWORD_ENCODE_TYPE);
+        verify(configuration).getPasswordEncodeType();
         verify(passwordEncoderFactory).getPasswordEncoder(BCRYPT);
         verify(userDAO).findPasswordByUserId("external-id");
         verify(credentialInput).getChallengeResponse();
+        verify(passwordVerifier).matches(passwordEncoder, "any-input-password", "any-user-password");
+    }
+
+    @Test
+    public void givenPrefetchedPasswordWhenCheckIfCredentialInputIsValidThenDoNotSearchPassword() {
+        var keycloakId = new StorageId("provider-id", "external-id").getId();
+        var customUserModel = mock(CustomUserModel.class);
+
+        when(customUserModel.getId()).thenReturn(keycloakId);
+        when(customUserModel.getPrefetchedPassword()).thenReturn(Optional.of("any-user-password"));
+        when(configuration.getPasswordEncodeType()).thenReturn(BCRYPT);
+        when(passwordEncoderFactory.getPasswordEncoder(BCRYPT)).thenReturn(passwordEncoder);
+        when(credentialInput.getChallengeResponse()).thenReturn("any-input-password");
+        when(passwordVerifier.matches(passwordEncoder, "any-input-password", "any-user-password")).thenReturn(true);
+
+        var isValid = provider.isValid(realmModel, customUserModel, credentialInput);
+
+        assertThat(isValid).isTrue();
+
+        verify(customUserModel).getPrefetchedPassword();
+        verify(passwordVerifier).matches(passwordEncoder, "any-input-password", "any-user-password");
+        verifyNoInteractions(userDAO);
+    }
+
+    @Test
+    public void givenUserWithoutPrefetchedPasswordWhenCheckIfCredentialInputIsValidThenSearchPassword() {
+        var keycloakId = new StorageId("provider-id", "external-id").getId();
+        var customUserModel = mock(CustomUserModel.class);
+
+        when(customUserModel.getId()).thenReturn(keycloakId);
+        when(customUserModel.getPrefetchedPassword()).thenReturn(Optional.empty());
+        when(configuration.getPasswordEncodeType()).thenReturn(BCRYPT);
+        when(passwordEncoderFactory.getPasswordEncoder(BCRYPT)).thenReturn(passwordEncoder);
+        when(userDAO.findPasswordByUserId("external-id")).thenReturn(Optional.of("any-user-password"));
+        when(credentialInput.getChallengeResponse()).thenReturn("any-input-password");
+        when(passwordVerifier.matches(passwordEncoder, "any-input-password", "any-user-password")).thenReturn(true);
+
+        var isValid = provider.isValid(realmModel, customUserModel, credentialInput);
+
+        assertThat(isValid).isTrue();
+
+        verify(customUserModel).getPrefetchedPassword();
+        verify(userDAO).findPasswordByUserId("external-id");
+    }
+
+    @Test
+    public void givenValidBCryptCredentialWhenCheckIfIsValidThenRememberIt() {
+        var keycloakId = new StorageId("provider-id", "external-id").getId();
+
+        when(userModel.getId()).thenReturn(keycloakId);
+        when(configuration.getPasswordEncodeType()).thenReturn(BCRYPT);
+        when(passwordEncoderFactory.getPasswordEncoder(BCRYPT)).thenReturn(passwordEncoder);
+        when(userDAO.findPasswordByUserId("external-id")).thenReturn(Optional.of("any-user-password"));
+        when(credentialInput.getChallengeResponse()).thenReturn("any-input-password");
+        when(passwordVerifier.matches(passwordEncoder, "any-input-password", "any-user-password")).thenReturn(true);
+
+        when(verifiedCredentialCache.fingerprint("any-user-password")).thenReturn("fingerprint");
+
+        assertThat(provider.isValid(realmModel, userModel, credentialInput)).isTrue();
+
+        verify(verifiedCredentialCache).isVerified("external-id", "fingerprint", "any-input-password");
+        verify(verifiedCredentialCache).putVerified("external-id", "fingerprint", "any-input-password");
+
+        var inOrder = inOrder(userDAO, connectionLease, passwordVerifier);
+        inOrder.verify(userDAO).findPasswordByUserId("external-id");
+        inOrder.verify(connectionLease).release();
+        inOrder.verify(passwordVerifier).matches(passwordEncoder, "any-input-password", "any-user-password");
+    }
+
+    @Test
+    public void givenAlreadyVerifiedBCryptCredentialWhenCheckIfIsValidThenSkipVerification() {
+        var keycloakId = new StorageId("provider-id", "external-id").getId();
+
+        when(userModel.getId()).thenReturn(keycloakId);
+        when(configuration.getPasswordEncodeType()).thenReturn(BCRYPT);
+        when(passwordEncoderFactory.getPasswordEncoder(BCRYPT)).thenReturn(passwordEncoder);
+        when(userDAO.findPasswordByUserId("external-id")).thenReturn(Optional.of("any-user-password"));
+        when(credentialInput.getChallengeResponse()).thenReturn("any-input-password");
+        when(verifiedCredentialCache.fingerprint("any-user-password")).thenReturn("fingerprint");
+        when(verifiedCredentialCache.isVerified("external-id", "fingerprint", "any-input-password")).thenReturn(true);
+
+        assertThat(provider.isValid(realmModel, userModel, credentialInput)).isTrue();
+
+        verifyNoInteractions(passwordVerifier, connectionLease);
+        verify(verifiedCredentialCache, never()).putVerified(any(), any(), any());
+    }
+
+    @Test
+    public void givenInvalidBCryptCredentialWhenCheckIfIsValidThenDoNotRememberIt() {
+        var keycloakId = new StorageId("provider-id", "external-id").getId();
+
+        when(userModel.getId()).thenReturn(keycloakId);
+        when(configuration.getPasswordEncodeType()).thenReturn(BCRYPT);
+        when(passwordEncoderFactory.getPasswordEncoder(BCRYPT)).thenReturn(passwordEncoder);
+        when(userDAO.findPasswordByUserId("external-id")).thenReturn(Optional.of("any-user-password"));
+        when(credentialInput.getChallengeResponse()).thenReturn("any-input-password");
+        when(passwordVerifier.matches(passwordEncoder, "any-input-password", "any-user-password")).thenReturn(false);
+
+        assertThat(provider.isValid(realmModel, userModel, credentialInput)).isFalse();
+
+        verify(verifiedCredentialCache, never()).putVerified(any(), any(), any());
+    }
+
+    @Test
+    public void givenDigestEncodeTypeWhenCheckIfCredentialInputIsValidThenMatchOnCallingThread() {
+        var keycloakId = new StorageId("provider-id", "external-id").getId();
+
+        when(userModel.getId()).thenReturn(keycloakId);
+        when(configuration.getPasswordEncodeType()).thenReturn(MD5);
+        when(passwordEncoderFactory.getPasswordEncoder(MD5)).thenReturn(passwordEncoder);
+        when(userDAO.findPasswordByUserId("external-id")).thenReturn(Optional.of("any-user-password"));
+        when(credentialInput.getChallengeResponse()).thenReturn("any-input-password");
+        when(passwordEncoder.matches("any-input-password", "any-user-password")).thenReturn(true);
+
+        var isValid = provider.isValid(realmModel, userModel, credentialInput);
+
+        assertThat(isValid).isTrue();
+
         verify(passwordEncoder).matches("any-input-password", "any-user-password");
+        verifyNoInteractions(passwordVerifier);
     }
 
     @Test
@@ -190,22 +682,22 @@ public class JdbcUserStorageProviderTest {
         var keycloakId = new StorageId("provider-id", "external-id").getId();
 
         when(userModel.getId()).thenReturn(keycloakId);
-        when(properties.getProperty(PASSWORD_ENCODE_TYPE)).thenReturn(BCRYPT.name());
+        when(configuration.getPasswordEncodeType()).thenReturn(BCRYPT);
         when(passwordEncoderFactory.getPasswordEncoder(BCRYPT)).thenReturn(passwordEncoder);
         when(userDAO.findPasswordByUserId("external-id")).thenReturn(Optional.of("any-user-password"));
         when(credentialInput.getChallengeResponse()).thenReturn("any-input-password");
-        when(passwordEncoder.matches("any-input-password", "any-user-password")).thenReturn(false);
+        when(passwordVerifier.matches(passwordEncoder, "any-input-password", "any-user-password")).thenReturn(false);
 
         var isValid = provider.isValid(realmModel, userModel, credentialInput);
 
         assertThat(isValid).isFalse();
 
         verify(userModel).getId();
-        verify(properties).getProperty(PASSWORD_ENCODE_TYPE);
+        verify(configuration).getPasswordEncodeType();
         verify(passwordEncoderFactory).getPasswordEncoder(BCRYPT);
         verify(userDAO).findPasswordByUserId("external-id");
         verify(credentialInput).getChallengeResponse();
-        verify(passwordEncoder).matches("any-input-password", "any-user-password");
+        verify(passwordVerifier).matches(passwordEncoder, "any-input-password", "any-user-password");
     }
 
     @Test
@@ -213,7 +705,7 @@ public class JdbcUserStorageProviderTest {
         var keycloakId = new StorageId("provider-id", "external-id").getId();
 
         when(userModel.getId()).thenReturn(keycloakId);
-        when(properties.getProperty(PASSWORD_ENCODE_TYPE)).thenReturn(BCRYPT.name());
+        when(configuration.getPasswordEncodeType()).thenReturn(BCRYPT);
         when(passwordEncoderFactory.getPasswordEncoder(BCRYPT)).thenReturn(passwordEncoder);
         when(userDAO.findPasswordByUserId("external-id")).thenReturn(Optional.empty());
 
@@ -222,7 +714,7 @@ public class JdbcUserStorageProviderTest {
         assertThat(isValid).isFalse();
 
         verify(userModel).getId();
-        verify(properties).getProperty(PASSWORD_ENCODE_TYPE);
+        verify(configuration).getPasswordEncodeType();
         verify(passwordEncoderFactory).getPasswordEncoder(BCRYPT);
         verify(userDAO).findPasswordByUserId("external-id");
         verifyNoInteractions(credentialInput);
@@ -234,7 +726,7 @@ public class JdbcUserStorageProviderTest {
         var keycloakId = new StorageId("provider-id", "external-id").getId();
 
         when(userModel.getId()).thenReturn(keycloakId);
-        when(properties.getProperty(PASSWORD_ENCODE_TYPE)).thenReturn(BCRYPT.name());
+        when(configuration.getPasswordEncodeType()).thenReturn(BCRYPT);
         when(passwordEncoderFactory.getPasswordEncoder(BCRYPT)).thenReturn(passwordEncoder);
         when(userDAO.findPasswordByUserId("external-id")).thenThrow(RuntimeException.class);
 
@@ -243,7 +735,7 @@ public class JdbcUserStorageProviderTest {
         assertThat(isValid).isFalse();
 
         verify(userModel).getId();
-        verify(properties).getProperty(PASSWORD_ENCODE_TYPE);
+        verify(configuration).getPasswordEncodeType();
         verify(passwordEncoderFactory).getPasswordEncoder(BCRYPT);
         verify(userDAO).findPasswordByUserId("external-id");
         verifyNoInteractions(credentialInput);
@@ -251,11 +743,182 @@ public class JdbcUserStorageProviderTest {
     }
 
     @Test
-    public void whenCloseDoNothing() {
+    public void givenTrustedCachedUserCredentialWhenCacheFoundUserThenKeepRolesAndPasswordFingerprintWithCachedUser() {
+        var role = Role.builder().id("role-id").name("role-name").description("role-description").build();
+        var user = User.builder().id("external-id").username("fulano").password("any-user-password").build();
+        var cachedWith = new ConcurrentHashMap<>();
+
+        when(userDAO.findByUsername("fulano")).thenReturn(Optional.of(user));
+        when(roleDAO.getRolesByUserId("external-id")).thenReturn(List.of(role));
+        when(cachedUserModel.getCachedWith()).thenReturn(cachedWith);
+        when(configuration.isCredentialCacheTrustCachedUser()).thenReturn(true);
+        when(verifiedCredentialCache.fingerprint("any-user-password")).thenReturn("fingerprint");
+
+        provider.onCache(realmModel, cachedUserModel, provider.getUserByUsername("fulano", realmModel));
+
+        assertThat(cachedWith).containsEntry(JdbcUserStorageProvider.CACHED_PASSWORD_FINGERPRINT, "fingerprint");
+        assertThat((List<Role>) cachedWith.get(JdbcUserStorageProvider.CACHED_ROLES))
+                .singleElement()
+                .satisfies(cachedRole -> {
+                    assertThat(cachedRole.getId()).isEqualTo("role-id");
+                    assertThat(cachedRole.getName()).isEqualTo("role-name");
+                    assertThat(cachedRole.getDescription()).isEqualTo("role-description");
+                });
+    }
+
+    @Test
+    public void givenUntrustedCachedUserCredentialWhenCacheFoundUserThenKeepOnlyRoles() {
+        var user = User.builder().id("external-id").username("fulano").password("any-user-password").roles(List.of()).build();
+        var cachedWith = new ConcurrentHashMap<>();
+
+        when(userDAO.findByUsername("fulano")).thenReturn(Optional.of(user));
+        when(cachedUserModel.getCachedWith()).thenReturn(cachedWith);
+
+        provider.onCache(realmModel, cachedUserModel, provider.getUserByUsername("fulano", realmModel));
+
+        assertThat(cachedWith).containsOnlyKeys(JdbcUserStorageProvider.CACHED_ROLES);
+        verifyNoInteractions(verifiedCredentialCache);
+    }
+
+    @Test
+    public void givenUserWithoutPrefetchedPasswordWhenCacheThenKeepOnlyRoles() {
+        var user = User.builder().id("external-id").username("fulano").roles(List.of()).build();
+        var cachedWith = new ConcurrentHashMap<>();
+
+        when(userDAO.findByUsername("fulano")).thenReturn(Optional.of(user));
+        when(cachedUserModel.getCachedWith()).thenReturn(cachedWith);
+        when(configuration.isCredentialCacheTrustCachedUser()).thenReturn(true);
+
+        provider.onCache(realmModel, cachedUserModel, provider.getUserByUsername("fulano", realmModel));
+
+        assertThat(cachedWith).containsOnlyKeys(JdbcUserStorageProvider.CACHED_ROLES);
+        verifyNoInteractions(verifiedCredentialCache);
+    }
+
+    @Test
+    public void givenDelegateFromOtherProviderWhenCacheThenKeepNothing() {
+        provider.onCache(realmModel, cachedUserModel, userModel);
+
+        verifyNoInteractions(cachedUserModel, userModel);
+    }
+
+    @Test
+    public void givenTrustedCachedUserWithVerifiedFingerprintWhenCheckIfIsValidThenAnswerWithoutDatabase() {
+        var keycloakId = new StorageId("provider-id", "external-id").getId();
+        var role = Role.builder().id("role-id").build();
+        var cachedWith = new ConcurrentHashMap<Object, Object>(Map.of(
+                JdbcUserStorageProvider.CACHED_ROLES, List.of(role),
+                JdbcUserStorageProvider.CACHED_PASSWORD_FINGERPRINT, "fingerprint"));
+
+        when(cachedUserModel.getId()).thenReturn(keycloakId);
+        when(cachedUserModel.getUsername()).thenReturn("fulano");
+        when(cachedUserModel.getEmail()).thenReturn("fulano@mail.com");
+        when(cachedUserModel.getCachedWith()).thenReturn(cachedWith);
+        when(configuration.getPasswordEncodeType()).thenReturn(BCRYPT);
+        when(configuration.isCredentialCacheTrustCachedUser()).thenReturn(true);
+        when(credentialInput.getChallengeResponse()).thenReturn("any-input-password");
+        when(verifiedCredentialCache.isVerified("external-id", "fingerprint", "any-input-password")).thenReturn(true);
+
+        assertThat(provider.isValid(realmModel, cachedUserModel, credentialInput)).isTrue();
+
+        var restored = (CustomUserModel) provider.getUserById(keycloakId, realmModel);
+
+        assertThat(restored.getUsername()).isEqualTo("fulano");
+        assertThat(restored.getEmail()).isEqualTo("fulano@mail.com");
+        assertThat(restored.getRoleMappingsInternal())
+                .extracting(RoleModel::getId)
+                .containsExactly("role-id");
+        verifyNoInteractions(userDAO, roleDAO, passwordVerifier);
+    }
+
+    @Test
+    public void givenUntrustedCachedUserWithVerifiedFingerprintWhenCheckIfIsValidThenReadPassword() {
+        var keycloakId = new StorageId("provider-id", "external-id").getId();
+        var cachedWith = new ConcurrentHashMap<Object, Object>(Map.of(
+                JdbcUserStorageProvider.CACHED_PASSWORD_FINGERPRINT, "old-fingerprint"));
+
+        when(cachedUserModel.getId()).thenReturn(keycloakId);
+        when(cachedUserModel.getCachedWith()).thenReturn(cachedWith);
+        when(configuration.getPasswordEncodeType()).thenReturn(BCRYPT);
+        when(passwordEncoderFactory.getPasswordEncoder(BCRYPT)).thenReturn(passwordEncoder);
+        when(userDAO.findPasswordByUserId("external-id")).thenReturn(Optional.of("any-user-password"));
+        when(credentialInput.getChallengeResponse()).thenReturn("any-input-password");
+        when(verifiedCredentialCache.fingerprint("any-user-password")).thenReturn("fingerprint");
+        when(passwordVerifier.matches(passwordEncoder, "any-input-password", "any-user-password")).thenReturn(true);
+
+        assertThat(provider.isValid(realmModel, cachedUserModel, credentialInput)).isTrue();
+
+        assertThat(cachedWith).containsEntry(JdbcUserStorageProvider.CACHED_PASSWORD_FINGERPRINT, "old-fingerprint");
+        verify(verifiedCredentialCache, never()).isVerified("external-id", "old-fingerprint", "any-input-password");
+        verify(verifiedCredentialCache).putVerified("external-id", "fingerprint", "any-input-password");
+    }
+
+    @Test
+    public void givenCachedUserWithUnverifiedFingerprintWhenValidCredentialThenKeepFingerprintWithCachedUser() {
+        var keycloakId = new StorageId("provider-id", "external-id").getId();
+        var cachedWith = new ConcurrentHashMap<Object, Object>(Map.of(
+                JdbcUserStorageProvider.CACHED_PASSWORD_FINGERPRINT, "old-fingerprint"));
+
+        when(cachedUserModel.getId()).thenReturn(keycloakId);
+        when(cachedUserModel.getCachedWith()).thenReturn(cachedWith);
+        when(configuration.getPasswordEncodeType()).thenReturn(BCRYPT);
+        when(configuration.isCredentialCacheTrustCachedUser()).thenReturn(true);
+        when(passwordEncoderFactory.getPasswordEncoder(BCRYPT)).thenReturn(passwordEncoder);
+        when(userDAO.findPasswordByUserId("external-id")).thenReturn(Optional.of("any-user-password"));
+        when(credentialInput.getChallengeResponse()).thenReturn("any-input-password");
+        when(verifiedCredentialCache.fingerprint("any-user-password")).thenReturn("fingerprint");
+        when(passwordVerifier.matches(passwordEncoder, "any-input-password", "any-user-password")).thenReturn(true);
+
+        assertThat(provider.isValid(realmModel, cachedUserModel, credentialInput)).isTrue();
+
+        assertThat(cachedWith).containsEntry(JdbcUserStorageProvider.CACHED_PASSWORD_FINGERPRINT, "fingerprint");
+        verify(verifiedCredentialCache).isVerified("external-id", "old-fingerprint", "any-input-password");
+        verify(verifiedCredentialCache).putVerified("external-id", "fingerprint", "any-input-password");
+    }
+
+    @Test
+    public void givenCachedUserWithoutCachedValuesWhenCheckIfIsValidThenReadPassword() {
+        var keycloakId = new StorageId("provider-id", "external-id").getId();
+
+        when(cachedUserModel.getId()).thenReturn(keycloakId);
+        when(cachedUserModel.getCachedWith()).thenReturn(new ConcurrentHashMap<>());
+        when(configuration.getPasswordEncodeType()).thenReturn(BCRYPT);
+        when(configuration.isCredentialCacheTrustCachedUser()).thenReturn(true);
+        when(passwordEncoderFactory.getPasswordEncoder(BCRYPT)).thenReturn(passwordEncoder);
+        when(userDAO.findPasswordByUserId("external-id")).thenReturn(Optional.of("any-user-password"));
+        when(credentialInput.getChallengeResponse()).thenReturn("any-input-password");
+
+        assertThat(provider.isValid(realmModel, cachedUserModel, credentialInput)).isFalse();
+
+        verify(userDAO).findPasswordByUserId("external-id");
+    }
+
+    @Test
+    public void givenCachedUserAndDigestEncodeTypeWhenCheckIfIsValidThenReadPassword() {
+        var keycloakId = new StorageId("provider-id", "external-id").getId();
+
+        when(cachedUserModel.getId()).thenReturn(keycloakId);
+        when(cachedUserModel.getCachedWith()).thenReturn(new ConcurrentHashMap<>());
+        when(configuration.getPasswordEncodeType()).thenReturn(MD5);
+        when(passwordEncoderFactory.getPasswordEncoder(MD5)).thenReturn(passwordEncoder);
+        when(userDAO.findPasswordByUserId("external-id")).thenReturn(Optional.of("any-user-password"));
+        when(credentialInput.getChallengeResponse()).thenReturn("any-input-password");
+        when(passwordEncoder.matches("any-input-password", "any-user-password")).thenReturn(true);
+
+        assertThat(provider.isValid(realmModel, cachedUserModel, credentialInput)).isTrue();
+
+        verifyNoInteractions(verifiedCredentialCache);
+    }
+
+    @Test
+    public void whenCloseThenReleaseConnectionLeaseOnly() {
         provider.close();
+        verify(connectionLease).close();
         verifyNoInteractions(userModel);
-        verifyNoInteractions(properties);
+        verifyNoInteractions(configuration);
         verifyNoInteractions(passwordEncoderFactory);
+        verifyNoInteractions(passwordVerifier);
+        verifyNoInteractions(verifiedCredentialCache);
         verifyNoInteractions(userDAO);
         verifyNoInteractions(credentialInput);
         verifyNoInteractions(passwordEncoder);
@@ -0,0 +1,232 @@
+package com.github.paulosalonso.keycloak.userstorage.provider;
+
+import com.github.paulosalonso.keycloak.userstorage.configurations.ConfigurationsMapper;
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import com.github.paulosalonso.keycloak.userstorage.data.dao.CachingRoleDAO;
+import com.github.paulosalonso.keycloak.userstorage.data.dao.CachingUserCountDAO;
+import com.github.paulosalonso.keycloak.userstorage.data.dao.CachingUserDAO;
+import com.github.paulosalonso.keycloak.userstorage.data.dao.UserCountDAO;
+import com.github.paulosalonso.keycloak.userstorage.data.database.CircuitBreaker;
+import com.github.paulosalonso.keycloak.userstorage.data.database.ConnectionFactory;
+import com.github.paulosalonso.keycloak.userstorage.data.mapper.JoinedUserMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.keycloak.common.util.MultivaluedHashMap;
+import org.keycloak.component.ComponentModel;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class JdbcUserStorageRuntimeTest {
+
+    @Mock
+    private ComponentModel componentModel;
+
+    private MultivaluedHashMap<String, String> configurations;
+
+    @BeforeEach
+    public void setUp() {
+        configurations = new MultivaluedHashMap<>();
+        configurations.putSingle("key", "value");
+        when(componentModel.getConfig()).thenReturn(configurations);
+    }
+
+    @Test
+    public void whenCreateThenBuildComponentsOnce() {
+        var configuration = UserStorageConfiguration.builder().build();
+
+        try (var mapperMock = mockStatic(ConfigurationsMapper.class);
+             var connectionFactoryMock = mockConstruction(ConnectionFactory.class)) {
+            mapperMock.when(() -> ConfigurationsMapper.toConfiguration(componentModel)).thenReturn(configuration);
+
+            var runtime = new JdbcUserStorageRuntime(componentModel);
+
+            assertThat(runtime.getConfiguration()).isSameAs(configuration);
+            assertThat(runtime.getConnectionFactory()).isSameAs(connectionFactoryMock.constructed().get(0));
+            assertThat(runtime.getUserDAO()).isNotNull();
+            assertThat(runtime.getRoleDAO()).isNotNull();
+            assertThat(runtime.getUserQueryDAO()).isNotNull();
+            assertThat(runtime.getUserCountDAO()).isExactlyInstanceOf(UserCountDAO.class);
+            assertThat(runtime.getUserCache()).isNull();
+            assertThat(runtime.getPasswordEncoderFactory()).isNotNull();
+            assertThat(runtime.getPasswordVerifier()).isNotNull();
+            assertThat(runtime.getVerifiedCredentialCache()).isNotNull();
+            assertThat(runtime.openConnectionLease().isOpen()).isTrue();
+            assertThat(runtime.getCircuitBreaker().getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+            assertThat(runtime.getBulkhead().isEnabled()).isFalse();
+            mapperMock.verify(() -> ConfigurationsMapper.toConfiguration(componentModel));
+        }
+    }
+
+    @Test
+    public void givenUserRolesQueryWhenCreateThenUseJoinedUserMapper() {
+        var configuration = UserStorageConfiguration.builder()
+                .userRolesQuery("SELECT * FROM user_roles")
+                .build();
+
+        try (var mapperMock = mockStatic(ConfigurationsMapper.class);
+             var connectionFactoryMock = mockConstruction(ConnectionFactory.class);
+             var joinedUserMapperMock = mockConstruction(JoinedUserMapper.class)) {
+            mapperMock.when(() -> ConfigurationsMapper.toConfiguration(componentModel)).thenReturn(configuration);
+
+            new JdbcUserStorageRuntime(componentModel);
+
+            assertThat(joinedUserMapperMock.constructed()).hasSize(1);
+        }
+    }
+
+    @Test
+    public void givenBlankUserRolesQueryWhenCreateThenUseUserMapper() {
+        var configuration = UserStorageConfiguration.builder()
+                .userRolesQuery(" ")
+                .build();
+
+        try (var mapperMock = mockStatic(ConfigurationsMapper.class);
+             var connectionFactoryMock = mockConstruction(ConnectionFactory.class);
+             var joinedUserMapperMock = mockConstruction(JoinedUserMapper.class)) {
+            mapperMock.when(() -> ConfigurationsMapper.toConfiguration(componentModel)).thenReturn(configuration);
+
+            new JdbcUserStorageRuntime(componentModel);
+
+            assertThat(joinedUserMapperMock.constructed()).isEmpty();
+        }
+    }
+
+    @Test
+    public void givenSameConfigurationsWhenCheckIfIsConfiguredByThenReturnTrue() {
+        try (var mapperMock = mockStatic(ConfigurationsMapper.class);
+             var connectionFactoryMock = mockConstruction(ConnectionFactory.class)) {
+            mapperMock.when(() -> ConfigurationsMapper.toConfiguration(componentModel)).thenReturn(UserStorageConfiguration.builder().build());
+
+            var runtime = new JdbcUserStorageRuntime(componentModel);
+
+            var otherComponentModel = mock(ComponentModel.class);
+            when(otherComponentModel.getConfig()).thenReturn(new MultivaluedHashMap<>(configurations));
+
+            assertThat(runtime.isConfiguredBy(otherComponentModel)).isTrue();
+        }
+    }
+
+    @Test
+    public void givenChangedConfigurationsWhenCheckIfIsConfiguredByThenReturnFalse() {
+        try (var mapperMock = mockStatic(ConfigurationsMapper.class);
+             var connectionFactoryMock = mockConstruction(ConnectionFactory.class)) {
+            mapperMock.when(() -> ConfigurationsMapper.toConfiguration(componentModel)).thenReturn(UserStorageConfiguration.builder().build());
+
+            var runtime = new JdbcUserStorageRuntime(componentModel);
+
+            configurations.putSingle("key", "changed-value");
+
+            assertThat(runtime.isConfiguredBy(componentModel)).isFalse();
+        }
+    }
+
+    @Test
+    public void whenCloseThenCloseConnectionFactoryAndPasswordVerifier() {
+        try (var mapperMock = mockStatic(ConfigurationsMapper.class);
+             var connectionFactoryMock = mockConstruction(ConnectionFactory.class);
+             var passwordVerifierMock = mockConstruction(PasswordVerifier.class)) {
+            mapperMock.when(() -> ConfigurationsMapper.toConfiguration(componentModel)).thenReturn(UserStorageConfiguration.builder().build());
+
+            new JdbcUserStorageRuntime(componentModel).close();
+
+            verify(connectionFactoryMock.constructed().get(0)).close();
+            verify(passwordVerifierMock.constructed().get(0)).close();
+        }
+    }
+
+    @Test
+    public void whenCloseTwiceThenCloseConnectionFactoryOnce() {
+        try (var mapperMock = mockStatic(ConfigurationsMapper.class);
+             var connectionFactoryMock = mockConstruction(ConnectionFactory.class)) {
+            mapperMock.when(() -> ConfigurationsMapper.toConfiguration(componentModel)).thenReturn(UserStorageConfiguration.builder().build());
+
+            var runtime = new JdbcUserStorageRuntime(componentModel);
+            runtime.close();
+            runtime.close();
+
+            verify(connectionFactoryMock.constructed().get(0)).close();
+        }
+    }
+
+    @Test
+    public void givenNoOpenLeaseWhenRetireThenClose() {
+        try (var mapperMock = mockStatic(ConfigurationsMapper.class);
+             var connectionFactoryMock = mockConstruction(ConnectionFactory.class)) {
+            mapperMock.when(() -> ConfigurationsMapper.toConfiguration(componentModel)).thenReturn(UserStorageConfiguration.builder().build());
+
+            var runtime = new JdbcUserStorageRuntime(componentModel);
+            runtime.openConnectionLease().close();
+
+            verify(connectionFactoryMock.constructed().get(0), never()).close();
+
+            runtime.retire();
+
+            verify(connectionFactoryMock.constructed().get(0)).close();
+        }
+    }
+
+    @Test
+    public void givenOpenLeasesWhenRetireThenCloseWhenLastLeaseIsClosed() {
+        try (var mapperMock = mockStatic(ConfigurationsMapper.class);
+             var connectionFactoryMock = mockConstruction(ConnectionFactory.class)) {
+            mapperMock.when(() -> ConfigurationsMapper.toConfiguration(componentModel)).thenReturn(UserStorageConfiguration.builder().build());
+
+            var runtime = new JdbcUserStorageRuntime(componentModel);
+            var firstLease = runtime.openConnectionLease();
+            var secondLease = runtime.openConnectionLease();
+
+            runtime.retire();
+            firstLease.close();
+
+            verify(connectionFactoryMock.constructed().get(0), never()).close();
+
+            secondLease.close();
+
+            verify(connectionFactoryMock.constructed().get(0)).close();
+        }
+    }
+
+    @Test
+    public void givenCacheMaxSizeWhenCreateThenUseCachingDAOs() {
+        var configuration = UserStorageConfiguration.builder()
+                .cacheMaxSize(100)
+                .cacheTtl(60000)
+                .build();
+
+        try (var mapperMock = mockStatic(ConfigurationsMapper.class);
+             var connectionFactoryMock = mockConstruction(ConnectionFactory.class)) {
+            mapperMock.when(() -> ConfigurationsMapper.toConfiguration(componentModel)).thenReturn(configuration);
+
+            var runtime = new JdbcUserStorageRuntime(componentModel);
+
+            assertThat(runtime.getUserCache()).isNotNull();
+            assertThat(runtime.getUserDAO()).isInstanceOf(CachingUserDAO.class);
+            assertThat(runtime.getRoleDAO()).isInstanceOf(CachingRoleDAO.class);
+
+            runtime.close();
+
+            verify(connectionFactoryMock.constructed().get(0)).close();
+        }
+    }
+
+    @Test
+    public void givenUserCountCacheTtlWhenCreateThenUseCachingUserCountDAO() {
+        var configuration = UserStorageConfiguration.builder()
+                .userCountCacheTtl(60000)
+                .build();
+
+        try (var mapperMock = mockStatic(ConfigurationsMapper.class);
+             var connectionFactoryMock = mockConstruction(ConnectionFactory.class)) {
+            mapperMock.when(() -> ConfigurationsMapper.toConfiguration(componentModel)).thenReturn(configuration);
+
+            var runtime = new JdbcUserStorageRuntime(componentModel);
+
+            assertThat(runtime.getUserCountDAO()).isInstanceOf(CachingUserCountDAO.class);
+        }
+    }
+}
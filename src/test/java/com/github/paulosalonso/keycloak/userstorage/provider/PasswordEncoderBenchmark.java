@@ -0,0 +1,45 @@
+package com.github.paulosalonso.keycloak.userstorage.provider;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.security.crypto.password.MessageDigestPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares Spring's MessageDigestPasswordEncoder, used for MD5 before, with {@link DigestPasswordEncoder}
+ * verifying the same salted hash.
+ *
+ * Run with: mvn -Pbenchmark test-compile exec:exec -Dbenchmark.includes=PasswordEncoderBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PasswordEncoderBenchmark {
+
+    private static final String PASSWORD = "correct horse battery staple";
+
+    private PasswordEncoder springEncoder;
+    private PasswordEncoder digestEncoder;
+    private String encodedPassword;
+
+    @Setup
+    public void setUp() {
+        springEncoder = new MessageDigestPasswordEncoder("MD5");
+        digestEncoder = new DigestPasswordEncoder("MD5");
+        encodedPassword = springEncoder.encode(PASSWORD);
+    }
+
+    @Benchmark
+    public boolean springMessageDigestEncoder() {
+        return springEncoder.matches(PASSWORD, encodedPassword);
+    }
+
+    @Benchmark
+    public boolean digestPasswordEncoder() {
+        return digestEncoder.matches(PASSWORD, encodedPassword);
+    }
+}
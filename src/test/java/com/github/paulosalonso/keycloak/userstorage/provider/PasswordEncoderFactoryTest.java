@@ -5,13 +5,9 @@ import org.junit.jupiter.api.Test;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.MessageDigestPasswordEncoder;
 import org.springframework.security.crypto.password.NoOpPasswordEncoder;
-import org.springframework.security.crypto.password.PasswordEncoder;
-
-import java.util.HashMap;
 
 import static com.github.paulosalonso.keycloak.userstorage.configurations.PasswordEncodeType.BCRYPT;
 import static org.assertj.core.api.Assertions.assertThat;
-import static org.mockito.Mockito.*;
 
 public class PasswordEncoderFactoryTest {
 
@@ -24,18 +20,20 @@ public class PasswordEncoderFactoryTest {
     }
 
     @Test
-    public void whenGetPasswordEncoderThenReturnMessageDigestPasswordEncoderWithMD5Algorithm() throws NoSuchFieldException, IllegalAccessException {
+    public void whenGetPasswordEncoderThenReturnDigestPasswordEncoderWithMD5Algorithm() {
         var passwordEncoder = factory.getPasswordEncoder(PasswordEncodeType.MD5);
-        assertThat(passwordEncoder).isInstanceOf(MessageDigestPasswordEncoder.class);
-
-        var field = passwordEncoder.getClass().getDeclaredField("digester");
-        field.setAccessible(true);
-        var digester = field.get(passwordEncoder);
-        field = digester.getClass().getDeclaredField("algorithm");
-        field.setAccessible(true);
-        var algorithm = field.get(digester);
+        assertThat(passwordEncoder).isInstanceOf(DigestPasswordEncoder.class);
+        assertThat(passwordEncoder.matches("password", new MessageDigestPasswordEncoder("MD5").encode("password"))).isTrue();
+    }
 
-        assertThat(algorithm).isEqualTo("MD5");
+    @Test
+    public void whenGetPasswordEncoderThenReturnDigestPasswordEncoderWithSHAAlgorithms() {
+        assertThat(factory.getPasswordEncoder(PasswordEncodeType.SHA1).matches("password",
+                new MessageDigestPasswordEncoder("SHA-1").encode("password"))).isTrue();
+        assertThat(factory.getPasswordEncoder(PasswordEncodeType.SHA256).matches("password",
+                new MessageDigestPasswordEncoder("SHA-256").encode("password"))).isTrue();
+        assertThat(factory.getPasswordEncoder(PasswordEncodeType.SHA512).matches("password",
+                new MessageDigestPasswordEncoder("SHA-512").encode("password"))).isTrue();
     }
 
     @Test
@@ -45,19 +43,9 @@ public class PasswordEncoderFactoryTest {
     }
 
     @Test
-    public void whenGetPasswordEncoderMoreThanOneTimeThenReturnCachedValue() throws NoSuchFieldException, IllegalAccessException {
-        var cacheSpy = spy(new HashMap<PasswordEncodeType, PasswordEncoder>());
-        var cacheField = factory.getClass().getDeclaredField("cache");
-        cacheField.setAccessible(true);
-        cacheField.set(factory, cacheSpy);
-
-        factory.getPasswordEncoder(BCRYPT);
-        var passwordEncoder = factory.getPasswordEncoder(BCRYPT);
-
-        assertThat(passwordEncoder).isInstanceOf(BCryptPasswordEncoder.class);
-
-        verify(cacheSpy, times(2)).containsKey(BCRYPT);
-        verify(cacheSpy).put(BCRYPT, passwordEncoder);
-        verify(cacheSpy).get(BCRYPT);
+    public void whenGetPasswordEncoderMoreThanOneTimeThenReturnSameInstance() {
+        for (var type : PasswordEncodeType.values()) {
+            assertThat(factory.getPasswordEncoder(type)).isSameAs(factory.getPasswordEncoder(type));
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,191 @@
+package com.github.paulosalonso.keycloak.userstorage.provider;
+
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.*;
+
+public class PasswordVerifierTest {
+
+    private final PasswordEncoder encoder = mock(PasswordEncoder.class);
+    private PasswordVerifier passwordVerifier;
+
+    @AfterEach
+    public void tearDown() {
+        passwordVerifier.close();
+    }
+
+    @Test
+    public void whenMatchesThenReturnEncoderResultAndRecordVerification() {
+        passwordVerifier = new PasswordVerifier(UserStorageConfiguration.builder().build());
+
+        when(encoder.matches("raw", "encoded")).thenReturn(true);
+
+        assertThat(passwordVerifier.getAverageVerificationMillis()).isZero();
+        assertThat(passwordVerifier.matches(encoder, "raw", "encoded")).isTrue();
+        assertThat(passwordVerifier.getVerifications()).isEqualTo(1);
+        assertThat(passwordVerifier.getAverageVerificationMillis()).isGreaterThanOrEqualTo(0);
+        assertThat(passwordVerifier.getQueueDepth()).isZero();
+    }
+
+    @Test
+    public void whenEncoderThrowsThenThrowsRuntimeExceptionWithItAsCause() {
+        passwordVerifier = new PasswordVerifier(UserStorageConfiguration.builder().build());
+        var exception = new IllegalArgumentException();
+
+        when(encoder.matches("raw", "encoded")).thenThrow(exception);
+
+        assertThatThrownBy(() -> passwordVerifier.matches(encoder, "raw", "encoded"))
+                .isExactlyInstanceOf(RuntimeException.class)
+                .hasMessage("Error when verifying password")
+                .getCause()
+                .isSameAs(exception);
+    }
+
+    @Test
+    public void givenSlowVerificationWhenTimeoutElapsesThenFailFast() {
+        passwordVerifier = new PasswordVerifier(configuration(1, 1, 50));
+        var release = new CountDownLatch(1);
+
+        when(encoder.matches("raw", "encoded")).thenAnswer(invocation -> {
+            release.await();
+            return true;
+        });
+
+        try {
+            assertThatThrownBy(() -> passwordVerifier.matches(encoder, "raw", "encoded"))
+                    .isExactlyInstanceOf(RuntimeException.class)
+                    .hasMessage("Password verification timed out")
+                    .hasCauseInstanceOf(TimeoutException.class);
+            assertThat(passwordVerifier.getTimeouts()).isEqualTo(1);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void givenFullQueueWhenMatchesThenRejectImmediately() throws Exception {
+        passwordVerifier = new PasswordVerifier(configuration(1, 1, 5000));
+        var running = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+
+        when(encoder.matches("raw", "encoded")).thenAnswer(invocation -> {
+            running.countDown();
+            release.await();
+            return true;
+        });
+
+        var callers = Executors.newFixedThreadPool(2);
+
+        try {
+            var first = callers.submit(() -> passwordVerifier.matches(encoder, "raw", "encoded"));
+            running.await();
+            var queued = callers.submit(() -> passwordVerifier.matches(encoder, "raw", "encoded"));
+
+            while (passwordVerifier.getQueueDepth() == 0) {
+                Thread.onSpinWait();
+            }
+
+            assertThat(passwordVerifier.getActiveVerifications()).isEqualTo(1);
+            assertThatThrownBy(() -> passwordVerifier.matches(encoder, "raw", "encoded"))
+                    .isExactlyInstanceOf(RuntimeException.class)
+                    .hasMessage("Password verification queue is full")
+                    .hasCauseInstanceOf(RejectedExecutionException.class);
+            assertThat(passwordVerifier.getRejections()).isEqualTo(1);
+
+            release.countDown();
+
+            assertThat(first.get()).isTrue();
+            assertThat(queued.get()).isTrue();
+        } finally {
+            release.countDown();
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void givenInterruptedCallerWhenMatchesThenCancelAndRestoreInterruption() {
+        passwordVerifier = new PasswordVerifier(UserStorageConfiguration.builder().build());
+
+        lenient().when(encoder.matches("raw", "encoded")).thenAnswer(invocation -> {
+            new CountDownLatch(1).await();
+            return true;
+        });
+
+        Thread.currentThread().interrupt();
+
+        try {
+            assertThatThrownBy(() -> passwordVerifier.matches(encoder, "raw", "encoded"))
+                    .isExactlyInstanceOf(RuntimeException.class)
+                    .hasMessage("Interrupted while verifying password")
+                    .hasCauseInstanceOf(InterruptedException.class);
+            assertThat(Thread.currentThread().isInterrupted()).isTrue();
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    public void givenClosedVerifierWhenMatchesThenReject() {
+        passwordVerifier = new PasswordVerifier(configuration(2, 10, 5000));
+
+        passwordVerifier.close();
+
+        assertThatThrownBy(() -> passwordVerifier.matches(encoder, "raw", "encoded"))
+                .isExactlyInstanceOf(RuntimeException.class)
+                .hasMessage("Password verifier is closed")
+                .hasCauseInstanceOf(RejectedExecutionException.class);
+        assertThat(passwordVerifier.getRejections()).isZero();
+        verifyNoInteractions(encoder);
+    }
+
+    @Test
+    public void givenNoQueueWhenEveryThreadIsBusyThenRejectImmediately() throws Exception {
+        passwordVerifier = new PasswordVerifier(configuration(1, 0, 5000));
+        var running = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+
+        when(encoder.matches("raw", "encoded")).thenAnswer(invocation -> {
+            running.countDown();
+            release.await();
+            return true;
+        });
+
+        var callers = Executors.newSingleThreadExecutor();
+
+        try {
+            var first = callers.submit(() -> passwordVerifier.matches(encoder, "raw", "encoded"));
+            running.await();
+
+            assertThatThrownBy(() -> passwordVerifier.matches(encoder, "raw", "encoded"))
+                    .isExactlyInstanceOf(RuntimeException.class)
+                    .hasMessage("Password verification queue is full")
+                    .hasCauseInstanceOf(RejectedExecutionException.class);
+            assertThat(passwordVerifier.getRejections()).isEqualTo(1);
+
+            release.countDown();
+
+            assertThat(first.get()).isTrue();
+        } finally {
+            release.countDown();
+            callers.shutdownNow();
+        }
+    }
+
+    private static UserStorageConfiguration configuration(int threads, int queueSize, long timeout) {
+        return UserStorageConfiguration.builder()
+                .verificationThreads(threads)
+                .verificationQueueSize(queueSize)
+                .verificationTimeout(timeout)
+                .build();
+    }
+}
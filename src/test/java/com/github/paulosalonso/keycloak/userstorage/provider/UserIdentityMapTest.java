@@ -0,0 +1,90 @@
+package com.github.paulosalonso.keycloak.userstorage.provider;
+
+import com.github.paulosalonso.keycloak.userstorage.data.model.User;
+import com.github.paulosalonso.keycloak.userstorage.provider.model.CustomUserModel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+@ExtendWith(MockitoExtension.class)
+public class UserIdentityMapTest {
+
+    private final UserIdentityMap identityMap = new UserIdentityMap();
+
+    @Mock
+    private CustomUserModel userModel;
+
+    @Test
+    public void givenPutUserWhenGetByAnyKeyThenReturnUserModelAndCountHits() {
+        var user = User.builder()
+                .id("id")
+                .username("fulano")
+                .email("fulano@mail.com")
+                .build();
+
+        identityMap.put(user, userModel);
+
+        assertThat(identityMap.getById("id")).isSameAs(userModel);
+        assertThat(identityMap.getByUsername("fulano")).isSameAs(userModel);
+        assertThat(identityMap.getByEmail("fulano@mail.com")).isSameAs(userModel);
+        assertThat(identityMap.getHits()).isEqualTo(3);
+        assertThat(identityMap.getMisses()).isZero();
+    }
+
+    @Test
+    public void givenUserWithoutEmailWhenPutThenDoNotIndexByEmail() {
+        var user = User.builder()
+                .id("id")
+                .username("fulano")
+                .build();
+
+        identityMap.put(user, userModel);
+
+        assertThat(identityMap.getByEmail(null)).isNull();
+    }
+
+    @Test
+    public void whenGetUnknownKeyThenReturnNullAndCountMiss() {
+        assertThat(identityMap.getById("id")).isNull();
+        assertThat(identityMap.getByUsername("fulano")).isNull();
+        assertThat(identityMap.getByEmail("fulano@mail.com")).isNull();
+        assertThat(identityMap.getHits()).isZero();
+        assertThat(identityMap.getMisses()).isEqualTo(3);
+    }
+
+    @Test
+    public void givenLoadedUserWhenPutIfAbsentThenKeepLoadedUserModel() {
+        var user = User.builder()
+                .id("id")
+                .username("fulano")
+                .build();
+        var otherUserModel = mock(CustomUserModel.class);
+
+        identityMap.putIfAbsent(user, userModel);
+        identityMap.putIfAbsent(user, otherUserModel);
+
+        assertThat(identityMap.getById("id")).isSameAs(userModel);
+        assertThat(identityMap.getByUsername("fulano")).isSameAs(userModel);
+    }
+
+    @Test
+    public void givenMissingUsernameWhenCheckThenReturnTrueOnlyForIt() {
+        identityMap.putMissingUsername("fulano@mail.com");
+
+        assertThat(identityMap.isMissingUsername("fulano@mail.com")).isTrue();
+        assertThat(identityMap.isMissingUsername("beltrano@mail.com")).isFalse();
+        assertThat(identityMap.isMissingEmail("fulano@mail.com")).isFalse();
+    }
+
+    @Test
+    public void givenMissingEmailWhenCheckThenReturnTrueOnlyForIt() {
+        identityMap.putMissingEmail("fulano@mail.com");
+
+        assertThat(identityMap.isMissingEmail("fulano@mail.com")).isTrue();
+        assertThat(identityMap.isMissingEmail("beltrano@mail.com")).isFalse();
+    }
+}
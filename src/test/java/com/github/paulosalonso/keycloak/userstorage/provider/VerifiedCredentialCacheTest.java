@@ -0,0 +1,81 @@
+package com.github.paulosalonso.keycloak.userstorage.provider;
+
+import com.github.paulosalonso.keycloak.userstorage.configurations.UserStorageConfiguration;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Mac;
+import java.security.NoSuchAlgorithmException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mockStatic;
+
+public class VerifiedCredentialCacheTest {
+
+    private final VerifiedCredentialCache cache = new VerifiedCredentialCache(configuration(100));
+
+    @Test
+    public void givenVerifiedCredentialWhenCheckSameCredentialThenReturnTrue() {
+        cache.putVerified("user-id", "stored-hash", "password");
+
+        assertThat(cache.isVerified("user-id", "stored-hash", "password")).isTrue();
+    }
+
+    @Test
+    public void givenVerifiedCredentialWhenAnyPartChangesThenReturnFalse() {
+        cache.putVerified("user-id", "stored-hash", "password");
+
+        assertThat(cache.isVerified("other-user-id", "stored-hash", "password")).isFalse();
+        assertThat(cache.isVerified("user-id", "changed-hash", "password")).isFalse();
+        assertThat(cache.isVerified("user-id", "stored-hash", "other-password")).isFalse();
+    }
+
+    @Test
+    public void givenDifferentNodesWhenVerifyThenDoNotShareKeys() {
+        var otherNode = new VerifiedCredentialCache(configuration(100));
+
+        cache.putVerified("user-id", "stored-hash", "password");
+
+        assertThat(otherNode.isVerified("user-id", "stored-hash", "password")).isFalse();
+    }
+
+    @Test
+    public void whenFingerprintSameHashThenReturnSameValueOnlyOnSameNode() {
+        var otherNode = new VerifiedCredentialCache(configuration(100));
+        var fingerprint = cache.fingerprint("stored-hash");
+
+        assertThat(fingerprint).isNotEqualTo("stored-hash");
+        assertThat(cache.fingerprint("stored-hash")).isEqualTo(fingerprint);
+        assertThat(cache.fingerprint("changed-hash")).isNotEqualTo(fingerprint);
+        assertThat(otherNode.fingerprint("stored-hash")).isNotEqualTo(fingerprint);
+    }
+
+    @Test
+    public void givenZeroMaxSizeWhenPutVerifiedThenDoNotRememberIt() {
+        var disabledCache = new VerifiedCredentialCache(UserStorageConfiguration.builder().build());
+
+        disabledCache.putVerified("user-id", "stored-hash", "password");
+
+        assertThat(disabledCache.isVerified("user-id", "stored-hash", "password")).isFalse();
+    }
+
+    @Test
+    public void givenUnavailableHmacWhenCheckThenThrowsIllegalStateException() {
+        var exception = new NoSuchAlgorithmException();
+
+        try (var macMock = mockStatic(Mac.class)) {
+            macMock.when(() -> Mac.getInstance("HmacSHA256")).thenThrow(exception);
+
+            assertThatThrownBy(() -> cache.isVerified("user-id", "stored-hash", "password"))
+                    .isExactlyInstanceOf(IllegalStateException.class)
+                    .hasCause(exception);
+        }
+    }
+
+    private static UserStorageConfiguration configuration(long maximumSize) {
+        return UserStorageConfiguration.builder()
+                .credentialCacheMaxSize(maximumSize)
+                .credentialCacheTtl(30000)
+                .build();
+    }
+}